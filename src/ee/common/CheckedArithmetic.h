@@ -0,0 +1,76 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+#ifndef VOLTDB_CHECKEDARITHMETIC_H_
+#define VOLTDB_CHECKEDARITHMETIC_H_
+
+#include <limits>
+
+#include "common/value_defs.h"
+
+namespace voltdb {
+
+/*
+ * BIGINT arithmetic for evaluators that work on raw values instead of
+ * NValues. Each apply() returns false where NValue would throw, on an
+ * overflow or on a result that is the NULL sentinel, so that the caller
+ * can leave the row to NValue to report.
+ */
+
+struct CheckedPlus {
+    static bool apply(int64_t lhs, int64_t rhs, int64_t& result) {
+        if ((rhs > 0 && lhs > std::numeric_limits<int64_t>::max() - rhs) ||
+            (rhs < 0 && lhs < std::numeric_limits<int64_t>::min() - rhs)) {
+            return false;
+        }
+        result = lhs + rhs;
+        return result != INT64_NULL;
+    }
+};
+
+struct CheckedMinus {
+    static bool apply(int64_t lhs, int64_t rhs, int64_t& result) {
+        if ((rhs < 0 && lhs > std::numeric_limits<int64_t>::max() + rhs) ||
+            (rhs > 0 && lhs < std::numeric_limits<int64_t>::min() + rhs)) {
+            return false;
+        }
+        result = lhs - rhs;
+        return result != INT64_NULL;
+    }
+};
+
+struct CheckedMultiply {
+    static bool apply(int64_t lhs, int64_t rhs, int64_t& result) {
+        if (lhs == 0 || rhs == 0) {
+            result = 0;
+            return true;
+        }
+        const int64_t max = std::numeric_limits<int64_t>::max();
+        const int64_t min = std::numeric_limits<int64_t>::min();
+        if (lhs > 0 ? (rhs > 0 ? lhs > max / rhs : rhs < min / lhs)
+                    : (rhs > 0 ? lhs < min / rhs : rhs < max / lhs)) {
+            return false;
+        }
+        result = lhs * rhs;
+        return result != INT64_NULL;
+    }
+};
+
+}
+
+#endif /* VOLTDB_CHECKEDARITHMETIC_H_ */
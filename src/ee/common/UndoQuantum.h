@@ -49,7 +49,7 @@ protected:
 
 public:
     inline UndoQuantum(int64_t undoToken, Pool *dataPool)
-        : m_undoToken(undoToken), m_dataPool(dataPool) {}
+        : m_undoToken(undoToken), m_firstAction(NULL), m_lastAction(NULL), m_dataPool(dataPool) {}
     inline virtual ~UndoQuantum() {}
 
     /**
@@ -61,9 +61,17 @@ public:
     virtual inline void registerUndoAction(UndoReleaseAction *undoAction, UndoQuantumReleaseInterest *interest = NULL,
             UndoQuantumReleaseInterest *removeInterest = NULL) {
         assert(undoAction);
-        m_undoActions.push_back(undoAction);
+        assert(undoAction->m_nextAction == NULL && undoAction != m_lastAction);
+        if (m_lastAction == NULL) {
+            m_firstAction = undoAction;
+        }
+        else {
+            m_lastAction->m_nextAction = undoAction;
+        }
+        m_lastAction = undoAction;
 
-        if (interest != NULL) {
+        // A statement registers its table for every row it deletes
+        if (interest != NULL && (m_interests.empty() || m_interests.back() != interest)) {
            m_interests.push_back(interest);
         }
 
@@ -80,9 +88,20 @@ public:
      * but their no-op delete operator leaves them to be purged in one go with the data pool.
      */
     static Pool* undo(UndoQuantum&& quantum) {
-        for (auto i = quantum.m_undoActions.rbegin(); i != quantum.m_undoActions.rend(); ++i) {
-            (*i)->undo();
-            delete *i;
+        // Reverse the list in place, the quantum is done with it after this
+        UndoReleaseAction* action = NULL;
+        UndoReleaseAction* next = quantum.m_firstAction;
+        while (next != NULL) {
+            UndoReleaseAction* following = next->m_nextAction;
+            next->m_nextAction = action;
+            action = next;
+            next = following;
+        }
+        while (action != NULL) {
+            next = action->m_nextAction;
+            action->undo();
+            delete action;
+            action = next;
         }
         Pool * result = quantum.m_dataPool;
         quantum.~UndoQuantum();
@@ -103,10 +122,12 @@ public:
      * table before all the inserts and deletes are released.
      */
     static Pool* release(UndoQuantum&& quantum) {
-        for (auto i = quantum.m_undoActions.begin();
-             i != quantum.m_undoActions.end(); ++i) {
-            (*i)->release();
-            delete *i;
+        UndoReleaseAction* action = quantum.m_firstAction;
+        while (action != NULL) {
+            UndoReleaseAction* next = action->m_nextAction;
+            action->release();
+            delete action;
+            action = next;
         }
         for(auto cur = quantum.m_interests.begin(); cur != quantum.m_interests.end(); ++cur) {
            (*cur)->notifyQuantumRelease();
@@ -134,7 +155,11 @@ public:
     void* allocateAction(size_t sz) { return m_dataPool->allocate(sz); }
 private:
     const int64_t m_undoToken;
-    std::deque<UndoReleaseAction*> m_undoActions;
+    // Actions in the order they were registered, linked through the actions
+    // which live in the data pool along with the quantum. Apart from the rare
+    // release interest, a quantum recycled with its pool allocates nothing.
+    UndoReleaseAction* m_firstAction;
+    UndoReleaseAction* m_lastAction;
     std::list<UndoQuantumReleaseInterest*> m_interests;
 protected:
     Pool *m_dataPool;
@@ -29,12 +29,14 @@ class UndoQuantum;
  * Always memory-managed by and registered with an undo quantum.
  */
 class UndoReleaseAction {
+    // The quantum links its actions through m_nextAction so that registering one doesn't allocate
+    friend class UndoQuantum;
 public:
     void* operator new(std::size_t sz, UndoQuantum& uq); // defined inline in UndoQuantum.h
     void operator delete(void*, UndoQuantum&) { /* emergency deallocator does nothing */ }
     void operator delete(void*) { /* every-day deallocator does nothing -- lets the pool cope */ }
 
-    inline UndoReleaseAction() {}
+    inline UndoReleaseAction() : m_nextAction(NULL) {}
     virtual ~UndoReleaseAction() {}
 
     /*
@@ -52,6 +54,9 @@ public:
      */
     virtual UndoReleaseAction* getSynchronizedUndoAction(UndoQuantum* currUQ);
     virtual UndoReleaseAction* getDummySynchronizedUndoAction(UndoQuantum* currUQ);
+
+private:
+    UndoReleaseAction* m_nextAction;
 };
 
 class UndoOnlyAction : public UndoReleaseAction {
@@ -188,6 +188,7 @@ enum PlanNodeType {
     //
     PLAN_NODE_TYPE_NESTLOOP         = 20,
     PLAN_NODE_TYPE_NESTLOOPINDEX    = 21,
+    PLAN_NODE_TYPE_HASHJOIN         = 22,
 
     //
     // Operator Nodes
@@ -363,7 +364,7 @@ enum QuantifierType {
 enum TableIndexType {
     BALANCED_TREE_INDEX     = 1,
     HASH_TABLE_INDEX        = 2,
-    BTREE_INDEX             = 3, // unused
+    BTREE_INDEX             = 3,
     COVERING_CELL_INDEX     = 4
 };
 
@@ -501,6 +502,10 @@ enum TaskType {
     TASK_TYPE_INIT_DRID_TRACKER = 8,             // not supported in EE
     TASK_TYPE_RESET_DR_APPLIED_TRACKER_SINGLE = 9, // not supported in EE
     TASK_TYPE_ELASTIC_CHANGE = 10,                 // not supported in EE
+    TASK_TYPE_SET_COLUMNAR_COLD_BLOCKS = 11,
+    TASK_TYPE_BUILD_INDEXES = 12,
+    TASK_TYPE_COMPACT_TABLES = 13,
+    TASK_TYPE_SET_OPEN_HASH_INDEXES = 14,
 };
 
 // ------------------------------------------------------------------
@@ -150,6 +150,13 @@ typedef boost::multi_index::multi_index_container<
 
 int32_t s_exportFlushTimeout=4000;  // export/tuple flush interval ms setting
 
+// Most table blocks to give a columnar encoding on each tick
+static const int COLUMNAR_BLOCKS_PER_TICK = 4;
+
+// Tables with fewer tuples than this get new non-unique indexes populated in one go
+// by the catalog update, larger ones between transactions by TASK_TYPE_BUILD_INDEXES
+static const int64_t INCREMENTAL_INDEX_BUILD_MIN_TUPLES = 100000;
+
 /// This class wrapper around a typedef allows forward declaration as in scoped_ptr<EnginePlanSet>.
 class EnginePlanSet : public PlanSet { };
 
@@ -170,6 +177,8 @@ VoltDBEngine::VoltDBEngine(Topend* topend, LogProxy* logProxy)
       m_templateSingleLongTable(NULL),
       m_topend(topend),
       m_executorContext(NULL),
+      m_columnarColdTicks(0),
+      m_openAddressingHashIndexes(false),
       m_drPartitionedConflictStreamedTable(NULL),
       m_drReplicatedConflictStreamedTable(NULL),
       m_drStream(NULL),
@@ -1079,7 +1088,8 @@ VoltDBEngine::processCatalogAdditions(int64_t timestamp, bool updateReplicated,
                     assert(SynchronizedThreadLock::isLowestSiteContext());
                     ExecuteWithMpMemory useMpMemory;
                     tcd = new TableCatalogDelegate(catalogTable->signature(),
-                                                   m_compactionThreshold, this);
+                                                   m_compactionThreshold, this,
+                                               m_openAddressingHashIndexes);
                     // use the delegate to init the table and create indexes n' stuff
                     tcd->init(*m_database, *catalogTable, m_isActiveActiveDREnabled);
                     const std::string& tableName = tcd->getTable()->name();
@@ -1102,7 +1112,8 @@ VoltDBEngine::processCatalogAdditions(int64_t timestamp, bool updateReplicated,
                     continue;
                 }
                 tcd = new TableCatalogDelegate(catalogTable->signature(),
-                                               m_compactionThreshold, this);
+                                               m_compactionThreshold, this,
+                                               m_openAddressingHashIndexes);
                 // use the delegate to init the table and create indexes n' stuff
                 tcd->init(*m_database, *catalogTable, m_isActiveActiveDREnabled);
                 m_catalogDelegates[catalogTable->path()] = tcd;
@@ -1289,6 +1300,9 @@ VoltDBEngine::processCatalogAdditions(int64_t timestamp, bool updateReplicated,
             //////////////////////////////////////////
 
             auto currentIndexes = persistentTable->allIndexes();
+            BOOST_FOREACH (TableIndex* index, persistentTable->indexesBeingBuilt()) {
+                currentIndexes.push_back(index);
+            }
             PersistentTable *deltaTable = persistentTable->deltaTable();
 
             {
@@ -1324,15 +1338,22 @@ VoltDBEngine::processCatalogAdditions(int64_t timestamp, bool updateReplicated,
                             return false;
                         }
 
-                        TableIndex *index = TableIndexFactory::getInstance(scheme);
+                        TableIndex *index = TableIndexFactory::getInstance(scheme, m_openAddressingHashIndexes);
                         assert(index);
                         VOLT_TRACE("create and add the index for %s", index->getName().c_str());
 
-                        // all of the data should be added here
-                        persistentTable->addIndex(index);
+                        // all of the data should be added here, unless there is enough of it
+                        // to stall the partition and the index adds no constraint to check
+                        if (!index->isUniqueIndex() && !persistentTable->isCatalogTableReplicated() &&
+                                persistentTable->activeTupleCount() >= INCREMENTAL_INDEX_BUILD_MIN_TUPLES) {
+                            persistentTable->addIndexIncrementally(index);
+                        }
+                        else {
+                            persistentTable->addIndex(index);
+                        }
                         // Add the same index structure to the delta table.
                         if (deltaTable) {
-                            TableIndex *indexForDelta = TableIndexFactory::getInstance(scheme);
+                            TableIndex *indexForDelta = TableIndexFactory::getInstance(scheme, m_openAddressingHashIndexes);
                             deltaTable->addIndex(indexForDelta);
                         }
 
@@ -2188,6 +2209,17 @@ void VoltDBEngine::tick(int64_t timeInMillis, int64_t lastCommittedSpHandle) {
     if (m_executorContext->drReplicatedStream()) {
         m_executorContext->drReplicatedStream()->periodicFlush(timeInMillis, lastCommittedSpHandle);
     }
+
+    if (m_columnarColdTicks > 0) {
+        // Spread the encoding of a large cold table over many ticks
+        int budget = COLUMNAR_BLOCKS_PER_TICK;
+        BOOST_FOREACH (auto labeledTable, m_tables) {
+            PersistentTable* persistentTable = dynamic_cast<PersistentTable*>(labeledTable.second);
+            if (persistentTable != NULL) {
+                budget -= persistentTable->encodeColdBlocks(m_columnarColdTicks, budget);
+            }
+        }
+    }
 }
 
 /** Bring the Export and DR system to a steady state with no pending committed data */
@@ -2611,6 +2643,61 @@ void VoltDBEngine::dispatchValidatePartitioningTask(ReferenceSerializeInputBE &t
     }
 }
 
+int64_t VoltDBEngine::continueIndexBuilds(int64_t maxTuples, bool ordered) {
+    int64_t building = 0;
+    BOOST_FOREACH (auto labeledTable, m_tables) {
+        PersistentTable* persistentTable = dynamic_cast<PersistentTable*>(labeledTable.second);
+        if (persistentTable == NULL || persistentTable->indexesBeingBuilt().empty()) {
+            continue;
+        }
+        if (ordered) {
+            // Every build is due after the same number of steps on each replica
+            if (persistentTable->advanceIndexBuild(maxTuples)) {
+                ++building;
+            }
+        }
+        // One table at a time, so that each is scanned as soon as possible
+        else if (maxTuples > 0) {
+            if (persistentTable->continueIndexBuild(maxTuples)) {
+                ++building;
+            }
+            maxTuples = 0;
+        }
+        else {
+            ++building;
+        }
+    }
+    return building;
+}
+
+int64_t VoltDBEngine::compactTables(int64_t budgetMicros, int64_t& reclaimedBytes) {
+    boost::posix_time::ptime deadline = boost::posix_time::microsec_clock::universal_time() +
+            boost::posix_time::microseconds(budgetMicros);
+    int64_t fragmented = 0;
+    bool outOfTime = false;
+    BOOST_FOREACH (auto labeledTable, m_tables) {
+        PersistentTable* persistentTable = dynamic_cast<PersistentTable*>(labeledTable.second);
+        // Replicated tables are shared by all the sites, each of which is idle on its own thread.
+        if (persistentTable == NULL || persistentTable->isCatalogTableReplicated() ||
+                ! persistentTable->idleCompactionPredicate()) {
+            continue;
+        }
+        if (! outOfTime) {
+            reclaimedBytes += persistentTable->doBudgetedCompaction(deadline);
+            outOfTime = boost::posix_time::microsec_clock::universal_time() >= deadline;
+            // A table that stopped short with time to spare can't be compacted
+            // further right now, e.g. during a rejoin, so it isn't counted.
+            if (! outOfTime) {
+                continue;
+            }
+        }
+        if (persistentTable->idleCompactionPredicate()) {
+            ++fragmented;
+        }
+    }
+    return fragmented;
+}
+
 void VoltDBEngine::collectDRTupleStreamStateInfo() {
     std::size_t size = 3 * sizeof(int64_t) + 4 /*drVersion*/ + 1 /*hasReplicatedStream*/;
     if (m_executorContext->drReplicatedStream()) {
@@ -2713,6 +2800,29 @@ void VoltDBEngine::executeTask(TaskType taskType, ReferenceSerializeInputBE &tas
                         spHandle, uniqueId, payloads));
         break;
     }
+    case TASK_TYPE_SET_COLUMNAR_COLD_BLOCKS:
+        m_columnarColdTicks = taskInfo.readInt();
+        m_resultOutput.writeInt(0);
+        break;
+    case TASK_TYPE_SET_OPEN_HASH_INDEXES:
+        m_openAddressingHashIndexes = (taskInfo.readInt() != 0);
+        m_resultOutput.writeInt(0);
+        break;
+    case TASK_TYPE_BUILD_INDEXES: {
+        int64_t maxTuples = taskInfo.readLong();
+        int64_t remaining = continueIndexBuilds(maxTuples, taskInfo.readByte() != 0);
+        m_resultOutput.writeInt(static_cast<int32_t>(sizeof(int64_t)));
+        m_resultOutput.writeLong(remaining);
+        break;
+    }
+    case TASK_TYPE_COMPACT_TABLES: {
+        int64_t reclaimedBytes = 0;
+        int64_t fragmented = compactTables(taskInfo.readLong(), reclaimedBytes);
+        m_resultOutput.writeInt(static_cast<int32_t>(2 * sizeof(int64_t)));
+        m_resultOutput.writeLong(fragmented);
+        m_resultOutput.writeLong(reclaimedBytes);
+        break;
+    }
     default:
         throwFatalException("Unknown task type %d", taskType);
     }
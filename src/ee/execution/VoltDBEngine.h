@@ -551,6 +551,22 @@ class __attribute__((visibility("default"))) VoltDBEngine {
 
         void collectDRTupleStreamStateInfo();
 
+        /**
+         * Scan up to maxTuples tuples for the indexes that catalog updates are building
+         * incrementally. Between transactions this works on one table at a time and
+         * returns the number of tables with tuples left to scan. As a step taken in
+         * transaction order (ordered) it advances every build, completing those that
+         * are due, and returns the number of tables still building indexes.
+         */
+        int64_t continueIndexBuilds(int64_t maxTuples, bool ordered);
+
+        /**
+         * Merge the blocks of fragmented partitioned tables for up to budgetMicros
+         * microseconds, adding the bytes freed to reclaimedBytes. Returns the number
+         * of tables left fragmented when the time ran out.
+         */
+        int64_t compactTables(int64_t budgetMicros, int64_t& reclaimedBytes);
+
         void setCurrentUndoQuantum(voltdb::UndoQuantum* undoQuantum);
 
         // -------------------------------------------------
@@ -780,6 +796,13 @@ class __attribute__((visibility("default"))) VoltDBEngine {
 
         int32_t m_compactionThreshold;
 
+        // Ticks a table block must go without writes before it gets a columnar
+        // encoding, 0 to not encode any
+        int32_t m_columnarColdTicks;
+
+        // Build hash indexes on the open addressing hash table instead of the chained one
+        bool m_openAddressingHashIndexes;
+
         /*
          * DR conflict streamed tables
          */
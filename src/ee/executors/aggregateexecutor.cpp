@@ -46,11 +46,22 @@
 #include "executors/aggregateexecutor.h"
 
 #include "plannodes/aggregatenode.h"
+#include "common/executorcontext.hpp"
+#include "common/LargeTempTableBlockCache.h"
+#include "execution/ExecutorVector.h"
+#include "expressions/batchexpression.h"
+#include "expressions/tuplevalueexpression.h"
 #include "plannodes/limitnode.h"
+#include "storage/ColumnarBlock.h"
+#include "storage/tablefactory.h"
+#include "storage/tableiterator.h"
 #include "storage/temptable.h"
 
 #include "hyperloglog/hyperloglog.hpp" // for APPROX_COUNT_DISTINCT
 
+#include <algorithm>
+#include <sstream>
+
 namespace voltdb {
 /*
  * Type of the hash set used to check for column aggregate distinctness
@@ -98,6 +109,12 @@ struct Distinct : public AggregateNValueSetType {
         return true; // Never again this value;
     }
 
+    int64_t memoryInBytes() const
+    {
+        // Every value adds a node to the set and a bucket
+        return size() * (sizeof(NValue) + 2 * sizeof(void*)) + bucket_count() * sizeof(void*);
+    }
+
 private:
     Pool* m_memoryPool;
 };
@@ -116,6 +133,7 @@ struct NotDistinct {
     {
         return false; // Include value any number of times
     }
+    int64_t memoryInBytes() const { return 0; }
 };
 
 // Parameter D is either Distinct of NotDistinct.
@@ -145,12 +163,23 @@ public:
         }
     }
 
+    virtual void advanceSummary(int64_t rows, int64_t count,
+                                const NValue& sum, const NValue& min, const NValue& max)
+    {
+        advance(sum);
+    }
+
     virtual NValue finalize(ValueType type)
     {
         ifDistinct.clear();
         return Agg::finalize(type);
     }
 
+    virtual int64_t distinctMemoryInBytes() const
+    {
+        return ifDistinct.memoryInBytes();
+    }
+
 private:
     D ifDistinct;
 };
@@ -184,6 +213,21 @@ public:
         ++m_count;
     }
 
+    virtual void advanceSummary(int64_t rows, int64_t count,
+                                const NValue& sum, const NValue& min, const NValue& max)
+    {
+        if (count == 0) {
+            return;
+        }
+        if (m_count == 0) {
+            m_value = sum;
+        }
+        else {
+            m_value = m_value.op_add(sum);
+        }
+        m_count += count;
+    }
+
     virtual NValue finalize(ValueType type)
     {
         if (m_count == 0)
@@ -201,6 +245,11 @@ public:
         m_count = 0;
     }
 
+    virtual int64_t distinctMemoryInBytes() const
+    {
+        return ifDistinct.memoryInBytes();
+    }
+
 private:
     D ifDistinct;
     int64_t m_count;
@@ -226,6 +275,12 @@ public:
         m_count++;
     }
 
+    virtual void advanceSummary(int64_t rows, int64_t count,
+                                const NValue& sum, const NValue& min, const NValue& max)
+    {
+        m_count += count;
+    }
+
     virtual NValue finalize(ValueType type)
     {
         ifDistinct.clear();
@@ -238,6 +293,11 @@ public:
         m_count = 0;
     }
 
+    virtual int64_t distinctMemoryInBytes() const
+    {
+        return ifDistinct.memoryInBytes();
+    }
+
 private:
     D ifDistinct;
     int64_t m_count;
@@ -253,6 +313,12 @@ public:
         ++m_count;
     }
 
+    virtual void advanceSummary(int64_t rows, int64_t count,
+                                const NValue& sum, const NValue& min, const NValue& max)
+    {
+        m_count += rows;
+    }
+
     virtual NValue finalize(ValueType type)
     {
         return ValueFactory::getBigIntValue(m_count).castAs(type);
@@ -307,6 +373,12 @@ public:
         }
     }
 
+    virtual void advanceSummary(int64_t rows, int64_t count,
+                                const NValue& sum, const NValue& min, const NValue& max)
+    {
+        advance(max);
+    }
+
     virtual NValue finalize(ValueType type)
     {
         m_value.castAs(type);
@@ -354,6 +426,12 @@ public:
         }
     }
 
+    virtual void advanceSummary(int64_t rows, int64_t count,
+                                const NValue& sum, const NValue& min, const NValue& max)
+    {
+        advance(min);
+    }
+
     virtual NValue finalize(ValueType type)
     {
         m_value.castAs(type);
@@ -759,6 +837,34 @@ void AggregateExecutorBase::p_execute_finish()
 
 AggregateHashExecutor::~AggregateHashExecutor() {}
 
+namespace {
+
+// Each partition being spilled to pins a block of the large temp table block cache
+const int64_t MAX_SPILL_PARTITIONS = 16;
+
+/**
+ * Pick the partition of a spilled tuple from the hash of its group by key. The level
+ * is mixed in so that the tuples of one partition spread out if it spills again.
+ */
+inline size_t spillPartitionOf(std::size_t hash, size_t level, size_t partitionCount) {
+    boost::hash_combine(level, hash);
+    return static_cast<size_t>((static_cast<uint64_t>(level) * 0x9E3779B97F4A7C15ULL) >> 32) % partitionCount;
+}
+
+} // anonymous namespace
+
+bool AggregateHashExecutor::p_init(AbstractPlanNode* abstract_node, const ExecutorVector& executorVector)
+{
+    if (!AggregateExecutorBase::p_init(abstract_node, executorVector)) {
+        return false;
+    }
+    m_isLargeQuery = executorVector.isLargeQuery();
+    m_memoryLimit = m_isLargeQuery ? executorVector.limits()->getMemoryLimit() : 0;
+    m_hasDistinctAggs = m_memoryLimit > 0 &&
+            std::find(m_distinctAggs.begin(), m_distinctAggs.end(), true) != m_distinctAggs.end();
+    return true;
+}
+
 TableTuple AggregateHashExecutor::p_execute_init(const NValueArray& params,
                                                  ProgressMonitorProxy* pmp,
                                                  const TupleSchema * schema,
@@ -767,6 +873,9 @@ TableTuple AggregateHashExecutor::p_execute_init(const NValueArray& params,
 {
     VOLT_TRACE("hash aggregate executor init..");
     m_hash.clear();
+    m_distinctMemoryInBytes = 0;
+    m_spillPartitions.clear();
+    m_spillLevel = 0;
 
     return AggregateExecutorBase::p_execute_init(params, pmp, schema, newTempTable, parentPostfilter);
 }
@@ -805,7 +914,20 @@ void AggregateHashExecutor::p_execute_tuple(const TableTuple& nextTuple) {
 
     // Group not found. Make a new entry in the hash for this new group.
     if (keyIter == m_hash.end()) {
+        // Once groups are being spilled, the groups in memory stay the only ones there
+        if ( ! m_spillPartitions.empty() ||
+                (m_memoryLimit > 0 && ! m_hash.empty() && groupMemoryInBytes() > m_memoryLimit)) {
+            spillTuple(nextTuple);
+            return;
+        }
+
         VOLT_TRACE("hash aggregate: new group..");
+        if (nextGroupByKeyTuple.nonInlinedDataIsVolatile()) {
+            // The key refers to strings of a large temp table block that may be released
+            for (int ii = 0; ii < m_groupByExpressions.size(); ii++) {
+                nextGroupByKeyTuple.setNValueAllocateForObjectCopies(ii, nextGroupByKeyTuple.getNValue(ii), &m_memoryPool);
+            }
+        }
         aggregateRow = new (m_memoryPool, m_aggTypes.size()) AggregateRow();
         m_hash.insert(HashAggregateMapType::value_type(nextGroupByKeyTuple, aggregateRow));
 
@@ -814,7 +936,12 @@ void AggregateHashExecutor::p_execute_tuple(const TableTuple& nextTuple) {
         char* storage = reinterpret_cast<char*>(m_memoryPool.allocateZeroes(m_inputSchema->tupleLength() + TUPLE_HEADER_SIZE));
         TableTuple passThroughTupleSource = TableTuple(storage, m_inputSchema);
 
-        aggregateRow->recordPassThroughTuple(passThroughTupleSource, nextTuple);
+        if (nextTuple.nonInlinedDataIsVolatile()) {
+            passThroughTupleSource.copyForPersistentInsert(nextTuple, &m_memoryPool);
+            aggregateRow->m_passThroughTuple = passThroughTupleSource;
+        } else {
+            aggregateRow->recordPassThroughTuple(passThroughTupleSource, nextTuple);
+        }
         // The map is referencing the current key tuple for use by the new group,
         // so force a new tuple allocation to hold the next candidate key.
         nextGroupByKeyTuple.move(NULL);
@@ -828,12 +955,74 @@ void AggregateHashExecutor::p_execute_tuple(const TableTuple& nextTuple) {
         aggregateRow = keyIter->second;
     }
     // update the aggregation calculation.
-    advanceAggs(aggregateRow, nextTuple);
+    if (m_hasDistinctAggs) {
+        m_distinctMemoryInBytes -= distinctMemoryInBytes(aggregateRow);
+        advanceAggs(aggregateRow, nextTuple);
+        m_distinctMemoryInBytes += distinctMemoryInBytes(aggregateRow);
+    }
+    else {
+        advanceAggs(aggregateRow, nextTuple);
+    }
 }
 
 void AggregateHashExecutor::p_execute_finish() {
     VOLT_TRACE("finalizing..");
 
+    outputGroups();
+    if ( ! m_spillPartitions.empty()) {
+        aggregateSpilledPartitions();
+    }
+
+    // Clean up
+    AggregateExecutorBase::p_execute_finish();
+}
+
+int64_t AggregateHashExecutor::groupMemoryInBytes() const {
+    // Keys, aggregate rows and pass through tuples come from the pool,
+    // every entry of the map adds a node and a bucket
+    return m_memoryPool.getAllocatedMemory() +
+           m_hash.size() * (sizeof(HashAggregateMapType::value_type) + 2 * sizeof(void*)) +
+           m_hash.bucket_count() * sizeof(void*) +
+           m_distinctMemoryInBytes;
+}
+
+int64_t AggregateHashExecutor::distinctMemoryInBytes(const AggregateRow* aggregateRow) const {
+    int64_t bytes = 0;
+    for (int ii = 0; ii < m_aggTypes.size(); ii++) {
+        if (m_distinctAggs[ii]) {
+            bytes += aggregateRow->m_aggregates[ii]->distinctMemoryInBytes();
+        }
+    }
+    return bytes;
+}
+
+void AggregateHashExecutor::spillTuple(const TableTuple& tuple) {
+    if (m_spillPartitions.empty()) {
+        // Leave room in the cache for the block of the input being scanned and for the output table's block
+        LargeTempTableBlockCache* lttBlockCache = ExecutorContext::getExecutorContext()->lttBlockCache();
+        const int64_t partitionCount = std::max(int64_t(2),
+                std::min(MAX_SPILL_PARTITIONS, lttBlockCache->maxCacheSizeInBlocks() - int64_t(2)));
+        VOLT_DEBUG("hash aggregate spilling groups to %d partitions", static_cast<int>(partitionCount));
+
+        std::vector<std::string> columnNames;
+        for (int ii = 0; ii < m_inputSchema->columnCount(); ii++) {
+            std::ostringstream name;
+            name << "C" << ii;
+            columnNames.push_back(name.str());
+        }
+        for (int64_t ii = 0; ii < partitionCount; ii++) {
+            m_spillPartitions.emplace_back(TableFactory::buildLargeTempTable("HASH_AGGREGATE_SPILL",
+                    TupleSchema::createTupleSchema(m_inputSchema), columnNames));
+        }
+    }
+    TableTuple& nextGroupByKeyTuple = m_nextGroupByKeyStorage;
+    TableTupleHasher hasher;
+    const size_t partition = spillPartitionOf(hasher(nextGroupByKeyTuple), m_spillLevel, m_spillPartitions.size());
+    TableTuple spilled(tuple);
+    m_spillPartitions[partition]->insertTuple(spilled);
+}
+
+void AggregateHashExecutor::outputGroups() {
     // If there is no aggregation, results are already inserted already
     if (m_aggTypes.size() != 0) {
         for (HashAggregateMapType::const_iterator iter = m_hash.begin(); iter != m_hash.end(); iter++) {
@@ -844,10 +1033,42 @@ void AggregateHashExecutor::p_execute_finish() {
             delete aggregateRow;
         }
     }
-
-    // Clean up
     m_hash.clear();
-    AggregateExecutorBase::p_execute_finish();
+    m_distinctMemoryInBytes = 0;
+}
+
+void AggregateHashExecutor::aggregateSpilledPartitions() {
+    // A tuple was only spilled when its group was not in memory, so every partition
+    // holds whole groups that none of the groups output before it, or of the other
+    // partitions, share.
+    SpillPartitionVector pending;
+    while ( ! m_spillPartitions.empty() || ! pending.empty()) {
+        BOOST_FOREACH(std::unique_ptr<LargeTempTable>& spilled, m_spillPartitions) {
+            spilled->finishInserts();
+            pending.push_back(std::move(spilled));
+        }
+        m_spillPartitions.clear();
+        if ( ! m_postfilter.isUnderLimit()) {
+            break;
+        }
+
+        std::unique_ptr<LargeTempTable> partition(std::move(pending.back()));
+        pending.pop_back();
+
+        // The groups just output were the only users of the pool
+        TableTuple& nextGroupByKeyTuple = m_nextGroupByKeyStorage;
+        nextGroupByKeyTuple.move(NULL);
+        m_memoryPool.purge();
+        ++m_spillLevel;
+
+        TableTuple tuple(partition->schema());
+        TableIterator iterator = partition->iteratorDeletingAsWeGo();
+        while (iterator.next(tuple)) {
+            p_execute_tuple(tuple);
+        }
+        partition.reset();
+        outputGroups();
+    }
 }
 
 AggregateSerialExecutor::~AggregateSerialExecutor() {}
@@ -935,6 +1156,175 @@ void AggregateSerialExecutor::p_execute_tuple(const TableTuple& nextTuple) {
     advanceAggs(m_aggregateRow, nextTuple);
 }
 
+// Aggregates that can be computed from the count, sum, min and max of their inputs
+static bool isSummarizable(ExpressionType aggType) {
+    switch (aggType) {
+    case EXPRESSION_TYPE_AGGREGATE_COUNT_STAR:
+    case EXPRESSION_TYPE_AGGREGATE_COUNT:
+    case EXPRESSION_TYPE_AGGREGATE_SUM:
+    case EXPRESSION_TYPE_AGGREGATE_AVG:
+    case EXPRESSION_TYPE_AGGREGATE_MIN:
+    case EXPRESSION_TYPE_AGGREGATE_MAX:
+        return true;
+    default:
+        return false;
+    }
+}
+
+bool AggregateSerialExecutor::canAggregateSummaries() const {
+    if ( ! m_groupByExpressions.empty() || ! m_passThroughColumns.empty() || m_prePredicate != NULL) {
+        return false;
+    }
+    for (int ii = 0; ii < m_aggTypes.size(); ii++) {
+        if (m_distinctAggs[ii] || ! isSummarizable(m_aggTypes[ii])) {
+            return false;
+        }
+    }
+    return true;
+}
+
+bool AggregateSerialExecutor::canAggregateColumnar() const {
+    if ( ! canAggregateSummaries()) {
+        return false;
+    }
+    for (int ii = 0; ii < m_aggTypes.size(); ii++) {
+        if (m_aggTypes[ii] == EXPRESSION_TYPE_AGGREGATE_COUNT_STAR) {
+            continue;
+        }
+        const TupleValueExpression* tve = dynamic_cast<const TupleValueExpression*>(m_inputExpressions[ii]);
+        if (tve == NULL || ! ColumnarBlock::isEncodable(m_inputSchema->columnType(tve->getColumnId()))) {
+            return false;
+        }
+    }
+    return true;
+}
+
+bool AggregateSerialExecutor::canAggregateBatch(std::vector<int>& columns) {
+    m_batchInputs.clear();
+    if ( ! canAggregateSummaries()) {
+        return false;
+    }
+    for (int ii = 0; ii < m_aggTypes.size(); ii++) {
+        BatchExpression* input = NULL;
+        if (m_aggTypes[ii] != EXPRESSION_TYPE_AGGREGATE_COUNT_STAR) {
+            input = BatchExpression::compile(m_inputExpressions[ii], m_inputSchema, columns);
+            if (input == NULL) {
+                m_batchInputs.clear();
+                return false;
+            }
+        }
+        m_batchInputs.push_back(boost::shared_ptr<BatchExpression>(input));
+    }
+    return true;
+}
+
+static NValue summaryValue(ValueType type, int64_t value) {
+    switch (type) {
+    case VALUE_TYPE_TINYINT:
+        return ValueFactory::getTinyIntValue(static_cast<int8_t>(value));
+    case VALUE_TYPE_SMALLINT:
+        return ValueFactory::getSmallIntValue(static_cast<int16_t>(value));
+    case VALUE_TYPE_INTEGER:
+        return ValueFactory::getIntegerValue(static_cast<int32_t>(value));
+    case VALUE_TYPE_TIMESTAMP:
+        return ValueFactory::getTimestampValue(value);
+    default:
+        return ValueFactory::getBigIntValue(value);
+    }
+}
+
+bool AggregateSerialExecutor::p_execute_columnar(const ColumnarBlock& block) {
+    std::vector<ColumnSummary> summaries(m_aggTypes.size());
+    for (int ii = 0; ii < m_aggTypes.size(); ii++) {
+        if (m_aggTypes[ii] != EXPRESSION_TYPE_AGGREGATE_COUNT_STAR) {
+            int columnId = static_cast<const TupleValueExpression*>(m_inputExpressions[ii])->getColumnId();
+            summaries[ii] = block.column(columnId)->summary();
+            if (summaries[ii].sumOverflow) {
+                return false;
+            }
+        }
+    }
+    p_execute_summaries(block.rowCount(), summaries);
+    return true;
+}
+
+bool AggregateSerialExecutor::p_execute_batch(const ColumnBatch& batch, const uint16_t* selection,
+                                              uint32_t count, std::vector<ColumnSummary>& summaries) {
+    summaries.resize(m_aggTypes.size());
+    for (int ii = 0; ii < m_aggTypes.size(); ii++) {
+        if (m_batchInputs[ii].get() == NULL) {
+            continue;
+        }
+        const int64_t* values;
+        const bool* nulls;
+        if ( ! m_batchInputs[ii]->evaluate(batch, values, nulls)) {
+            return false;
+        }
+        ColumnSummary& summary = summaries[ii];
+        for (uint32_t jj = 0; jj < count; ++jj) {
+            const uint16_t row = selection[jj];
+            if (nulls[row]) {
+                continue;
+            }
+            const int64_t value = values[row];
+            if (summary.count == 0) {
+                summary.min = value;
+                summary.max = value;
+            }
+            else {
+                summary.min = std::min(summary.min, value);
+                summary.max = std::max(summary.max, value);
+            }
+            ++summary.count;
+            // Leave it to the rows to report an overflow, or to end up with the NULL sentinel
+            if ((value > 0 && summary.sum > INT64_MAX - value) ||
+                (value < 0 && summary.sum < INT64_MIN - value) ||
+                summary.sum + value == INT64_NULL) {
+                return false;
+            }
+            summary.sum += value;
+        }
+    }
+    return true;
+}
+
+void AggregateSerialExecutor::p_execute_summaries(int64_t rows, const std::vector<ColumnSummary>& summaries) {
+    if (rows == 0) {
+        return;
+    }
+    if (m_noInputRows) {
+        // Same as the first input row, without any group by keys or
+        // pass through columns to take from it.
+        initGroupByKeyTuple(m_passThroughTupleSource);
+        initAggInstances(m_aggregateRow);
+        m_noInputRows = false;
+    }
+
+    Agg** aggs = m_aggregateRow->m_aggregates;
+    for (int ii = 0; ii < m_aggTypes.size(); ii++) {
+        if (m_aggTypes[ii] == EXPRESSION_TYPE_AGGREGATE_COUNT_STAR) {
+            aggs[ii]->advanceSummary(rows, rows, NValue(), NValue(), NValue());
+            continue;
+        }
+        const ColumnSummary& summary = summaries[ii];
+        NValue sum = ValueFactory::getNullValue();
+        NValue min = ValueFactory::getNullValue();
+        NValue max = ValueFactory::getNullValue();
+        if (summary.count > 0) {
+            // The input type of a batch is known once it is compiled, a
+            // columnar block's inputs are plain columns.
+            ValueType type = m_batchInputs.empty() ?
+                    m_inputSchema->columnType(static_cast<const TupleValueExpression*>(m_inputExpressions[ii])->getColumnId()) :
+                    m_batchInputs[ii]->valueType();
+            sum = ValueFactory::getBigIntValue(summary.sum);
+            min = summaryValue(type, summary.min);
+            max = summaryValue(type, summary.max);
+        }
+        aggs[ii]->advanceSummary(rows, summary.count, sum, min, max);
+    }
+    m_pmp->countdownProgress();
+}
+
 void AggregateSerialExecutor::p_execute_finish()
 {
     if (m_postfilter.isUnderLimit()) {
@@ -55,9 +55,19 @@
 #include "expressions/abstractexpression.h"
 #include "execution/ProgressMonitorProxy.h"
 #include "executors/executorutil.h"
+#include "storage/EncodedColumn.h"
+#include "storage/LargeTempTable.h"
+
+#include <boost/shared_ptr.hpp>
+
+#include <memory>
 
 namespace voltdb {
 
+class BatchExpression;
+class ColumnBatch;
+class ColumnarBlock;
+
 /*
  * Base class for an individual aggregate that aggregates a specific
  * column for a group
@@ -78,6 +88,19 @@ public:
         /* do nothing */
     }
     virtual void advance(const NValue& val) = 0;
+
+    /**
+     * Fold in a block of rows summarized by a columnar encoding: the number of
+     * rows, the number of non-null inputs and their sum, min and max (NULL if
+     * there were none). Only called for the aggregates accepted by
+     * AggregateSerialExecutor::canAggregateColumnar().
+     */
+    virtual void advanceSummary(int64_t rows, int64_t count,
+                                const NValue& sum, const NValue& min, const NValue& max)
+    {
+        throwFatalException("Aggregate can not be computed from a columnar summary");
+    }
+
     virtual NValue finalize(ValueType type)
     {
         m_value.castAs(type);
@@ -91,6 +114,15 @@ public:
         m_inlineCopiedToNonInline = false;
     }
 
+    /**
+     * The heap memory held by the set of values a DISTINCT aggregate has seen,
+     * which is not allocated from the executor's pool.
+     */
+    virtual int64_t distinctMemoryInBytes() const
+    {
+        return 0;
+    }
+
 protected:
     NValue m_value;
     /**
@@ -267,12 +299,19 @@ typedef boost::unordered_map<TableTuple,
 /**
  * The concrete executor class for PLAN_NODE_TYPE_HASHAGGREGATE
  * in which the input does not need to be sorted and execution will hash the group by key to aggregate the tuples.
+ *
+ * In a large query, once the groups held in memory outgrow the temp table memory limit,
+ * input tuples that do not belong to one of them are spilled to large temp tables
+ * partitioned on the group by key. The groups in memory are output when the input is
+ * done, then each partition is aggregated in turn the same way.
  */
 class AggregateHashExecutor : public AggregateExecutorBase
 {
 public:
     AggregateHashExecutor(VoltDBEngine* engine, AbstractPlanNode* abstract_node) :
-        AggregateExecutorBase(engine, abstract_node) { }
+        AggregateExecutorBase(engine, abstract_node),
+        m_isLargeQuery(false), m_memoryLimit(0), m_hasDistinctAggs(false),
+        m_distinctMemoryInBytes(0), m_spillLevel(0) { }
 
     // empty destructor defined in .cpp file because of it is called virtually (not inline)
     // same reason for serial and partial
@@ -284,9 +323,33 @@ public:
     void p_execute_tuple(const TableTuple& nextTuple);
     void p_execute_finish();
 
+protected:
+    virtual bool p_init(AbstractPlanNode*, const ExecutorVector& executorVector);
+
 private:
+    typedef std::vector<std::unique_ptr<LargeTempTable> > SpillPartitionVector;
+
     virtual bool p_execute(const NValueArray& params);
+
+    /** An estimate of the memory held by the groups in the hash table */
+    int64_t groupMemoryInBytes() const;
+    int64_t distinctMemoryInBytes(const AggregateRow* aggregateRow) const;
+    void spillTuple(const TableTuple& tuple);
+    /** Output and free the groups in the hash table */
+    void outputGroups();
+    void aggregateSpilledPartitions();
+
     HashAggregateMapType m_hash;
+    bool m_isLargeQuery;
+    int64_t m_memoryLimit;
+    // Whether the value sets of DISTINCT aggregates count towards the memory limit
+    bool m_hasDistinctAggs;
+    // The memory held by the value sets of the DISTINCT aggregates of the groups in the hash table
+    int64_t m_distinctMemoryInBytes;
+    // Partitions for the input tuples of groups that did not fit in memory
+    SpillPartitionVector m_spillPartitions;
+    // Varies the partitioning of the tuples of a partition that spills again
+    size_t m_spillLevel;
 };
 
 /**
@@ -309,6 +372,41 @@ public:
     void p_execute_tuple(const TableTuple& nextTuple);
     void p_execute_finish();
 
+    /**
+     * True if every aggregate can be computed from the column summaries of
+     * a ColumnarBlock of the input: no grouping, no DISTINCT and only
+     * COUNT(*), or COUNT, SUM, AVG, MIN or MAX of an encoded input column.
+     * Must be called after p_execute_init().
+     */
+    bool canAggregateColumnar() const;
+
+    /**
+     * Aggregate all the rows of a block from its column summaries in place
+     * of p_execute_tuple() for each of them. Returns false, having done
+     * nothing, if a sum over the block does not fit its summary.
+     */
+    bool p_execute_columnar(const ColumnarBlock& block);
+
+    /**
+     * True if every aggregate can be computed over a ColumnBatch of the input:
+     * no grouping, no DISTINCT and only COUNT(*), or COUNT, SUM, AVG, MIN or
+     * MAX of an input BatchExpression can compile. Adds the input columns the
+     * aggregates read to columns. Must be called after p_execute_init().
+     */
+    bool canAggregateBatch(std::vector<int>& columns);
+
+    /**
+     * Add the selected rows of a batch to the per aggregate summaries, which
+     * may start out empty. Returns false if an input could not be evaluated
+     * or a sum does not fit, in which case the summaries are undefined and
+     * the rows have to go through p_execute_tuple() instead.
+     */
+    bool p_execute_batch(const ColumnBatch& batch, const uint16_t* selection,
+                         uint32_t count, std::vector<ColumnSummary>& summaries);
+
+    /** Aggregate rows summarized by p_execute_batch() or a ColumnarBlock. */
+    void p_execute_summaries(int64_t rows, const std::vector<ColumnSummary>& summaries);
+
 protected:
     AggregateRow * m_aggregateRow;
     // State variables for iteration on input table
@@ -317,7 +415,12 @@ protected:
 
     TableTuple m_passThroughTupleSource;
 
+    // Inputs compiled by canAggregateBatch(), NULL for COUNT(*)
+    std::vector<boost::shared_ptr<BatchExpression> > m_batchInputs;
+
 private:
+    bool canAggregateSummaries() const;
+
     virtual bool p_execute(const NValueArray& params);
 };
 
@@ -48,6 +48,7 @@
 
 #include "common/tabletuple.h"
 #include "expressions/abstractexpression.h"
+#include "expressions/compiledexpression.h"
 #include "storage/AbstractTempTable.hpp"
 
 #include <cstddef> // for NULL !
@@ -69,6 +70,11 @@ struct CountingPostfilter {
     CountingPostfilter(const AbstractTempTable* table, const AbstractExpression * postPredicate, int limit, int offset,
         CountingPostfilter* parentPostfilter = NULL);
 
+    // Evaluate the predicate through its compiled form wherever it can be
+    void setCompiledPredicate(const CompiledExpression* compiledPredicate) {
+        m_compiledPredicate = compiledPredicate;
+    }
+
     // Returns true is LIMIT is not reached yet
     bool isUnderLimit() const {
         return m_under_limit;
@@ -79,6 +85,8 @@ struct CountingPostfilter {
 
     private:
 
+    bool evalPredicate(const TableTuple* outer_tuple, const TableTuple* inner_tuple) const;
+
     // Indicate that an inline (child) AggCountingPostfilter associated with this postfilter
     // has reached its limit
     void setAboveLimit() {
@@ -87,6 +95,7 @@ struct CountingPostfilter {
 
     const AbstractTempTable *m_table;
     const AbstractExpression *m_postPredicate;
+    const CompiledExpression *m_compiledPredicate;
     CountingPostfilter* m_parentPostfilter;
 
     int m_limit;
@@ -96,9 +105,18 @@ struct CountingPostfilter {
     bool m_under_limit;
 };
 
+inline
+bool CountingPostfilter::evalPredicate(const TableTuple* outer_tuple, const TableTuple* inner_tuple) const {
+    bool passed;
+    if (m_compiledPredicate != NULL && m_compiledPredicate->evalPredicate(outer_tuple, passed)) {
+        return passed;
+    }
+    return m_postPredicate->eval(outer_tuple, inner_tuple).isTrue();
+}
+
 inline
 bool CountingPostfilter::eval(const TableTuple* outer_tuple, const TableTuple* inner_tuple) {
-    if (m_postPredicate == NULL || m_postPredicate->eval(outer_tuple, inner_tuple).isTrue()) {
+    if (m_postPredicate == NULL || evalPredicate(outer_tuple, inner_tuple)) {
         // Check if we have to skip this tuple because of offset
         if (m_tuple_skipped < m_offset) {
             m_tuple_skipped++;
@@ -0,0 +1,313 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+#include "hashjoinexecutor.h"
+
+#include "common/executorcontext.hpp"
+#include "common/LargeTempTableBlockCache.h"
+#include "executors/aggregateexecutor.h"
+#include "expressions/abstractexpression.h"
+#include "plannodes/hashjoinnode.h"
+#include "plannodes/limitnode.h"
+#include "storage/LargeTempTable.h"
+#include "storage/LargeTempTableBlock.h"
+#include "storage/tablefactory.h"
+#include "storage/tableiterator.h"
+
+#include <algorithm>
+
+using namespace std;
+using namespace voltdb;
+
+namespace {
+
+/**
+ * Combine the hashes of the key values of a tuple.
+ * Returns false if any of them is NULL, in which case the tuple can't join.
+ */
+inline bool hashKeys(const std::vector<AbstractExpression*>& keys, const TableTuple& tuple, std::size_t& hash) {
+    hash = 0;
+    BOOST_FOREACH(AbstractExpression* key, keys) {
+        const NValue value = key->eval(&tuple, NULL);
+        if (value.isNull()) {
+            return false;
+        }
+        value.hashCombine(hash);
+    }
+    return true;
+}
+
+/**
+ * The hash table buckets on the low bits of the key hash, which for small integer keys
+ * are all there is to it. Spread them over the high bits before picking a partition.
+ */
+inline size_t partitionOf(std::size_t hash, size_t partitionCount) {
+    return static_cast<size_t>((static_cast<uint64_t>(hash) * 0x9E3779B97F4A7C15ULL) >> 32) % partitionCount;
+}
+
+inline int64_t estimatedSizeInBytes(Table* table) {
+    LargeTempTable* ltt = dynamic_cast<LargeTempTable*>(table);
+    if (ltt != NULL) {
+        return static_cast<int64_t>(ltt->allocatedBlockCount()) * LargeTempTableBlock::BLOCK_SIZE_IN_BYTES;
+    }
+    return table->activeTupleCount() * (table->schema()->tupleLength() + TUPLE_HEADER_SIZE);
+}
+
+} // anonymous namespace
+
+HashJoinExecutor::~HashJoinExecutor() { }
+
+bool HashJoinExecutor::p_init(AbstractPlanNode* abstractNode,
+                              const ExecutorVector& executorVector)
+{
+    VOLT_TRACE("init HashJoin Executor");
+
+    HashJoinPlanNode* node = dynamic_cast<HashJoinPlanNode*>(m_abstractNode);
+    assert(node);
+
+    // Init parent first
+    if (!AbstractJoinExecutor::p_init(abstractNode, executorVector)) {
+        return false;
+    }
+    // The planner only chooses hash joins for inner and left joins
+    assert(m_joinType != JOIN_TYPE_FULL);
+
+    // NULL tuples for left joins
+    p_init_null_tuples(node->getInputTable(), node->getInputTable(1));
+
+    m_outerHashExpressions = &node->getOuterHashExpressions();
+    m_innerHashExpressions = &node->getInnerHashExpressions();
+    m_preJoinPredicate = node->getPreJoinPredicate();
+    m_joinPredicate = node->getJoinPredicate();
+    m_isLargeQuery = executorVector.isLargeQuery();
+    m_memoryLimit = executorVector.limits()->getMemoryLimit();
+
+    return true;
+}
+
+bool HashJoinExecutor::p_execute(const NValueArray &params) {
+    VOLT_DEBUG("executing HashJoin...");
+
+    HashJoinPlanNode* node = dynamic_cast<HashJoinPlanNode*>(m_abstractNode);
+    assert(node);
+    assert(node->getInputTableCount() == 2);
+
+    // output table must be a temp table
+    assert(m_tmpOutputTable);
+
+    Table* outerTable = node->getInputTable();
+    assert(outerTable);
+
+    Table* innerTable = node->getInputTable(1);
+    assert(innerTable);
+
+    VOLT_TRACE ("input table left:\n %s", outerTable->debug().c_str());
+    VOLT_TRACE ("input table right:\n %s", innerTable->debug().c_str());
+
+    LimitPlanNode* limitNode = dynamic_cast<LimitPlanNode*>(node->getInlinePlanNode(PLAN_NODE_TYPE_LIMIT));
+    int limit = CountingPostfilter::NO_LIMIT;
+    int offset = CountingPostfilter::NO_OFFSET;
+    if (limitNode) {
+        limitNode->getLimitAndOffsetByReference(params, limit, offset);
+    }
+
+    ProgressMonitorProxy pmp(m_engine->getExecutorContext(), this);
+    // Init the postfilter
+    CountingPostfilter postfilter(m_tmpOutputTable, node->getWherePredicate(), limit, offset);
+
+    TableTuple joinTuple;
+    if (m_aggExec != NULL) {
+        VOLT_TRACE("Init inline aggregate...");
+        const TupleSchema * aggInputSchema = node->getTupleSchemaPreAgg();
+        joinTuple = m_aggExec->p_execute_init(params, &pmp, aggInputSchema, m_tmpOutputTable, &postfilter);
+    } else {
+        joinTuple = m_tmpOutputTable->tempTuple();
+    }
+
+    bool buildOnOuter = m_joinType == JOIN_TYPE_INNER &&
+        outerTable->activeTupleCount() < innerTable->activeTupleCount();
+    Table* buildTable = buildOnOuter ? outerTable : innerTable;
+    Table* probeTable = buildOnOuter ? innerTable : outerTable;
+
+    if (m_isLargeQuery && m_memoryLimit > 0 && estimatedSizeInBytes(buildTable) > m_memoryLimit) {
+        joinPartitions(buildTable, probeTable, buildOnOuter, postfilter, joinTuple, pmp);
+    }
+    else {
+        buildHashTable(buildTable, buildOnOuter, pmp);
+        probeHashTable(probeTable, buildOnOuter, postfilter, joinTuple, pmp);
+    }
+    m_hashTable.clear();
+    m_memoryPool.purge();
+
+    if (m_aggExec != NULL) {
+        m_aggExec->p_execute_finish();
+    }
+
+    return true;
+}
+
+void HashJoinExecutor::buildHashTable(Table* buildTable, bool buildOnOuter, ProgressMonitorProxy& pmp) {
+    const std::vector<AbstractExpression*>& keys =
+        buildOnOuter ? *m_outerHashExpressions : *m_innerHashExpressions;
+    // The blocks of a large temp table are unpinned once they have been scanned,
+    // so their tuples have to be copied to stay addressable.
+    const bool copyTuples = dynamic_cast<LargeTempTable*>(buildTable) != NULL;
+    const TupleSchema* schema = buildTable->schema();
+
+    TableTuple tuple(schema);
+    TableIterator iterator = buildTable->iterator();
+    while (iterator.next(tuple)) {
+        pmp.countdownProgress();
+        // An outer tuple that fails the pre-join predicate can't match any inner tuple.
+        // Building on the outer side only happens for inner joins, so it can simply be dropped.
+        if (buildOnOuter && ! passesPreJoinPredicate(tuple)) {
+            continue;
+        }
+        std::size_t hash;
+        if ( ! hashKeys(keys, tuple, hash)) {
+            continue;
+        }
+        char* address = tuple.address();
+        if (copyTuples) {
+            address = static_cast<char*>(m_memoryPool.allocate(schema->tupleLength() + TUPLE_HEADER_SIZE));
+            TableTuple copy(address, schema);
+            copy.copyForPersistentInsert(tuple, &m_memoryPool);
+        }
+        m_hashTable.insert(HashTableType::value_type(hash, address));
+    }
+}
+
+void HashJoinExecutor::probeHashTable(Table* probeTable, bool buildOnOuter, CountingPostfilter& postfilter,
+                                      TableTuple& joinTuple, ProgressMonitorProxy& pmp) {
+    Table* outerTable = m_abstractNode->getInputTable();
+    Table* innerTable = m_abstractNode->getInputTable(1);
+    const int outerCols = outerTable->columnCount();
+    const int innerCols = innerTable->columnCount();
+    TableTuple outerTuple(outerTable->schema());
+    TableTuple innerTuple(innerTable->schema());
+    TableTuple& probeTuple = buildOnOuter ? innerTuple : outerTuple;
+    TableTuple& buildTuple = buildOnOuter ? outerTuple : innerTuple;
+    const std::vector<AbstractExpression*>& keys =
+        buildOnOuter ? *m_innerHashExpressions : *m_outerHashExpressions;
+
+    TableIterator iterator = probeTable->iteratorDeletingAsWeGo();
+    while (postfilter.isUnderLimit() && iterator.next(probeTuple)) {
+        pmp.countdownProgress();
+
+        bool outerMatch = false;
+        std::size_t hash;
+        if ((buildOnOuter || passesPreJoinPredicate(outerTuple)) && hashKeys(keys, probeTuple, hash)) {
+            std::pair<HashTableType::const_iterator, HashTableType::const_iterator> candidates =
+                m_hashTable.equal_range(hash);
+            for (HashTableType::const_iterator it = candidates.first;
+                 it != candidates.second && postfilter.isUnderLimit(); ++it) {
+                buildTuple.move(it->second);
+                // Tuples with equal key hashes may still have different keys,
+                // the join predicate has the final say.
+                if (m_joinPredicate != NULL && ! m_joinPredicate->eval(&outerTuple, &innerTuple).isTrue()) {
+                    continue;
+                }
+                outerMatch = true;
+                if (postfilter.eval(&outerTuple, &innerTuple)) {
+                    joinTuple.setNValues(0, outerTuple, 0, outerCols);
+                    joinTuple.setNValues(outerCols, innerTuple, 0, innerCols);
+                    outputTuple(postfilter, joinTuple, pmp);
+                }
+            }
+        }
+
+        //
+        // Left Outer Join
+        //
+        if (m_joinType != JOIN_TYPE_INNER && !outerMatch) {
+            outputUnmatchedOuter(outerTuple, postfilter, joinTuple, pmp);
+        }
+    }
+}
+
+void HashJoinExecutor::joinPartitions(Table* buildTable, Table* probeTable, bool buildOnOuter,
+                                      CountingPostfilter& postfilter, TableTuple& joinTuple,
+                                      ProgressMonitorProxy& pmp) {
+    // Every partition pins the block it is being written to. Leave room in the cache for
+    // the block of the input being scanned and for the output table's block.
+    LargeTempTableBlockCache* lttBlockCache = ExecutorContext::getExecutorContext()->lttBlockCache();
+    const int64_t maxPartitions = std::max(2, lttBlockCache->maxCacheSizeInBlocks() - 2);
+    // Aim for partitions of half the memory limit so that a moderately skewed one still fits
+    const int64_t wantedPartitions = 2 * estimatedSizeInBytes(buildTable) / m_memoryLimit + 1;
+    const size_t partitionCount = static_cast<size_t>(std::min(maxPartitions, wantedPartitions));
+    VOLT_DEBUG("hash join partitioning its inputs %d ways", static_cast<int>(partitionCount));
+
+    PartitionVector buildPartitions(partitionCount);
+    PartitionVector probePartitions(partitionCount);
+    for (size_t i = 0; i < partitionCount; ++i) {
+        buildPartitions[i].reset(TableFactory::buildLargeTempTable(buildTable->name(),
+                TupleSchema::createTupleSchema(buildTable->schema()), buildTable->getColumnNames()));
+        probePartitions[i].reset(TableFactory::buildLargeTempTable(probeTable->name(),
+                TupleSchema::createTupleSchema(probeTable->schema()), probeTable->getColumnNames()));
+    }
+    partitionInput(buildTable, buildOnOuter, buildPartitions, postfilter, joinTuple, pmp);
+    partitionInput(probeTable, ! buildOnOuter, probePartitions, postfilter, joinTuple, pmp);
+
+    for (size_t i = 0; i < partitionCount && postfilter.isUnderLimit(); ++i) {
+        buildHashTable(buildPartitions[i].get(), buildOnOuter, pmp);
+        // Done with the build partition, the hash table refers to copies of its tuples
+        buildPartitions[i].reset();
+        probeHashTable(probePartitions[i].get(), buildOnOuter, postfilter, joinTuple, pmp);
+        probePartitions[i].reset();
+        m_hashTable.clear();
+        m_memoryPool.purge();
+    }
+}
+
+void HashJoinExecutor::partitionInput(Table* input, bool isOuter, PartitionVector& partitions,
+                                      CountingPostfilter& postfilter, TableTuple& joinTuple,
+                                      ProgressMonitorProxy& pmp) {
+    const std::vector<AbstractExpression*>& keys = isOuter ? *m_outerHashExpressions : *m_innerHashExpressions;
+    TableTuple tuple(input->schema());
+    TableIterator iterator = input->iteratorDeletingAsWeGo();
+    while (iterator.next(tuple)) {
+        pmp.countdownProgress();
+        std::size_t hash;
+        if (( ! isOuter || passesPreJoinPredicate(tuple)) && hashKeys(keys, tuple, hash)) {
+            partitions[partitionOf(hash, partitions.size())]->insertTuple(tuple);
+        }
+        else if (isOuter && m_joinType != JOIN_TYPE_INNER) {
+            // This outer tuple can't match anything, settle it right away
+            outputUnmatchedOuter(tuple, postfilter, joinTuple, pmp);
+        }
+    }
+    BOOST_FOREACH(std::unique_ptr<LargeTempTable>& partition, partitions) {
+        partition->finishInserts();
+    }
+}
+
+void HashJoinExecutor::outputUnmatchedOuter(const TableTuple& outerTuple, CountingPostfilter& postfilter,
+                                            TableTuple& joinTuple, ProgressMonitorProxy& pmp) {
+    const TableTuple& nullInnerTuple = m_null_inner_tuple.tuple();
+    // Still needs to pass the filter
+    if (postfilter.isUnderLimit() && postfilter.eval(&outerTuple, &nullInnerTuple)) {
+        const int outerCols = outerTuple.getSchema()->columnCount();
+        joinTuple.setNValues(0, outerTuple, 0, outerCols);
+        joinTuple.setNValues(outerCols, nullInnerTuple, 0, nullInnerTuple.getSchema()->columnCount());
+        outputTuple(postfilter, joinTuple, pmp);
+    }
+}
+
+bool HashJoinExecutor::passesPreJoinPredicate(const TableTuple& outerTuple) const {
+    return m_preJoinPredicate == NULL || m_preJoinPredicate->eval(&outerTuple, NULL).isTrue();
+}
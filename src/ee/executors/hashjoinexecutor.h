@@ -0,0 +1,104 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+#ifndef HSTOREHASHJOINEXECUTOR_H
+#define HSTOREHASHJOINEXECUTOR_H
+
+#include "common/common.h"
+#include "common/Pool.hpp"
+#include "common/valuevector.h"
+#include "executors/abstractjoinexecutor.h"
+
+#include "boost/foreach.hpp"
+#include "boost/unordered_map.hpp"
+
+#include <memory>
+
+namespace voltdb {
+
+class AbstractExpression;
+class LargeTempTable;
+
+/**
+ * Executor for the hash join plan node. The build input is hashed on its join keys
+ * and the probe input is streamed past it, so each input is read once.
+ *
+ * Inner joins build on whichever input has fewer tuples. Left joins always build on
+ * the inner input so that an outer tuple can be null-padded as soon as it has been probed.
+ * Tuples with a NULL key never join and are not hashed.
+ *
+ * In large queries the inputs are LargeTempTables whose blocks come and go from memory.
+ * If the build input is bigger than the temp table memory limit, both inputs are first
+ * partitioned on their key hashes into LargeTempTables and then joined partition by
+ * partition, so only one build partition has to be held in memory at a time.
+ */
+class HashJoinExecutor : public AbstractJoinExecutor {
+    public:
+        HashJoinExecutor(VoltDBEngine *engine, AbstractPlanNode* abstract_node) :
+            AbstractJoinExecutor(engine, abstract_node),
+            m_outerHashExpressions(NULL),
+            m_innerHashExpressions(NULL),
+            m_preJoinPredicate(NULL),
+            m_joinPredicate(NULL),
+            m_isLargeQuery(false),
+            m_memoryLimit(-1) { }
+        ~HashJoinExecutor();
+
+    private:
+        typedef boost::unordered_multimap<std::size_t, char*> HashTableType;
+        typedef std::vector<std::unique_ptr<LargeTempTable> > PartitionVector;
+
+        bool p_init(AbstractPlanNode*, const ExecutorVector& executorVector);
+        bool p_execute(const NValueArray &params);
+
+        void buildHashTable(Table* buildTable, bool buildOnOuter, ProgressMonitorProxy& pmp);
+
+        void probeHashTable(Table* probeTable, bool buildOnOuter, CountingPostfilter& postfilter,
+                            TableTuple& joinTuple, ProgressMonitorProxy& pmp);
+
+        void joinPartitions(Table* buildTable, Table* probeTable, bool buildOnOuter,
+                            CountingPostfilter& postfilter, TableTuple& joinTuple,
+                            ProgressMonitorProxy& pmp);
+
+        void partitionInput(Table* input, bool isOuter, PartitionVector& partitions,
+                            CountingPostfilter& postfilter, TableTuple& joinTuple,
+                            ProgressMonitorProxy& pmp);
+
+        // Writes a left join's outer tuple with a NULL inner side if it passes the where predicate
+        void outputUnmatchedOuter(const TableTuple& outerTuple, CountingPostfilter& postfilter,
+                                  TableTuple& joinTuple, ProgressMonitorProxy& pmp);
+
+        bool passesPreJoinPredicate(const TableTuple& outerTuple) const;
+
+        // Set by p_init from the plan node
+        const std::vector<AbstractExpression*>* m_outerHashExpressions;
+        const std::vector<AbstractExpression*>* m_innerHashExpressions;
+        AbstractExpression* m_preJoinPredicate;
+        AbstractExpression* m_joinPredicate;
+        bool m_isLargeQuery;
+        int64_t m_memoryLimit;
+
+        // Build tuples by key hash. These are the addresses of the build table's own tuples
+        // unless it is a LargeTempTable, in which case they are copies in m_memoryPool.
+        HashTableType m_hashTable;
+        Pool m_memoryPool;
+};
+
+}
+
+#endif
@@ -196,6 +196,9 @@ bool IndexScanExecutor::p_execute(const NValueArray &params)
         postfilterOffset = CountingPostfilter::NO_OFFSET;
     }
     CountingPostfilter postfilter(m_outputTable, post_expression, limit, postfilterOffset);
+    if (post_expression != NULL) {
+        postfilter.setCompiledPredicate(m_compiledPostPredicate.get(post_expression, targetTable->schema()));
+    }
 
     // Progress monitor
     ProgressMonitorProxy pmp(m_engine->getExecutorContext(), this);
@@ -49,6 +49,7 @@
 #include "common/tabletuple.h"
 #include "executors/abstractexecutor.h"
 #include "executors/OptimizedProjector.hpp"
+#include "expressions/compiledexpression.h"
 #include "indexes/tableindex.h"
 
 #include "boost/shared_array.hpp"
@@ -136,6 +137,8 @@ private:
     // IndexScan Information
     AbstractTempTable* m_outputTable;
 
+    CompiledPredicateCache m_compiledPostPredicate;
+
     // arrange the memory mgmt aids at the bottom to try to maximize
     // cache hits (by keeping them out of the way of useful runtime data)
     boost::shared_array<int> m_projectionAllTupleArrayPtr;
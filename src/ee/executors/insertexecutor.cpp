@@ -209,6 +209,14 @@ bool InsertExecutor::p_execute_init_internal(const TupleSchema *inputSchema,
         m_tmpOutputTable->insertTuple(m_count_tuple);
         return false;
     }
+
+    // Without an undo quantum a failure can't take back the rows already
+    // inserted, which is only safe when there is a single row to insert.
+    if (ExecutorContext::currentUndoQuantum() == NULL &&
+            (m_node->isInline() || m_inputTable->activeTupleCount() > 1)) {
+        throwSerializableEEException("Insert into table %s of more than one row without an undo quantum",
+                                     m_targetTable->name().c_str());
+    }
     m_templateTuple = m_templateTupleStorage.tuple();
 
     std::vector<int>::iterator it;
@@ -46,16 +46,125 @@
 #include "seqscanexecutor.h"
 #include "executors/aggregateexecutor.h"
 #include "executors/insertexecutor.h"
+#include "expressions/batchexpression.h"
 #include "plannodes/aggregatenode.h"
 #include "plannodes/insertnode.h"
 #include "plannodes/seqscannode.h"
 #include "plannodes/projectionnode.h"
 #include "plannodes/limitnode.h"
+#include "storage/ColumnarBlock.h"
+#include "storage/persistenttable.h"
 #include "storage/temptable.h"
 #include "storage/tablefactory.h"
 
+#include "boost/scoped_ptr.hpp"
+
 using namespace voltdb;
 
+namespace {
+
+/**
+ * Feeds every visible tuple of a persistent table that passes the scan
+ * predicate to an inline serial aggregate, a batch of tuples at a time.
+ * Blocks that have a columnar encoding are decoded in batches, or handed
+ * over as column summaries when there is no predicate, instead of having
+ * their tuples visited. A batch that cannot be evaluated as a whole goes
+ * through the predicate and the aggregate a row at a time.
+ */
+class BatchAggregateVisitor : public ColumnarBlockVisitor {
+public:
+    BatchAggregateVisitor(AggregateSerialExecutor* aggExec, const BatchPredicate* predicate,
+                          CountingPostfilter& postfilter, const TupleSchema* schema,
+                          const std::vector<int>& columns, ProgressMonitorProxy& pmp)
+        : m_aggExec(aggExec)
+        , m_predicate(predicate)
+        , m_postfilter(postfilter)
+        , m_batch(schema, columns)
+        , m_tuple(schema)
+        , m_tupleCount(0)
+        , m_pmp(pmp)
+    {
+    }
+
+    bool visitBlock(const ColumnarBlock& block) {
+        flush();
+        if (m_predicate == NULL && m_aggExec->canAggregateColumnar() && m_aggExec->p_execute_columnar(block)) {
+            return true;
+        }
+        // Nothing is aggregated unless the whole block is, so that a
+        // failure can leave it to the block's tuples.
+        std::vector<ColumnSummary> summaries;
+        int64_t rows = 0;
+        for (uint32_t start = 0; start < block.rowCount(); start += ColumnBatch::CAPACITY) {
+            uint32_t count = std::min<uint32_t>(ColumnBatch::CAPACITY, block.rowCount() - start);
+            m_pmp.countdownProgress();
+            m_batch.loadEncoded(block, start, count);
+            if ( ! evaluate(count, summaries)) {
+                return false;
+            }
+            rows += count;
+        }
+        m_aggExec->p_execute_summaries(rows, summaries);
+        return true;
+    }
+
+    void visitTuple(TableTuple& tuple) {
+        m_tuples[m_tupleCount++] = tuple.address();
+        if (m_tupleCount == ColumnBatch::CAPACITY) {
+            flush();
+        }
+    }
+
+    /** Aggregate the tuples visited since the last batch. */
+    void flush() {
+        if (m_tupleCount == 0) {
+            return;
+        }
+        m_pmp.countdownProgress();
+        m_batch.loadTuples(m_tuples, m_tupleCount);
+        uint32_t count = m_tupleCount;
+        std::vector<ColumnSummary> summaries;
+        if (evaluate(count, summaries)) {
+            m_aggExec->p_execute_summaries(count, summaries);
+        }
+        else {
+            for (uint32_t ii = 0; ii < m_tupleCount; ++ii) {
+                m_tuple.move(m_tuples[ii]);
+                m_pmp.countdownProgress();
+                if (m_postfilter.eval(&m_tuple, NULL)) {
+                    m_aggExec->p_execute_tuple(m_tuple);
+                }
+            }
+        }
+        m_tupleCount = 0;
+    }
+
+private:
+    // Filter the loaded batch and add the rows that pass to the summaries,
+    // leaving their number in count.
+    bool evaluate(uint32_t& count, std::vector<ColumnSummary>& summaries) {
+        for (uint32_t ii = 0; ii < count; ++ii) {
+            m_selection[ii] = static_cast<uint16_t>(ii);
+        }
+        if (m_predicate != NULL && ! m_predicate->filter(m_batch, m_selection, count)) {
+            return false;
+        }
+        return m_aggExec->p_execute_batch(m_batch, m_selection, count, summaries);
+    }
+
+    AggregateSerialExecutor* m_aggExec;
+    const BatchPredicate* m_predicate;
+    CountingPostfilter& m_postfilter;
+    ColumnBatch m_batch;
+    TableTuple m_tuple;
+    char* m_tuples[ColumnBatch::CAPACITY];
+    uint32_t m_tupleCount;
+    uint16_t m_selection[ColumnBatch::CAPACITY];
+    ProgressMonitorProxy& m_pmp;
+};
+
+}
+
 bool SeqScanExecutor::p_init(AbstractPlanNode* abstract_node,
                              const ExecutorVector& executorVector)
 {
@@ -204,6 +313,9 @@ bool SeqScanExecutor::p_execute(const NValueArray &params) {
         }
         // Initialize the postfilter
         CountingPostfilter postfilter(m_tmpOutputTable, predicate, limit, offset);
+        if (predicate != NULL && node->isPersistentTableScan()) {
+            postfilter.setCompiledPredicate(m_compiledPredicate.get(predicate, input_table->schema()));
+        }
 
         ProgressMonitorProxy pmp(m_engine->getExecutorContext(), this);
         TableTuple temp_tuple;
@@ -251,45 +363,83 @@ bool SeqScanExecutor::p_execute(const NValueArray &params) {
             temp_tuple = m_tmpOutputTable->tempTuple();
         }
 
-        while (postfilter.isUnderLimit() && iterator.next(tuple))
-        {
+        //
+        // OPTIMIZATION: BATCH AGGREGATE
+        //
+        // An inline aggregate of a persistent table can filter and
+        // aggregate its tuples a batch at a time, and take the column
+        // summaries of cold blocks in place of their tuples, as long
+        // as the predicate and the aggregate inputs are simple enough.
+        //
+        AggregateSerialExecutor* batchAggExec = NULL;
+        PersistentTable* persistentTable = NULL;
+        boost::scoped_ptr<BatchPredicate> batchPredicate;
+        std::vector<int> batchColumns;
+        if (m_aggExec != NULL && projectionNode == NULL && limit_node == NULL &&
+                node->isPersistentTableScan()) {
+            persistentTable = dynamic_cast<PersistentTable*>(input_table);
+            batchAggExec = dynamic_cast<AggregateSerialExecutor*>(m_aggExec);
+            if (persistentTable == NULL || batchAggExec == NULL) {
+                batchAggExec = NULL;
+            }
+            else if (predicate != NULL) {
+                batchPredicate.reset(BatchPredicate::compile(predicate, input_table->schema(), batchColumns));
+                if (batchPredicate.get() == NULL) {
+                    batchAggExec = NULL;
+                }
+            }
+            if (batchAggExec != NULL && ! batchAggExec->canAggregateBatch(batchColumns)) {
+                batchAggExec = NULL;
+            }
+        }
+
+        if (batchAggExec != NULL) {
+            BatchAggregateVisitor visitor(batchAggExec, batchPredicate.get(), postfilter,
+                                          input_table->schema(), batchColumns, pmp);
+            persistentTable->visitColumnar(visitor);
+            visitor.flush();
+        }
+        else {
+            while (postfilter.isUnderLimit() && iterator.next(tuple))
+            {
 #if   defined(VOLT_TRACE_ENABLED)
-            int tuple_ctr = 0;
+                int tuple_ctr = 0;
 #endif
-            VOLT_TRACE("INPUT TUPLE: %s, %d/%d\n",
-                       tuple.debug(input_table->name()).c_str(),
-                       ++tuple_ctr,
-                       (int)input_table->activeTupleCount());
-            pmp.countdownProgress();
-
-            //
-            // For each tuple we need to evaluate it against our predicate and limit/offset
-            //
-            if (postfilter.eval(&tuple, NULL))
-            {
+                VOLT_TRACE("INPUT TUPLE: %s, %d/%d\n",
+                           tuple.debug(input_table->name()).c_str(),
+                           ++tuple_ctr,
+                           (int)input_table->activeTupleCount());
+                pmp.countdownProgress();
+
                 //
-                // Nested Projection
-                // Project (or replace) values from input tuple
+                // For each tuple we need to evaluate it against our predicate and limit/offset
                 //
-                if (projectionNode != NULL)
+                if (postfilter.eval(&tuple, NULL))
                 {
-                    VOLT_TRACE("inline projection...");
-                    // Project the scanned table row onto
-                    // the columns of the select list in the
-                    // select statement.
-                    for (int ctr = 0; ctr < num_of_columns; ctr++) {
-                        NValue value = projectionNode->getOutputColumnExpressions()[ctr]->eval(&tuple, NULL);
-                        temp_tuple.setNValue(ctr, value);
+                    //
+                    // Nested Projection
+                    // Project (or replace) values from input tuple
+                    //
+                    if (projectionNode != NULL)
+                    {
+                        VOLT_TRACE("inline projection...");
+                        // Project the scanned table row onto
+                        // the columns of the select list in the
+                        // select statement.
+                        for (int ctr = 0; ctr < num_of_columns; ctr++) {
+                            NValue value = projectionNode->getOutputColumnExpressions()[ctr]->eval(&tuple, NULL);
+                            temp_tuple.setNValue(ctr, value);
+                        }
+                        outputTuple(temp_tuple);
                     }
-                    outputTuple(temp_tuple);
-                }
-                else
-                {
-                    outputTuple(tuple);
+                    else
+                    {
+                        outputTuple(tuple);
+                    }
+                    pmp.countdownProgress();
                 }
-                pmp.countdownProgress();
-            }
-        } // end while we have more tuples to scan
+            } // end while we have more tuples to scan
+        }
 
         if (m_aggExec != NULL) {
             m_aggExec->p_execute_finish();
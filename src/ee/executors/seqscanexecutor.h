@@ -50,6 +50,7 @@
 #include "common/valuevector.h"
 #include "executors/abstractexecutor.h"
 #include "execution/VoltDBEngine.h"
+#include "expressions/compiledexpression.h"
 
 namespace voltdb
 {
@@ -85,6 +86,8 @@ namespace voltdb
         // freeing them.
         AggregateExecutorBase* m_aggExec;
         InsertExecutor* m_insertExec;
+
+        CompiledPredicateCache m_compiledPredicate;
     };
 }
 
@@ -0,0 +1,409 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+#include "expressions/batchexpression.h"
+
+#include <algorithm>
+#include <memory>
+
+#include "boost/foreach.hpp"
+#include "boost/scoped_ptr.hpp"
+
+#include "common/CheckedArithmetic.h"
+#include "common/NValue.hpp"
+#include "common/TupleSchema.h"
+#include "common/ValuePeeker.hpp"
+#include "common/tabletuple.h"
+#include "expressions/abstractexpression.h"
+#include "expressions/tuplevalueexpression.h"
+#include "storage/ColumnarBlock.h"
+
+namespace voltdb {
+
+ColumnBatch::ColumnBatch(const TupleSchema* schema, const std::vector<int>& columns)
+    : m_schema(schema)
+    , m_columns(columns)
+    , m_values(schema->columnCount(), NULL)
+    , m_nulls(schema->columnCount(), NULL)
+    , m_valueStorage(new int64_t[columns.size() * CAPACITY])
+    , m_nullStorage(new bool[columns.size() * CAPACITY])
+    , m_size(0)
+{
+    for (size_t ii = 0; ii < columns.size(); ++ii) {
+        m_values[columns[ii]] = m_valueStorage.get() + ii * CAPACITY;
+        m_nulls[columns[ii]] = m_nullStorage.get() + ii * CAPACITY;
+    }
+}
+
+void ColumnBatch::loadTuples(char* const* tuples, uint32_t count) {
+    assert(count <= CAPACITY);
+    m_size = count;
+    BOOST_FOREACH (int column, m_columns) {
+        const TupleSchema::ColumnInfo* columnInfo = m_schema->getColumnInfo(column);
+        const ValueType type = columnInfo->getVoltType();
+        const uint32_t offset = TUPLE_HEADER_SIZE + columnInfo->offset;
+        int64_t* values = m_values[column];
+        for (uint32_t row = 0; row < count; ++row) {
+            values[row] = ColumnarBlock::readValue(type, tuples[row] + offset);
+        }
+        flagNulls(column);
+    }
+}
+
+void ColumnBatch::loadEncoded(const ColumnarBlock& block, uint32_t start, uint32_t count) {
+    assert(count <= CAPACITY);
+    m_size = count;
+    BOOST_FOREACH (int column, m_columns) {
+        block.column(column)->decode(start, count, m_values[column]);
+        flagNulls(column);
+    }
+}
+
+inline void ColumnBatch::flagNulls(int column) {
+    const int64_t nullValue = ColumnarBlock::nullValueOf(m_schema->columnType(column));
+    const int64_t* values = m_values[column];
+    bool* nulls = m_nulls[column];
+    for (uint32_t row = 0; row < m_size; ++row) {
+        nulls[row] = values[row] == nullValue;
+    }
+}
+
+namespace {
+
+enum TypeFamily {
+    FAMILY_NONE,
+    FAMILY_INTEGER,
+    FAMILY_TIMESTAMP
+};
+
+TypeFamily familyOf(ValueType type) {
+    switch (type) {
+    case VALUE_TYPE_TINYINT:
+    case VALUE_TYPE_SMALLINT:
+    case VALUE_TYPE_INTEGER:
+    case VALUE_TYPE_BIGINT:
+        return FAMILY_INTEGER;
+    case VALUE_TYPE_TIMESTAMP:
+        return FAMILY_TIMESTAMP;
+    default:
+        return FAMILY_NONE;
+    }
+}
+
+class BatchColumn : public BatchExpression {
+public:
+    BatchColumn(ValueType valueType, int column)
+        : BatchExpression(valueType)
+        , m_column(column)
+    {
+    }
+
+    bool evaluate(const ColumnBatch& batch, const int64_t*& values, const bool*& nulls) const {
+        values = batch.values(m_column);
+        nulls = batch.nulls(m_column);
+        return true;
+    }
+
+private:
+    const int m_column;
+};
+
+class BatchConstant : public BatchExpression {
+public:
+    BatchConstant(ValueType valueType, int64_t value, bool isNull)
+        : BatchExpression(valueType)
+        , m_values(new int64_t[ColumnBatch::CAPACITY])
+        , m_nulls(new bool[ColumnBatch::CAPACITY])
+    {
+        std::fill(m_values.get(), m_values.get() + ColumnBatch::CAPACITY, value);
+        std::fill(m_nulls.get(), m_nulls.get() + ColumnBatch::CAPACITY, isNull);
+    }
+
+    bool evaluate(const ColumnBatch& batch, const int64_t*& values, const bool*& nulls) const {
+        values = m_values.get();
+        nulls = m_nulls.get();
+        return true;
+    }
+
+private:
+    boost::scoped_array<int64_t> m_values;
+    boost::scoped_array<bool> m_nulls;
+};
+
+// Same overflow rules as the BIGINT operators of NValue, with a result equal
+// to the NULL sentinel counted as an overflow.
+template <typename OP>
+class BatchArithmetic : public BatchExpression {
+public:
+    BatchArithmetic(BatchExpression* left, BatchExpression* right)
+        : BatchExpression(VALUE_TYPE_BIGINT)
+        , m_left(left)
+        , m_right(right)
+        , m_values(new int64_t[ColumnBatch::CAPACITY])
+        , m_nulls(new bool[ColumnBatch::CAPACITY])
+    {
+    }
+
+    bool evaluate(const ColumnBatch& batch, const int64_t*& values, const bool*& nulls) const {
+        const int64_t* leftValues;
+        const bool* leftNulls;
+        const int64_t* rightValues;
+        const bool* rightNulls;
+        if ( ! m_left->evaluate(batch, leftValues, leftNulls) ||
+             ! m_right->evaluate(batch, rightValues, rightNulls)) {
+            return false;
+        }
+        int64_t* results = m_values.get();
+        bool* resultNulls = m_nulls.get();
+        const uint32_t size = batch.size();
+        for (uint32_t row = 0; row < size; ++row) {
+            resultNulls[row] = leftNulls[row] || rightNulls[row];
+            if (resultNulls[row]) {
+                results[row] = INT64_NULL;
+            }
+            else if ( ! OP::apply(leftValues[row], rightValues[row], results[row])) {
+                return false;
+            }
+        }
+        values = results;
+        nulls = resultNulls;
+        return true;
+    }
+
+private:
+    boost::scoped_ptr<BatchExpression> m_left;
+    boost::scoped_ptr<BatchExpression> m_right;
+    boost::scoped_array<int64_t> m_values;
+    boost::scoped_array<bool> m_nulls;
+};
+
+struct BatchEqual {
+    static bool compare(int64_t lhs, int64_t rhs) { return lhs == rhs; }
+};
+struct BatchNotEqual {
+    static bool compare(int64_t lhs, int64_t rhs) { return lhs != rhs; }
+};
+struct BatchLessThan {
+    static bool compare(int64_t lhs, int64_t rhs) { return lhs < rhs; }
+};
+struct BatchLessThanOrEqual {
+    static bool compare(int64_t lhs, int64_t rhs) { return lhs <= rhs; }
+};
+struct BatchGreaterThan {
+    static bool compare(int64_t lhs, int64_t rhs) { return lhs > rhs; }
+};
+struct BatchGreaterThanOrEqual {
+    static bool compare(int64_t lhs, int64_t rhs) { return lhs >= rhs; }
+};
+
+template <typename CMP>
+class BatchComparison : public BatchPredicate {
+public:
+    BatchComparison(BatchExpression* left, BatchExpression* right)
+        : m_left(left)
+        , m_right(right)
+    {
+    }
+
+    bool filter(const ColumnBatch& batch, uint16_t* selection, uint32_t& count) const {
+        const int64_t* leftValues;
+        const bool* leftNulls;
+        const int64_t* rightValues;
+        const bool* rightNulls;
+        if ( ! m_left->evaluate(batch, leftValues, leftNulls) ||
+             ! m_right->evaluate(batch, rightValues, rightNulls)) {
+            return false;
+        }
+        uint32_t passed = 0;
+        for (uint32_t ii = 0; ii < count; ++ii) {
+            const uint16_t row = selection[ii];
+            // Branch free, the selection is written whether the row passes or not
+            selection[passed] = row;
+            passed += ! leftNulls[row] && ! rightNulls[row] &&
+                    CMP::compare(leftValues[row], rightValues[row]);
+        }
+        count = passed;
+        return true;
+    }
+
+private:
+    boost::scoped_ptr<BatchExpression> m_left;
+    boost::scoped_ptr<BatchExpression> m_right;
+};
+
+class BatchAnd : public BatchPredicate {
+public:
+    BatchAnd(BatchPredicate* left, BatchPredicate* right)
+        : m_left(left)
+        , m_right(right)
+    {
+    }
+
+    bool filter(const ColumnBatch& batch, uint16_t* selection, uint32_t& count) const {
+        return m_left->filter(batch, selection, count) &&
+                m_right->filter(batch, selection, count);
+    }
+
+private:
+    boost::scoped_ptr<BatchPredicate> m_left;
+    boost::scoped_ptr<BatchPredicate> m_right;
+};
+
+class BatchOr : public BatchPredicate {
+public:
+    BatchOr(BatchPredicate* left, BatchPredicate* right)
+        : m_left(left)
+        , m_right(right)
+        , m_leftSelection(new uint16_t[ColumnBatch::CAPACITY])
+        , m_rightSelection(new uint16_t[ColumnBatch::CAPACITY])
+    {
+    }
+
+    bool filter(const ColumnBatch& batch, uint16_t* selection, uint32_t& count) const {
+        uint16_t* leftSelection = m_leftSelection.get();
+        uint16_t* rightSelection = m_rightSelection.get();
+        uint32_t leftCount = count;
+        uint32_t rightCount = count;
+        std::copy(selection, selection + count, leftSelection);
+        std::copy(selection, selection + count, rightSelection);
+        if ( ! m_left->filter(batch, leftSelection, leftCount) ||
+             ! m_right->filter(batch, rightSelection, rightCount)) {
+            return false;
+        }
+        count = static_cast<uint32_t>(std::set_union(leftSelection, leftSelection + leftCount,
+                                                     rightSelection, rightSelection + rightCount,
+                                                     selection) - selection);
+        return true;
+    }
+
+private:
+    boost::scoped_ptr<BatchPredicate> m_left;
+    boost::scoped_ptr<BatchPredicate> m_right;
+    boost::scoped_array<uint16_t> m_leftSelection;
+    boost::scoped_array<uint16_t> m_rightSelection;
+};
+
+template <typename CMP>
+BatchPredicate* compileComparison(const AbstractExpression* expr, const TupleSchema* schema,
+                                  std::vector<int>& columns) {
+    std::unique_ptr<BatchExpression> left(BatchExpression::compile(expr->getLeft(), schema, columns));
+    if (left.get() == NULL) {
+        return NULL;
+    }
+    std::unique_ptr<BatchExpression> right(BatchExpression::compile(expr->getRight(), schema, columns));
+    if (right.get() == NULL || familyOf(left->valueType()) != familyOf(right->valueType())) {
+        return NULL;
+    }
+    return new BatchComparison<CMP>(left.release(), right.release());
+}
+
+template <typename OP>
+BatchExpression* compileArithmetic(const AbstractExpression* expr, const TupleSchema* schema,
+                                   std::vector<int>& columns) {
+    std::unique_ptr<BatchExpression> left(BatchExpression::compile(expr->getLeft(), schema, columns));
+    if (left.get() == NULL || familyOf(left->valueType()) != FAMILY_INTEGER) {
+        return NULL;
+    }
+    std::unique_ptr<BatchExpression> right(BatchExpression::compile(expr->getRight(), schema, columns));
+    if (right.get() == NULL || familyOf(right->valueType()) != FAMILY_INTEGER) {
+        return NULL;
+    }
+    return new BatchArithmetic<OP>(left.release(), right.release());
+}
+
+}
+
+BatchExpression* BatchExpression::compile(const AbstractExpression* expr, const TupleSchema* schema,
+                                          std::vector<int>& columns) {
+    if (expr == NULL) {
+        return NULL;
+    }
+    switch (expr->getExpressionType()) {
+    case EXPRESSION_TYPE_VALUE_TUPLE: {
+        const int column = static_cast<const TupleValueExpression*>(expr)->getColumnId();
+        const ValueType type = schema->columnType(column);
+        if ( ! ColumnarBlock::isEncodable(type)) {
+            return NULL;
+        }
+        if (std::find(columns.begin(), columns.end(), column) == columns.end()) {
+            columns.push_back(column);
+        }
+        return new BatchColumn(type, column);
+    }
+    case EXPRESSION_TYPE_VALUE_CONSTANT:
+    case EXPRESSION_TYPE_VALUE_PARAMETER: {
+        const NValue value = expr->eval(NULL, NULL);
+        const ValueType type = ValuePeeker::peekValueType(value);
+        if (familyOf(type) == FAMILY_NONE) {
+            return NULL;
+        }
+        if (value.isNull()) {
+            return new BatchConstant(type, INT64_NULL, true);
+        }
+        return new BatchConstant(type, ValuePeeker::peekAsRawInt64(value), false);
+    }
+    case EXPRESSION_TYPE_OPERATOR_PLUS:
+        return compileArithmetic<CheckedPlus>(expr, schema, columns);
+    case EXPRESSION_TYPE_OPERATOR_MINUS:
+        return compileArithmetic<CheckedMinus>(expr, schema, columns);
+    case EXPRESSION_TYPE_OPERATOR_MULTIPLY:
+        return compileArithmetic<CheckedMultiply>(expr, schema, columns);
+    default:
+        return NULL;
+    }
+}
+
+BatchPredicate* BatchPredicate::compile(const AbstractExpression* expr, const TupleSchema* schema,
+                                        std::vector<int>& columns) {
+    if (expr == NULL) {
+        return NULL;
+    }
+    switch (expr->getExpressionType()) {
+    case EXPRESSION_TYPE_COMPARE_EQUAL:
+        return compileComparison<BatchEqual>(expr, schema, columns);
+    case EXPRESSION_TYPE_COMPARE_NOTEQUAL:
+        return compileComparison<BatchNotEqual>(expr, schema, columns);
+    case EXPRESSION_TYPE_COMPARE_LESSTHAN:
+        return compileComparison<BatchLessThan>(expr, schema, columns);
+    case EXPRESSION_TYPE_COMPARE_LESSTHANOREQUALTO:
+        return compileComparison<BatchLessThanOrEqual>(expr, schema, columns);
+    case EXPRESSION_TYPE_COMPARE_GREATERTHAN:
+        return compileComparison<BatchGreaterThan>(expr, schema, columns);
+    case EXPRESSION_TYPE_COMPARE_GREATERTHANOREQUALTO:
+        return compileComparison<BatchGreaterThanOrEqual>(expr, schema, columns);
+    case EXPRESSION_TYPE_CONJUNCTION_AND:
+    case EXPRESSION_TYPE_CONJUNCTION_OR: {
+        std::unique_ptr<BatchPredicate> left(compile(expr->getLeft(), schema, columns));
+        if (left.get() == NULL) {
+            return NULL;
+        }
+        std::unique_ptr<BatchPredicate> right(compile(expr->getRight(), schema, columns));
+        if (right.get() == NULL) {
+            return NULL;
+        }
+        if (expr->getExpressionType() == EXPRESSION_TYPE_CONJUNCTION_AND) {
+            return new BatchAnd(left.release(), right.release());
+        }
+        return new BatchOr(left.release(), right.release());
+    }
+    default:
+        return NULL;
+    }
+}
+
+}
@@ -0,0 +1,136 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+#ifndef VOLTDB_BATCHEXPRESSION_H_
+#define VOLTDB_BATCHEXPRESSION_H_
+
+#include <vector>
+
+#include "boost/scoped_array.hpp"
+
+#include "common/types.h"
+
+namespace voltdb {
+
+class AbstractExpression;
+class ColumnarBlock;
+class TupleSchema;
+
+/**
+ * The values of some of the integer and timestamp columns of a batch of
+ * rows, widened to int64, with NULLs flagged separately. Rows are loaded
+ * either from tuples or from the columnar encoding of a block.
+ */
+class ColumnBatch {
+public:
+    enum { CAPACITY = 1024 };
+
+    ColumnBatch(const TupleSchema* schema, const std::vector<int>& columns);
+
+    /** Load the columns of count tuples, given the addresses of their storage. */
+    void loadTuples(char* const* tuples, uint32_t count);
+
+    /** Load rows [start, start + count) of an encoded block. */
+    void loadEncoded(const ColumnarBlock& block, uint32_t start, uint32_t count);
+
+    uint32_t size() const {
+        return m_size;
+    }
+
+    const int64_t* values(int column) const {
+        return m_values[column];
+    }
+
+    const bool* nulls(int column) const {
+        return m_nulls[column];
+    }
+
+private:
+    void flagNulls(int column);
+
+    const TupleSchema* m_schema;
+    const std::vector<int> m_columns;
+    // Indexed by schema column, NULL for the columns that are not loaded
+    std::vector<int64_t*> m_values;
+    std::vector<bool*> m_nulls;
+    boost::scoped_array<int64_t> m_valueStorage;
+    boost::scoped_array<bool> m_nullStorage;
+    uint32_t m_size;
+};
+
+/**
+ * An integer valued expression compiled to evaluate a whole ColumnBatch at
+ * a time: column references, integer or timestamp constants and parameters,
+ * and the BIGINT arithmetic of +, - and * over them.
+ */
+class BatchExpression {
+public:
+    virtual ~BatchExpression() { }
+
+    /**
+     * Compile an expression over the tuples of a table with the given schema,
+     * adding the columns it reads to columns. Parameters are bound to their
+     * current values. Returns NULL if the expression is not supported.
+     */
+    static BatchExpression* compile(const AbstractExpression* expr, const TupleSchema* schema,
+                                    std::vector<int>& columns);
+
+    /**
+     * Evaluate over every row of the batch, pointing values and nulls at the
+     * results. Returns false if a result overflowed, or would have been the
+     * NULL sentinel, which the caller must leave to row at a time evaluation.
+     */
+    virtual bool evaluate(const ColumnBatch& batch, const int64_t*& values, const bool*& nulls) const = 0;
+
+    /** TIMESTAMP or one of the integer types. */
+    ValueType valueType() const {
+        return m_valueType;
+    }
+
+protected:
+    BatchExpression(ValueType valueType) : m_valueType(valueType) { }
+
+private:
+    const ValueType m_valueType;
+};
+
+/**
+ * A filter compiled to evaluate a whole ColumnBatch at a time: comparisons
+ * between BatchExpressions of the same type family combined with AND and OR.
+ * A comparison with a NULL operand is false, which gives the same rows as
+ * a WHERE clause as long as there is no NOT.
+ */
+class BatchPredicate {
+public:
+    virtual ~BatchPredicate() { }
+
+    /** As BatchExpression::compile(). */
+    static BatchPredicate* compile(const AbstractExpression* expr, const TupleSchema* schema,
+                                   std::vector<int>& columns);
+
+    /**
+     * Narrow the count rows listed in ascending order in selection down to
+     * those that pass. Returns false if an operand could not be evaluated,
+     * in which case the selection is undefined.
+     */
+    virtual bool filter(const ColumnBatch& batch, uint16_t* selection, uint32_t& count) const = 0;
+};
+
+}
+
+#endif /* VOLTDB_BATCHEXPRESSION_H_ */
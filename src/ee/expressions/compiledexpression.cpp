@@ -0,0 +1,458 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+#include "expressions/compiledexpression.h"
+
+#include <memory>
+
+#include "common/CheckedArithmetic.h"
+#include "common/NValue.hpp"
+#include "common/SQLException.h"
+#include "common/TupleSchema.h"
+#include "common/ValuePeeker.hpp"
+#include "common/tabletuple.h"
+#include "expressions/abstractexpression.h"
+#include "expressions/parametervalueexpression.h"
+#include "expressions/tuplevalueexpression.h"
+
+namespace voltdb {
+
+namespace {
+
+enum RegisterType {
+    REGISTER_NONE,
+    REGISTER_BOOLEAN,
+    REGISTER_INTEGER,
+    REGISTER_TIMESTAMP
+};
+
+RegisterType registerTypeOf(ValueType type) {
+    switch (type) {
+    case VALUE_TYPE_BOOLEAN:
+        return REGISTER_BOOLEAN;
+    case VALUE_TYPE_TINYINT:
+    case VALUE_TYPE_SMALLINT:
+    case VALUE_TYPE_INTEGER:
+    case VALUE_TYPE_BIGINT:
+        return REGISTER_INTEGER;
+    case VALUE_TYPE_TIMESTAMP:
+        return REGISTER_TIMESTAMP;
+    default:
+        return REGISTER_NONE;
+    }
+}
+
+const int MAX_REGISTERS = 256;
+
+}
+
+/**
+ * Emits the program for an expression tree depth first, giving every node
+ * its own register. A node whose operands are all constants is evaluated
+ * once with AbstractExpression::eval() and becomes a constant register
+ * that no instruction writes.
+ */
+class ExpressionCompiler {
+public:
+    ExpressionCompiler(CompiledExpression* compiled)
+        : m_compiled(compiled)
+    {
+    }
+
+    // Returns the register holding the value of expr, or -1 if it does not compile
+    int compile(const AbstractExpression* expr);
+
+    void finish(int result) {
+        m_compiled->m_result = static_cast<uint8_t>(result);
+        m_compiled->m_values.reset(new int64_t[m_types.size()]);
+        m_compiled->m_nulls.reset(new bool[m_types.size()]);
+        for (size_t ii = 0; ii < m_types.size(); ++ii) {
+            m_compiled->m_values[ii] = m_constantValues[ii];
+            m_compiled->m_nulls[ii] = m_constantNulls[ii];
+        }
+    }
+
+    RegisterType typeOf(int reg) const {
+        return m_types[reg];
+    }
+
+private:
+    typedef CompiledExpression::Instruction Instruction;
+
+    int newRegister(RegisterType type, bool isConstant = false, int64_t value = 0, bool isNull = false) {
+        if (m_types.size() == MAX_REGISTERS) {
+            return -1;
+        }
+        m_types.push_back(type);
+        m_isConstant.push_back(isConstant);
+        m_constantValues.push_back(value);
+        m_constantNulls.push_back(isNull);
+        return static_cast<int>(m_types.size()) - 1;
+    }
+
+    int constant(const NValue& value) {
+        const RegisterType type = registerTypeOf(ValuePeeker::peekValueType(value));
+        if (type == REGISTER_NONE) {
+            return -1;
+        }
+        if (value.isNull()) {
+            return newRegister(type, true, 0, true);
+        }
+        if (type == REGISTER_BOOLEAN) {
+            return newRegister(type, true, value.isTrue() ? 1 : 0);
+        }
+        return newRegister(type, true, ValuePeeker::peekAsRawInt64(value));
+    }
+
+    int emit(CompiledExpression::Opcode opcode, RegisterType type, int left, int right = 0, int32_t operand = 0) {
+        int result = newRegister(type);
+        if (result >= 0) {
+            emitTo(opcode, result, left, right, operand);
+        }
+        return result;
+    }
+
+    void emitTo(CompiledExpression::Opcode opcode, int result, int left, int right, int32_t operand) {
+        Instruction instruction;
+        instruction.opcode = static_cast<uint8_t>(opcode);
+        instruction.result = static_cast<uint8_t>(result);
+        instruction.left = static_cast<uint8_t>(left);
+        instruction.right = static_cast<uint8_t>(right);
+        instruction.operand = operand;
+        m_compiled->m_program.push_back(instruction);
+    }
+
+    // A constant register for expr if all of its operands are constants,
+    // otherwise -1 (as it is when folding fails, which is left to runtime).
+    int fold(const AbstractExpression* expr, int left, int right) {
+        if ( ! m_isConstant[left] || ! m_isConstant[right]) {
+            return -1;
+        }
+        try {
+            return constant(expr->eval(NULL, NULL));
+        }
+        catch (const SQLException&) {
+            return -1;
+        }
+    }
+
+    int compileColumn(const TupleValueExpression* tve);
+    int compileParameter(const ParameterValueExpression* pve);
+    int compileBinary(const AbstractExpression* expr, CompiledExpression::Opcode opcode);
+    int compileConjunction(const AbstractExpression* expr, bool isAnd);
+
+    CompiledExpression* m_compiled;
+    std::vector<RegisterType> m_types;
+    std::vector<bool> m_isConstant;
+    std::vector<int64_t> m_constantValues;
+    std::vector<bool> m_constantNulls;
+};
+
+int ExpressionCompiler::compile(const AbstractExpression* expr) {
+    if (expr == NULL) {
+        return -1;
+    }
+    switch (expr->getExpressionType()) {
+    case EXPRESSION_TYPE_VALUE_TUPLE:
+        return compileColumn(static_cast<const TupleValueExpression*>(expr));
+    case EXPRESSION_TYPE_VALUE_CONSTANT:
+        return constant(expr->eval(NULL, NULL));
+    case EXPRESSION_TYPE_VALUE_PARAMETER:
+        return compileParameter(static_cast<const ParameterValueExpression*>(expr));
+    case EXPRESSION_TYPE_OPERATOR_PLUS:
+        return compileBinary(expr, CompiledExpression::OP_PLUS);
+    case EXPRESSION_TYPE_OPERATOR_MINUS:
+        return compileBinary(expr, CompiledExpression::OP_MINUS);
+    case EXPRESSION_TYPE_OPERATOR_MULTIPLY:
+        return compileBinary(expr, CompiledExpression::OP_MULTIPLY);
+    case EXPRESSION_TYPE_COMPARE_EQUAL:
+        return compileBinary(expr, CompiledExpression::OP_EQUAL);
+    case EXPRESSION_TYPE_COMPARE_NOTEQUAL:
+        return compileBinary(expr, CompiledExpression::OP_NOT_EQUAL);
+    case EXPRESSION_TYPE_COMPARE_LESSTHAN:
+        return compileBinary(expr, CompiledExpression::OP_LESS_THAN);
+    case EXPRESSION_TYPE_COMPARE_LESSTHANOREQUALTO:
+        return compileBinary(expr, CompiledExpression::OP_LESS_THAN_OR_EQUAL);
+    case EXPRESSION_TYPE_COMPARE_GREATERTHAN:
+        return compileBinary(expr, CompiledExpression::OP_GREATER_THAN);
+    case EXPRESSION_TYPE_COMPARE_GREATERTHANOREQUALTO:
+        return compileBinary(expr, CompiledExpression::OP_GREATER_THAN_OR_EQUAL);
+    case EXPRESSION_TYPE_CONJUNCTION_AND:
+        return compileConjunction(expr, true);
+    case EXPRESSION_TYPE_CONJUNCTION_OR:
+        return compileConjunction(expr, false);
+    case EXPRESSION_TYPE_OPERATOR_NOT:
+    case EXPRESSION_TYPE_OPERATOR_IS_NULL: {
+        const bool isNot = expr->getExpressionType() == EXPRESSION_TYPE_OPERATOR_NOT;
+        int operand = compile(expr->getLeft());
+        if (operand < 0 || (isNot && m_types[operand] != REGISTER_BOOLEAN)) {
+            return -1;
+        }
+        int folded = fold(expr, operand, operand);
+        if (folded >= 0) {
+            return folded;
+        }
+        return emit(isNot ? CompiledExpression::OP_NOT : CompiledExpression::OP_IS_NULL,
+                    REGISTER_BOOLEAN, operand);
+    }
+    default:
+        return -1;
+    }
+}
+
+int ExpressionCompiler::compileColumn(const TupleValueExpression* tve) {
+    const TupleSchema* schema = m_compiled->m_schema;
+    if (tve->getTupleId() != 0 || tve->getColumnId() >= schema->columnCount()) {
+        return -1;
+    }
+    const TupleSchema::ColumnInfo* columnInfo = schema->getColumnInfo(tve->getColumnId());
+    const int32_t offset = static_cast<int32_t>(columnInfo->offset);
+    switch (columnInfo->getVoltType()) {
+    case VALUE_TYPE_TINYINT:
+        return emit(CompiledExpression::OP_LOAD_TINYINT, REGISTER_INTEGER, 0, 0, offset);
+    case VALUE_TYPE_SMALLINT:
+        return emit(CompiledExpression::OP_LOAD_SMALLINT, REGISTER_INTEGER, 0, 0, offset);
+    case VALUE_TYPE_INTEGER:
+        return emit(CompiledExpression::OP_LOAD_INTEGER, REGISTER_INTEGER, 0, 0, offset);
+    case VALUE_TYPE_BIGINT:
+        return emit(CompiledExpression::OP_LOAD_BIGINT, REGISTER_INTEGER, 0, 0, offset);
+    case VALUE_TYPE_TIMESTAMP:
+        return emit(CompiledExpression::OP_LOAD_BIGINT, REGISTER_TIMESTAMP, 0, 0, offset);
+    default:
+        return -1;
+    }
+}
+
+int ExpressionCompiler::compileParameter(const ParameterValueExpression* pve) {
+    // The value bound to the parameter is checked against the planned type
+    // on every load.
+    const RegisterType type = registerTypeOf(pve->getValueType());
+    if (pve->getParamValue() == NULL || (type != REGISTER_INTEGER && type != REGISTER_TIMESTAMP)) {
+        return -1;
+    }
+    std::vector<const NValue*>& params = m_compiled->m_params;
+    params.push_back(pve->getParamValue());
+    return emit(type == REGISTER_INTEGER ? CompiledExpression::OP_LOAD_INTEGER_PARAM :
+                                           CompiledExpression::OP_LOAD_TIMESTAMP_PARAM,
+                type, 0, 0, static_cast<int32_t>(params.size() - 1));
+}
+
+int ExpressionCompiler::compileBinary(const AbstractExpression* expr, CompiledExpression::Opcode opcode) {
+    int left = compile(expr->getLeft());
+    if (left < 0) {
+        return -1;
+    }
+    int right = compile(expr->getRight());
+    if (right < 0) {
+        return -1;
+    }
+    RegisterType type;
+    if (opcode == CompiledExpression::OP_PLUS || opcode == CompiledExpression::OP_MINUS ||
+            opcode == CompiledExpression::OP_MULTIPLY) {
+        if (m_types[left] != REGISTER_INTEGER || m_types[right] != REGISTER_INTEGER) {
+            return -1;
+        }
+        type = REGISTER_INTEGER;
+    }
+    else {
+        if (m_types[left] != m_types[right] || m_types[left] == REGISTER_BOOLEAN) {
+            return -1;
+        }
+        type = REGISTER_BOOLEAN;
+    }
+    int folded = fold(expr, left, right);
+    if (folded >= 0) {
+        return folded;
+    }
+    return emit(opcode, type, left, right);
+}
+
+int ExpressionCompiler::compileConjunction(const AbstractExpression* expr, bool isAnd) {
+    int left = compile(expr->getLeft());
+    if (left < 0 || m_types[left] != REGISTER_BOOLEAN) {
+        return -1;
+    }
+    // Skip the right operand when the left one decides, as the tree does.
+    // The left register is the result then, so it must not be a constant.
+    size_t jump = m_compiled->m_program.size();
+    if ( ! m_isConstant[left]) {
+        emitTo(isAnd ? CompiledExpression::OP_JUMP_IF_FALSE : CompiledExpression::OP_JUMP_IF_TRUE,
+               0, left, 0, 0);
+    }
+    int right = compile(expr->getRight());
+    if (right < 0 || m_types[right] != REGISTER_BOOLEAN) {
+        return -1;
+    }
+    int folded = fold(expr, left, right);
+    if (folded >= 0) {
+        return folded;
+    }
+    const CompiledExpression::Opcode opcode = isAnd ? CompiledExpression::OP_AND : CompiledExpression::OP_OR;
+    if (m_isConstant[left]) {
+        return emit(opcode, REGISTER_BOOLEAN, left, right);
+    }
+    emitTo(opcode, left, left, right, 0);
+    m_compiled->m_program[jump].operand = static_cast<int32_t>(m_compiled->m_program.size());
+    return left;
+}
+
+CompiledExpression* CompiledExpression::compile(const AbstractExpression* expr, const TupleSchema* schema) {
+    std::unique_ptr<CompiledExpression> compiled(new CompiledExpression(schema));
+    ExpressionCompiler compiler(compiled.get());
+    int result = compiler.compile(expr);
+    if (result < 0 || compiler.typeOf(result) != REGISTER_BOOLEAN) {
+        return NULL;
+    }
+    compiler.finish(result);
+    return compiled.release();
+}
+
+namespace {
+
+template <typename T>
+inline void load(const char* data, int64_t nullValue, int64_t& value, bool& isNull) {
+    value = *reinterpret_cast<const T*>(data);
+    isNull = value == nullValue;
+}
+
+}
+
+bool CompiledExpression::evalPredicate(const TableTuple* tuple, bool& passed) const {
+    if (tuple == NULL || tuple->getSchema() != m_schema) {
+        return false;
+    }
+    const char* data = tuple->address() + TUPLE_HEADER_SIZE;
+    int64_t* values = m_values.get();
+    bool* nulls = m_nulls.get();
+    const size_t size = m_program.size();
+    size_t pc = 0;
+    while (pc < size) {
+        const Instruction& instruction = m_program[pc++];
+        const uint8_t result = instruction.result;
+        const uint8_t left = instruction.left;
+        const uint8_t right = instruction.right;
+        switch (instruction.opcode) {
+        case OP_LOAD_TINYINT:
+            load<int8_t>(data + instruction.operand, INT8_NULL, values[result], nulls[result]);
+            break;
+        case OP_LOAD_SMALLINT:
+            load<int16_t>(data + instruction.operand, INT16_NULL, values[result], nulls[result]);
+            break;
+        case OP_LOAD_INTEGER:
+            load<int32_t>(data + instruction.operand, INT32_NULL, values[result], nulls[result]);
+            break;
+        case OP_LOAD_BIGINT:
+            load<int64_t>(data + instruction.operand, INT64_NULL, values[result], nulls[result]);
+            break;
+        case OP_LOAD_INTEGER_PARAM:
+        case OP_LOAD_TIMESTAMP_PARAM: {
+            const NValue& param = *m_params[instruction.operand];
+            const ValueType type = ValuePeeker::peekValueType(param);
+            if (param.isNull()) {
+                nulls[result] = true;
+                break;
+            }
+            if (registerTypeOf(type) != (instruction.opcode == OP_LOAD_INTEGER_PARAM ?
+                                         REGISTER_INTEGER : REGISTER_TIMESTAMP)) {
+                return false;
+            }
+            values[result] = ValuePeeker::peekAsRawInt64(param);
+            nulls[result] = false;
+            break;
+        }
+        case OP_PLUS:
+        case OP_MINUS:
+        case OP_MULTIPLY:
+            nulls[result] = nulls[left] || nulls[right];
+            if ( ! nulls[result]) {
+                bool fits = instruction.opcode == OP_PLUS ?
+                        CheckedPlus::apply(values[left], values[right], values[result]) :
+                        instruction.opcode == OP_MINUS ?
+                        CheckedMinus::apply(values[left], values[right], values[result]) :
+                        CheckedMultiply::apply(values[left], values[right], values[result]);
+                if ( ! fits) {
+                    return false;
+                }
+            }
+            break;
+        case OP_EQUAL:
+            nulls[result] = nulls[left] || nulls[right];
+            values[result] = values[left] == values[right];
+            break;
+        case OP_NOT_EQUAL:
+            nulls[result] = nulls[left] || nulls[right];
+            values[result] = values[left] != values[right];
+            break;
+        case OP_LESS_THAN:
+            nulls[result] = nulls[left] || nulls[right];
+            values[result] = values[left] < values[right];
+            break;
+        case OP_LESS_THAN_OR_EQUAL:
+            nulls[result] = nulls[left] || nulls[right];
+            values[result] = values[left] <= values[right];
+            break;
+        case OP_GREATER_THAN:
+            nulls[result] = nulls[left] || nulls[right];
+            values[result] = values[left] > values[right];
+            break;
+        case OP_GREATER_THAN_OR_EQUAL:
+            nulls[result] = nulls[left] || nulls[right];
+            values[result] = values[left] >= values[right];
+            break;
+        case OP_AND: {
+            // FALSE wins over NULL
+            const bool isFalse = ( ! nulls[left] && values[left] == 0) || ( ! nulls[right] && values[right] == 0);
+            nulls[result] = ! isFalse && (nulls[left] || nulls[right]);
+            values[result] = ! isFalse;
+            break;
+        }
+        case OP_OR: {
+            // TRUE wins over NULL
+            const bool isTrue = ( ! nulls[left] && values[left] != 0) || ( ! nulls[right] && values[right] != 0);
+            nulls[result] = ! isTrue && (nulls[left] || nulls[right]);
+            values[result] = isTrue;
+            break;
+        }
+        case OP_NOT:
+            // NOT NULL is NULL
+            nulls[result] = nulls[left];
+            values[result] = values[left] == 0;
+            break;
+        case OP_IS_NULL:
+            values[result] = nulls[left];
+            nulls[result] = false;
+            break;
+        case OP_JUMP_IF_FALSE:
+            if ( ! nulls[left] && values[left] == 0) {
+                pc = instruction.operand;
+            }
+            break;
+        case OP_JUMP_IF_TRUE:
+            if ( ! nulls[left] && values[left] != 0) {
+                pc = instruction.operand;
+            }
+            break;
+        default:
+            return false;
+        }
+    }
+    passed = ! nulls[m_result] && values[m_result] != 0;
+    return true;
+}
+
+}
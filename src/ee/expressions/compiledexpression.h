@@ -0,0 +1,145 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+#ifndef VOLTDB_COMPILEDEXPRESSION_H_
+#define VOLTDB_COMPILEDEXPRESSION_H_
+
+#include <vector>
+
+#include "boost/scoped_array.hpp"
+#include "boost/scoped_ptr.hpp"
+
+#include "common/types.h"
+
+namespace voltdb {
+
+class AbstractExpression;
+class NValue;
+class TableTuple;
+class TupleSchema;
+
+/**
+ * A predicate over the tuples of one table flattened into a register based
+ * program. Column reads are specialized by type and offset, subtrees of
+ * constants are folded into registers once and values stay raw int64_t
+ * with a null flag, so that no NValue is built while evaluating.
+ *
+ * Only integer and timestamp columns, parameters and constants, the six
+ * comparisons, AND, OR, NOT, IS NULL and + - * are compiled. Anything
+ * else is left to AbstractExpression::eval().
+ */
+class CompiledExpression {
+public:
+    /**
+     * Compile a predicate over tuples of the given schema. Returns NULL if
+     * it does not compile. Parameters are read from their slots on every
+     * evaluation so the result can be cached with the plan.
+     */
+    static CompiledExpression* compile(const AbstractExpression* expr, const TupleSchema* schema);
+
+    /**
+     * Evaluate against a tuple, setting passed to whether the predicate is
+     * TRUE. Returns false if the tuple or a parameter is not of the type the
+     * predicate was compiled for, or if an operator overflowed. The caller
+     * must then evaluate the expression tree instead, which reports any error.
+     */
+    bool evalPredicate(const TableTuple* tuple, bool& passed) const;
+
+    const TupleSchema* schema() const {
+        return m_schema;
+    }
+
+private:
+    friend class ExpressionCompiler;
+
+    enum Opcode {
+        OP_LOAD_TINYINT,
+        OP_LOAD_SMALLINT,
+        OP_LOAD_INTEGER,
+        OP_LOAD_BIGINT,
+        OP_LOAD_INTEGER_PARAM,
+        OP_LOAD_TIMESTAMP_PARAM,
+        OP_PLUS,
+        OP_MINUS,
+        OP_MULTIPLY,
+        OP_EQUAL,
+        OP_NOT_EQUAL,
+        OP_LESS_THAN,
+        OP_LESS_THAN_OR_EQUAL,
+        OP_GREATER_THAN,
+        OP_GREATER_THAN_OR_EQUAL,
+        OP_AND,
+        OP_OR,
+        OP_NOT,
+        OP_IS_NULL,
+        OP_JUMP_IF_FALSE,
+        OP_JUMP_IF_TRUE
+    };
+
+    // Registers are indexes into m_values and m_nulls. operand is the
+    // column offset of a load, the parameter of a parameter load or the
+    // target of a jump.
+    struct Instruction {
+        uint8_t opcode;
+        uint8_t result;
+        uint8_t left;
+        uint8_t right;
+        int32_t operand;
+    };
+
+    CompiledExpression(const TupleSchema* schema)
+        : m_schema(schema)
+        , m_result(0)
+    {
+    }
+
+    const TupleSchema* m_schema;
+    std::vector<Instruction> m_program;
+    std::vector<const NValue*> m_params;
+    // Constant registers are set once by the compiler, the rest by the program
+    boost::scoped_array<int64_t> m_values;
+    boost::scoped_array<bool> m_nulls;
+    uint8_t m_result;
+};
+
+/**
+ * The compiled form of a plan node's predicate, kept with the cached plan.
+ * It is compiled again when the scanned table has a new schema, as it does
+ * after a TRUNCATE swaps in an empty copy of the table.
+ */
+class CompiledPredicateCache {
+public:
+    CompiledPredicateCache() : m_schema(NULL) { }
+
+    /** The predicate compiled for the schema, or NULL if it does not compile. */
+    const CompiledExpression* get(const AbstractExpression* predicate, const TupleSchema* schema) {
+        if (schema != m_schema) {
+            m_compiled.reset(predicate == NULL ? NULL : CompiledExpression::compile(predicate, schema));
+            m_schema = schema;
+        }
+        return m_compiled.get();
+    }
+
+private:
+    const TupleSchema* m_schema;
+    boost::scoped_ptr<CompiledExpression> m_compiled;
+};
+
+}
+
+#endif /* VOLTDB_COMPILEDEXPRESSION_H_ */
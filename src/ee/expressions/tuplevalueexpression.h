@@ -89,6 +89,7 @@ class TupleValueExpression : public AbstractExpression {
         return (buffer.str());
     }
 
+    int getTupleId() const {return this->tuple_idx;}
     int getColumnId() const {return this->value_idx;}
 
   protected:
@@ -51,6 +51,9 @@
 #include "indexes/tableindex.h"
 #include "common/tabletuple.h"
 #include "structures/CompactingHashTable.h"
+#include "structures/CompactingOpenHashTable.h"
+
+#include "boost/mpl/if.hpp"
 
 namespace voltdb {
 
@@ -58,12 +61,14 @@ namespace voltdb {
  * Index implemented as a Hash Table Multimap.
  * @see TableIndex
  */
-template<typename KeyType>
+template<typename KeyType, bool isOpenAddressing = false>
 class CompactingHashMultiMapIndex : public TableIndex
 {
     typedef typename KeyType::KeyEqualityChecker KeyEqualityChecker;
     typedef typename KeyType::KeyHasher KeyHasher;
-    typedef CompactingHashTable<KeyType, const void*, KeyHasher, KeyEqualityChecker> MapType;
+    typedef typename boost::mpl::if_c<isOpenAddressing,
+                                      CompactingOpenHashTable<KeyType, const void*, KeyHasher, KeyEqualityChecker>,
+                                      CompactingHashTable<KeyType, const void*, KeyHasher, KeyEqualityChecker> >::type MapType;
     typedef typename MapType::iterator MapIterator;
 
     ~CompactingHashMultiMapIndex() {};
@@ -172,7 +177,7 @@ class CompactingHashMultiMapIndex : public TableIndex
         return m_entries.bytesAllocated();
     }
 
-    std::string getTypeName() const { return "CompactingHashMultiMapIndex"; };
+    std::string getTypeName() const { return isOpenAddressing ? "CompactingOpenHashMultiMapIndex" : "CompactingHashMultiMapIndex"; };
 
     // Non-virtual (so "really-private") helper methods.
     MapIterator findKey(const TableTuple *searchKey) const
@@ -51,6 +51,9 @@
 
 #include "indexes/tableindex.h"
 #include "structures/CompactingHashTable.h"
+#include "structures/CompactingOpenHashTable.h"
+
+#include "boost/mpl/if.hpp"
 
 namespace voltdb {
 
@@ -58,12 +61,14 @@ namespace voltdb {
  * Index implemented as a Hash Table Unique Map.
  * @see TableIndex
  */
-template<typename KeyType>
+template<typename KeyType, bool isOpenAddressing = false>
 class CompactingHashUniqueIndex : public TableIndex
 {
     typedef typename KeyType::KeyEqualityChecker KeyEqualityChecker;
     typedef typename KeyType::KeyHasher KeyHasher;
-    typedef CompactingHashTable<KeyType, const void*, KeyHasher, KeyEqualityChecker> MapType;
+    typedef typename boost::mpl::if_c<isOpenAddressing,
+                                      CompactingOpenHashTable<KeyType, const void*, KeyHasher, KeyEqualityChecker>,
+                                      CompactingHashTable<KeyType, const void*, KeyHasher, KeyEqualityChecker> >::type MapType;
     typedef typename MapType::iterator MapIterator;
 
     ~CompactingHashUniqueIndex() {};
@@ -176,7 +181,7 @@ class CompactingHashUniqueIndex : public TableIndex
         return m_entries.bytesAllocated();
     }
 
-    std::string getTypeName() const { return "CompactingHashUniqueIndex"; };
+    std::string getTypeName() const { return isOpenAddressing ? "CompactingOpenHashUniqueIndex" : "CompactingHashUniqueIndex"; };
 
     TableIndex *cloneEmptyNonCountingTreeIndex() const
     {
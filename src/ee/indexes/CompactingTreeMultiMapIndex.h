@@ -51,19 +51,25 @@
 #include "indexes/tableindex.h"
 #include "common/tabletuple.h"
 #include "structures/CompactingMap.h"
+#include "structures/CompactingBTree.h"
+
+#include "boost/mpl/if.hpp"
 
 namespace voltdb {
 
 /**
- * Index implemented as a Binary Tree Multimap.
+ * Index implemented as a Binary Tree Multimap, or as a B+tree (CompactingBTree)
+ * for BTREE_INDEX schemes over plain integer keys.
  * @see TableIndex
  */
-template<typename KeyValuePair, bool hasRank>
+template<typename KeyValuePair, bool hasRank, bool isBTree = false>
 class CompactingTreeMultiMapIndex : public TableIndex
 {
     typedef typename KeyValuePair::first_type KeyType;
     typedef typename KeyType::KeyComparator KeyComparator;
-    typedef CompactingMap<KeyValuePair, KeyComparator, hasRank> MapType;
+    typedef typename boost::mpl::if_c<isBTree,
+                                      CompactingBTree<KeyValuePair, KeyComparator, hasRank>,
+                                      CompactingMap<KeyValuePair, KeyComparator, hasRank> >::type MapType;
     typedef typename MapType::iterator MapIterator;
     typedef std::pair<MapIterator, MapIterator> MapRange;
 
@@ -378,7 +384,10 @@ class CompactingTreeMultiMapIndex : public TableIndex
         return (ret);
     }
 
-    std::string getTypeName() const { return "CompactingTreeMultiMapIndex"; };
+    std::string getTypeName() const
+    {
+        return isBTree ? "CompactingBTreeMultiMapIndex" : "CompactingTreeMultiMapIndex";
+    }
 
     MapIterator findKey(const TableTuple *searchKey) const {
         KeyType tempKey(searchKey);
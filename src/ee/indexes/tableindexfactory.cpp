@@ -62,16 +62,22 @@ class TableIndexPicker
     TableIndex *getInstanceForKeyType() const
     {
         if (m_scheme.unique) {
-            if (m_type != BALANCED_TREE_INDEX) {
-                return new CompactingHashUniqueIndex<TKeyType >(m_keySchema, m_scheme);
+            if (m_type == HASH_TABLE_INDEX) {
+                if (m_openAddressingHash) {
+                    return new CompactingHashUniqueIndex<TKeyType, true>(m_keySchema, m_scheme);
+                }
+                return new CompactingHashUniqueIndex<TKeyType>(m_keySchema, m_scheme);
             } else if (m_scheme.countable) {
                 return new CompactingTreeUniqueIndex<NormalKeyValuePair<TKeyType>, true>(m_keySchema, m_scheme);
             } else {
                 return new CompactingTreeUniqueIndex<NormalKeyValuePair<TKeyType>, false>(m_keySchema, m_scheme);
             }
         } else {
-            if (m_type != BALANCED_TREE_INDEX) {
-                return new CompactingHashMultiMapIndex<TKeyType >(m_keySchema, m_scheme);
+            if (m_type == HASH_TABLE_INDEX) {
+                if (m_openAddressingHash) {
+                    return new CompactingHashMultiMapIndex<TKeyType, true>(m_keySchema, m_scheme);
+                }
+                return new CompactingHashMultiMapIndex<TKeyType>(m_keySchema, m_scheme);
             } else if (m_scheme.countable) {
                 return new CompactingTreeMultiMapIndex<PointerKeyValuePair<TKeyType>, true>(m_keySchema, m_scheme);
             } else {
@@ -80,6 +86,18 @@ class TableIndexPicker
         }
     }
 
+    // The B+tree keeps copies of keys in its inner nodes, so it is only used for
+    // IntsKey, and it does not keep the ranks that a countable index needs.
+    template <class TKeyType>
+    TableIndex *getBTreeInstanceForKeyType() const
+    {
+        if (m_scheme.unique) {
+            return new CompactingTreeUniqueIndex<NormalKeyValuePair<TKeyType>, false, true>(m_keySchema, m_scheme);
+        } else {
+            return new CompactingTreeMultiMapIndex<PointerKeyValuePair<TKeyType>, false, true>(m_keySchema, m_scheme);
+        }
+    }
+
     template <std::size_t KeySize>
     TableIndex *getInstanceIfKeyFits()
     {
@@ -89,6 +107,9 @@ class TableIndexPicker
         if (m_intsOnly) {
             // The IntsKey size parameter ((KeySize-1)/8 + 1) is calculated to be
             // the number of 8-byte uint64's required to store KeySize packed bytes.
+            if (m_type == BTREE_INDEX && ! m_scheme.countable) {
+                return getBTreeInstanceForKeyType<IntsKey<(KeySize-1)/8 + 1> >();
+            }
             return getInstanceForKeyType<IntsKey<(KeySize-1)/8 + 1> >();
         }
         // Generic Key
@@ -98,6 +119,12 @@ class TableIndexPicker
                       m_scheme.name.c_str());
             m_type = BALANCED_TREE_INDEX;
         }
+        if (m_type == BTREE_INDEX) {
+            VOLT_INFO("Producing a tree index for %s: "
+                      "btree index not currently supported for this index key.\n",
+                      m_scheme.name.c_str());
+            m_type = BALANCED_TREE_INDEX;
+        }
         // If any indexed expression value can not either be stored "inline" within a (GenericKey) key tuple
         // or specifically in a non-inlined object shared with the base table (because it is a simple column value),
         // then the GenericKey will have to reference and maintain its own persistent non-inline storage.
@@ -193,12 +220,13 @@ public:
     }
 
     TableIndexPicker(const TupleSchema *keySchema, bool intsOnly, bool inlinesOrColumnsOnly,
-                     const TableIndexScheme &scheme) :
+                     const TableIndexScheme &scheme, bool openAddressingHash) :
         m_scheme(scheme),
         m_keySchema(keySchema),
         m_keySize(keySchema->tupleLength()),
         m_intsOnly(intsOnly),
         m_inlinesOrColumnsOnly(inlinesOrColumnsOnly),
+        m_openAddressingHash(openAddressingHash),
         m_type(scheme.type)
     {}
 
@@ -208,6 +236,7 @@ private:
     const int m_keySize;
     bool m_intsOnly;
     bool m_inlinesOrColumnsOnly;
+    const bool m_openAddressingHash;
     TableIndexType m_type;
 };
 
@@ -217,7 +246,7 @@ static CoveringCellIndex* getCoveringCellIndexInstance(const TableIndexScheme &s
     return new CoveringCellIndex(builder.buildKeySchema(), scheme);
 }
 
-TableIndex *TableIndexFactory::getInstance(const TableIndexScheme &scheme) {
+TableIndex *TableIndexFactory::getInstance(const TableIndexScheme &scheme, bool openAddressingHash) {
 
     if (scheme.type == COVERING_CELL_INDEX) {
         return getCoveringCellIndexInstance(scheme);
@@ -291,7 +320,7 @@ TableIndex *TableIndexFactory::getInstance(const TableIndexScheme &scheme) {
     TupleSchema *keySchema = TupleSchema::createKeySchema(keyColumnTypes, keyColumnLengths, keyColumnInBytes);
     assert(keySchema);
     VOLT_TRACE("Creating index for '%s' with key schema '%s'", scheme.name.c_str(), keySchema->debug().c_str());
-    TableIndexPicker picker(keySchema, isIntsOnly, isInlinesOrColumnsOnly, scheme);
+    TableIndexPicker picker(keySchema, isIntsOnly, isInlinesOrColumnsOnly, scheme, openAddressingHash);
     TableIndex *retval = picker.getInstance();
     return retval;
 }
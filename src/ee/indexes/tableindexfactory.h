@@ -57,7 +57,11 @@ namespace voltdb {
  */
 class TableIndexFactory {
 public:
-    static TableIndex *getInstance(const TableIndexScheme &scheme);
+    /**
+     * With openAddressingHash, a hash index on an IntsKey is built on CompactingOpenHashTable
+     * instead of the chained CompactingHashTable.
+     */
+    static TableIndex *getInstance(const TableIndexScheme &scheme, bool openAddressingHash = false);
     static TableIndex *cloneEmptyTreeIndex(const TableIndex& pkey_index);
 };
 
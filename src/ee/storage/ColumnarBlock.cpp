@@ -0,0 +1,65 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+#include "storage/ColumnarBlock.h"
+
+#include "common/TupleSchema.h"
+#include "common/tabletuple.h"
+
+namespace voltdb {
+
+bool ColumnarBlock::hasEncodableColumns(const TupleSchema* schema) {
+    for (int ii = 0; ii < schema->columnCount(); ++ii) {
+        if (isEncodable(schema->columnType(ii))) {
+            return true;
+        }
+    }
+    return false;
+}
+
+ColumnarBlock::ColumnarBlock(const TupleSchema* schema, char* storage,
+                             uint32_t tupleLength, uint32_t tupleBoundary)
+    : m_columns(schema->columnCount())
+    , m_bytesAllocated(sizeof(ColumnarBlock))
+{
+    TableTuple tuple(schema);
+    for (uint32_t slot = 0; slot < tupleBoundary; ++slot) {
+        tuple.move(storage + slot * tupleLength);
+        if (tuple.isActive() && !tuple.isPendingDelete() && !tuple.isPendingDeleteOnUndoRelease()) {
+            m_slots.push_back(slot);
+        }
+    }
+    m_bytesAllocated += m_slots.capacity() * sizeof(uint32_t);
+
+    std::vector<int64_t> values(m_slots.size());
+    for (int col = 0; col < schema->columnCount(); ++col) {
+        const TupleSchema::ColumnInfo* columnInfo = schema->getColumnInfo(col);
+        const ValueType type = columnInfo->getVoltType();
+        if (!isEncodable(type)) {
+            continue;
+        }
+        const char* data = storage + TUPLE_HEADER_SIZE + columnInfo->offset;
+        for (size_t row = 0; row < m_slots.size(); ++row) {
+            values[row] = readValue(type, data + m_slots[row] * tupleLength);
+        }
+        m_columns[col].reset(new EncodedColumn(values.data(), rowCount(), nullValueOf(type)));
+        m_bytesAllocated += m_columns[col]->bytesAllocated();
+    }
+}
+
+}
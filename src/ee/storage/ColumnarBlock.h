@@ -0,0 +1,138 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+#ifndef VOLTDB_COLUMNARBLOCK_H_
+#define VOLTDB_COLUMNARBLOCK_H_
+
+#include <vector>
+
+#include "boost/shared_ptr.hpp"
+
+#include "common/types.h"
+#include "common/value_defs.h"
+#include "storage/EncodedColumn.h"
+
+namespace voltdb {
+
+class TableTuple;
+class TupleSchema;
+
+/**
+ * A column-wise encoded copy of the visible tuples of one TupleBlock,
+ * built for blocks that have not been written for a while. Only the
+ * integer and timestamp columns are encoded; the block's rows stay
+ * authoritative because indexes, snapshots and the undo log all refer
+ * to tuples by address. Any change to the block discards its encoding.
+ *
+ * This speeds up aggregate scans, it does not save memory: the encoding
+ * is held on top of the block's tuple storage, and the table reports it
+ * as part of its allocated tuple memory.
+ *
+ * Row N of every encoded column belongs to the N-th visible tuple in
+ * storage order, which is the order a table iterator visits them in.
+ */
+class ColumnarBlock {
+public:
+    ColumnarBlock(const TupleSchema* schema, char* storage, uint32_t tupleLength, uint32_t tupleBoundary);
+
+    /** Types of the columns that get encoded. */
+    static bool isEncodable(ValueType type) {
+        switch (type) {
+        case VALUE_TYPE_TINYINT:
+        case VALUE_TYPE_SMALLINT:
+        case VALUE_TYPE_INTEGER:
+        case VALUE_TYPE_BIGINT:
+        case VALUE_TYPE_TIMESTAMP:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /** Read an encodable column's value from tuple storage, widened to int64. */
+    static int64_t readValue(ValueType type, const char* data) {
+        switch (type) {
+        case VALUE_TYPE_TINYINT:
+            return *reinterpret_cast<const int8_t*>(data);
+        case VALUE_TYPE_SMALLINT:
+            return *reinterpret_cast<const int16_t*>(data);
+        case VALUE_TYPE_INTEGER:
+            return *reinterpret_cast<const int32_t*>(data);
+        default:
+            return *reinterpret_cast<const int64_t*>(data);
+        }
+    }
+
+    /** The NULL sentinel of an encodable type, widened to int64. */
+    static int64_t nullValueOf(ValueType type) {
+        switch (type) {
+        case VALUE_TYPE_TINYINT:
+            return INT8_NULL;
+        case VALUE_TYPE_SMALLINT:
+            return INT16_NULL;
+        case VALUE_TYPE_INTEGER:
+            return INT32_NULL;
+        default:
+            return INT64_NULL;
+        }
+    }
+
+    /** True if the schema has any column worth encoding. */
+    static bool hasEncodableColumns(const TupleSchema* schema);
+
+    uint32_t rowCount() const {
+        return static_cast<uint32_t>(m_slots.size());
+    }
+
+    /** The encoding of a column, or NULL if the column's type is not encoded. */
+    const EncodedColumn* column(int columnIndex) const {
+        return m_columns[columnIndex].get();
+    }
+
+    /** The position in the block of the tuple a row was encoded from. */
+    uint32_t slotOf(uint32_t row) const {
+        return m_slots[row];
+    }
+
+    size_t bytesAllocated() const {
+        return m_bytesAllocated;
+    }
+
+private:
+    std::vector<boost::shared_ptr<EncodedColumn> > m_columns;
+    std::vector<uint32_t> m_slots;
+    size_t m_bytesAllocated;
+};
+
+/**
+ * Consumer of a scan that can take a block's columnar encoding in place
+ * of its tuples. See PersistentTable::visitColumnar().
+ */
+class ColumnarBlockVisitor {
+public:
+    virtual ~ColumnarBlockVisitor() { }
+
+    /** Consume a whole block. Returning false has its tuples visited instead. */
+    virtual bool visitBlock(const ColumnarBlock& block) = 0;
+
+    virtual void visitTuple(TableTuple& tuple) = 0;
+};
+
+}
+
+#endif /* VOLTDB_COLUMNARBLOCK_H_ */
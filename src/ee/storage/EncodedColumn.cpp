@@ -0,0 +1,221 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+#include "storage/EncodedColumn.h"
+
+#include <algorithm>
+#include <cassert>
+#include <limits>
+
+namespace voltdb {
+
+// Codes for a larger dictionary are rarely narrower than the offsets from the minimum.
+static const uint32_t MAX_DICTIONARY_SIZE = 65536;
+
+EncodedColumn::EncodedColumn(const int64_t* values, uint32_t size, int64_t nullValue)
+    : m_encoding(ENCODING_BITPACKED)
+    , m_size(size)
+    , m_nullValue(nullValue)
+    , m_bits(0)
+    , m_base(0)
+{
+    uint32_t runs = 0;
+    for (uint32_t ii = 0; ii < size; ++ii) {
+        const int64_t value = values[ii];
+        if (ii == 0 || value != values[ii - 1]) {
+            ++runs;
+        }
+        if (value == nullValue) {
+            continue;
+        }
+        if (m_summary.count == 0) {
+            m_summary.min = value;
+            m_summary.max = value;
+        }
+        else {
+            m_summary.min = std::min(m_summary.min, value);
+            m_summary.max = std::max(m_summary.max, value);
+        }
+        ++m_summary.count;
+        if (!m_summary.sumOverflow) {
+            if ((value > 0 && m_summary.sum > std::numeric_limits<int64_t>::max() - value) ||
+                (value < 0 && m_summary.sum < std::numeric_limits<int64_t>::min() - value)) {
+                m_summary.sumOverflow = true;
+            }
+            else {
+                m_summary.sum += value;
+            }
+        }
+    }
+    if (size == 0) {
+        return;
+    }
+
+    std::vector<int64_t> sorted(values, values + size);
+    std::sort(sorted.begin(), sorted.end());
+    const uint32_t distinct = static_cast<uint32_t>(std::unique(sorted.begin(), sorted.end()) - sorted.begin());
+    const int64_t min = sorted.front();
+    const int64_t max = sorted[distinct - 1];
+
+    const size_t rleBytes = runs * (sizeof(int64_t) + sizeof(uint32_t));
+    const size_t packedBytes = packedWords(size, bitsFor(static_cast<uint64_t>(max) - static_cast<uint64_t>(min))) * sizeof(uint64_t);
+    size_t dictionaryBytes = std::numeric_limits<size_t>::max();
+    if (distinct <= MAX_DICTIONARY_SIZE) {
+        dictionaryBytes = distinct * sizeof(int64_t) + packedWords(size, bitsFor(distinct - 1)) * sizeof(uint64_t);
+    }
+
+    if (packedBytes <= rleBytes && packedBytes <= dictionaryBytes) {
+        encodeBitPacked(values, min, max);
+    }
+    else if (dictionaryBytes <= rleBytes) {
+        encodeDictionary(values, sorted, distinct);
+    }
+    else {
+        encodeRle(values, runs);
+    }
+}
+
+void EncodedColumn::encodeRle(const int64_t* values, uint32_t runs) {
+    m_encoding = ENCODING_RLE;
+    m_values.reserve(runs);
+    m_runEnds.reserve(runs);
+    for (uint32_t ii = 0; ii < m_size; ++ii) {
+        if (ii == 0 || values[ii] != m_values.back()) {
+            if (ii != 0) {
+                m_runEnds.push_back(ii);
+            }
+            m_values.push_back(values[ii]);
+        }
+    }
+    m_runEnds.push_back(m_size);
+    assert(m_values.size() == runs);
+}
+
+void EncodedColumn::encodeDictionary(const int64_t* values, const std::vector<int64_t>& sorted, uint32_t distinct) {
+    m_encoding = ENCODING_DICTIONARY;
+    m_values.assign(sorted.begin(), sorted.begin() + distinct);
+    m_bits = bitsFor(distinct - 1);
+    m_packed.resize(packedWords(m_size, m_bits), 0);
+    for (uint32_t ii = 0; ii < m_size; ++ii) {
+        pack(ii, std::lower_bound(m_values.begin(), m_values.end(), values[ii]) - m_values.begin());
+    }
+}
+
+void EncodedColumn::encodeBitPacked(const int64_t* values, int64_t min, int64_t max) {
+    m_encoding = ENCODING_BITPACKED;
+    m_base = min;
+    m_bits = bitsFor(static_cast<uint64_t>(max) - static_cast<uint64_t>(min));
+    m_packed.resize(packedWords(m_size, m_bits), 0);
+    for (uint32_t ii = 0; ii < m_size; ++ii) {
+        pack(ii, static_cast<uint64_t>(values[ii]) - static_cast<uint64_t>(min));
+    }
+}
+
+int64_t EncodedColumn::valueAt(uint32_t row) const {
+    assert(row < m_size);
+    switch (m_encoding) {
+    case ENCODING_RLE:
+        return m_values[std::upper_bound(m_runEnds.begin(), m_runEnds.end(), row) - m_runEnds.begin()];
+    case ENCODING_DICTIONARY:
+        return m_values[unpack(row)];
+    default:
+        return static_cast<int64_t>(static_cast<uint64_t>(m_base) + unpack(row));
+    }
+}
+
+void EncodedColumn::decode(uint32_t start, uint32_t count, int64_t* out) const {
+    assert(start + count <= m_size);
+    const uint32_t end = start + count;
+    switch (m_encoding) {
+    case ENCODING_RLE: {
+        size_t run = std::upper_bound(m_runEnds.begin(), m_runEnds.end(), start) - m_runEnds.begin();
+        for (uint32_t row = start; row < end; ++run) {
+            const uint32_t runEnd = std::min(m_runEnds[run], end);
+            std::fill(out + (row - start), out + (runEnd - start), m_values[run]);
+            row = runEnd;
+        }
+        break;
+    }
+    case ENCODING_DICTIONARY:
+        for (uint32_t row = start; row < end; ++row) {
+            *out++ = m_values[unpack(row)];
+        }
+        break;
+    default:
+        if (m_bits == 0) {
+            std::fill(out, out + count, m_base);
+            break;
+        }
+        for (uint32_t row = start; row < end; ++row) {
+            *out++ = static_cast<int64_t>(static_cast<uint64_t>(m_base) + unpack(row));
+        }
+        break;
+    }
+}
+
+size_t EncodedColumn::bytesAllocated() const {
+    return sizeof(EncodedColumn) +
+            m_values.capacity() * sizeof(int64_t) +
+            m_runEnds.capacity() * sizeof(uint32_t) +
+            m_packed.capacity() * sizeof(uint64_t);
+}
+
+inline void EncodedColumn::pack(uint32_t row, uint64_t code) {
+    if (m_bits == 0) {
+        return;
+    }
+    const uint64_t bit = static_cast<uint64_t>(row) * m_bits;
+    const size_t word = static_cast<size_t>(bit >> 6);
+    const uint32_t shift = static_cast<uint32_t>(bit & 63);
+    m_packed[word] |= code << shift;
+    if (shift + m_bits > 64) {
+        m_packed[word + 1] |= code >> (64 - shift);
+    }
+}
+
+inline uint64_t EncodedColumn::unpack(uint32_t row) const {
+    if (m_bits == 0) {
+        return 0;
+    }
+    const uint64_t bit = static_cast<uint64_t>(row) * m_bits;
+    const size_t word = static_cast<size_t>(bit >> 6);
+    const uint32_t shift = static_cast<uint32_t>(bit & 63);
+    uint64_t code = m_packed[word] >> shift;
+    if (shift + m_bits > 64) {
+        code |= m_packed[word + 1] << (64 - shift);
+    }
+    if (m_bits < 64) {
+        code &= (static_cast<uint64_t>(1) << m_bits) - 1;
+    }
+    return code;
+}
+
+uint8_t EncodedColumn::bitsFor(uint64_t maxCode) {
+    uint8_t bits = 0;
+    while (maxCode != 0) {
+        ++bits;
+        maxCode >>= 1;
+    }
+    return bits;
+}
+
+size_t EncodedColumn::packedWords(uint32_t size, uint8_t bits) {
+    return static_cast<size_t>((static_cast<uint64_t>(size) * bits + 63) / 64);
+}
+
+}
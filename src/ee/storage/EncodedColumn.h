@@ -0,0 +1,119 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+#ifndef VOLTDB_ENCODEDCOLUMN_H_
+#define VOLTDB_ENCODEDCOLUMN_H_
+
+#include <stdint.h>
+#include <cstddef>
+#include <vector>
+
+namespace voltdb {
+
+/**
+ * Totals over the non-null values of an encoded column, computed once
+ * when the column is encoded so that an aggregate over a block that has
+ * not changed since does not have to look at its rows at all.
+ */
+struct ColumnSummary {
+    ColumnSummary() : count(0), sum(0), sumOverflow(false), min(0), max(0) { }
+
+    // Number of non-null values
+    int64_t count;
+    int64_t sum;
+    // The sum does not fit in 64 bits, callers must fall back to the rows
+    bool sumOverflow;
+    // Only meaningful when count > 0
+    int64_t min;
+    int64_t max;
+};
+
+/**
+ * An immutable, encoded copy of a column of integer values. NULLs are
+ * represented by the type's NULL sentinel and encoded like any other value.
+ * The encoding is picked per column as the smallest of
+ *
+ * RLE:        one value and the end row of each run of equal values.
+ * DICTIONARY: the sorted distinct values plus a bit-packed code per row.
+ *             Codes preserve the order of the values they stand for.
+ * BITPACKED:  the minimum value plus a bit-packed offset from it per row.
+ */
+class EncodedColumn {
+public:
+    enum Encoding {
+        ENCODING_RLE,
+        ENCODING_DICTIONARY,
+        ENCODING_BITPACKED
+    };
+
+    EncodedColumn(const int64_t* values, uint32_t size, int64_t nullValue);
+
+    Encoding encoding() const {
+        return m_encoding;
+    }
+
+    /** Number of rows, including NULLs. */
+    uint32_t size() const {
+        return m_size;
+    }
+
+    int64_t nullValue() const {
+        return m_nullValue;
+    }
+
+    const ColumnSummary& summary() const {
+        return m_summary;
+    }
+
+    /** The value of one row. Prefer decode() for runs of rows. */
+    int64_t valueAt(uint32_t row) const;
+
+    /** Write the values of rows [start, start + count) to out. */
+    void decode(uint32_t start, uint32_t count, int64_t* out) const;
+
+    size_t bytesAllocated() const;
+
+private:
+    void encodeRle(const int64_t* values, uint32_t runs);
+    void encodeDictionary(const int64_t* values, const std::vector<int64_t>& sorted, uint32_t distinct);
+    void encodeBitPacked(const int64_t* values, int64_t min, int64_t max);
+
+    void pack(uint32_t row, uint64_t code);
+    uint64_t unpack(uint32_t row) const;
+
+    static uint8_t bitsFor(uint64_t maxCode);
+    static size_t packedWords(uint32_t size, uint8_t bits);
+
+    Encoding m_encoding;
+    uint32_t m_size;
+    int64_t m_nullValue;
+    uint8_t m_bits;
+    // Minimum value for BITPACKED
+    int64_t m_base;
+    // Run values for RLE or the dictionary for DICTIONARY
+    std::vector<int64_t> m_values;
+    // Row just past the end of each run for RLE
+    std::vector<uint32_t> m_runEnds;
+    // Codes for DICTIONARY or offsets for BITPACKED
+    std::vector<uint64_t> m_packed;
+    ColumnSummary m_summary;
+};
+
+}
+
+#endif /* VOLTDB_ENCODEDCOLUMN_H_ */
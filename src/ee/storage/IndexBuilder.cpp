@@ -0,0 +1,135 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+#include "storage/IndexBuilder.h"
+#include "storage/persistenttable.h"
+#include "indexes/tableindex.h"
+
+#include <algorithm>
+#include <boost/foreach.hpp>
+
+namespace voltdb
+{
+
+IndexBuilder::IndexBuilder(PersistentTable &table, TBMap &blocks) :
+    m_table(table),
+    m_blocks(blocks),
+    m_tupleSize(table.getTupleLength()),
+    m_blockIndex(0),
+    m_tupleIndex(0),
+    m_tuplesUntilDue(0)
+{}
+
+IndexBuilder::~IndexBuilder()
+{
+    BOOST_FOREACH (auto index, m_indexes) {
+        delete index;
+    }
+}
+
+void IndexBuilder::addIndex(TableIndex *index)
+{
+    m_indexes.push_back(index);
+    restartScan();
+}
+
+bool IndexBuilder::removeIndex(TableIndex *index)
+{
+    std::vector<TableIndex*>::iterator iter = std::find(m_indexes.begin(), m_indexes.end(), index);
+    if (iter == m_indexes.end()) {
+        return false;
+    }
+    m_indexes.erase(iter);
+    return true;
+}
+
+std::vector<TableIndex*> IndexBuilder::releaseIndexes()
+{
+    std::vector<TableIndex*> released;
+    released.swap(m_indexes);
+    return released;
+}
+
+void IndexBuilder::restartScan()
+{
+    m_blockAddresses.clear();
+    for (TBMapI iter = m_blocks.begin(); iter != m_blocks.end(); ++iter) {
+        m_blockAddresses.push_back(iter.key());
+    }
+    m_blockIndex = 0;
+    m_tupleIndex = 0;
+    m_tuplesUntilDue = m_table.activeTupleCount();
+}
+
+bool IndexBuilder::continueBuild(int64_t maxTuples)
+{
+    TableTuple tuple(m_table.schema());
+    while (maxTuples > 0 && m_blockIndex < m_blockAddresses.size()) {
+        TBMapI found = m_blocks.find(m_blockAddresses[m_blockIndex]);
+        if (found == m_blocks.end()) {
+            // Compacted away since the scan started
+            ++m_blockIndex;
+            m_tupleIndex = 0;
+            continue;
+        }
+        TBPtr block = found.data();
+        const uint32_t boundary = block->unusedTupleBoundary();
+        for (; m_tupleIndex < boundary && maxTuples > 0; ++m_tupleIndex, --maxTuples) {
+            tuple.move(block->address() + static_cast<size_t>(m_tupleIndex) * m_tupleSize);
+            // Deleted tuples were already taken out of the indexes even if their
+            // storage is kept around for undo or for a snapshot
+            if (!tuple.isActive() || tuple.isPendingDelete() || tuple.isPendingDeleteOnUndoRelease()) {
+                continue;
+            }
+            BOOST_FOREACH (auto index, m_indexes) {
+                if (!index->exists(&tuple)) {
+                    index->addEntry(&tuple, NULL);
+                }
+            }
+        }
+        if (m_tupleIndex >= boundary) {
+            ++m_blockIndex;
+            m_tupleIndex = 0;
+        }
+    }
+    return m_blockIndex >= m_blockAddresses.size();
+}
+
+bool IndexBuilder::advance(int64_t maxTuples)
+{
+    continueBuild(maxTuples);
+    m_tuplesUntilDue -= maxTuples;
+    return m_tuplesUntilDue <= 0;
+}
+
+void IndexBuilder::tupleAdded(const TableTuple &tuple)
+{
+    BOOST_FOREACH (auto index, m_indexes) {
+        index->addEntry(&tuple, NULL);
+    }
+}
+
+void IndexBuilder::tupleRemoved(const TableTuple &tuple)
+{
+    BOOST_FOREACH (auto index, m_indexes) {
+        // Nothing to do if the scan has not got to the tuple yet
+        index->deleteEntry(&tuple);
+    }
+}
+
+} // namespace voltdb
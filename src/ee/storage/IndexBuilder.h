@@ -0,0 +1,134 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+#ifndef INDEXBUILDER_H_
+#define INDEXBUILDER_H_
+
+#include "storage/TupleBlock.h"
+
+#include <vector>
+
+namespace voltdb
+{
+
+class PersistentTable;
+class TableIndex;
+class TableTuple;
+
+/**
+ * Populates new non-unique indexes of a table a chunk of tuples at a time.
+ *
+ * The table passes every tuple it inserts, updates, moves or deletes meanwhile
+ * through tupleAdded() and tupleRemoved(), so the indexes always have an up to
+ * date entry for each tuple that was touched. The scan adds the tuples that
+ * were not. It remembers which blocks to visit by address: a block that goes
+ * away was compacted, which touched all of its tuples, and a block that turns
+ * up at a visited address only holds touched ones, which the scan skips.
+ *
+ * How far the scan got depends on when the site found time for it and on
+ * how the table's blocks are laid out, neither of which is the same on every
+ * replica. So the indexes are only declared complete by advance(), which the
+ * site calls in transaction order, once it has been called for as many tuples
+ * as the table had when the build (re)started.
+ */
+class IndexBuilder
+{
+  public:
+
+    IndexBuilder(PersistentTable &table, TBMap &blocks);
+
+    /**
+     * Destructor. Deletes the indexes that were still being built.
+     */
+    ~IndexBuilder();
+
+    /**
+     * Start populating another index. The scan starts over so that it
+     * covers every block for the new index too.
+     */
+    void addIndex(TableIndex *index);
+
+    /**
+     * Stop building an index and give it back to the caller.
+     * Returns false if the index is not being built.
+     */
+    bool removeIndex(TableIndex *index);
+
+    const std::vector<TableIndex*> &indexes() const {
+        return m_indexes;
+    }
+
+    /**
+     * Hand over the indexes and forget about them.
+     */
+    std::vector<TableIndex*> releaseIndexes();
+
+    /**
+     * Scan up to maxTuples tuple slots.
+     * Returns true once every tuple of the table is in the indexes.
+     */
+    bool continueBuild(int64_t maxTuples);
+
+    /**
+     * Scan up to maxTuples tuple slots as a step taken in transaction order.
+     * Returns true once the steps taken add up to the tuples the table had when
+     * the scan (re)started, so the build is due to be completed.
+     */
+    bool advance(int64_t maxTuples);
+
+    /**
+     * Index a tuple that was inserted, or the new version of an updated or moved tuple.
+     */
+    void tupleAdded(const TableTuple &tuple);
+
+    /**
+     * Forget a tuple that is deleted, or about to be updated or moved. It may
+     * not have been indexed yet.
+     */
+    void tupleRemoved(const TableTuple &tuple);
+
+  private:
+
+    void restartScan();
+
+    /// Table being indexed.
+    PersistentTable &m_table;
+
+    /// The table's block map.
+    TBMap &m_blocks;
+
+    /// Tuple size in bytes.
+    const int m_tupleSize;
+
+    /// Indexes being built, owned until released.
+    std::vector<TableIndex*> m_indexes;
+
+    /// Addresses of the blocks to scan, taken when the scan (re)started.
+    std::vector<char*> m_blockAddresses;
+
+    /// Position of the scan.
+    size_t m_blockIndex;
+    uint32_t m_tupleIndex;
+
+    /// Tuples advance() still has to be called for before the build is due.
+    int64_t m_tuplesUntilDue;
+};
+
+} // namespace voltdb
+
+#endif // INDEXBUILDER_H_
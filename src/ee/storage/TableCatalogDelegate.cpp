@@ -208,6 +208,9 @@ getIndexIdFromMap(TableIndexType type, bool countable, bool isUnique,
     case HASH_TABLE_INDEX:
         retval += "H";
         break;
+    case BTREE_INDEX:
+        retval += "T"; // B is taken
+        break;
     case COVERING_CELL_INDEX:
         retval += "G"; // C is taken
         break;
@@ -290,7 +293,8 @@ Table* TableCatalogDelegate::constructTableFromCatalog(catalog::Database const&
                                                        catalog::Table const& catalogTable,
                                                        bool isXDCR,
                                                        int tableAllocationTargetSize,
-                                                       bool forceNoDR) {
+                                                       bool forceNoDR,
+                                                       int64_t expectedTupleCount) {
     // Create a persistent table for this table in our catalog
     int32_t tableId = catalogTable.relativeIndex();
 
@@ -415,6 +419,15 @@ Table* TableCatalogDelegate::constructTableFromCatalog(catalog::Database const&
         tableAllocationTargetSize = 1024 * 64;
       }
     }
+    if (tableAllocationTargetSize == 0) {
+        // A tuple limit bounds the row count of a table with no history
+        if (catalogTable.tuplelimit() < INT_MAX &&
+                (expectedTupleCount == 0 || catalogTable.tuplelimit() < expectedTupleCount)) {
+            expectedTupleCount = catalogTable.tuplelimit();
+        }
+        tableAllocationTargetSize = PersistentTable::adaptiveAllocationSize(
+                schema->tupleLength() + TUPLE_HEADER_SIZE, expectedTupleCount);
+    }
     VOLT_DEBUG("Creating %s %s as %s", m_materialized?"VIEW":"TABLE", tableName.c_str(), isReplicated?"REPLICATED":"PARTITIONED");
     Table* table = TableFactory::getPersistentTable(databaseId, tableName,
                                                     schema, columnNames, m_signatureHash,
@@ -435,7 +448,7 @@ Table* TableCatalogDelegate::constructTableFromCatalog(catalog::Database const&
 
     // add a pkey index if one exists
     if ( ! pkeyIndexId.empty()) {
-        TableIndex* pkeyIndex = TableIndexFactory::getInstance(pkeyIndex_scheme);
+        TableIndex* pkeyIndex = TableIndexFactory::getInstance(pkeyIndex_scheme, m_openAddressingHashIndexes);
         assert(pkeyIndex);
         persistentTable->addIndex(pkeyIndex);
         persistentTable->setPrimaryKeyIndex(pkeyIndex);
@@ -443,7 +456,7 @@ Table* TableCatalogDelegate::constructTableFromCatalog(catalog::Database const&
 
     // add other indexes
     BOOST_FOREACH(TableIndexScheme& scheme, indexes) {
-        TableIndex* index = TableIndexFactory::getInstance(scheme);
+        TableIndex* index = TableIndexFactory::getInstance(scheme, m_openAddressingHashIndexes);
         assert(index);
         persistentTable->addIndex(index);
     }
@@ -453,10 +466,14 @@ Table* TableCatalogDelegate::constructTableFromCatalog(catalog::Database const&
 
 void TableCatalogDelegate::init(catalog::Database const& catalogDatabase,
                                 catalog::Table const& catalogTable,
-                                bool isXDCR) {
+                                bool isXDCR,
+                                int64_t expectedTupleCount) {
     m_table = constructTableFromCatalog(catalogDatabase,
                                         catalogTable,
-                                        isXDCR);
+                                        isXDCR,
+                                        0,
+                                        false,
+                                        expectedTupleCount);
     if ( ! m_table) {
         return;
     }
@@ -502,6 +519,9 @@ static void migrateChangedTuples(catalog::Table const& catalogTable,
     for (int i = 0; i < currentIndexes.size(); i++) {
         existingTable->removeIndex(currentIndexes[i]);
     }
+    BOOST_FOREACH (auto index, existingTable->indexesBeingBuilt()) {
+        existingTable->removeIndex(index);
+    }
 
     // All the (surviving) materialized views depending on the existing table will need to be "transfered"
     // to the new table -- BUT there's no rush.
@@ -730,7 +750,8 @@ TableCatalogDelegate::processSchemaChanges(catalog::Database const& catalogDatab
     ///////////////////////////////////////////////
 
     Table* existingTable = m_table;
-    m_table = constructTableFromCatalog(catalogDatabase, catalogTable, isXDCR);
+    m_table = constructTableFromCatalog(catalogDatabase, catalogTable, isXDCR, 0, false,
+                                        existingTable->activeTupleCount());
     assert(m_table);
     m_table->incrementRefcount();
     PersistentTable* newPersistentTable = dynamic_cast<PersistentTable*>(m_table);
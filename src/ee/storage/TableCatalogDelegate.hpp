@@ -63,11 +63,13 @@ template<typename K, typename V> V findInMapOrNull(const K& key, std::unordered_
 
 class TableCatalogDelegate {
   public:
-    TableCatalogDelegate(const std::string& signature, int32_t compactionThreshold, VoltDBEngine* engine)
+    TableCatalogDelegate(const std::string& signature, int32_t compactionThreshold, VoltDBEngine* engine,
+                         bool openAddressingHashIndexes = false)
         : m_table(NULL)
         , m_exportEnabled(false)
         , m_signature(signature)
         , m_compactionThreshold(compactionThreshold)
+        , m_openAddressingHashIndexes(openAddressingHashIndexes)
 //        , m_engine(engine)
     {}
 
@@ -75,9 +77,15 @@ class TableCatalogDelegate {
 
     void deleteCommand();
 
+    /*
+     * Create the table for this delegate. A table that replaces one, as on
+     * truncate, passes the row count of the old table so blocks can be sized
+     * for it.
+     */
     void init(catalog::Database const &catalogDatabase,
               catalog::Table const &catalogTable,
-              bool isXDCR);
+              bool isXDCR,
+              int64_t expectedTupleCount = 0);
     PersistentTable *createDeltaTable(catalog::Database const &catalogDatabase,
             catalog::Table const &catalogTable);
     void evaluateExport(catalog::Database const &catalogDatabase,
@@ -150,13 +158,18 @@ class TableCatalogDelegate {
                                      /* indicates whether the constructed table should inherit isDRed attributed from
                                       * the provided catalog table or set isDRed to false forcefully. Currently, only
                                       * delta tables for joins in materialized views use the second option */
-                                     bool forceNoDR = false);
+                                     bool forceNoDR = false,
+                                     /* row count the block size of the table is chosen for when
+                                      * tableAllocationTargetSize is 0, 0 if unknown */
+                                     int64_t expectedTupleCount = 0);
 
     voltdb::Table *m_table;
     bool m_exportEnabled;
     bool m_materialized;
     const std::string m_signature;
     const int32_t m_compactionThreshold;
+    // Build hash indexes on the open addressing hash table
+    const bool m_openAddressingHashIndexes;
     char m_signatureHash[20];
 //    voltdb::VoltDBEngine *m_engine;
 };
@@ -15,6 +15,7 @@
  * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
  */
 #include "storage/TupleBlock.h"
+#include "storage/ColumnarBlock.h"
 #include "storage/table.h"
 #include <sys/mman.h>
 #include <errno.h>
@@ -33,7 +34,8 @@ TupleBlock::TupleBlock(Table *table, TBBucketPtr bucket) :
         m_nextFreeTuple(0),
         m_lastCompactionOffset(0),
         m_bucket(bucket),
-        m_bucketIndex(bucket.get() == NULL ? -1 : 0)
+        m_bucketIndex(bucket.get() == NULL ? -1 : 0),
+        m_idleTicks(0)
 {
 #ifdef USE_MMAP
     size_t tableAllocationSize = static_cast<size_t> (m_tupleLength * m_tuplesPerBlock);
@@ -60,6 +62,14 @@ TupleBlock::~TupleBlock() {
 #endif
 }
 
+void TupleBlock::encodeColumnar(const TupleSchema *schema) {
+    m_columnar.reset(new ColumnarBlock(schema, m_storage, m_tupleLength, m_nextFreeTuple));
+}
+
+void TupleBlock::dropColumnar() {
+    m_columnar.reset();
+}
+
 std::pair<int, int> TupleBlock::merge(Table *table, TBPtr source, TupleMovementListener *listener) {
     assert(source != this);
     /*
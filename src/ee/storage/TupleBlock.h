@@ -23,6 +23,7 @@
 #include <cassert>
 
 #include "boost/scoped_array.hpp"
+#include "boost/scoped_ptr.hpp"
 #include "boost/shared_ptr.hpp"
 #include "boost/unordered_set.hpp"
 #include "stx/btree_map.h"
@@ -52,8 +53,10 @@ void intrusive_ptr_release(voltdb::TupleBlock * p);
 #include "boost/intrusive_ptr.hpp"
 
 namespace voltdb {
+class ColumnarBlock;
 class Table;
 class TupleMovementListener;
+class TupleSchema;
 
 class TruncatedInt {
 public:
@@ -177,6 +180,7 @@ public:
      * return them as a pair.
      */
     inline std::pair<char*, int> nextFreeTuple() {
+        touch();
         char *retval = NULL;
         if (!m_freeList.empty()) {
             m_lastCompactionOffset = 0;
@@ -215,6 +219,7 @@ public:
         free tuple list.  If the bucket index changes as a result, the
         new buck index is returned. */
     inline int freeTuple(char *tupleStorage) {
+        touch();
         m_lastCompactionOffset = 0;
         m_activeTuples--;
         //Find the offset
@@ -237,6 +242,7 @@ public:
     /** Make this tuple block empty.  (Note: seems to do nothing with
         this block's bucket.) */
     inline void reset() {
+        touch();
         m_activeTuples = 0;
         m_nextFreeTuple = 0;
         m_freeList.clear();
@@ -284,7 +290,33 @@ public:
     inline int64_t getAllocatedMemory() {
         return m_tupleLength * m_tuplesPerBlock;
     }
+
+    /** Note that the tuples in this block changed. Resets the idle count
+        and discards any columnar encoding, which no longer matches. */
+    inline void touch() {
+        m_idleTicks = 0;
+        if (m_columnar.get() != NULL) {
+            dropColumnar();
+        }
+    }
+
+    /** Count another tick without writes and return the number of them in a row. */
+    inline uint32_t idleTick() {
+        return ++m_idleTicks;
+    }
+
+    /** Encode the visible tuples of this block column by column. */
+    void encodeColumnar(const TupleSchema *schema);
+
+    /** The columnar encoding of this block, or NULL if it has none. */
+    inline const ColumnarBlock* columnar() const {
+        return m_columnar.get();
+    }
+
 private:
+    void dropColumnar();
+
+
     char*   m_storage;
     std::atomic<uint32_t> m_references;
     uint32_t m_tupleLength;
@@ -304,6 +336,9 @@ private:
 
     TBBucketPtr m_bucket;
     int m_bucketIndex;
+
+    uint32_t m_idleTicks;
+    boost::scoped_ptr<ColumnarBlock> m_columnar;
 };
 
 /**
@@ -45,6 +45,7 @@
 
 #include "persistenttable.h"
 
+#include "ColumnarBlock.h"
 #include "ConstraintFailureException.h"
 #include "CopyOnWriteContext.h"
 #include "DRTupleStreamUndoAction.h"
@@ -62,16 +63,28 @@
 #include "common/ExecuteWithMpMemory.h"
 #include "common/FailureInjection.h"
 #include "common/RecoveryProtoMessage.h"
+#include "common/SerializableEEException.h"
 #include "crc/crc32c.h"
 #include "indexes/tableindex.h"
 #include "indexes/tableindexfactory.h"
 
 #include <boost/date_time/posix_time/posix_time.hpp>
 
+#include <limits>
+
 namespace voltdb {
 
 #define TABLE_BLOCKSIZE 2097152
 
+// Smallest block adaptiveAllocationSize() picks for a table expected to stay small,
+// the size already used for views without a group by (ENG-8490).
+#define MIN_ADAPTIVE_BLOCKSIZE 65536
+
+// Blocks sized from a row count are meant to hold about this fraction of the table,
+static const int64_t ADAPTIVE_BLOCKS_PER_TABLE = 16;
+// but never fewer tuples than this, so wide tuples don't end up alone in a block.
+static const int64_t MIN_ADAPTIVE_TUPLES_PER_BLOCK = 64;
+
    template<typename T> inline static T* partialCopyToPool(Pool* pool, const T* src, size_t partialSize) {
       return reinterpret_cast<T*>(memcpy(pool->allocate(partialSize), src, partialSize));
    }
@@ -119,6 +132,8 @@ PersistentTable::PersistentTable(int partitionColumn,
     , m_tableStreamer()
     , m_failedCompactionCount(0)
     , m_invisibleTuplesPendingDeleteCount(0)
+    , m_columnarEnabled(false)
+    , m_columnarBlockCount(0)
     , m_surgeon(*this)
     , m_tableForStreamIndexing(NULL)
     , m_drEnabled(drEnabled && !isMaterialized)
@@ -199,6 +214,7 @@ PersistentTable::~PersistentTable() {
     BOOST_FOREACH (auto index, m_indexes) {
         delete index;
     }
+    m_indexBuilder.reset();
 
     // free up the materialized view handler if this is a view table.
     delete m_mvHandler;
@@ -490,7 +506,9 @@ void PersistentTable::truncateTable(VoltDBEngine* engine, bool replicatedTable,
     assert(tcd);
 
     catalog::Table* catalogTable = engine->getCatalogTable(m_name);
-    tcd->init(*engine->getDatabase(), *catalogTable, engine->getIsActiveActiveDREnabled());
+    // Size the blocks of the new table for the rows it is likely to get back
+    tcd->init(*engine->getDatabase(), *catalogTable, engine->getIsActiveActiveDREnabled(),
+              activeTupleCount());
 
     PersistentTable* emptyTable = tcd->getPersistentTable();
     assert(emptyTable);
@@ -638,6 +656,9 @@ void PersistentTable::swapTable(PersistentTable* otherTable,
         bool isUndo) {
     assert(hasNameIntegrity(name(), theIndexNames));
     assert(hasNameIntegrity(otherTable->name(), otherIndexNames));
+    // Every index changes hands, so they all have to be complete
+    finishIndexBuild();
+    otherTable->finishIndexBuild();
     CompiledSwap compiled(*this, *otherTable,
             theIndexNames, otherIndexNames);
     swapTableState(otherTable);
@@ -921,6 +942,7 @@ void PersistentTable::insertTupleCommon(TableTuple& source, TableTuple& target,
 void PersistentTable::insertTupleForUndo(char* tuple) {
     TableTuple target(m_schema);
     target.move(tuple);
+    touchBlockOf(target);
     target.setPendingDeleteOnUndoReleaseFalse();
     --m_tuplesPinnedByUndo;
     --m_invisibleTuplesPendingDeleteCount;
@@ -956,6 +978,8 @@ void PersistentTable::updateTupleWithSpecificIndexes(TableTuple& targetTupleToUp
     UndoQuantum* uq = NULL;
     char* oldTupleData = NULL;
     int tupleLength = targetTupleToUpdate.tupleLength();
+    // Before any view handler can scan the table with the tuple hidden
+    touchBlockOf(targetTupleToUpdate);
     /**
      * Check for index constraint violations.
      */
@@ -1020,6 +1044,7 @@ void PersistentTable::updateTupleWithSpecificIndexes(TableTuple& targetTupleToUp
     /**
      * Remove the current tuple from any indexes.
      */
+    removeFromIndexesBeingBuilt(&targetTupleToUpdate);
     bool someIndexGotUpdated = false;
     bool indexRequiresUpdate[indexesToUpdate.size()];
     if (indexesToUpdate.size()) {
@@ -1122,6 +1147,7 @@ void PersistentTable::updateTupleWithSpecificIndexes(TableTuple& targetTupleToUp
                                 m_name.c_str(), index->getName().c_str());
         }
     }
+    addToIndexesBeingBuilt(&targetTupleToUpdate);
 
     // Note that inserting into the delta table is guaranteed to
     // succeed, since we checked constraints above.
@@ -1159,7 +1185,10 @@ void PersistentTable::updateTupleForUndo(char* tupleWithUnwantedValues,
     }
     TableTuple targetTupleToUpdate = lookupTupleForUndo(matchable);
     TableTuple sourceTupleWithNewValues(sourceTupleDataWithNewValues, m_schema);
+    touchBlockOf(targetTupleToUpdate);
 
+    // Indexes being built are updated with every update
+    removeFromIndexesBeingBuilt(&targetTupleToUpdate);
     //If the indexes were never updated there is no need to revert them.
     if (revertIndexes) {
         BOOST_FOREACH (auto index, m_indexes) {
@@ -1196,6 +1225,7 @@ void PersistentTable::updateTupleForUndo(char* tupleWithUnwantedValues,
             }
         }
     }
+    addToIndexesBeingBuilt(&targetTupleToUpdate);
 }
 
 void PersistentTable::deleteTuple(TableTuple& target, bool fallible) {
@@ -1208,6 +1238,8 @@ void PersistentTable::deleteTuple(TableTuple& target, bool fallible) {
     // The tempTuple is forever!
     assert(&target != &m_tempTuple);
 
+    touchBlockOf(target);
+
     // Write to the DR stream before doing anything else to ensure nothing will
     // be left forgotten in case this throws.
     ExecutorContext* ec = ExecutorContext::getExecutorContext();
@@ -1421,6 +1453,7 @@ void PersistentTable::insertIntoAllIndexes(TableTuple* tuple) {
                     "Failed to insert tuple in Table: %s Index %s", m_name.c_str(), index->getName().c_str());
         }
     }
+    addToIndexesBeingBuilt(tuple);
 }
 
 void PersistentTable::deleteFromAllIndexes(TableTuple* tuple) {
@@ -1431,6 +1464,7 @@ void PersistentTable::deleteFromAllIndexes(TableTuple* tuple) {
                     m_name.c_str(), index->getName().c_str());
         }
     }
+    removeFromIndexesBeingBuilt(tuple);
 }
 
 void PersistentTable::tryInsertOnAllIndexes(TableTuple* tuple, TableTuple* conflict) {
@@ -1453,6 +1487,15 @@ void PersistentTable::tryInsertOnAllIndexes(TableTuple* tuple, TableTuple* confl
             return;
         }
     }
+    try {
+        addToIndexesBeingBuilt(tuple);
+    } catch (SQLException const& e) {
+        for (int j = 0; j < static_cast<int>(m_indexes.size()); ++j) {
+            m_indexes[j]->deleteEntry(tuple);
+        }
+        removeFromIndexesBeingBuilt(tuple);
+        throw;
+    }
 }
 
 void PersistentTable::checkUpdateOnExpressions(TableTuple& targetTupleToUpdate,
@@ -1868,6 +1911,8 @@ void PersistentTable::swapTuples(TableTuple& originalTuple,
                                     m_name.c_str(), index->getName().c_str());
             }
         }
+        removeFromIndexesBeingBuilt(&originalTuple);
+        addToIndexesBeingBuilt(&destinationTuple);
     }
 }
 
@@ -1950,6 +1995,19 @@ bool PersistentTable::doCompactionWithinSubset(TBBucketPtrVector* bucketVector)
     return true;
 }
 
+int PersistentTable::adaptiveAllocationSize(int tupleLength, int64_t expectedTupleCount) {
+    if (expectedTupleCount <= 0) {
+        return TABLE_BLOCKSIZE;
+    }
+    int64_t target = std::max(expectedTupleCount * tupleLength / ADAPTIVE_BLOCKS_PER_TABLE,
+                              tupleLength * MIN_ADAPTIVE_TUPLES_PER_BLOCK);
+    int blockSize = MIN_ADAPTIVE_BLOCKSIZE;
+    while (blockSize < target && blockSize < TABLE_BLOCKSIZE) {
+        blockSize *= 2;
+    }
+    return blockSize;
+}
+
 void PersistentTable::doIdleCompaction() {
     if (!m_blocksNotPendingSnapshot.empty()) {
         doCompactionWithinSubset(&m_blocksNotPendingSnapshotLoad);
@@ -1959,6 +2017,95 @@ void PersistentTable::doIdleCompaction() {
     }
 }
 
+int PersistentTable::encodeColdBlocks(uint32_t coldTicks, int budget) {
+    // Replicated tables are shared by all the sites, each of which ticks on its own thread.
+    if (isCatalogTableReplicated() || ! ColumnarBlock::hasEncodableColumns(m_schema)) {
+        return 0;
+    }
+    m_columnarEnabled = true;
+    // Blocks encoded now would include tuples pending delete in their
+    // rows, wait until nothing is hidden.
+    if (m_invisibleTuplesPendingDeleteCount != 0) {
+        return 0;
+    }
+    int encoded = 0;
+    m_columnarBlockCount = 0;
+    for (TBMapI it = m_data.begin(); it != m_data.end(); ++it) {
+        TBPtr block = it.data();
+        if (block->columnar() == NULL && block->idleTick() >= coldTicks &&
+                encoded < budget && ! block->isEmpty()) {
+            block->encodeColumnar(m_schema);
+            ++encoded;
+        }
+        if (block->columnar() != NULL) {
+            ++m_columnarBlockCount;
+        }
+    }
+    return encoded;
+}
+
+int64_t PersistentTable::columnarMemory() const {
+    int64_t bytes = 0;
+    if (m_columnarBlockCount > 0) {
+        for (TBMap::const_iterator it = m_data.begin(); it != m_data.end(); ++it) {
+            const ColumnarBlock* columnar = it.data()->columnar();
+            if (columnar != NULL) {
+                bytes += columnar->bytesAllocated();
+            }
+        }
+    }
+    return bytes;
+}
+
+int64_t PersistentTable::allocatedTupleMemory() const {
+    return Table::allocatedTupleMemory() + columnarMemory();
+}
+
+void PersistentTable::visitColumnar(ColumnarBlockVisitor& visitor) {
+    // Every write discards its block's encoding and blocks are only encoded
+    // while nothing is hidden, so this is just a safeguard.
+    const bool useEncodings = m_invisibleTuplesPendingDeleteCount == 0;
+    TableTuple tuple(m_schema);
+    for (TBMapI it = m_data.begin(); it != m_data.end(); ++it) {
+        TBPtr block = it.data();
+        const ColumnarBlock* columnar = block->columnar();
+        if (useEncodings && columnar != NULL && visitor.visitBlock(*columnar)) {
+            continue;
+        }
+        char* storage = block->address();
+        const uint32_t boundary = block->unusedTupleBoundary();
+        for (uint32_t ii = 0; ii < boundary; ++ii) {
+            tuple.move(storage + ii * m_tupleLength);
+            if (tuple.isActive() && ! tuple.isPendingDelete() && ! tuple.isPendingDeleteOnUndoRelease()) {
+                visitor.visitTuple(tuple);
+            }
+        }
+    }
+}
+
+int64_t PersistentTable::doBudgetedCompaction(boost::posix_time::ptime const& deadline) {
+    if (m_tableStreamer.get() != NULL && m_tableStreamer->hasStreamType(TABLE_STREAM_RECOVERY)) {
+        return 0;
+    }
+    int64_t allocatedBefore = allocatedTupleMemory();
+    bool hadWork1 = true;
+    bool hadWork2 = true;
+    // Each merge fills the fullest block of a subset, so both subsets run out
+    // of work even if the predicate is never satisfied.
+    while ((hadWork1 || hadWork2) && idleCompactionPredicate() &&
+           boost::posix_time::microsec_clock::universal_time() < deadline) {
+        if (hadWork1) {
+            hadWork1 = !m_blocksNotPendingSnapshot.empty() &&
+                       doCompactionWithinSubset(&m_blocksNotPendingSnapshotLoad);
+        }
+        if (hadWork2) {
+            hadWork2 = !m_blocksPendingSnapshot.empty() &&
+                       doCompactionWithinSubset(&m_blocksPendingSnapshotLoad);
+        }
+    }
+    return allocatedBefore - allocatedTupleMemory();
+}
+
 bool PersistentTable::doForcedCompaction() {
     if (m_tableStreamer.get() != NULL && m_tableStreamer->hasStreamType(TABLE_STREAM_RECOVERY)) {
         LogManager::getThreadLogger(LOGGERID_SQL)->log(LOGLEVEL_INFO,
@@ -2215,6 +2362,14 @@ TableIndex* PersistentTable::index(std::string const& name) const {
             return index;
         }
     }
+    BOOST_FOREACH (auto index, indexesBeingBuilt()) {
+        if (index->getName().compare(name) == 0) {
+            // A plan compiled against the catalog that added the index. Every replica
+            // completes the build at the same transaction, so they all fail it alike.
+            throwSerializableEEException("Index %s of table %s is still being built",
+                                         name.c_str(), m_name.c_str());
+        }
+    }
     std::stringstream errorString;
     errorString << "Could not find Index with name " << name << " among {";
     char const* sep = "";
@@ -2248,7 +2403,55 @@ void PersistentTable::addIndex(TableIndex* index) {
     polluteViews();
 }
 
+void PersistentTable::addIndexIncrementally(TableIndex* index) {
+    assert(!isExistingTableIndex(m_indexes, index));
+    assert(!index->isUniqueIndex());
+
+    if (!m_indexBuilder) {
+        m_indexBuilder.reset(new IndexBuilder(*this, m_data));
+    }
+    m_indexBuilder->addIndex(index);
+}
+
+bool PersistentTable::continueIndexBuild(int64_t maxTuples) {
+    return m_indexBuilder && !m_indexBuilder->continueBuild(maxTuples);
+}
+
+bool PersistentTable::advanceIndexBuild(int64_t maxTuples) {
+    if (!m_indexBuilder) {
+        return false;
+    }
+    if (m_indexBuilder->advance(maxTuples)) {
+        finishIndexBuild();
+        return false;
+    }
+    return true;
+}
+
+void PersistentTable::finishIndexBuild() {
+    if (m_indexBuilder) {
+        m_indexBuilder->continueBuild(std::numeric_limits<int64_t>::max());
+        completeIndexBuild();
+    }
+}
+
+void PersistentTable::completeIndexBuild() {
+    BOOST_FOREACH (auto index, m_indexBuilder->releaseIndexes()) {
+        m_indexes.push_back(index);
+    }
+    m_indexBuilder.reset();
+    // Mark view handlers that need to be reconstructed as dirty.
+    polluteViews();
+}
+
 void PersistentTable::removeIndex(TableIndex* index) {
+    if (m_indexBuilder && m_indexBuilder->removeIndex(index)) {
+        if (m_indexBuilder->indexes().empty()) {
+            m_indexBuilder.reset();
+        }
+        delete index;
+        return;
+    }
     assert(isExistingTableIndex(m_indexes, index));
 
     std::vector<TableIndex*>::iterator iter;
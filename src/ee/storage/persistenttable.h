@@ -50,6 +50,7 @@
 #include <vector>
 #include <cassert>
 #include <iostream>
+#include <boost/date_time/posix_time/posix_time_types.hpp>
 #include <boost/scoped_ptr.hpp>
 #include <boost/shared_ptr.hpp>
 #include "common/types.h"
@@ -59,6 +60,7 @@
 #include "execution/VoltDBEngine.h"
 #include "storage/CopyOnWriteIterator.h"
 #include "storage/ElasticIndex.h"
+#include "storage/IndexBuilder.h"
 #include "storage/table.h"
 #include "storage/ExportTupleStream.h"
 #include "storage/TableStats.h"
@@ -73,7 +75,9 @@
 
 class CompactionTest_BasicCompaction;
 class CompactionTest_CompactionWithCopyOnWrite;
+class CompactionTest_BudgetedCompaction;
 class CopyOnWriteTest;
+class IndexBuilderTest_BuildAcrossCompaction;
 
 namespace catalog {
 class MaterializedViewInfo;
@@ -85,6 +89,7 @@ class MaterializedViewTriggerForInsert;
 class MaterializedViewTriggerForWrite;
 class MaterializedViewHandler;
 class TableIndex;
+class ColumnarBlockVisitor;
 
 /**
  * Interface used by contexts, scanners, iterators, and undo actions to access
@@ -207,6 +212,8 @@ class PersistentTable : public Table, public UndoQuantumReleaseInterest,
     friend class ::CopyOnWriteTest;
     friend class ::CompactionTest_BasicCompaction;
     friend class ::CompactionTest_CompactionWithCopyOnWrite;
+    friend class ::CompactionTest_BudgetedCompaction;
+    friend class ::IndexBuilderTest_BuildAcrossCompaction;
     friend class CoveringCellIndexTest_TableCompaction;
     friend class MaterializedViewHandler;
     friend class ScopedDeltaTableContext;
@@ -322,6 +329,36 @@ public:
     void removeIndex(TableIndex* index);
     void setPrimaryKeyIndex(TableIndex* index);
 
+    /**
+     * Populate a new non-unique index a chunk at a time instead of all at once
+     * like addIndex(). Changes to the table keep it current meanwhile, and it
+     * only joins allIndexes() once advanceIndexBuild() completes it. Until then
+     * looking it up by name, as a plan that uses it does, throws.
+     */
+    void addIndexIncrementally(TableIndex* index);
+
+    /**
+     * Scan up to maxTuples tuple slots for the indexes being built, whenever
+     * there is time. Returns true if there is more to scan. Never completes the
+     * build, since that has to happen at the same transaction on every replica.
+     */
+    bool continueIndexBuild(int64_t maxTuples);
+
+    /**
+     * Scan up to maxTuples tuple slots for the indexes being built, as a step
+     * taken in transaction order. Completes the build once there have been
+     * steps for as many tuples as the table had when it started. Returns true
+     * if the indexes are still being built.
+     */
+    bool advanceIndexBuild(int64_t maxTuples);
+
+    /** Finish building the indexes being built right away. */
+    void finishIndexBuild();
+
+    std::vector<TableIndex*> indexesBeingBuilt() const {
+        return m_indexBuilder ? m_indexBuilder->indexes() : std::vector<TableIndex*>();
+    }
+
     // ------------------------------------------------------------------
     // PERSISTENT TABLE OPERATIONS
     // ------------------------------------------------------------------
@@ -428,6 +465,42 @@ public:
 
     void doIdleCompaction();
 
+    /**
+     * Merge blocks until the deadline passes or no merge could free a whole
+     * block any more, a lower bar than the one doForcedCompaction() works to
+     * after transactions. The deadline is only checked between merges, each
+     * of which moves at most a block's worth of tuples. Returns the bytes of
+     * tuple storage freed.
+     */
+    int64_t doBudgetedCompaction(boost::posix_time::ptime const& deadline);
+
+    /**
+     * Pick the block size for a table of tuples of the given length that is
+     * expected to hold about expectedTupleCount tuples, or the default size
+     * if the row count is not known (zero).
+     */
+    static int adaptiveAllocationSize(int tupleLength, int64_t expectedTupleCount);
+
+    /**
+     * Give every block another idle tick and build columnar encodings for
+     * at most budget of the blocks that have gone coldTicks ticks without
+     * a write. Returns the number of blocks encoded.
+     */
+    int encodeColdBlocks(uint32_t coldTicks, int budget);
+
+    /** Bytes held by the current columnar encodings of the blocks. */
+    int64_t columnarMemory() const;
+
+    /** True if some block of this table may have a columnar encoding. */
+    bool hasColumnarBlocks() const { return m_columnarBlockCount > 0; }
+
+    /**
+     * Visit the visible tuples block by block in iterator order. Blocks
+     * with a current columnar encoding are offered to the visitor as a
+     * whole first; their tuples are only visited if it declines.
+     */
+    void visitColumnar(ColumnarBlockVisitor& visitor);
+
     void printBucketInfo();
 
     void increaseStringMemCount(size_t bytes) {
@@ -440,6 +513,9 @@ public:
 
     size_t allocatedBlockCount() const { return m_data.size(); }
 
+    /** Includes the columnar encodings kept alongside the blocks. */
+    int64_t allocatedTupleMemory() const;
+
     // This is a testability feature not intended for use in product logic.
     int visibleTupleCount() const { return m_tupleCount - m_invisibleTuplesPendingDeleteCount; }
 
@@ -632,6 +708,20 @@ private:
 
     void tryInsertOnAllIndexes(TableTuple* tuple, TableTuple* conflict);
 
+    void addToIndexesBeingBuilt(TableTuple* tuple) {
+        if (m_indexBuilder) {
+            m_indexBuilder->tupleAdded(*tuple);
+        }
+    }
+
+    void removeFromIndexesBeingBuilt(TableTuple* tuple) {
+        if (m_indexBuilder) {
+            m_indexBuilder->tupleRemoved(*tuple);
+        }
+    }
+
+    void completeIndexBuild();
+
     void checkUpdateOnExpressions(TableTuple& targetTupleToUpdate,
           TableTuple const& sourceTupleWithNewValues, std::vector<TableIndex*> const& indexesToUpdate);
 
@@ -650,6 +740,16 @@ private:
 
     void swapTuples(TableTuple& sourceTupleWithNewValues, TableTuple& destinationTuple);
 
+    // Let the block holding a tuple that is about to change know that it is not cold.
+    void touchBlockOf(TableTuple& tuple) {
+        if (m_columnarEnabled) {
+            TBPtr block = findBlock(tuple.address(), m_data, m_tableAllocationSize);
+            if (block.get() != NULL) {
+                block->touch();
+            }
+        }
+    }
+
     // The source tuple is used to create the ConstraintFailureException if one
     // occurs. In case of exception, target tuple should be released, but the
     // source tuple's memory should still be retained until the exception is
@@ -797,6 +897,13 @@ private:
     // This is a testability feature not intended for use in product logic.
     int m_invisibleTuplesPendingDeleteCount;
 
+    // Set once cold blocks are being encoded, so that writes keep the blocks' idle counts
+    bool m_columnarEnabled;
+
+    // Blocks with a columnar encoding as of the last encodeColdBlocks(),
+    // an upper bound since writes discard encodings
+    int m_columnarBlockCount;
+
     // Surgeon passed to classes requiring "deep" access to avoid excessive friendship.
     PersistentTableSurgeon m_surgeon;
 
@@ -825,6 +932,9 @@ private:
 
     TableIndex* m_pkeyIndex;
 
+    // Non-unique indexes still being populated, not yet in m_indexes
+    boost::scoped_ptr<IndexBuilder> m_indexBuilder;
+
     // If this is a view table, maintain a handler to handle the view update work.
     MaterializedViewHandler* m_mvHandler;
     MaterializedViewTriggerForInsert* m_mvTrigger;
@@ -146,6 +146,15 @@ class Table {
         return allocatedBlockCount() * m_tuplesPerBlock;
     }
 
+    // Whether merging blocks could free at least one of them, the bar for
+    // compaction while the site is idle
+    bool idleCompactionPredicate() const {
+        if (m_tuplesPinnedByUndo != 0) {
+            return false;
+        }
+        return allocatedTupleCount() - activeTupleCount() > m_tuplesPerBlock;
+    }
+
     /**
      * Includes tuples that are pending any kind of delete.
      * Used by iterators to determine how many tuples to expect while scanning
@@ -0,0 +1,889 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+#ifndef COMPACTINGBTREE_H_
+#define COMPACTINGBTREE_H_
+
+#include "CompactingMap.h"
+#include "ContiguousAllocator.h"
+
+#include <boost/static_assert.hpp>
+
+#include <cstdlib>
+#include <stdint.h>
+#include <new>
+#include <utility>
+#include <cassert>
+
+namespace voltdb {
+
+/**
+ * B+tree with the same loose stl::map-like interface as CompactingMap, so the
+ * two can be swapped underneath the tree indexes.
+ *
+ * Each node holds a few cache lines worth of sorted entries, so a lookup
+ * touches a handful of nodes instead of one node per level of a red-black
+ * tree, and the leaves are doubly linked so iterating over a range walks
+ * entries that sit next to each other in memory.
+ *
+ * Like CompactingMap, the leaves and the inner nodes are kept tightly packed
+ * in their own ContiguousAllocator. When a node is freed by a merge, the last
+ * allocated node of the same kind is moved into the hole, which is why every
+ * node keeps a pointer to its parent.
+ *
+ * Issues to be aware of, beyond those listed for CompactingMap:
+ * 1. Entries are moved between slots and nodes with assignment operators.
+ * 2. The inner nodes hold copies of keys as separators that may outlive the
+ *    entry they were copied from. Only key types that are plain values, such
+ *    as IntsKey, may be used. GenericKey references out-of-line data owned by
+ *    the table or by the key itself and can not be stored in this tree.
+ * 3. Ranks are not maintained, so hasRank must be false.
+ */
+template<typename KeyValuePair, typename Compare, bool hasRank=false>
+class CompactingBTree {
+    typedef typename KeyValuePair::first_type Key;
+    typedef typename KeyValuePair::second_type Data;
+
+    BOOST_STATIC_ASSERT_MSG(!hasRank, "CompactingBTree does not maintain ranks, use CompactingMap");
+
+    // Target size of a node, a few cache lines
+    static const int NODE_BYTES = 512;
+    static const int NODE_HEADER_BYTES = 32;
+    static const int LEAF_SLOTS_FIT = static_cast<int>((NODE_BYTES - NODE_HEADER_BYTES) / sizeof(KeyValuePair));
+    static const int INNER_SLOTS_FIT =
+            static_cast<int>((NODE_BYTES - NODE_HEADER_BYTES) / (sizeof(Key) + sizeof(void*)));
+    static const int LEAF_SLOTS = LEAF_SLOTS_FIT < 4 ? 4 : LEAF_SLOTS_FIT;
+    static const int INNER_SLOTS = INNER_SLOTS_FIT < 4 ? 4 : INNER_SLOTS_FIT;
+    // A node that drops below this many entries is refilled from or merged with a sibling
+    static const int LEAF_MIN = LEAF_SLOTS / 3;
+    static const int INNER_MIN = INNER_SLOTS / 3;
+
+    // Number of nodes carved out of each allocator block
+    static const int LEAVES_PER_BLOCK = 1000;
+    static const int INNER_NODES_PER_BLOCK = 100;
+
+    struct InnerNode;
+
+    struct LeafNode {
+        InnerNode *parent;
+        LeafNode *prev;
+        LeafNode *next;
+        int32_t count;
+        KeyValuePair kv[LEAF_SLOTS];
+
+        void* operator new(std::size_t unused_sz, ContiguousAllocator& ca)
+        {
+            void *memory = ca.alloc();
+            assert(memory);
+            return memory;
+        }
+
+        // See CompactingMap::TreeNode, "delete x;" only runs the destructor,
+        // the memory is given back by a follow-on call to allocator.trim().
+        void operator delete(void* unused) { }
+
+        LeafNode() : parent(NULL), prev(NULL), next(NULL), count(0) { }
+    };
+
+    struct InnerNode {
+        InnerNode *parent;
+        int32_t count;
+        // 1 when the children are leaves
+        int32_t level;
+        // All entries under children[i] are <= keys[i] <= all entries under children[i + 1]
+        Key keys[INNER_SLOTS];
+        void *children[INNER_SLOTS + 1];
+
+        void* operator new(std::size_t unused_sz, ContiguousAllocator& ca)
+        {
+            void *memory = ca.alloc();
+            assert(memory);
+            return memory;
+        }
+
+        void operator delete(void* unused) { }
+
+        InnerNode(int32_t nodeLevel) : parent(NULL), count(0), level(nodeLevel) { }
+    };
+
+    int64_t m_count;
+    // A LeafNode when m_height is 0, otherwise an InnerNode. NULL when empty.
+    void *m_root;
+    int32_t m_height;
+    LeafNode *m_first;
+    LeafNode *m_last;
+    ContiguousAllocator m_leafAllocator;
+    ContiguousAllocator m_innerAllocator;
+    bool m_unique;
+
+    // templated comparison function object
+    // follows STL conventions
+    Compare m_comper;
+
+public:
+    class iterator {
+        friend class CompactingBTree<KeyValuePair, Compare, hasRank>;
+    protected:
+        // Only the leaf and the slot so that the iterator fits in an IndexCursor
+        LeafNode *m_leaf;
+        int32_t m_slot;
+        iterator(LeafNode *leaf, int32_t slot) : m_leaf(leaf), m_slot(slot) {}
+    public:
+        iterator() : m_leaf(NULL), m_slot(0) {}
+        iterator(const iterator &iter) : m_leaf(iter.m_leaf), m_slot(iter.m_slot) {}
+        const Key &key() const { return m_leaf->kv[m_slot].getKey(); }
+        const Data &value() const { return m_leaf->kv[m_slot].getValue(); }
+        void setValue(const Data &value) { m_leaf->kv[m_slot].setValue(value); }
+        void moveNext()
+        {
+            if (m_leaf != NULL && ++m_slot == m_leaf->count) {
+                m_leaf = m_leaf->next;
+                m_slot = 0;
+            }
+        }
+        void movePrev()
+        {
+            if (m_leaf == NULL) {
+                return;
+            }
+            if (m_slot == 0) {
+                m_leaf = m_leaf->prev;
+                m_slot = (m_leaf == NULL) ? 0 : m_leaf->count - 1;
+            }
+            else {
+                --m_slot;
+            }
+        }
+        bool isEnd() const { return m_leaf == NULL; }
+        bool equals(const iterator &iter) const {
+            if (isEnd()) {
+                return iter.isEnd();
+            }
+            return m_leaf == iter.m_leaf && m_slot == iter.m_slot;
+        }
+    };
+
+    CompactingBTree(bool unique, Compare comper);
+    ~CompactingBTree();
+
+    bool insert(std::pair<Key, Data> value) { return (insert(value.first, value.second) == NULL); };
+    // Returns the data of the colliding entry when a unique tree already holds the key
+    const Data *insert(const Key &key, const Data &data);
+    bool erase(const Key &key);
+    bool erase(iterator &iter);
+
+    iterator find(const Key &key) const;
+    int64_t size() const { return m_count; }
+    iterator begin() const { return iterator(m_first, 0); }
+    iterator rbegin() const
+    {
+        if (m_last == NULL) {
+            return iterator();
+        }
+        return iterator(m_last, m_last->count - 1);
+    }
+
+    iterator lowerBound(const Key &key) const;
+    iterator upperBound(const Key &key) const;
+
+    std::pair<iterator, iterator> equalRange(const Key &key) const;
+
+    size_t bytesAllocated() const
+    {
+        return m_leafAllocator.bytesAllocated() + m_innerAllocator.bytesAllocated();
+    }
+
+    // Ranks are not maintained, these only exist to offer the same API as CompactingMap.
+    iterator findRank(int64_t ith) const { return iterator(); }
+    int64_t rankLower(const Key& key) const { return -1; }
+    int64_t rankUpper(const Key& key) const { return -1; }
+
+    /**
+     * For debugging: verify ordering, fill, links and parent pointers. SLOW.
+     */
+    bool verify() const;
+    int32_t height() const { return m_height; }
+
+private:
+    iterator boundary(const Key &key, bool upper) const;
+    LeafNode *findLeaf(const Key &key, bool upper) const;
+    int leafSlot(const LeafNode *leaf, const Key &key, bool upper) const;
+    int childSlot(const InnerNode *inner, const Key &key, bool upper) const;
+
+    void insertIntoLeaf(LeafNode *leaf, int slot, const Key &key, const Data &data);
+    // Moves the entries from splitAt on to a new leaf linked after this one,
+    // the caller links it under the parent once it is not empty.
+    LeafNode *splitLeaf(LeafNode *leaf, int splitAt);
+    void insertIntoParent(void *left, int32_t level, const Key &separator, void *right);
+
+    void removeFromLeaf(LeafNode *leaf, int slot);
+    void rebalanceLeaf(LeafNode *leaf);
+    void rebalanceInner(InnerNode *node);
+    void removeFromInner(InnerNode *node, int keySlot);
+
+    void freeLeaf(LeafNode *leaf);
+    void freeInner(InnerNode *node, InnerNode *&tracked);
+
+    static InnerNode *parentOf(void *node, int32_t level)
+    {
+        return (level == 0) ? static_cast<LeafNode*>(node)->parent : static_cast<InnerNode*>(node)->parent;
+    }
+    static void setParent(void *node, int32_t level, InnerNode *parent)
+    {
+        if (level == 0) {
+            static_cast<LeafNode*>(node)->parent = parent;
+        }
+        else {
+            static_cast<InnerNode*>(node)->parent = parent;
+        }
+    }
+    static int childIndex(const InnerNode *parent, const void *child)
+    {
+        int i = 0;
+        while (parent->children[i] != child) {
+            ++i;
+            assert(i <= parent->count);
+        }
+        return i;
+    }
+    bool isRightmost(const InnerNode *node) const;
+
+    void destroy(void *node, int32_t level);
+    int64_t verify(const void *node, int32_t level, const InnerNode *parent,
+                   const Key *lower, const Key *upper, LeafNode *&prevLeaf) const;
+};
+
+template<typename KeyValuePair, typename Compare, bool hasRank>
+CompactingBTree<KeyValuePair, Compare, hasRank>::CompactingBTree(bool unique, Compare comper)
+    : m_count(0),
+      m_root(NULL),
+      m_height(0),
+      m_first(NULL),
+      m_last(NULL),
+      m_leafAllocator(static_cast<int>(sizeof(LeafNode)), LEAVES_PER_BLOCK),
+      m_innerAllocator(static_cast<int>(sizeof(InnerNode)), INNER_NODES_PER_BLOCK),
+      m_unique(unique),
+      m_comper(comper)
+{ }
+
+template<typename KeyValuePair, typename Compare, bool hasRank>
+CompactingBTree<KeyValuePair, Compare, hasRank>::~CompactingBTree()
+{
+    if (m_root != NULL) {
+        destroy(m_root, m_height);
+    }
+}
+
+template<typename KeyValuePair, typename Compare, bool hasRank>
+void CompactingBTree<KeyValuePair, Compare, hasRank>::destroy(void *node, int32_t level)
+{
+    if (level == 0) {
+        static_cast<LeafNode*>(node)->~LeafNode();
+        return;
+    }
+    InnerNode *inner = static_cast<InnerNode*>(node);
+    for (int i = 0; i <= inner->count; ++i) {
+        destroy(inner->children[i], level - 1);
+    }
+    inner->~InnerNode();
+}
+
+template<typename KeyValuePair, typename Compare, bool hasRank>
+int CompactingBTree<KeyValuePair, Compare, hasRank>::leafSlot(const LeafNode *leaf, const Key &key, bool upper) const
+{
+    // first slot whose key is greater than (upper) or not less than (lower) the key
+    int low = 0;
+    int high = leaf->count;
+    while (low < high) {
+        int mid = (low + high) >> 1;
+        int cmp = m_comper(leaf->kv[mid].getKey(), key);
+        if (cmp < 0 || (upper && cmp == 0)) {
+            low = mid + 1;
+        }
+        else {
+            high = mid;
+        }
+    }
+    return low;
+}
+
+template<typename KeyValuePair, typename Compare, bool hasRank>
+int CompactingBTree<KeyValuePair, Compare, hasRank>::childSlot(const InnerNode *inner, const Key &key, bool upper) const
+{
+    int low = 0;
+    int high = inner->count;
+    while (low < high) {
+        int mid = (low + high) >> 1;
+        int cmp = m_comper(inner->keys[mid], key);
+        if (cmp < 0 || (upper && cmp == 0)) {
+            low = mid + 1;
+        }
+        else {
+            high = mid;
+        }
+    }
+    return low;
+}
+
+template<typename KeyValuePair, typename Compare, bool hasRank>
+typename CompactingBTree<KeyValuePair, Compare, hasRank>::LeafNode *
+CompactingBTree<KeyValuePair, Compare, hasRank>::findLeaf(const Key &key, bool upper) const
+{
+    void *node = m_root;
+    for (int32_t level = m_height; level > 0; --level) {
+        const InnerNode *inner = static_cast<const InnerNode*>(node);
+        node = inner->children[childSlot(inner, key, upper)];
+    }
+    return static_cast<LeafNode*>(node);
+}
+
+template<typename KeyValuePair, typename Compare, bool hasRank>
+typename CompactingBTree<KeyValuePair, Compare, hasRank>::iterator
+CompactingBTree<KeyValuePair, Compare, hasRank>::boundary(const Key &key, bool upper) const
+{
+    if (m_root == NULL) {
+        return iterator();
+    }
+    LeafNode *leaf = findLeaf(key, upper);
+    int slot = leafSlot(leaf, key, upper);
+    if (slot == leaf->count) {
+        // Everything in this leaf sorts before the key, the answer starts the next one
+        return iterator(leaf->next, 0);
+    }
+    return iterator(leaf, slot);
+}
+
+template<typename KeyValuePair, typename Compare, bool hasRank>
+typename CompactingBTree<KeyValuePair, Compare, hasRank>::iterator
+CompactingBTree<KeyValuePair, Compare, hasRank>::lowerBound(const Key &key) const
+{
+    return boundary(key, false);
+}
+
+template<typename KeyValuePair, typename Compare, bool hasRank>
+typename CompactingBTree<KeyValuePair, Compare, hasRank>::iterator
+CompactingBTree<KeyValuePair, Compare, hasRank>::upperBound(const Key &key) const
+{
+    Key tmpKey(key);
+    setPointerValue(tmpKey, MAXPOINTER);
+    return boundary(tmpKey, true);
+}
+
+template<typename KeyValuePair, typename Compare, bool hasRank>
+typename std::pair<typename CompactingBTree<KeyValuePair, Compare, hasRank>::iterator,
+                   typename CompactingBTree<KeyValuePair, Compare, hasRank>::iterator>
+CompactingBTree<KeyValuePair, Compare, hasRank>::equalRange(const Key &key) const
+{
+    return std::pair<iterator, iterator>(lowerBound(key), upperBound(key));
+}
+
+template<typename KeyValuePair, typename Compare, bool hasRank>
+typename CompactingBTree<KeyValuePair, Compare, hasRank>::iterator
+CompactingBTree<KeyValuePair, Compare, hasRank>::find(const Key &key) const
+{
+    iterator iter = lowerBound(key);
+    if (iter.isEnd() || m_comper(iter.key(), key) != 0) {
+        return iterator();
+    }
+    return iter;
+}
+
+template<typename KeyValuePair, typename Compare, bool hasRank>
+const typename CompactingBTree<KeyValuePair, Compare, hasRank>::Data *
+CompactingBTree<KeyValuePair, Compare, hasRank>::insert(const Key &key, const Data &value)
+{
+    if (m_root == NULL) {
+        LeafNode *leaf = new (m_leafAllocator) LeafNode();
+        m_root = m_first = m_last = leaf;
+        m_height = 0;
+    }
+
+    LeafNode *leaf;
+    int slot;
+    if (m_unique) {
+        leaf = findLeaf(key, false);
+        slot = leafSlot(leaf, key, false);
+        // An equal key may also start the next leaf
+        const KeyValuePair *candidate = (slot < leaf->count) ? &leaf->kv[slot] :
+                ((leaf->next == NULL) ? NULL : &leaf->next->kv[0]);
+        if (candidate != NULL && m_comper(key, candidate->getKey()) == 0) {
+            return &candidate->getValue();
+        }
+    }
+    else {
+        // Like CompactingMap, new duplicates go after the existing ones
+        leaf = findLeaf(key, true);
+        slot = leafSlot(leaf, key, true);
+    }
+
+    LeafNode *right = NULL;
+    if (leaf->count == LEAF_SLOTS) {
+        // Appending to the end of the tree, as with a sequence or a timestamp,
+        // leaves this leaf full rather than half empty for good.
+        bool appending = (leaf == m_last && slot == leaf->count);
+        int splitAt = appending ? leaf->count : LEAF_SLOTS / 2;
+        right = splitLeaf(leaf, splitAt);
+        if (appending || slot > splitAt) {
+            leaf = right;
+            slot -= splitAt;
+        }
+    }
+    insertIntoLeaf(leaf, slot, key, value);
+    if (right != NULL) {
+        insertIntoParent(right->prev, 0, right->kv[0].getKey(), right);
+    }
+    m_count++;
+    return NULL;
+}
+
+template<typename KeyValuePair, typename Compare, bool hasRank>
+void CompactingBTree<KeyValuePair, Compare, hasRank>::insertIntoLeaf(LeafNode *leaf, int slot,
+                                                                     const Key &key, const Data &value)
+{
+    assert(leaf->count < LEAF_SLOTS);
+    for (int i = leaf->count; i > slot; --i) {
+        leaf->kv[i] = leaf->kv[i - 1];
+    }
+    leaf->kv[slot].setKeyValuePair(key, value);
+    leaf->count++;
+}
+
+template<typename KeyValuePair, typename Compare, bool hasRank>
+typename CompactingBTree<KeyValuePair, Compare, hasRank>::LeafNode *
+CompactingBTree<KeyValuePair, Compare, hasRank>::splitLeaf(LeafNode *leaf, int splitAt)
+{
+    LeafNode *right = new (m_leafAllocator) LeafNode();
+    for (int i = splitAt; i < leaf->count; ++i) {
+        right->kv[i - splitAt] = leaf->kv[i];
+    }
+    right->count = leaf->count - splitAt;
+    leaf->count = splitAt;
+
+    right->prev = leaf;
+    right->next = leaf->next;
+    if (right->next != NULL) {
+        right->next->prev = right;
+    }
+    else {
+        m_last = right;
+    }
+    leaf->next = right;
+    return right;
+}
+
+template<typename KeyValuePair, typename Compare, bool hasRank>
+bool CompactingBTree<KeyValuePair, Compare, hasRank>::isRightmost(const InnerNode *node) const
+{
+    while (node->parent != NULL) {
+        if (node->parent->children[node->parent->count] != node) {
+            return false;
+        }
+        node = node->parent;
+    }
+    return true;
+}
+
+template<typename KeyValuePair, typename Compare, bool hasRank>
+void CompactingBTree<KeyValuePair, Compare, hasRank>::insertIntoParent(void *left, int32_t level,
+                                                                       const Key &separator, void *right)
+{
+    InnerNode *parent = parentOf(left, level);
+    if (parent == NULL) {
+        InnerNode *root = new (m_innerAllocator) InnerNode(level + 1);
+        root->keys[0] = separator;
+        root->children[0] = left;
+        root->children[1] = right;
+        root->count = 1;
+        setParent(left, level, root);
+        setParent(right, level, root);
+        m_root = root;
+        m_height = level + 1;
+        return;
+    }
+
+    int slot = childIndex(parent, left);
+    if (parent->count < INNER_SLOTS) {
+        for (int i = parent->count; i > slot; --i) {
+            parent->keys[i] = parent->keys[i - 1];
+            parent->children[i + 1] = parent->children[i];
+        }
+        parent->keys[slot] = separator;
+        parent->children[slot + 1] = right;
+        parent->count++;
+        setParent(right, level, parent);
+        return;
+    }
+
+    // Split a full parent, with the new separator and child in their place
+    Key keys[INNER_SLOTS + 1];
+    void *children[INNER_SLOTS + 2];
+    for (int i = 0, j = 0; i <= INNER_SLOTS; ++i) {
+        if (i == slot) {
+            keys[i] = separator;
+        }
+        else {
+            keys[i] = parent->keys[j++];
+        }
+    }
+    for (int i = 0, j = 0; i <= INNER_SLOTS + 1; ++i) {
+        if (i == slot + 1) {
+            children[i] = right;
+        }
+        else {
+            children[i] = parent->children[j++];
+        }
+    }
+
+    // keys[promote] moves up, appending splits leave the left node full
+    int promote = (slot == INNER_SLOTS && isRightmost(parent)) ? INNER_SLOTS - 1 : (INNER_SLOTS + 1) / 2;
+    InnerNode *sibling = new (m_innerAllocator) InnerNode(parent->level);
+    parent->count = promote;
+    for (int i = 0; i < promote; ++i) {
+        parent->keys[i] = keys[i];
+        parent->children[i] = children[i];
+    }
+    parent->children[promote] = children[promote];
+    sibling->count = INNER_SLOTS - promote;
+    for (int i = 0; i < sibling->count; ++i) {
+        sibling->keys[i] = keys[promote + 1 + i];
+        sibling->children[i] = children[promote + 1 + i];
+    }
+    sibling->children[sibling->count] = children[INNER_SLOTS + 1];
+
+    for (int i = 0; i <= parent->count; ++i) {
+        setParent(parent->children[i], level, parent);
+    }
+    for (int i = 0; i <= sibling->count; ++i) {
+        setParent(sibling->children[i], level, sibling);
+    }
+    insertIntoParent(parent, level + 1, keys[promote], sibling);
+}
+
+template<typename KeyValuePair, typename Compare, bool hasRank>
+bool CompactingBTree<KeyValuePair, Compare, hasRank>::erase(const Key &key)
+{
+    iterator iter = find(key);
+    if (iter.isEnd()) {
+        return false;
+    }
+    return erase(iter);
+}
+
+template<typename KeyValuePair, typename Compare, bool hasRank>
+bool CompactingBTree<KeyValuePair, Compare, hasRank>::erase(iterator &iter)
+{
+    assert(!iter.isEnd());
+    LeafNode *leaf = iter.m_leaf;
+    removeFromLeaf(leaf, iter.m_slot);
+    m_count--;
+    rebalanceLeaf(leaf);
+    return true;
+}
+
+template<typename KeyValuePair, typename Compare, bool hasRank>
+void CompactingBTree<KeyValuePair, Compare, hasRank>::removeFromLeaf(LeafNode *leaf, int slot)
+{
+    for (int i = slot + 1; i < leaf->count; ++i) {
+        leaf->kv[i - 1] = leaf->kv[i];
+    }
+    leaf->count--;
+    // Key types that manage memory swap on assignment, so the removed
+    // entry ends up in the last slot. Release it and leave the slot empty.
+    leaf->kv[leaf->count].~KeyValuePair();
+    new (&leaf->kv[leaf->count]) KeyValuePair();
+}
+
+template<typename KeyValuePair, typename Compare, bool hasRank>
+void CompactingBTree<KeyValuePair, Compare, hasRank>::rebalanceLeaf(LeafNode *leaf)
+{
+    InnerNode *parent = leaf->parent;
+    if (parent == NULL) {
+        if (leaf->count == 0) {
+            m_root = m_first = m_last = NULL;
+            m_height = 0;
+            freeLeaf(leaf);
+        }
+        return;
+    }
+    if (leaf->count >= LEAF_MIN) {
+        return;
+    }
+
+    // Refill from or merge with a sibling under the same parent,
+    // merging always frees the right hand node of the pair.
+    int slot = childIndex(parent, leaf);
+    int sep = (slot > 0) ? slot - 1 : slot;
+    LeafNode *left = static_cast<LeafNode*>(parent->children[sep]);
+    LeafNode *right = static_cast<LeafNode*>(parent->children[sep + 1]);
+
+    if (left->count + right->count <= LEAF_SLOTS) {
+        for (int i = 0; i < right->count; ++i) {
+            left->kv[left->count + i] = right->kv[i];
+        }
+        left->count += right->count;
+        right->count = 0;
+        left->next = right->next;
+        if (left->next != NULL) {
+            left->next->prev = left;
+        }
+        else {
+            m_last = left;
+        }
+        removeFromInner(parent, sep);
+        freeLeaf(right);
+        rebalanceInner(parent);
+        return;
+    }
+
+    if (leaf == right) {
+        // borrow the last entry of the left sibling
+        for (int i = right->count; i > 0; --i) {
+            right->kv[i] = right->kv[i - 1];
+        }
+        right->kv[0] = left->kv[left->count - 1];
+        right->count++;
+        removeFromLeaf(left, left->count - 1);
+    }
+    else {
+        // borrow the first entry of the right sibling
+        left->kv[left->count] = right->kv[0];
+        left->count++;
+        removeFromLeaf(right, 0);
+    }
+    parent->keys[sep] = right->kv[0].getKey();
+}
+
+template<typename KeyValuePair, typename Compare, bool hasRank>
+void CompactingBTree<KeyValuePair, Compare, hasRank>::removeFromInner(InnerNode *node, int keySlot)
+{
+    // drops keys[keySlot] and the child to its right
+    for (int i = keySlot + 1; i < node->count; ++i) {
+        node->keys[i - 1] = node->keys[i];
+        node->children[i] = node->children[i + 1];
+    }
+    node->count--;
+}
+
+template<typename KeyValuePair, typename Compare, bool hasRank>
+void CompactingBTree<KeyValuePair, Compare, hasRank>::rebalanceInner(InnerNode *node)
+{
+    InnerNode *parent = node->parent;
+    if (parent == NULL) {
+        if (node->count == 0) {
+            // The only child becomes the root
+            m_root = node->children[0];
+            m_height--;
+            setParent(m_root, m_height, NULL);
+            InnerNode *unused = NULL;
+            freeInner(node, unused);
+        }
+        return;
+    }
+    if (node->count >= INNER_MIN) {
+        return;
+    }
+
+    int slot = childIndex(parent, node);
+    int sep = (slot > 0) ? slot - 1 : slot;
+    InnerNode *left = static_cast<InnerNode*>(parent->children[sep]);
+    InnerNode *right = static_cast<InnerNode*>(parent->children[sep + 1]);
+    const int32_t childLevel = node->level - 1;
+
+    if (left->count + right->count + 1 <= INNER_SLOTS) {
+        // pull the separator down between the two halves
+        left->keys[left->count] = parent->keys[sep];
+        for (int i = 0; i < right->count; ++i) {
+            left->keys[left->count + 1 + i] = right->keys[i];
+        }
+        for (int i = 0; i <= right->count; ++i) {
+            left->children[left->count + 1 + i] = right->children[i];
+            setParent(right->children[i], childLevel, left);
+        }
+        left->count += right->count + 1;
+        removeFromInner(parent, sep);
+        freeInner(right, parent);
+        rebalanceInner(parent);
+        return;
+    }
+
+    if (node == right) {
+        // rotate the last child of the left sibling through the parent
+        for (int i = right->count; i > 0; --i) {
+            right->keys[i] = right->keys[i - 1];
+        }
+        for (int i = right->count + 1; i > 0; --i) {
+            right->children[i] = right->children[i - 1];
+        }
+        right->keys[0] = parent->keys[sep];
+        right->children[0] = left->children[left->count];
+        setParent(right->children[0], childLevel, right);
+        right->count++;
+        parent->keys[sep] = left->keys[left->count - 1];
+        left->count--;
+    }
+    else {
+        // rotate the first child of the right sibling through the parent
+        left->keys[left->count] = parent->keys[sep];
+        left->children[left->count + 1] = right->children[0];
+        setParent(right->children[0], childLevel, left);
+        left->count++;
+        parent->keys[sep] = right->keys[0];
+        for (int i = 1; i < right->count; ++i) {
+            right->keys[i - 1] = right->keys[i];
+        }
+        for (int i = 1; i <= right->count; ++i) {
+            right->children[i - 1] = right->children[i];
+        }
+        right->count--;
+    }
+}
+
+template<typename KeyValuePair, typename Compare, bool hasRank>
+void CompactingBTree<KeyValuePair, Compare, hasRank>::freeLeaf(LeafNode *leaf)
+{
+    // Move the last leaf in the allocator into the hole, as CompactingMap::fragmentFixup does
+    LeafNode *last = static_cast<LeafNode*>(m_leafAllocator.last());
+    if (last != leaf) {
+        for (int i = 0; i < last->count; ++i) {
+            leaf->kv[i] = last->kv[i];
+        }
+        leaf->count = last->count;
+        leaf->parent = last->parent;
+        leaf->prev = last->prev;
+        leaf->next = last->next;
+        if (leaf->prev != NULL) {
+            leaf->prev->next = leaf;
+        }
+        else {
+            m_first = leaf;
+        }
+        if (leaf->next != NULL) {
+            leaf->next->prev = leaf;
+        }
+        else {
+            m_last = leaf;
+        }
+        if (leaf->parent != NULL) {
+            leaf->parent->children[childIndex(leaf->parent, last)] = leaf;
+        }
+        else {
+            m_root = leaf;
+        }
+    }
+    delete last;
+    m_leafAllocator.trim();
+}
+
+template<typename KeyValuePair, typename Compare, bool hasRank>
+void CompactingBTree<KeyValuePair, Compare, hasRank>::freeInner(InnerNode *node, InnerNode *&tracked)
+{
+    // Same as freeLeaf. The caller may hold on to one other inner node, which is
+    // followed if it is the one being moved.
+    InnerNode *last = static_cast<InnerNode*>(m_innerAllocator.last());
+    if (last != node) {
+        node->count = last->count;
+        node->level = last->level;
+        node->parent = last->parent;
+        for (int i = 0; i < last->count; ++i) {
+            node->keys[i] = last->keys[i];
+        }
+        for (int i = 0; i <= last->count; ++i) {
+            node->children[i] = last->children[i];
+            setParent(node->children[i], node->level - 1, node);
+        }
+        if (node->parent != NULL) {
+            node->parent->children[childIndex(node->parent, last)] = node;
+        }
+        else {
+            m_root = node;
+        }
+        if (tracked == last) {
+            tracked = node;
+        }
+    }
+    delete last;
+    m_innerAllocator.trim();
+}
+
+template<typename KeyValuePair, typename Compare, bool hasRank>
+bool CompactingBTree<KeyValuePair, Compare, hasRank>::verify() const
+{
+    if (m_root == NULL) {
+        return m_count == 0 && m_first == NULL && m_last == NULL &&
+               m_leafAllocator.count() == 0 && m_innerAllocator.count() == 0;
+    }
+    if (parentOf(m_root, m_height) != NULL) {
+        return false;
+    }
+    LeafNode *prevLeaf = NULL;
+    int64_t count = verify(m_root, m_height, NULL, NULL, NULL, prevLeaf);
+    return count == m_count && prevLeaf == m_last && m_last->next == NULL;
+}
+
+template<typename KeyValuePair, typename Compare, bool hasRank>
+int64_t CompactingBTree<KeyValuePair, Compare, hasRank>::verify(const void *node, int32_t level,
+                                                                 const InnerNode *parent,
+                                                                 const Key *lower, const Key *upper,
+                                                                 LeafNode *&prevLeaf) const
+{
+    if (level == 0) {
+        const LeafNode *leaf = static_cast<const LeafNode*>(node);
+        if (leaf->parent != parent || leaf->prev != prevLeaf ||
+                (prevLeaf == NULL ? m_first != leaf : prevLeaf->next != leaf)) {
+            return -1;
+        }
+        if (leaf->count <= 0 || leaf->count > LEAF_SLOTS) {
+            return -1;
+        }
+        for (int i = 0; i < leaf->count; ++i) {
+            const Key &key = leaf->kv[i].getKey();
+            if (i > 0) {
+                int cmp = m_comper(leaf->kv[i - 1].getKey(), key);
+                if (cmp > 0 || (m_unique && cmp == 0)) {
+                    return -1;
+                }
+            }
+            if ((lower != NULL && m_comper(*lower, key) > 0) ||
+                    (upper != NULL && m_comper(key, *upper) > 0)) {
+                return -1;
+            }
+        }
+        prevLeaf = const_cast<LeafNode*>(leaf);
+        return leaf->count;
+    }
+
+    const InnerNode *inner = static_cast<const InnerNode*>(node);
+    if (inner->parent != parent || inner->level != level || inner->count <= 0 || inner->count > INNER_SLOTS) {
+        return -1;
+    }
+    int64_t count = 0;
+    for (int i = 0; i <= inner->count; ++i) {
+        const Key *childLower = (i == 0) ? lower : &inner->keys[i - 1];
+        const Key *childUpper = (i == inner->count) ? upper : &inner->keys[i];
+        int64_t childCount = verify(inner->children[i], level - 1, inner, childLower, childUpper, prevLeaf);
+        if (childCount < 0) {
+            return -1;
+        }
+        count += childCount;
+    }
+    return count;
+}
+
+}
+
+#endif // COMPACTINGBTREE_H_
@@ -0,0 +1,753 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+#ifndef COMPACTINGOPENHASHTABLE_H_
+#define COMPACTINGOPENHASHTABLE_H_
+
+#include "ContiguousAllocator.h"
+#include "common/FatalException.hpp"
+
+#include <cstdlib>
+#include <cstdio>
+#include <new>
+#include <utility>
+#include <algorithm>
+#include <cassert>
+#include <cstring>
+#include <sys/mman.h>
+#include <boost/functional/hash.hpp>
+#include <stdint.h>
+
+namespace voltdb {
+
+    /**
+     * CompactingOpenHashTable is an open-addressing alternative to CompactingHashTable with the
+     * same interface, so the hash indexes can use either one.
+     *
+     * It differs from the chained table in that:
+     * 1. Keys and values live directly in the slots of a power-of-two sized array, using Robin Hood
+     *    linear probing and backward shift deletion, so there are no tombstones and no chain nodes
+     *    to chase. A lookup usually reads one or two cache lines.
+     * 2. Every slot has a 16-bit metadata word holding the probe distance and an 8-bit fragment of
+     *    the hash. Probing compares these words with plain integer compares and only compares keys
+     *    when the word matches, and it stops as soon as it reaches a slot closer to its home.
+     * 3. Growing or shrinking is incremental. The old array is drained into the new one a few slots
+     *    at a time by each following insert or erase, so a large rehash never stalls the caller.
+     *    Lookups check the draining array before the current one.
+     * 4. Duplicate values of a multimap key are kept in a list of small nodes off the key's slot,
+     *    so low cardinality keys don't make long probe sequences. The nodes are allocated
+     *    contiguously and the last one moves into the hole on removal, like CompactingHashTable.
+     * 5. The slot arrays are mmap'd and released when a resize finishes, so RSS shrinks with the
+     *    table. The hash is not stored, keys are rehashed when they are moved to a new array.
+     *
+     * Iterators are only valid until the next insert or erase. Robin Hood displacement, backward
+     * shifts and the incremental drain all move entries between slots, where the chained table
+     * leaves its nodes in place on insert. The hash indexes only hold an iterator while they read
+     * the values of one key, and TableIndexFactory only builds indexes on this table when it is
+     * switched on.
+     */
+    template<class K, class T, class H = boost::hash<K>, class EK = std::equal_to<K>, class ET = std::equal_to<T> >
+    class CompactingOpenHashTable {
+    public:
+        // typedefs just reduce the endless templating boilerplate
+        typedef K Key;            // key type
+        typedef T Data;           // value type
+        typedef H Hasher;         // hash a value to a uint64_t
+        typedef EK KeyEqChecker;  // compare two keys
+        typedef ET DataEqChecker; // compare two values
+
+        // grow when the slot array is 80% full
+        // (new array will be 40% full)
+        static const uint64_t MAX_LOAD_FACTOR = 80; // %
+        // shrink when the slot array is 20% full
+        // (new array will be 40% full)
+        static const uint64_t MIN_LOAD_FACTOR = 20; // %
+
+        // slots of the draining array moved or skipped per insert/erase during a resize,
+        // enough to finish well before the new array reaches its own load limit
+        static const uint64_t DRAIN_SLOTS_PER_OP = 64;
+
+#ifndef MEMCHECK
+
+        // start with 4k slots
+        static const int INITIAL_SIZE_BITS = 12;
+
+        // 20000 DupNodes per chunk
+        static const uint64_t ALLOCATOR_CHUNK_SIZE = 20000;
+
+#else // for MEMCHECK
+        // for debugging with valgrind
+        static const int INITIAL_SIZE_BITS = 3;
+        static const uint64_t ALLOCATOR_CHUNK_SIZE = 2;
+
+#endif // MEMCHECK
+
+    protected:
+
+        // low byte of a metadata word: 0 for an empty slot, otherwise probe distance + 1,
+        // saturated for entries further than that from their home slot
+        static const uint16_t DIST_MASK = 0xff;
+        static const uint16_t DIST_SATURATED = 0xff;
+
+        /**
+         * Holds the second and later values of a multimap key. pprev points at whatever
+         * points at this node, the owning slot's dups or the previous node's next, so a
+         * node can be unlinked or moved without knowing where its key lives.
+         */
+        struct DupNode {
+            Data value;
+            DupNode *next;
+            DupNode **pprev;
+        };
+
+        /**
+         * A slot of a multimap table.
+         */
+        struct Entry {
+            Key key;
+            Data value;
+            DupNode *dups;
+        };
+
+        /**
+         * A slot of a unique table. Like HashNodeSmall in CompactingHashTable this
+         * is the Entry without its last field, and slots are accessed through Entry
+         * pointers with the dups field only touched for multimaps.
+         */
+        struct EntrySmall {
+            Key key;
+            Data value;
+        };
+
+        struct Table {
+            uint16_t *meta;     // metadata word of each slot
+            char *entries;      // the slots
+            uint64_t mask;      // slot count - 1
+            int shift;          // 64 - log2(slot count)
+            uint64_t used;      // occupied slots
+            size_t bytes;       // size of the mapping
+        };
+
+        // m_tables[0] takes all inserts, m_tables[1] is being drained into it during a resize
+        Table m_tables[2];
+        uint64_t m_drainCursor;           // slots of m_tables[1] below this are empty
+        bool m_unique;                    // support unique
+        size_t m_entrySize;               // slot stride
+        uint64_t m_count;                 // number of values in the hash
+        ContiguousAllocator m_allocator;  // DupNodes, supporting compaction
+        Hasher m_hasher;                  // instance of the hashing function
+        KeyEqChecker m_keyEq;             // instance of the key eq checker
+        DataEqChecker m_dataEq;           // instance of the value eq checker
+
+    public:
+
+        /**
+         * Iterator class that will only iterate the values of one key
+         */
+        class iterator {
+            friend class CompactingOpenHashTable;
+        protected:
+            // states other than a DupNode address, the iterator is at the value in the slot
+            enum { AT_SLOT = 0, AT_SLOT_NO_DUPS = 1 };
+
+            // the slot holding the key, NULL at the end
+            Entry *m_entry;
+            // one of the states above or the DupNode holding the current value
+            uintptr_t m_state;
+
+            iterator(const Entry *entry, uintptr_t state) : m_entry(const_cast<Entry*>(entry)), m_state(state) {}
+
+            DupNode *dup() const { return reinterpret_cast<DupNode*>(m_state); }
+            bool atSlot() const { return m_state <= AT_SLOT_NO_DUPS; }
+
+        public:
+            iterator() : m_entry(NULL), m_state(AT_SLOT_NO_DUPS) {}
+            iterator(const iterator &iter) : m_entry(iter.m_entry), m_state(iter.m_state) {}
+
+            Key &key() const { return m_entry->key; }
+            Data &value() const { return atSlot() ? m_entry->value : dup()->value; }
+            void setValue(const Data &value) { if (atSlot()) m_entry->value = value; else dup()->value = value; }
+
+            // move to the next value with the same key or make isEnd() true
+            // (note: different than many other STL-ish implementations)
+            void moveNext() {
+                DupNode *next;
+                if (m_state == AT_SLOT) {
+                    next = m_entry->dups;
+                }
+                else if (m_state == AT_SLOT_NO_DUPS) {
+                    next = NULL;
+                }
+                else {
+                    next = dup()->next;
+                }
+                if (next) {
+                    m_state = reinterpret_cast<uintptr_t>(next);
+                }
+                else {
+                    m_entry = NULL;
+                    m_state = AT_SLOT_NO_DUPS;
+                }
+            }
+            // equivalent to == container.end() in STL-speak
+            bool isEnd() const { return (!m_entry); }
+            // do two iterators point to the same value
+            bool equals(iterator &iter) const { return m_entry == iter.m_entry && m_state == iter.m_state; }
+        };
+
+        /** Constructor allows passing in instances for the hasher and eq checkers */
+        CompactingOpenHashTable(bool unique, Hasher hasher = Hasher(), KeyEqChecker keyEq = KeyEqChecker(), DataEqChecker dataEq = DataEqChecker());
+        ~CompactingOpenHashTable();
+
+        /** simple find */
+        iterator find(const Key &key) const;
+        /** find an exact key/value match */
+        iterator find(const Key &key, const Data &value) const;
+        /** simple insert */
+        const Data *insert(const Key &key, const Data &value);
+        /** delete by key (unique only) */
+        bool erase(const Key &key);
+        /** delete by kv pair */
+        bool erase(const Key &key, const Data &value);
+        /** delete from iterator */
+        bool erase(iterator &iter);
+        /** STL-ish size() method */
+        size_t size() const { return m_count; }
+
+        /**
+         * Return bytes used for this index: the occupied slots with their metadata words and the
+         * duplicate nodes. The slot arrays are anonymous mappings, pages of an array that never
+         * held an entry are not resident, so the size of the mappings would overstate small tables.
+         */
+        size_t bytesAllocated() const {
+            return m_allocator.bytesAllocated() +
+                    (m_tables[0].used + m_tables[1].used) * (m_entrySize + sizeof(uint16_t));
+        }
+
+        /** verification for debugging and testing */
+        bool verify();
+        /** Do we have a cached last buffer?  This is used in testing. */
+        bool hasCachedLastBuffer() const { return (m_allocator.hasCachedLastBuffer()); }
+        /** Is a resize still draining the old slot array?  This is used in testing. */
+        bool isResizing() const { return m_tables[1].meta != NULL; }
+
+    protected:
+        uint64_t mix(const Key &key) const {
+            // spread the hash over the high bits used for the home slot (Fibonacci hashing)
+            return static_cast<uint64_t>(m_hasher(key)) * 0x9E3779B97F4A7C15ULL;
+        }
+        static uint16_t tagOf(uint64_t mixed) { return static_cast<uint16_t>(((mixed >> 16) & 0xff) << 8); }
+        static uint64_t homeOf(const Table &table, uint64_t mixed) { return mixed >> table.shift; }
+
+        Entry *entryAt(const Table &table, uint64_t slot) const {
+            return reinterpret_cast<Entry*>(table.entries + slot * m_entrySize);
+        }
+
+        /** find the slot of a key, returns false if neither array has it */
+        bool locate(const Key &key, int &tableIndex, uint64_t &slot) const;
+        bool locate(const Table &table, uint64_t mixed, const Key &key, uint64_t &slot) const;
+
+        /** Robin Hood insert of an entry whose key is not in the table */
+        void place(Table &table, uint64_t mixed, Entry &carry);
+        /** remove the entry in a slot, shifting the rest of its run back */
+        void removeSlot(Table &table, uint64_t slot);
+        /** remove the value held in a slot, promoting its first duplicate if there is one */
+        void removeSlotValue(Table &table, uint64_t slot);
+        /** unlink and free a duplicate, keeping the DupNodes contiguous */
+        void removeDup(DupNode *node);
+        /** find which array an iterator's entry is in */
+        void tableOf(const Entry *entry, int &tableIndex, uint64_t &slot) const;
+
+        void constructAt(Entry *dest, const Entry &src);
+        void destroyAt(Entry *entry);
+        void linkDups(Entry *entry) { if (!m_unique && entry->dups) entry->dups->pprev = &entry->dups; }
+
+        /** after each insert/erase, move part of a resize along or start one */
+        void checkLoadFactor();
+        void startResize(int newSizeBits);
+        void drain(uint64_t slotBudget);
+
+        bool allocTable(Table &table, int sizeBits);
+        void freeTable(Table &table);
+    };
+
+
+    ///////////////////////////////////////////
+    //
+    // COMPACTING OPEN HASH TABLE CODE
+    //
+    ///////////////////////////////////////////
+
+    template<class K, class T, class H, class EK, class ET>
+    CompactingOpenHashTable<K, T, H, EK, ET>::CompactingOpenHashTable(bool unique, Hasher hasher, KeyEqChecker keyEq, DataEqChecker dataEq)
+    : m_drainCursor(0),
+    m_unique(unique),
+    m_entrySize(unique ? sizeof(EntrySmall) : sizeof(Entry)),
+    m_count(0),
+    m_allocator((int32_t)sizeof(DupNode), ALLOCATOR_CHUNK_SIZE),
+    m_hasher(hasher),
+    m_keyEq(keyEq),
+    m_dataEq(dataEq)
+    {
+        memset(m_tables, 0, sizeof(m_tables));
+        if (!allocTable(m_tables[0], INITIAL_SIZE_BITS)) {
+            throwFatalException("Failed to map the slot array of a hash index");
+        }
+    }
+
+    template<class K, class T, class H, class EK, class ET>
+    CompactingOpenHashTable<K, T, H, EK, ET>::~CompactingOpenHashTable() {
+        for (int t = 0; t < 2; ++t) {
+            Table &table = m_tables[t];
+            if (!table.meta) {
+                continue;
+            }
+            for (uint64_t slot = 0; slot <= table.mask; ++slot) {
+                if (table.meta[slot]) {
+                    Entry *entry = entryAt(table, slot);
+                    if (!m_unique) {
+                        for (DupNode *node = entry->dups; node; node = node->next) {
+                            node->value.~Data();
+                        }
+                    }
+                    destroyAt(entry);
+                }
+            }
+            freeTable(table);
+        }
+        // when the allocator gets cleaned up, it will
+        // free the memory used for DupNodes
+    }
+
+    template<class K, class T, class H, class EK, class ET>
+    typename CompactingOpenHashTable<K, T, H, EK, ET>::iterator CompactingOpenHashTable<K, T, H, EK, ET>::find(const Key &key) const {
+        int tableIndex;
+        uint64_t slot;
+        if (!locate(key, tableIndex, slot)) {
+            return iterator();
+        }
+        return iterator(entryAt(m_tables[tableIndex], slot), m_unique ? iterator::AT_SLOT_NO_DUPS : iterator::AT_SLOT);
+    }
+
+    template<class K, class T, class H, class EK, class ET>
+    typename CompactingOpenHashTable<K, T, H, EK, ET>::iterator CompactingOpenHashTable<K, T, H, EK, ET>::find(const Key &key, const Data &value) const {
+        int tableIndex;
+        uint64_t slot;
+        if (!locate(key, tableIndex, slot)) {
+            return iterator();
+        }
+        Entry *entry = entryAt(m_tables[tableIndex], slot);
+        if (m_dataEq(entry->value, value)) {
+            return iterator(entry, m_unique ? iterator::AT_SLOT_NO_DUPS : iterator::AT_SLOT);
+        }
+        if (!m_unique) {
+            for (DupNode *node = entry->dups; node; node = node->next) {
+                if (m_dataEq(node->value, value)) {
+                    return iterator(entry, reinterpret_cast<uintptr_t>(node));
+                }
+            }
+        }
+        return iterator();
+    }
+
+    template<class K, class T, class H, class EK, class ET>
+    const typename CompactingOpenHashTable<K, T, H, EK, ET>::Data *CompactingOpenHashTable<K, T, H, EK, ET>::insert(const Key &key, const Data &value) {
+        int tableIndex;
+        uint64_t slot;
+        if (locate(key, tableIndex, slot)) {
+            Entry *entry = entryAt(m_tables[tableIndex], slot);
+            if (m_unique) {
+                return &(entry->value);
+            }
+            // add another value to the key's list
+            DupNode *node = static_cast<DupNode*>(m_allocator.alloc());
+            new (&node->value) Data(value);
+            node->next = entry->dups;
+            node->pprev = &entry->dups;
+            if (node->next) {
+                node->next->pprev = &node->next;
+            }
+            entry->dups = node;
+        }
+        else {
+            Entry carry = { key, value, NULL };
+            place(m_tables[0], mix(key), carry);
+        }
+        ++m_count;
+        checkLoadFactor();
+        return NULL;
+    }
+
+    template<class K, class T, class H, class EK, class ET>
+    bool CompactingOpenHashTable<K, T, H, EK, ET>::erase(const Key &key) {
+        assert(m_unique);
+        int tableIndex;
+        uint64_t slot;
+        if (!locate(key, tableIndex, slot)) {
+            return false;
+        }
+        removeSlot(m_tables[tableIndex], slot);
+        --m_count;
+        checkLoadFactor();
+        return true;
+    }
+
+    template<class K, class T, class H, class EK, class ET>
+    bool CompactingOpenHashTable<K, T, H, EK, ET>::erase(const Key &key, const Data &value) {
+        iterator iter = find(key, value);
+        if (iter.isEnd()) {
+            return false;
+        }
+        return erase(iter);
+    }
+
+    template<class K, class T, class H, class EK, class ET>
+    bool CompactingOpenHashTable<K, T, H, EK, ET>::erase(iterator &iter) {
+        assert(!iter.isEnd());
+        if (iter.atSlot()) {
+            int tableIndex;
+            uint64_t slot;
+            tableOf(iter.m_entry, tableIndex, slot);
+            removeSlotValue(m_tables[tableIndex], slot);
+        }
+        else {
+            removeDup(iter.dup());
+        }
+        --m_count;
+        checkLoadFactor();
+        return true;
+    }
+
+    template<class K, class T, class H, class EK, class ET>
+    bool CompactingOpenHashTable<K, T, H, EK, ET>::locate(const Key &key, int &tableIndex, uint64_t &slot) const {
+        uint64_t mixed = mix(key);
+        // an entry is only ever in one of the arrays
+        if (m_tables[1].meta && locate(m_tables[1], mixed, key, slot)) {
+            tableIndex = 1;
+            return true;
+        }
+        tableIndex = 0;
+        return locate(m_tables[0], mixed, key, slot);
+    }
+
+    template<class K, class T, class H, class EK, class ET>
+    bool CompactingOpenHashTable<K, T, H, EK, ET>::locate(const Table &table, uint64_t mixed, const Key &key, uint64_t &slot) const {
+        uint64_t pos = homeOf(table, mixed);
+        uint16_t want = static_cast<uint16_t>(tagOf(mixed) | 1);
+        while (true) {
+            uint16_t meta = table.meta[pos];
+            // an empty slot or one closer to its home ends the run our key would be in
+            if ((meta & DIST_MASK) < (want & DIST_MASK)) {
+                return false;
+            }
+            if (meta == want && m_keyEq(entryAt(table, pos)->key, key)) {
+                slot = pos;
+                return true;
+            }
+            pos = (pos + 1) & table.mask;
+            if ((want & DIST_MASK) != DIST_SATURATED) {
+                ++want;
+            }
+        }
+    }
+
+    template<class K, class T, class H, class EK, class ET>
+    void CompactingOpenHashTable<K, T, H, EK, ET>::place(Table &table, uint64_t mixed, Entry &carry) {
+        uint64_t pos = homeOf(table, mixed);
+        uint16_t want = static_cast<uint16_t>(tagOf(mixed) | 1);
+        while (true) {
+            uint16_t meta = table.meta[pos];
+            if (meta == 0) {
+                Entry *entry = entryAt(table, pos);
+                constructAt(entry, carry);
+                table.meta[pos] = want;
+                ++table.used;
+                return;
+            }
+            if ((meta & DIST_MASK) < (want & DIST_MASK)) {
+                // take the slot from the entry that is closer to its home and carry that one on
+                Entry *entry = entryAt(table, pos);
+                std::swap(entry->key, carry.key);
+                std::swap(entry->value, carry.value);
+                if (!m_unique) {
+                    std::swap(entry->dups, carry.dups);
+                    linkDups(entry);
+                }
+                table.meta[pos] = want;
+                want = meta;
+            }
+            pos = (pos + 1) & table.mask;
+            if ((want & DIST_MASK) != DIST_SATURATED) {
+                ++want;
+            }
+        }
+    }
+
+    template<class K, class T, class H, class EK, class ET>
+    void CompactingOpenHashTable<K, T, H, EK, ET>::removeSlot(Table &table, uint64_t slot) {
+        destroyAt(entryAt(table, slot));
+        uint64_t pos = slot;
+        while (true) {
+            uint64_t next = (pos + 1) & table.mask;
+            uint16_t meta = table.meta[next];
+            // stop at an empty slot or one that holds an entry at its home
+            if ((meta & DIST_MASK) <= 1) {
+                break;
+            }
+            Entry *from = entryAt(table, next);
+            Entry *to = entryAt(table, pos);
+            constructAt(to, *from);
+            destroyAt(from);
+            uint16_t dist = static_cast<uint16_t>(meta & DIST_MASK);
+            if (dist == DIST_SATURATED) {
+                // the real distance is not known, work it out from the home slot
+                uint64_t real = ((pos - homeOf(table, mix(to->key))) & table.mask) + 1;
+                dist = static_cast<uint16_t>(std::min<uint64_t>(real, DIST_SATURATED));
+            }
+            else {
+                --dist;
+            }
+            table.meta[pos] = static_cast<uint16_t>((meta & ~DIST_MASK) | dist);
+            pos = next;
+        }
+        table.meta[pos] = 0;
+        --table.used;
+    }
+
+    template<class K, class T, class H, class EK, class ET>
+    void CompactingOpenHashTable<K, T, H, EK, ET>::removeSlotValue(Table &table, uint64_t slot) {
+        Entry *entry = entryAt(table, slot);
+        if (!m_unique && entry->dups) {
+            DupNode *node = entry->dups;
+            entry->value = node->value;
+            removeDup(node);
+        }
+        else {
+            removeSlot(table, slot);
+        }
+    }
+
+    template<class K, class T, class H, class EK, class ET>
+    void CompactingOpenHashTable<K, T, H, EK, ET>::removeDup(DupNode *node) {
+        *(node->pprev) = node->next;
+        if (node->next) {
+            node->next->pprev = node->pprev;
+        }
+        node->value.~Data();
+
+        // move the last DupNode into the hole
+        DupNode *last = static_cast<DupNode*>(m_allocator.last());
+        if (last != node) {
+            new (&node->value) Data(last->value);
+            node->next = last->next;
+            node->pprev = last->pprev;
+            *(node->pprev) = node;
+            if (node->next) {
+                node->next->pprev = &node->next;
+            }
+            last->value.~Data();
+        }
+        m_allocator.trim();
+    }
+
+    template<class K, class T, class H, class EK, class ET>
+    void CompactingOpenHashTable<K, T, H, EK, ET>::tableOf(const Entry *entry, int &tableIndex, uint64_t &slot) const {
+        const char *address = reinterpret_cast<const char*>(entry);
+        for (tableIndex = 0; tableIndex < 2; ++tableIndex) {
+            const Table &table = m_tables[tableIndex];
+            if (table.entries && address >= table.entries &&
+                    address < table.entries + (table.mask + 1) * m_entrySize) {
+                slot = (address - table.entries) / m_entrySize;
+                return;
+            }
+        }
+        assert(false);
+    }
+
+    template<class K, class T, class H, class EK, class ET>
+    void CompactingOpenHashTable<K, T, H, EK, ET>::constructAt(Entry *dest, const Entry &src) {
+        new (&dest->key) Key(src.key);
+        new (&dest->value) Data(src.value);
+        if (!m_unique) {
+            dest->dups = src.dups;
+            linkDups(dest);
+        }
+    }
+
+    template<class K, class T, class H, class EK, class ET>
+    void CompactingOpenHashTable<K, T, H, EK, ET>::destroyAt(Entry *entry) {
+        entry->key.~Key();
+        entry->value.~Data();
+    }
+
+    template<class K, class T, class H, class EK, class ET>
+    void CompactingOpenHashTable<K, T, H, EK, ET>::checkLoadFactor() {
+        const Table &current = m_tables[0];
+        uint64_t capacity = current.mask + 1;
+        if (m_tables[1].meta) {
+            if (current.used * 100 > capacity * MAX_LOAD_FACTOR) {
+                // inserts outran the drain, finish it now rather than overfill the new array
+                drain(2 * (m_tables[1].mask + 1));
+            }
+            else {
+                drain(DRAIN_SLOTS_PER_OP);
+                return;
+            }
+        }
+        int sizeBits = 64 - current.shift;
+        if (current.used * 100 > capacity * MAX_LOAD_FACTOR) {
+            startResize(sizeBits + 1);
+        }
+        else if (current.used * 100 < capacity * MIN_LOAD_FACTOR && sizeBits > INITIAL_SIZE_BITS) {
+            // make sure the hash doesn't over-shrink
+            startResize(sizeBits - 1);
+        }
+    }
+
+    template<class K, class T, class H, class EK, class ET>
+    void CompactingOpenHashTable<K, T, H, EK, ET>::startResize(int newSizeBits) {
+        assert(!m_tables[1].meta);
+        Table table;
+        if (!allocTable(table, newSizeBits)) {
+            // keep using the current array, it can take a higher load
+            return;
+        }
+        m_tables[1] = m_tables[0];
+        m_tables[0] = table;
+        m_drainCursor = 0;
+        drain(DRAIN_SLOTS_PER_OP);
+    }
+
+    template<class K, class T, class H, class EK, class ET>
+    void CompactingOpenHashTable<K, T, H, EK, ET>::drain(uint64_t slotBudget) {
+        Table &old = m_tables[1];
+        // Entries are taken from the lowest slot, so a run only shifts toward the cursor and
+        // every entry at or after the cursor still has its home at or after it. Lookups in
+        // the old array keep working until it is empty.
+        while (old.used > 0 && m_drainCursor <= old.mask && slotBudget > 0) {
+            --slotBudget;
+            if (old.meta[m_drainCursor] == 0) {
+                ++m_drainCursor;
+                continue;
+            }
+            Entry *entry = entryAt(old, m_drainCursor);
+            Entry carry = { entry->key, entry->value, m_unique ? NULL : entry->dups };
+            removeSlot(old, m_drainCursor);
+            place(m_tables[0], mix(carry.key), carry);
+        }
+        if (old.used == 0) {
+            freeTable(old);
+            m_drainCursor = 0;
+        }
+    }
+
+    template<class K, class T, class H, class EK, class ET>
+    bool CompactingOpenHashTable<K, T, H, EK, ET>::allocTable(Table &table, int sizeBits) {
+        uint64_t capacity = 1ULL << sizeBits;
+        // keep the slots aligned after the metadata words
+        size_t metaBytes = (capacity * sizeof(uint16_t) + 15) & ~static_cast<size_t>(15);
+        size_t bytes = metaBytes + capacity * m_entrySize;
+        // anonymous memory comes zeroed, so every slot starts empty
+        void *memory = mmap(NULL, bytes, PROT_READ | PROT_WRITE, MAP_PRIVATE | MAP_ANON, -1, 0);
+        if (memory == MAP_FAILED) {
+            return false;
+        }
+        table.meta = reinterpret_cast<uint16_t*>(memory);
+        table.entries = reinterpret_cast<char*>(memory) + metaBytes;
+        table.mask = capacity - 1;
+        table.shift = 64 - sizeBits;
+        table.used = 0;
+        table.bytes = bytes;
+        return true;
+    }
+
+    template<class K, class T, class H, class EK, class ET>
+    void CompactingOpenHashTable<K, T, H, EK, ET>::freeTable(Table &table) {
+        if (table.meta) {
+            munmap(table.meta, table.bytes);
+        }
+        memset(&table, 0, sizeof(Table));
+    }
+
+    template<class K, class T, class H, class EK, class ET>
+    bool CompactingOpenHashTable<K, T, H, EK, ET>::verify() {
+        size_t manualCount = 0;
+
+        for (int t = 0; t < 2; ++t) {
+            const Table &table = m_tables[t];
+            if (!table.meta) {
+                continue;
+            }
+            uint64_t used = 0;
+            for (uint64_t slot = 0; slot <= table.mask; ++slot) {
+                uint16_t meta = table.meta[slot];
+                if (!meta) {
+                    continue;
+                }
+                if (t == 1 && slot < m_drainCursor) {
+                    printf("Found an entry behind the drain cursor.\n");
+                    return false;
+                }
+                ++used;
+                const Entry *entry = entryAt(table, slot);
+                uint64_t mixed = mix(entry->key);
+                uint64_t real = ((slot - homeOf(table, mixed)) & table.mask) + 1;
+                uint16_t expected = static_cast<uint16_t>(tagOf(mixed) | std::min<uint64_t>(real, DIST_SATURATED));
+                if (meta != expected) {
+                    printf("Slot metadata doesn't match the entry's hash and position.\n");
+                    return false;
+                }
+                uint16_t prevMeta = table.meta[(slot - 1) & table.mask];
+                if ((meta & DIST_MASK) > 1 && (meta & DIST_MASK) > (prevMeta & DIST_MASK) + 1) {
+                    printf("Entry is further from its home than Robin Hood ordering allows.\n");
+                    return false;
+                }
+                ++manualCount;
+                if (!m_unique) {
+                    DupNode * const *pprev = &entry->dups;
+                    for (DupNode *node = entry->dups; node; node = node->next) {
+                        if (node->pprev != pprev) {
+                            printf("DupNode back link doesn't point at its predecessor.\n");
+                            return false;
+                        }
+                        pprev = &node->next;
+                        ++manualCount;
+                    }
+                }
+            }
+            if (used != table.used) {
+                printf("Found %d occupied slots, but expected %d.\n", (int) used, (int) table.used);
+                return false;
+            }
+        }
+
+        if (manualCount != m_count) {
+            printf("Found %d values by walking all slots, but expected %d values.\n",
+                   (int) manualCount, (int) m_count);
+            return false;
+        }
+        if (m_allocator.count() != (int64_t)(m_count - m_tables[0].used - m_tables[1].used)) {
+            printf("DupNode allocator holds %d nodes, but there are %d duplicates.\n",
+                   (int) m_allocator.count(), (int) (m_count - m_tables[0].used - m_tables[1].used));
+            return false;
+        }
+        return true;
+    }
+}
+
+#endif // COMPACTINGOPENHASHTABLE_H_
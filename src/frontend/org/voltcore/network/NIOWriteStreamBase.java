@@ -29,6 +29,7 @@ import org.voltcore.logging.VoltLogger;
 import org.voltcore.utils.DBBPool.BBContainer;
 import org.voltcore.utils.DeferredSerialization;
 import org.voltcore.utils.RateLimitedLogger;
+import org.voltcore.utils.ZeroCopyDeferredSerialization;
 
 /**
 *
@@ -107,57 +108,100 @@ public abstract class NIOWriteStreamBase {
             processedWrites++;
             final int serializedSize = ds.getSerializedSize();
             if (serializedSize == DeferredSerialization.EMPTY_MESSAGE_LENGTH) continue;
-            BBContainer outCont = m_queuedBuffers.peekLast();
-            ByteBuffer outbuf = null;
-            if (outCont == null || !outCont.b().hasRemaining()) {
-                outCont = pool.acquire();
-                outCont.b().clear();
-                m_queuedBuffers.offer(outCont);
+            final BBContainer payload[] = ds instanceof ZeroCopyDeferredSerialization ?
+                    ((ZeroCopyDeferredSerialization) ds).takePayload() : null;
+            if (payload == null) {
+                bytesQueued += serializeToQueuedBuffers(pool, ds, serializedSize, false);
+                continue;
             }
 
-            outbuf = outCont.b();
-
-            if (outbuf.remaining() >= serializedSize) {
-                // Fast path, serialize to direct buffer creating no garbage
-                final int oldLimit = outbuf.limit();
-                outbuf.limit(outbuf.position() + serializedSize);
-                final ByteBuffer slice = outbuf.slice();
-                ds.serialize(slice);
-                checkSloppySerialization(slice, ds);
-                slice.position(0);
-                bytesQueued += slice.remaining();
-                outbuf.position(outbuf.limit());
-                outbuf.limit(oldLimit);
-            } else {
-                // Slow path serialize to heap, and then put in buffers
-                ByteBuffer buf = ByteBuffer.allocate(serializedSize);
-                ds.serialize(buf);
-                checkSloppySerialization(buf, ds);
-                buf.position(0);
-                bytesQueued += buf.remaining();
-                // Copy data allocated in heap buffer to direct buffer
-                while (buf.hasRemaining()) {
-                    if (!outbuf.hasRemaining()) {
-                        outCont = pool.acquire();
-                        outbuf = outCont.b();
-                        outbuf.clear();
-                        m_queuedBuffers.offer(outCont);
-                    }
-                    if (outbuf.remaining() >= buf.remaining()) {
-                        outbuf.put(buf);
-                    } else {
-                        final int oldLimit = buf.limit();
-                        buf.limit(buf.position() + outbuf.remaining());
-                        outbuf.put(buf);
-                        buf.limit(oldLimit);
-                    }
+            // Only the header is copied, the payload containers are written to the socket as they are
+            int payloadSize = 0;
+            for (BBContainer cont : payload) {
+                payloadSize += cont.b().remaining();
+            }
+            bytesQueued += serializeToQueuedBuffers(pool, ds, serializedSize - payloadSize, true);
+            for (BBContainer cont : payload) {
+                final ByteBuffer b = cont.b();
+                if (!b.hasRemaining()) {
+                    cont.discard();
+                    continue;
                 }
+                // Queued buffers are flipped when they are drained, and a full buffer
+                // is never appended to by the next serialization
+                b.position(b.limit());
+                m_queuedBuffers.offer(cont);
             }
+            bytesQueued += payloadSize;
         }
         updateQueued(bytesQueued, true);
         return processedWrites;
     }
 
+    /**
+     * Serialize a message, or just its header, to the tail of the queue of pending buffers
+     * @return number of bytes queued
+     */
+    private int serializeToQueuedBuffers(final NetworkDBBPool pool, final DeferredSerialization ds,
+            final int serializedSize, final boolean headerOnly) throws IOException {
+        BBContainer outCont = m_queuedBuffers.peekLast();
+        ByteBuffer outbuf = null;
+        if (outCont == null || !outCont.b().hasRemaining()) {
+            outCont = pool.acquire();
+            outCont.b().clear();
+            m_queuedBuffers.offer(outCont);
+        }
+
+        outbuf = outCont.b();
+
+        if (outbuf.remaining() >= serializedSize) {
+            // Fast path, serialize to direct buffer creating no garbage
+            final int oldLimit = outbuf.limit();
+            outbuf.limit(outbuf.position() + serializedSize);
+            final ByteBuffer slice = outbuf.slice();
+            serialize(ds, slice, headerOnly);
+            checkSloppySerialization(slice, ds);
+            slice.position(0);
+            outbuf.position(outbuf.limit());
+            outbuf.limit(oldLimit);
+            return slice.remaining();
+        } else {
+            // Slow path serialize to heap, and then put in buffers
+            ByteBuffer buf = ByteBuffer.allocate(serializedSize);
+            serialize(ds, buf, headerOnly);
+            checkSloppySerialization(buf, ds);
+            buf.position(0);
+            final int bytesQueued = buf.remaining();
+            // Copy data allocated in heap buffer to direct buffer
+            while (buf.hasRemaining()) {
+                if (!outbuf.hasRemaining()) {
+                    outCont = pool.acquire();
+                    outbuf = outCont.b();
+                    outbuf.clear();
+                    m_queuedBuffers.offer(outCont);
+                }
+                if (outbuf.remaining() >= buf.remaining()) {
+                    outbuf.put(buf);
+                } else {
+                    final int oldLimit = buf.limit();
+                    buf.limit(buf.position() + outbuf.remaining());
+                    outbuf.put(buf);
+                    buf.limit(oldLimit);
+                }
+            }
+            return bytesQueued;
+        }
+    }
+
+    private static void serialize(final DeferredSerialization ds, final ByteBuffer buf,
+            final boolean headerOnly) throws IOException {
+        if (headerOnly) {
+            ((ZeroCopyDeferredSerialization) ds).serializeHeader(buf);
+        } else {
+            ds.serialize(buf);
+        }
+    }
+
     private static final boolean ASSERT_ON;
     static {
         boolean assertOn = false;
@@ -0,0 +1,229 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltcore.utils;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A multi-producer/single-consumer FIFO queue that stores elements in fixed size
+ * array chunks, so that offering an element does not allocate a node per element
+ * the way {@link java.util.concurrent.LinkedTransferQueue} does.
+ *
+ * Producers claim a slot with a single atomic increment and never block. The queue
+ * is not capacity bounded: when a chunk fills up the next one is linked in, which
+ * is what allows a consumer to safely offer to its own queue.
+ *
+ * Only one thread may call {@link #poll()}, {@link #take()} and the drainTo methods.
+ * {@link #peek()}, {@link #size()} and {@link #isEmpty()} may be called from any thread
+ * but are only estimates when not called from the consumer.
+ */
+public class MpscArrayQueue<E> {
+
+    public static final int DEFAULT_CHUNK_SIZE = 1024;
+
+    private static final class Chunk<E> {
+        private final long m_base;
+        private final AtomicReferenceArray<E> m_slots;
+        private final AtomicReference<Chunk<E>> m_next = new AtomicReference<>();
+
+        private Chunk(long base, int size) {
+            m_base = base;
+            m_slots = new AtomicReferenceArray<>(size);
+        }
+    }
+
+    private final int m_chunkSize;
+
+    // producer side, the chunk is only a hint that is never ahead of any unfilled claimed slot
+    private final AtomicLong m_producerIndex = new AtomicLong();
+    private volatile Chunk<E> m_producerChunk;
+
+    // consumer side, only written by the consumer thread
+    private final AtomicLong m_consumerIndex = new AtomicLong();
+    private volatile Chunk<E> m_consumerChunk;
+
+    // the consumer while it is parked waiting for an element
+    private volatile Thread m_waiter;
+
+    public MpscArrayQueue() {
+        this(DEFAULT_CHUNK_SIZE);
+    }
+
+    public MpscArrayQueue(int chunkSize) {
+        if (chunkSize < 2) {
+            throw new IllegalArgumentException("Chunk size must be at least 2: " + chunkSize);
+        }
+        m_chunkSize = chunkSize;
+        Chunk<E> first = new Chunk<>(0, chunkSize);
+        m_producerChunk = first;
+        m_consumerChunk = first;
+    }
+
+    /**
+     * Append an element to the tail of the queue. Never blocks and never fails.
+     */
+    public boolean offer(E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        // Read the chunk hint before claiming the slot, the hint only moves to a chunk
+        // after some producer claimed an index in it so it can't be past our index.
+        Chunk<E> chunk = m_producerChunk;
+        final long index = m_producerIndex.getAndIncrement();
+        while (index >= chunk.m_base + m_chunkSize) {
+            Chunk<E> next = chunk.m_next.get();
+            if (next == null) {
+                next = new Chunk<>(chunk.m_base + m_chunkSize, m_chunkSize);
+                if (!chunk.m_next.compareAndSet(null, next)) {
+                    next = chunk.m_next.get();
+                }
+            }
+            chunk = next;
+        }
+        if (chunk != m_producerChunk && chunk.m_base > m_producerChunk.m_base) {
+            m_producerChunk = chunk;
+        }
+        chunk.m_slots.lazySet((int)(index - chunk.m_base), e);
+
+        final Thread waiter = m_waiter;
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+        return true;
+    }
+
+    /**
+     * Remove and return the head of the queue or null if it is empty. Consumer only.
+     */
+    public E poll() {
+        final long index = m_consumerIndex.get();
+        if (index == m_producerIndex.get()) {
+            return null;
+        }
+        // A slot was claimed, the producer may not have stored to it yet
+        final Chunk<E> chunk = consumerChunkFor(index);
+        final int offset = (int)(index - chunk.m_base);
+        E e;
+        while ((e = chunk.m_slots.get(offset)) == null) {
+            Thread.yield();
+        }
+        chunk.m_slots.lazySet(offset, null);
+        m_consumerIndex.lazySet(index + 1);
+        return e;
+    }
+
+    /**
+     * Remove and return the head of the queue, waiting for an element if it is empty.
+     * Spins for up to spinNanos before parking. Consumer only.
+     */
+    public E take(long spinNanos) throws InterruptedException {
+        E e = poll();
+        if (e != null) {
+            return e;
+        }
+        if (spinNanos > 0) {
+            final long start = System.nanoTime();
+            do {
+                if ((e = poll()) != null) {
+                    return e;
+                }
+            } while (System.nanoTime() - start < spinNanos);
+        }
+        m_waiter = Thread.currentThread();
+        try {
+            while ((e = poll()) == null) {
+                LockSupport.park(this);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+            return e;
+        } finally {
+            m_waiter = null;
+        }
+    }
+
+    public E take() throws InterruptedException {
+        return take(0);
+    }
+
+    /**
+     * Move up to maxElements elements into the collection without blocking. Consumer only.
+     * @return The number of elements moved
+     */
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        int count = 0;
+        E e;
+        while (count < maxElements && (e = poll()) != null) {
+            c.add(e);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Return the head of the queue without removing it, or null if it is empty.
+     * From threads other than the consumer the result may already have been removed.
+     */
+    public E peek() {
+        final long index = m_consumerIndex.get();
+        if (index == m_producerIndex.get()) {
+            return null;
+        }
+        final Chunk<E> chunk = m_consumerChunk;
+        final long offset = index - chunk.m_base;
+        if (offset < 0) {
+            return null;
+        }
+        if (offset >= m_chunkSize) {
+            // Consumer hasn't moved to the next chunk yet
+            final Chunk<E> next = chunk.m_next.get();
+            return (next == null || offset - m_chunkSize >= m_chunkSize) ?
+                    null : next.m_slots.get((int)(offset - m_chunkSize));
+        }
+        return chunk.m_slots.get((int)offset);
+    }
+
+    public int size() {
+        // read the consumer first so the result is never negative
+        final long consumerIndex = m_consumerIndex.get();
+        final long producerIndex = m_producerIndex.get();
+        return (int)Math.min(Integer.MAX_VALUE, Math.max(0, producerIndex - consumerIndex));
+    }
+
+    public boolean isEmpty() {
+        return m_consumerIndex.get() == m_producerIndex.get();
+    }
+
+    private Chunk<E> consumerChunkFor(long index) {
+        Chunk<E> chunk = m_consumerChunk;
+        if (index == chunk.m_base + m_chunkSize) {
+            // The producer that claimed this index links the next chunk, possibly not yet
+            Chunk<E> next;
+            while ((next = chunk.m_next.get()) == null) {
+                Thread.yield();
+            }
+            m_consumerChunk = chunk = next;
+        }
+        return chunk;
+    }
+}
@@ -0,0 +1,224 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltcore.utils;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.voltcore.utils.DBBPool.BBContainer;
+
+import sun.nio.ch.DirectBuffer;
+
+/**
+ * A pooled direct ByteBuffer that can be shared by several owners. Every owner holds
+ * a reference and the buffer goes back to its {@link Pool} once the last one is released.
+ * An owner that only needs part of the buffer, such as a network write of one serialized
+ * table, takes a {@link #slice(int, int)} which keeps its own reference until it is discarded.
+ *
+ * The memory is not allocated through {@link DBBPool} containers, so a buffer whose
+ * references are dropped without being released is reclaimed by the garbage collector
+ * instead of leaking. It doesn't make it back to the pool, since something may still
+ * point into its memory, but once the pool sees it was collected it stops counting
+ * against the pool's limit.
+ */
+public final class RefCountedBuffer {
+
+    private final Pool m_pool;
+    private final ByteBuffer m_buffer;
+    private final long m_address;
+    private final AtomicInteger m_refCount = new AtomicInteger(1);
+    private final Reference<RefCountedBuffer> m_tracker;
+
+    private RefCountedBuffer(Pool pool, ByteBuffer buffer) {
+        m_pool = pool;
+        m_buffer = buffer;
+        m_address = ((DirectBuffer) buffer).address();
+        m_tracker = pool.track(this);
+    }
+
+    public ByteBuffer b() {
+        return m_buffer;
+    }
+
+    /**
+     * Add a reference for a new owner.
+     */
+    public RefCountedBuffer retain() {
+        int count;
+        do {
+            count = m_refCount.get();
+            if (count <= 0) {
+                throw new IllegalStateException("Retained a buffer that was already released");
+            }
+        } while (!m_refCount.compareAndSet(count, count + 1));
+        return this;
+    }
+
+    /**
+     * Give up a reference. The buffer may be handed out again once this returns,
+     * so the caller must not touch it or anything sliced from it afterwards.
+     */
+    public void release() {
+        final int count = m_refCount.decrementAndGet();
+        if (count == 0) {
+            m_pool.recycle(m_buffer, m_tracker);
+        } else if (count < 0) {
+            throw new IllegalStateException("Released a buffer more times than it was retained");
+        }
+    }
+
+    public int refCount() {
+        return m_refCount.get();
+    }
+
+    /**
+     * @return The offset in this buffer of the memory the given buffer starts at,
+     * or -1 if the given buffer is not entirely backed by this buffer.
+     */
+    public int offsetOf(ByteBuffer buf) {
+        if (!buf.isDirect()) {
+            return -1;
+        }
+        final long offset = ((DirectBuffer) buf).address() - m_address;
+        if (offset < 0 || offset + buf.capacity() > m_buffer.capacity()) {
+            return -1;
+        }
+        return (int) offset;
+    }
+
+    /**
+     * Return a container for the given range of this buffer with the position at 0 and the
+     * limit at length. The container holds a reference that is released when it is discarded.
+     */
+    public BBContainer slice(int position, int length) {
+        retain();
+        final ByteBuffer dup = m_buffer.duplicate();
+        dup.limit(position + length);
+        dup.position(position);
+        return new BBContainer(dup.slice()) {
+            @Override
+            public void discard() {
+                checkDoubleFree();
+                release();
+            }
+        };
+    }
+
+    /**
+     * A bounded set of equally sized buffers. Buffers that are released go back to the pool
+     * unless it has been closed, and at most maxBuffers are ever outstanding at once. A buffer
+     * that is garbage collected without being released is no longer outstanding.
+     */
+    public static final class Pool {
+        private final int m_bufferSize;
+        private final int m_maxBuffers;
+        private final AtomicInteger m_allocated = new AtomicInteger();
+        private final ConcurrentLinkedQueue<ByteBuffer> m_idle = new ConcurrentLinkedQueue<ByteBuffer>();
+        // Handed out buffers that haven't been released, enqueued if they are collected first
+        private final Set<Reference<RefCountedBuffer>> m_outstanding =
+                Collections.newSetFromMap(new ConcurrentHashMap<Reference<RefCountedBuffer>, Boolean>());
+        private final ReferenceQueue<RefCountedBuffer> m_dropped = new ReferenceQueue<RefCountedBuffer>();
+        private volatile boolean m_closed = false;
+
+        public Pool(int bufferSize, int maxBuffers) {
+            m_bufferSize = bufferSize;
+            m_maxBuffers = maxBuffers;
+        }
+
+        /**
+         * @return A cleared buffer with a single reference owned by the caller, or null if the pool
+         * is closed or all of its buffers are in use.
+         */
+        public RefCountedBuffer acquire() {
+            if (m_closed) {
+                return null;
+            }
+            expungeDropped();
+            ByteBuffer buf = m_idle.poll();
+            if (buf == null) {
+                int allocated;
+                do {
+                    allocated = m_allocated.get();
+                    if (allocated >= m_maxBuffers) {
+                        return null;
+                    }
+                } while (!m_allocated.compareAndSet(allocated, allocated + 1));
+                buf = ByteBuffer.allocateDirect(m_bufferSize);
+            }
+            buf.clear();
+            return new RefCountedBuffer(this, buf);
+        }
+
+        public int bufferSize() {
+            return m_bufferSize;
+        }
+
+        /**
+         * Stop handing out buffers and drop the idle ones. Buffers still referenced
+         * are dropped when they are released.
+         */
+        public void close() {
+            m_closed = true;
+            while (m_idle.poll() != null) {
+                m_allocated.decrementAndGet();
+            }
+            expungeDropped();
+        }
+
+        private Reference<RefCountedBuffer> track(RefCountedBuffer buf) {
+            Reference<RefCountedBuffer> ref = new PhantomReference<RefCountedBuffer>(buf, m_dropped);
+            m_outstanding.add(ref);
+            return ref;
+        }
+
+        /*
+         * Give up the slots of buffers that were collected without being released. Their
+         * memory is left to the garbage collector rather than reused, as slices or duplicates
+         * of it may still be around.
+         */
+        private void expungeDropped() {
+            Reference<? extends RefCountedBuffer> ref;
+            while ((ref = m_dropped.poll()) != null) {
+                if (m_outstanding.remove(ref)) {
+                    m_allocated.decrementAndGet();
+                }
+            }
+        }
+
+        private void recycle(ByteBuffer buf, Reference<RefCountedBuffer> tracker) {
+            m_outstanding.remove(tracker);
+            tracker.clear();
+            if (m_closed) {
+                m_allocated.decrementAndGet();
+                return;
+            }
+            m_idle.offer(buf);
+            // close() may have drained the idle buffers before this one got in
+            if (m_closed && m_idle.remove(buf)) {
+                m_allocated.decrementAndGet();
+            }
+        }
+    }
+}
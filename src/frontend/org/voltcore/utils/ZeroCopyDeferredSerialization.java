@@ -0,0 +1,44 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltcore.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.voltcore.utils.DBBPool.BBContainer;
+
+/**
+ * A DeferredSerialization whose message ends with bytes that are already serialized
+ * in direct memory. A write stream that can take advantage of it serializes only the
+ * header and queues the payload containers for the socket as they are, otherwise
+ * {@link #serialize(ByteBuffer)} must still produce the whole message.
+ */
+public interface ZeroCopyDeferredSerialization extends DeferredSerialization {
+    /**
+     * Take the containers holding the tail of the message, in order. Ownership passes
+     * to the caller which must discard each of them once written. Only called after
+     * {@link #getSerializedSize()}, which includes the payload bytes.
+     * @return The payload or null if the message has to be serialized in full
+     */
+    BBContainer[] takePayload();
+
+    /**
+     * Serialize the part of the message that precedes the payload returned by {@link #takePayload()}
+     */
+    void serializeHeader(ByteBuffer buf) throws IOException;
+}
@@ -70,10 +70,12 @@ import org.voltcore.network.VoltPort;
 import org.voltcore.network.VoltProtocolHandler;
 import org.voltcore.network.WriteStream;
 import org.voltcore.utils.CoreUtils;
+import org.voltcore.utils.DBBPool.BBContainer;
 import org.voltcore.utils.DeferredSerialization;
 import org.voltcore.utils.EstTime;
 import org.voltcore.utils.Pair;
 import org.voltcore.utils.RateLimitedLogger;
+import org.voltcore.utils.ZeroCopyDeferredSerialization;
 import org.voltcore.utils.ssl.MessagingChannel;
 import org.voltcore.utils.ssl.SSLConfiguration;
 import org.voltdb.AuthSystem.AuthProvider;
@@ -921,12 +923,13 @@ public class ClientInterface implements SnapshotDaemon.DaemonInitiator {
      * Runs on the network thread to prepare client response. If a transaction needs to be
      * restarted, it will get restarted here.
      */
-    public class ClientResponseWork implements DeferredSerialization {
+    public class ClientResponseWork implements ZeroCopyDeferredSerialization {
         private final ClientInterfaceHandleManager cihm;
         private final InitiateResponseMessage response;
         private final Procedure catProc;
         private ClientResponseImpl clientResponse;
         private boolean restartMispartitionedTxn;
+        private int serializedSize;
 
         private ClientResponseWork(InitiateResponseMessage response,
                                    ClientInterfaceHandleManager cihm,
@@ -944,10 +947,27 @@ public class ClientInterface implements SnapshotDaemon.DaemonInitiator {
         {
             buf.putInt(buf.capacity() - 4);
             clientResponse.flattenToBuffer(buf);
+            clientResponse.releaseResultBuffer();
+        }
+
+        @Override
+        public void serializeHeader(ByteBuffer buf) throws IOException
+        {
+            buf.putInt(serializedSize - 4);
+            clientResponse.flattenHeaderToBuffer(buf);
+        }
+
+        @Override
+        public BBContainer[] takePayload() {
+            // Result tables still in the buffer the EE wrote them to go to the socket from there
+            return clientResponse.takeResultContainers();
         }
 
         @Override
         public void cancel() {
+            if (clientResponse != null) {
+                clientResponse.releaseResultBuffer();
+            }
         }
 
         public void setRestartMispartitionedTxn(boolean restart) {
@@ -970,6 +990,7 @@ public class ClientInterface implements SnapshotDaemon.DaemonInitiator {
                 clientData = cihm.findHandle(response.getClientInterfaceHandle());
             }
             if (clientData == null) {
+                cancel();
                 return DeferredSerialization.EMPTY_MESSAGE_LENGTH;
             }
 
@@ -977,6 +998,7 @@ public class ClientInterface implements SnapshotDaemon.DaemonInitiator {
             if (response.isMispartitioned() || response.isMisrouted()) {
                 // If the transaction is restarted, don't send a response to the client yet.
                 if (restartTransaction(clientData.m_messageSize, clientData.m_creationTimeNanos)) {
+                    cancel();
                     return DeferredSerialization.EMPTY_MESSAGE_LENGTH;
                 }
             }
@@ -1006,7 +1028,8 @@ public class ClientInterface implements SnapshotDaemon.DaemonInitiator {
             clientResponse.setClusterRoundtrip((int)TimeUnit.NANOSECONDS.toMillis(delta));
             clientResponse.setHashes(null); // not part of wire protocol
 
-            return clientResponse.getSerializedSize() + 4;
+            serializedSize = clientResponse.getSerializedSize() + 4;
+            return serializedSize;
         }
 
         @Override
@@ -24,7 +24,9 @@ import java.util.concurrent.TimeUnit;
 import org.json_voltpatches.JSONException;
 import org.json_voltpatches.JSONString;
 import org.json_voltpatches.JSONStringer;
+import org.voltcore.utils.DBBPool.BBContainer;
 import org.voltcore.utils.Pair;
+import org.voltcore.utils.RefCountedBuffer;
 import org.voltdb.client.ClientResponse;
 import org.voltdb.client.ClientUtils;
 import org.voltdb.common.Constants;
@@ -46,6 +48,10 @@ public class ClientResponseImpl implements ClientResponse, JSONString {
     private VoltTable[] results = new VoltTable[0];
     private int[] m_hashes = null;
 
+    // Direct buffer the EE wrote the result tables to, which are slices of it.
+    // The tables can be handed to the network from here instead of being flattened.
+    private RefCountedBuffer m_resultBuffer = null;
+
     private int clusterRoundTripTime = 0;
     private int clientRoundTripTime = 0;
     private long clientRoundTripTimeNanos = 0;
@@ -127,12 +133,60 @@ public class ClientResponseImpl implements ClientResponse, JSONString {
             assert result != null;
         }
 
+        releaseResultBuffer();
         this.status = status;
         this.results = results;
         this.statusString = statusString;
         this.setProperly = true;
     }
 
+    /**
+     * Attach the shared buffer the result tables are slices of. The response takes over the
+     * caller's reference, which is given up by {@link #takeResultContainers()} or
+     * {@link #releaseResultBuffer()}. Each table must be preceded in the buffer by its length.
+     */
+    public void setResultBuffer(RefCountedBuffer buffer) {
+        releaseResultBuffer();
+        for (VoltTable vt : results) {
+            assert(buffer.offsetOf(vt.m_buffer) >= 4);
+            assert(buffer.b().getInt(buffer.offsetOf(vt.m_buffer) - 4) == vt.m_buffer.limit());
+        }
+        m_resultBuffer = buffer;
+    }
+
+    public boolean hasResultBuffer() {
+        return m_resultBuffer != null;
+    }
+
+    /**
+     * Hand off the serialized result tables, length prefix included, as slices of the shared
+     * result buffer. The response gives up its own reference to the buffer, so the tables
+     * can't be read once the returned containers have been discarded.
+     * @return The containers or null if there is no shared result buffer
+     */
+    public BBContainer[] takeResultContainers() {
+        if (m_resultBuffer == null) {
+            return null;
+        }
+        final BBContainer[] containers = new BBContainer[results.length];
+        for (int i = 0; i < results.length; i++) {
+            final int offset = m_resultBuffer.offsetOf(results[i].m_buffer);
+            containers[i] = m_resultBuffer.slice(offset - 4, results[i].getSerializedSize());
+        }
+        releaseResultBuffer();
+        return containers;
+    }
+
+    /**
+     * Give up the reference to the shared result buffer once the tables are no longer needed
+     */
+    public void releaseResultBuffer() {
+        if (m_resultBuffer != null) {
+            m_resultBuffer.release();
+            m_resultBuffer = null;
+        }
+    }
+
     public void setHashes(int[] hashes) {
         m_hashes = hashes;
     }
@@ -243,9 +297,10 @@ public class ClientResponseImpl implements ClientResponse, JSONString {
     }
 
     /**
+     * Serialize everything but the result tables, which follow the header on the wire.
      * @return buf to allow call chaining.
      */
-    public ByteBuffer flattenToBuffer(ByteBuffer buf) {
+    public ByteBuffer flattenHeaderToBuffer(ByteBuffer buf) {
         assert setProperly;
         buf.put((byte)0); //version
         buf.putLong(clientHandle);
@@ -279,6 +334,14 @@ public class ClientResponseImpl implements ClientResponse, JSONString {
             }
         }
         buf.putShort((short) results.length);
+        return buf;
+    }
+
+    /**
+     * @return buf to allow call chaining.
+     */
+    public ByteBuffer flattenToBuffer(ByteBuffer buf) {
+        flattenHeaderToBuffer(buf);
         for (VoltTable vt : results)
         {
             vt.flattenToBuffer(buf);
@@ -389,6 +452,7 @@ public class ClientResponseImpl implements ClientResponse, JSONString {
     }
 
     public void dropResultTable() {
+        releaseResultBuffer();
         results = new VoltTable[] {};
     }
 }
@@ -39,10 +39,13 @@ public class ExportStatsBase extends StatsSource {
         public final long m_maxLatency;
         public final long m_queueGap;
         public final String m_status;
+        public final long m_averageQueueDelay;
+        public final long m_maxQueueDelay;
 
         public ExportStatsRow(int partitionId, int siteId, String sourceName, String exportTarget, String exportingRole,
                 long tupleCount, long tuplesPending, long lastQueuedTimestamp, long lastAckedTimestamp,
-                long averageLatency, long maxLatency, long queueGap, String status) {
+                long averageLatency, long maxLatency, long queueGap, String status,
+                long averageQueueDelay, long maxQueueDelay) {
             m_partitionId = partitionId;
             m_siteId = siteId;
             m_sourceName = sourceName;
@@ -56,6 +59,8 @@ public class ExportStatsBase extends StatsSource {
             m_maxLatency = maxLatency;
             m_queueGap = queueGap;
             m_status = status;
+            m_averageQueueDelay = averageQueueDelay;
+            m_maxQueueDelay = maxQueueDelay;
         }
     }
 
@@ -79,6 +84,9 @@ public class ExportStatsBase extends StatsSource {
         public static final String MAX_LATENCY = "MAX_LATENCY";
         public static final String QUEUE_GAP = "QUEUE_GAP";
         public static final String STATUS = "STATUS";
+        // Time in microseconds export tasks of the stream waited for an executor thread
+        public static final String AVERAGE_QUEUE_DELAY = "AVERAGE_QUEUE_DELAY";
+        public static final String MAX_QUEUE_DELAY = "MAX_QUEUE_DELAY";
     }
 
     /* Constructor */
@@ -103,6 +111,8 @@ public class ExportStatsBase extends StatsSource {
         columns.add(new ColumnInfo(Columns.MAX_LATENCY, VoltType.BIGINT));
         columns.add(new ColumnInfo(Columns.QUEUE_GAP, VoltType.BIGINT));
         columns.add(new ColumnInfo(Columns.STATUS, VoltType.STRING));
+        columns.add(new ColumnInfo(Columns.AVERAGE_QUEUE_DELAY, VoltType.BIGINT));
+        columns.add(new ColumnInfo(Columns.MAX_QUEUE_DELAY, VoltType.BIGINT));
     }
 
     @Override
@@ -0,0 +1,616 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.hadoop_voltpatches.util.PureJavaCrc32C;
+import org.voltcore.logging.VoltLogger;
+import org.voltdb.iv2.TransactionTask;
+import org.voltdb.iv2.TxnEgo;
+import org.voltdb.messaging.Iv2InitiateTaskMessage;
+import org.voltdb.messaging.VoltDbMessageFactory;
+
+import com.google_voltpatches.common.util.concurrent.Futures;
+import com.google_voltpatches.common.util.concurrent.ListenableFuture;
+import com.google_voltpatches.common.util.concurrent.SettableFuture;
+
+/**
+ * A command log that appends every logged transaction to per-partition segment files.
+ *
+ * Schedulers serialize their entries into the pending batch of their partition. A single
+ * writer thread group commits the batches of all partitions: it waits out the fsync interval
+ * unless the pending bytes or transactions cross their threshold first, gather writes each
+ * partition's batch to its current segment and forces all the segments it wrote to. Only then
+ * are the durability listeners handed the completion checks of the transactions in the group,
+ * which with synchronous logging is what releases them for execution.
+ *
+ * Each entry is laid out as
+ * <pre>
+ *   int   length of the rest of the entry
+ *   int   CRC32C of the rest of the entry
+ *   byte  entry type
+ *   long  sp handle
+ *   ...   type specific payload
+ * </pre>
+ *
+ * The server does not replay the log at recovery yet, so segments are not truncated by snapshots.
+ * Each partition keeps enough of its most recent segments to fill its share of the configured log
+ * size. {@link Reader} reads a partition's entries back in log order, stopping at a torn tail.
+ */
+public class FileCommandLog implements CommandLog {
+    private static final VoltLogger LOG = new VoltLogger("LOGGING");
+
+    /** Use this command log when command logging is enabled and the enterprise one isn't available */
+    public static final boolean ENABLED = Boolean.getBoolean("ENABLE_FILE_COMMAND_LOG");
+
+    // write out the pending batches as soon as this many bytes are waiting, regardless of the interval
+    static final int FSYNC_BYTES = Integer.getInteger("COMMAND_LOG_FSYNC_BYTES", 4 * 1024 * 1024);
+    static final int SEGMENT_SIZE = Integer.getInteger("COMMAND_LOG_SEGMENT_SIZE", 64 * 1024 * 1024);
+    // asynchronous logging pushes back on the schedulers when this many bytes are not written yet
+    static final long MAX_OUTSTANDING_BYTES = Long.getLong("COMMAND_LOG_MAX_OUTSTANDING_BYTES", 128 * 1024 * 1024);
+
+    static final byte ENTRY_INVOCATION = 1;
+    static final byte ENTRY_DUMMY = 2;
+    static final byte ENTRY_FAULT = 3;
+    static final int ENTRY_HEADER_SIZE = 4 + 4 + 1 + 8;
+
+    static final String SEGMENT_SUFFIX = ".vcl";
+
+    private static final ListenableFuture<Object> WRITTEN = Futures.immediateFuture(null);
+
+    private final boolean m_synchronous;
+    private final long m_fsyncIntervalNanos;
+    private final int m_maxTxns;
+    private final File m_logDir;
+    // distinguishes the segments of this run from those left behind by earlier ones
+    private final long m_generation = System.currentTimeMillis();
+
+    private final ConcurrentHashMap<DurabilityListener, PartitionLog> m_partitionLogs =
+            new ConcurrentHashMap<DurabilityListener, PartitionLog>();
+    private final PartitionLog m_faultLog = new PartitionLog(null);
+
+    private final AtomicLong m_pendingBytes = new AtomicLong();
+    private final AtomicInteger m_pendingTxns = new AtomicInteger();
+    // set when asynchronous logging fell behind, completed by the next group commit
+    private volatile SettableFuture<Object> m_backpressureFuture;
+
+    private volatile boolean m_initialized = false;
+    private volatile boolean m_shutdown = false;
+    private int m_segmentsPerPartition = 2;
+    private Thread m_writer;
+
+    // stats, written by the writer thread
+    private volatile long m_lastFsyncIntervalNanos = 0;
+    private final AtomicInteger m_segmentCount = new AtomicInteger();
+
+    /**
+     * A partition's pending entries and segments. The pending batch and the durability listener are
+     * guarded by the instance monitor, the segment state is only touched by the writer thread.
+     */
+    private final class PartitionLog {
+        private final DurabilityListener m_listener;
+        private ArrayList<ByteBuffer> m_pending = new ArrayList<ByteBuffer>();
+        private ArrayList<SettableFuture<Boolean>> m_pendingFaults = new ArrayList<SettableFuture<Boolean>>();
+        private int m_partitionId = -1;
+
+        private FileChannel m_channel;
+        private long m_segmentBytes;
+        private int m_segmentSequence;
+        private final ArrayDeque<File> m_segments = new ArrayDeque<File>();
+
+        private PartitionLog(DurabilityListener listener) {
+            m_listener = listener;
+        }
+
+        private void append(ByteBuffer entry, TransactionTask task) {
+            synchronized (this) {
+                if (m_partitionId == -1) {
+                    m_partitionId = TxnEgo.getPartitionId(entry.getLong(ENTRY_HEADER_SIZE - 8));
+                }
+                m_pending.add(entry);
+                if (m_listener != null) {
+                    m_listener.addTransaction(task);
+                }
+                // counted before the writer can take the entry so the counts never go negative
+                entryAdded(entry.remaining());
+            }
+        }
+
+        private File nextSegment() {
+            final String prefix = m_listener == null ? "fault" : ("p" + m_partitionId);
+            return new File(m_logDir, "commandlog_" + m_generation + "_" + prefix + "_" +
+                    m_segmentSequence++ + SEGMENT_SUFFIX);
+        }
+
+        /**
+         * Write the batch to the current segment, rolling to a new one if it would grow past
+         * the segment size. The segment still has to be forced.
+         */
+        private void write(List<ByteBuffer> batch, long batchBytes) throws IOException {
+            if (m_channel == null || (m_segmentBytes > 0 && m_segmentBytes + batchBytes > SEGMENT_SIZE)) {
+                roll();
+            }
+            final ByteBuffer[] buffers = batch.toArray(new ByteBuffer[batch.size()]);
+            long remaining = batchBytes;
+            while (remaining > 0) {
+                remaining -= m_channel.write(buffers);
+            }
+            m_segmentBytes += batchBytes;
+        }
+
+        private void roll() throws IOException {
+            if (m_channel != null) {
+                m_channel.force(false);
+                m_channel.close();
+            }
+            final File segment = nextSegment();
+            @SuppressWarnings("resource")
+            final RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+            m_channel = raf.getChannel();
+            m_segmentBytes = 0;
+            m_segments.add(segment);
+            m_segmentCount.incrementAndGet();
+            while (m_segments.size() > m_segmentsPerPartition) {
+                final File oldest = m_segments.poll();
+                if (!oldest.delete()) {
+                    LOG.warn("Unable to delete command log segment " + oldest);
+                }
+                m_segmentCount.decrementAndGet();
+            }
+        }
+
+        private void close() throws IOException {
+            if (m_channel != null) {
+                m_channel.close();
+                m_channel = null;
+            }
+        }
+    }
+
+    public FileCommandLog(boolean synchronous, int fsyncIntervalMs, int maxTxns, String logPath) {
+        m_synchronous = synchronous;
+        m_fsyncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, fsyncIntervalMs));
+        m_maxTxns = maxTxns > 0 ? maxTxns : Integer.MAX_VALUE;
+        m_logDir = new File(logPath);
+    }
+
+    @Override
+    public void init(int logSize, long txnId, int partitionCount, String coreBinding,
+            Map<Integer, Long> perPartitionTxnId) {
+        initForRejoin(logSize, txnId, partitionCount, false, coreBinding, perPartitionTxnId);
+    }
+
+    @Override
+    public void initForRejoin(int logSize, long txnId, int partitionCount, boolean isRejoin,
+            String coreBinding, Map<Integer, Long> perPartitionTxnId) {
+        if (!m_logDir.exists() && !m_logDir.mkdirs()) {
+            VoltDB.crashLocalVoltDB("Unable to create command log directory " + m_logDir, false, null);
+        }
+        // logSize is in megabytes for the whole log, split between the partitions and the fault log
+        final long bytesPerLog = logSize * 1024L * 1024L / (Math.max(1, partitionCount) + 1);
+        m_segmentsPerPartition = (int) Math.max(2, bytesPerLog / SEGMENT_SIZE);
+
+        m_writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "Command log writer");
+        m_writer.setDaemon(true);
+        m_writer.start();
+        m_initialized = true;
+        LOG.info("Writing " + (m_synchronous ? "synchronous" : "asynchronous") + " command log to " + m_logDir +
+                " with an fsync interval of " + TimeUnit.NANOSECONDS.toMillis(m_fsyncIntervalNanos) + " ms");
+    }
+
+    @Override
+    public boolean needsInitialization() {
+        return !m_initialized;
+    }
+
+    @Override
+    public ListenableFuture<Object> log(
+            Iv2InitiateTaskMessage message,
+            long spHandle,
+            int[] involvedPartitions,
+            DurabilityListener listener,
+            TransactionTask durabilityHandle) {
+        final ByteBuffer entry;
+        try {
+            if (message == null) {
+                entry = allocateEntry(ENTRY_DUMMY, spHandle, 0);
+            } else {
+                final int partitionBytes = 4 + (involvedPartitions == null ? 0 : 4 * involvedPartitions.length);
+                entry = allocateEntry(ENTRY_INVOCATION, spHandle, partitionBytes + message.getSerializedSize());
+                if (involvedPartitions == null) {
+                    entry.putInt(-1);
+                } else {
+                    entry.putInt(involvedPartitions.length);
+                    for (int partition : involvedPartitions) {
+                        entry.putInt(partition);
+                    }
+                }
+                message.flattenToBuffer(entry);
+            }
+        } catch (IOException e) {
+            VoltDB.crashLocalVoltDB("Unable to serialize a command log entry", true, e);
+            return null;
+        }
+        m_partitionLogs.get(listener).append(sealEntry(entry), durabilityHandle);
+
+        if (m_synchronous) {
+            return null;
+        }
+        if (m_pendingBytes.get() >= MAX_OUTSTANDING_BYTES) {
+            SettableFuture<Object> future = m_backpressureFuture;
+            if (future == null) {
+                synchronized (this) {
+                    future = m_backpressureFuture;
+                    if (future == null) {
+                        future = m_backpressureFuture = SettableFuture.create();
+                    }
+                }
+            }
+            return future;
+        }
+        return WRITTEN;
+    }
+
+    @Override
+    public SettableFuture<Boolean> logIv2Fault(long writerHSId, Set<Long> survivorHSId,
+            int partitionId, long spHandle) {
+        final ByteBuffer entry = allocateEntry(ENTRY_FAULT, spHandle, 8 + 4 + 4 + 8 * survivorHSId.size());
+        entry.putLong(writerHSId);
+        entry.putInt(partitionId);
+        entry.putInt(survivorHSId.size());
+        for (long hsId : survivorHSId) {
+            entry.putLong(hsId);
+        }
+        final SettableFuture<Boolean> written = SettableFuture.create();
+        synchronized (m_faultLog) {
+            m_faultLog.m_pendingFaults.add(written);
+        }
+        m_faultLog.append(sealEntry(entry), null);
+        return written;
+    }
+
+    @Override
+    public void initializeLastDurableUniqueId(DurabilityListener listener, long uniqueId) {
+        final PartitionLog plog = m_partitionLogs.get(listener);
+        synchronized (plog) {
+            listener.initializeLastDurableUniqueId(uniqueId);
+        }
+    }
+
+    @Override
+    public void registerDurabilityListener(DurabilityListener durabilityListener) {
+        m_partitionLogs.putIfAbsent(durabilityListener, new PartitionLog(durabilityListener));
+    }
+
+    @Override
+    public void shutdown() throws InterruptedException {
+        m_shutdown = true;
+        final Thread writer = m_writer;
+        if (writer != null) {
+            LockSupport.unpark(writer);
+            writer.join();
+        }
+    }
+
+    private static ByteBuffer allocateEntry(byte type, long spHandle, int payloadSize) {
+        final ByteBuffer entry = ByteBuffer.allocate(ENTRY_HEADER_SIZE + payloadSize);
+        entry.position(8);
+        entry.put(type);
+        entry.putLong(spHandle);
+        return entry;
+    }
+
+    private static ByteBuffer sealEntry(ByteBuffer entry) {
+        assert(!entry.hasRemaining());
+        final PureJavaCrc32C crc = new PureJavaCrc32C();
+        crc.update(entry.array(), 8, entry.capacity() - 8);
+        entry.putInt(0, entry.capacity() - 4);
+        entry.putInt(4, (int) crc.getValue());
+        entry.clear();
+        return entry;
+    }
+
+    private void entryAdded(int bytes) {
+        final long pendingBytes = m_pendingBytes.addAndGet(bytes);
+        final int pendingTxns = m_pendingTxns.incrementAndGet();
+        // wake the writer for the first entry of a group and when a threshold is crossed
+        if (pendingTxns == 1 || pendingTxns == m_maxTxns ||
+                (pendingBytes - bytes < FSYNC_BYTES && pendingBytes >= FSYNC_BYTES)) {
+            LockSupport.unpark(m_writer);
+        }
+    }
+
+    private void writeLoop() {
+        long lastFsync = System.nanoTime();
+        while (true) {
+            if (m_pendingTxns.get() == 0) {
+                if (m_shutdown) {
+                    break;
+                }
+                LockSupport.parkNanos(this, m_fsyncIntervalNanos);
+                continue;
+            }
+            // group commit, give the other partitions until the end of the interval to add to it
+            long now = System.nanoTime();
+            while (!m_shutdown && now - lastFsync < m_fsyncIntervalNanos &&
+                    m_pendingBytes.get() < FSYNC_BYTES && m_pendingTxns.get() < m_maxTxns) {
+                LockSupport.parkNanos(this, m_fsyncIntervalNanos - (now - lastFsync));
+                now = System.nanoTime();
+            }
+            try {
+                groupCommit();
+            } catch (IOException e) {
+                VoltDB.crashLocalVoltDB("Unable to write to the command log", true, e);
+                return;
+            }
+            now = System.nanoTime();
+            m_lastFsyncIntervalNanos = now - lastFsync;
+            lastFsync = now;
+        }
+        try {
+            for (PartitionLog plog : m_partitionLogs.values()) {
+                plog.close();
+            }
+            m_faultLog.close();
+        } catch (IOException e) {
+            LOG.warn("Failed to close the command log", e);
+        }
+    }
+
+    private void groupCommit() throws IOException {
+        final List<PartitionLog> logs = new ArrayList<PartitionLog>(m_partitionLogs.size() + 1);
+        logs.addAll(m_partitionLogs.values());
+        logs.add(m_faultLog);
+
+        final List<PartitionLog> written = new ArrayList<PartitionLog>(logs.size());
+        final List<CompletionChecks> checks = new ArrayList<CompletionChecks>(logs.size());
+        final List<SettableFuture<Boolean>> faults = new ArrayList<SettableFuture<Boolean>>();
+        long groupBytes = 0;
+        int groupTxns = 0;
+        for (PartitionLog plog : logs) {
+            final ArrayList<ByteBuffer> batch;
+            synchronized (plog) {
+                if (plog.m_pending.isEmpty()) {
+                    continue;
+                }
+                batch = plog.m_pending;
+                plog.m_pending = new ArrayList<ByteBuffer>(batch.size());
+                // the checks of exactly the transactions in this batch
+                checks.add(plog.m_listener == null ? null :
+                    plog.m_listener.startNewTaskList(plog.m_listener.getNumberOfTasks()));
+                faults.addAll(plog.m_pendingFaults);
+                plog.m_pendingFaults.clear();
+            }
+            long batchBytes = 0;
+            for (ByteBuffer entry : batch) {
+                batchBytes += entry.remaining();
+            }
+            plog.write(batch, batchBytes);
+            written.add(plog);
+            groupBytes += batchBytes;
+            groupTxns += batch.size();
+        }
+
+        for (PartitionLog plog : written) {
+            plog.m_channel.force(false);
+        }
+
+        m_pendingBytes.addAndGet(-groupBytes);
+        m_pendingTxns.addAndGet(-groupTxns);
+        for (int i = 0; i < written.size(); i++) {
+            final PartitionLog plog = written.get(i);
+            if (plog.m_listener != null) {
+                plog.m_listener.processDurabilityChecks(checks.get(i));
+            }
+        }
+        for (SettableFuture<Boolean> fault : faults) {
+            fault.set(true);
+        }
+        final SettableFuture<Object> backpressure = m_backpressureFuture;
+        if (backpressure != null && m_pendingBytes.get() < MAX_OUTSTANDING_BYTES) {
+            synchronized (this) {
+                m_backpressureFuture = null;
+            }
+            backpressure.set(null);
+        }
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+
+    @Override
+    public void requestTruncationSnapshot(final boolean queueIfPending) {
+        // Segments are recycled by size, see the class comment
+    }
+
+    @Override
+    public void populateCommandLogStats(Map<String, Integer> columnNameToIndex, Object[] rowValues) {
+        rowValues[columnNameToIndex.get(CommandLogStats.StatName.OUTSTANDING_BYTES.name())] = m_pendingBytes.get();
+        rowValues[columnNameToIndex.get(CommandLogStats.StatName.OUTSTANDING_TXNS.name())] = (long) m_pendingTxns.get();
+        rowValues[columnNameToIndex.get(CommandLogStats.StatName.IN_USE_SEGMENT_COUNT.name())] = m_partitionLogs.size() + 1;
+        rowValues[columnNameToIndex.get(CommandLogStats.StatName.SEGMENT_COUNT.name())] = m_segmentCount.get();
+        rowValues[columnNameToIndex.get(CommandLogStats.StatName.FSYNC_INTERVAL.name())] =
+                (int) TimeUnit.NANOSECONDS.toMillis(m_lastFsyncIntervalNanos);
+    }
+
+    @Override
+    public boolean isSynchronous() {
+        return m_synchronous;
+    }
+
+    @Override
+    public boolean canOfferTask() {
+        // with synchronous logging the durability listener offers the task once it is durable
+        return !m_synchronous;
+    }
+
+    /** An entry read back from the log, the payload is positioned after the common header */
+    public static class LogEntry {
+        public final byte type;
+        public final long spHandle;
+        private final ByteBuffer m_payload;
+
+        private LogEntry(byte type, long spHandle, ByteBuffer payload) {
+            this.type = type;
+            this.spHandle = spHandle;
+            m_payload = payload;
+        }
+
+        public ByteBuffer getPayload() {
+            return m_payload.duplicate();
+        }
+
+        /** @return The partitions of a logged invocation, null if it was a single partition one */
+        public int[] getInvolvedPartitions() {
+            assert(type == ENTRY_INVOCATION);
+            final ByteBuffer payload = getPayload();
+            final int count = payload.getInt();
+            if (count < 0) {
+                return null;
+            }
+            final int[] partitions = new int[count];
+            for (int i = 0; i < count; i++) {
+                partitions[i] = payload.getInt();
+            }
+            return partitions;
+        }
+
+        public Iv2InitiateTaskMessage getInvocation() throws IOException {
+            assert(type == ENTRY_INVOCATION);
+            final ByteBuffer payload = getPayload();
+            final int count = payload.getInt();
+            payload.position(payload.position() + 4 * Math.max(0, count));
+            return (Iv2InitiateTaskMessage) new VoltDbMessageFactory().createMessageFromBuffer(payload, -1);
+        }
+    }
+
+    /**
+     * Reads the entries of one partition (or of the fault log) back in the order they were
+     * logged, the segments of earlier runs first. Reading ends at the first entry that is cut
+     * short or fails its checksum, which is where a crash left the tail of the log.
+     */
+    public static class Reader {
+        private final ArrayDeque<File> m_segments;
+        private ByteBuffer m_segment;
+        private boolean m_torn = false;
+
+        /**
+         * @param logDir command log directory
+         * @param partitionId partition to read, or -1 for the fault log
+         */
+        public Reader(File logDir, int partitionId) {
+            final String infix = "_" + (partitionId == -1 ? "fault" : ("p" + partitionId)) + "_";
+            File[] segments = logDir.listFiles(new FilenameFilter() {
+                @Override
+                public boolean accept(File dir, String name) {
+                    return name.startsWith("commandlog_") && name.endsWith(SEGMENT_SUFFIX) && name.contains(infix);
+                }
+            });
+            if (segments == null) {
+                segments = new File[0];
+            }
+            // commandlog_<generation>_<partition>_<sequence>.vcl
+            Arrays.sort(segments, new Comparator<File>() {
+                @Override
+                public int compare(File a, File b) {
+                    final int cmp = Long.compare(generation(a), generation(b));
+                    return cmp != 0 ? cmp : Integer.compare(sequence(a), sequence(b));
+                }
+            });
+            m_segments = new ArrayDeque<File>(Arrays.asList(segments));
+        }
+
+        private static long generation(File segment) {
+            return Long.parseLong(segment.getName().split("_")[1]);
+        }
+
+        private static int sequence(File segment) {
+            final String[] parts = segment.getName().split("_");
+            final String last = parts[parts.length - 1];
+            return Integer.parseInt(last.substring(0, last.length() - SEGMENT_SUFFIX.length()));
+        }
+
+        /** @return true if reading ended at a damaged entry rather than at the end of the log */
+        public boolean isTorn() {
+            return m_torn;
+        }
+
+        /** @return The next entry, or null at the end of the log */
+        public LogEntry next() throws IOException {
+            while (!m_torn) {
+                if (m_segment == null || !m_segment.hasRemaining()) {
+                    final File segment = m_segments.poll();
+                    if (segment == null) {
+                        return null;
+                    }
+                    try (RandomAccessFile raf = new RandomAccessFile(segment, "r")) {
+                        m_segment = raf.getChannel().map(MapMode.READ_ONLY, 0, raf.length());
+                    }
+                    continue;
+                }
+                if (m_segment.remaining() < ENTRY_HEADER_SIZE) {
+                    break;
+                }
+                final int length = m_segment.getInt();
+                final int crc = m_segment.getInt();
+                if (length < ENTRY_HEADER_SIZE - 4 || length - 4 > m_segment.remaining()) {
+                    break;
+                }
+                final ByteBuffer entry = ByteBuffer.allocate(length - 4);
+                m_segment.get(entry.array());
+                final PureJavaCrc32C check = new PureJavaCrc32C();
+                check.update(entry.array(), 0, entry.capacity());
+                if ((int) check.getValue() != crc) {
+                    break;
+                }
+                final byte type = entry.get();
+                final long spHandle = entry.getLong();
+                return new LogEntry(type, spHandle, entry.slice());
+            }
+            m_torn = true;
+            m_segments.clear();
+            return null;
+        }
+    }
+}
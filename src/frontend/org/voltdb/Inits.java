@@ -491,6 +491,11 @@ public class Inits {
                     } catch (Exception e) {
                         VoltDB.crashLocalVoltDB("Unable to instantiate command log", true, e);
                     }
+                } else if (FileCommandLog.ENABLED) {
+                    m_rvdb.m_commandLog = new FileCommandLog(logConfig.getSynchronous(),
+                                                             logConfig.getFsyncinterval(),
+                                                             logConfig.getMaxtxns(),
+                                                             VoltDB.instance().getCommandLogPath());
                 }
             }
         }
@@ -17,19 +17,28 @@
 
 package org.voltdb;
 
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 
 import org.voltcore.logging.Level;
 import org.voltcore.logging.VoltLogger;
+import org.voltcore.utils.CoreUtils;
 import org.voltdb.AuthSystem.AuthUser;
+import org.voltdb.CatalogContext.ProcedurePartitionInfo;
+import org.voltdb.catalog.ProcParameter;
 import org.voltdb.catalog.Procedure;
 import org.voltdb.catalog.Table;
 import org.voltdb.client.BatchTimeoutOverrideType;
 import org.voltdb.client.ClientResponse;
 import org.voltdb.client.ProcedureCallback;
 import org.voltdb.iv2.MpInitiator;
+import org.voltdb.utils.CatalogUtil;
 import org.voltdb.utils.MiscUtils;
 
 import com.google_voltpatches.common.collect.ImmutableMap;
@@ -48,6 +57,9 @@ public class InternalConnectionHandler {
     private final AtomicLong m_failedCount = new AtomicLong();
     private final AtomicLong m_submitSuccessCount = new AtomicLong();
     private volatile Map<Integer, InternalClientResponseAdapter> m_adapters = ImmutableMap.of();
+    // Reinvokes the records of failed batches, off the response path since it waits for back pressure
+    private final ExecutorService m_retryExecutor =
+            CoreUtils.getCachedSingleThreadExecutor("InternalConnectionHandler retry", 15000);
 
     // Synchronized in case multiple partitions are added concurrently.
     public synchronized void addAdapter(int pid, InternalClientResponseAdapter adapter)
@@ -213,4 +225,259 @@ public class InternalConnectionHandler {
         m_submitSuccessCount.incrementAndGet();
         return true;
     }
+
+    /**
+     * How the records of one partition are run as a single transaction.
+     */
+    private static class BatchTarget {
+        final String m_procName;
+        final Procedure m_catProc;
+        // Set when the records are loaded into a partitioned table
+        final Table m_table;
+        final boolean m_upsert;
+
+        BatchTarget(String procName, Procedure catProc, Table table, boolean upsert) {
+            m_procName = procName;
+            m_catProc = catProc;
+            m_table = table;
+            m_upsert = upsert;
+        }
+    }
+
+    private BatchTarget getBatchTarget(InternalConnectionContext caller, Procedure catProc, String batchProc) {
+        if (!catProc.getSinglepartition() || catProc.getAttachment() == null) {
+            return null;
+        }
+        if (batchProc != null) {
+            Procedure batchCatProc = InvocationDispatcher.getProcedureFromName(batchProc, getCatalogContext());
+            if (batchCatProc == null || !batchCatProc.getSinglepartition() || batchCatProc.getPartitionparameter() != 0) {
+                String fmt = "Cannot invoke batch procedure %s from streaming interface %s. " +
+                        "It must be a single partition procedure partitioned on its first parameter.";
+                m_logger.rateLimitedLog(SUPPRESS_INTERVAL, Level.ERROR, null, fmt, batchProc, caller);
+                return null;
+            }
+            for (ProcParameter param : batchCatProc.getParameters()) {
+                if (param.getIndex() > 0 && !param.getIsarray()) {
+                    String fmt = "Cannot invoke batch procedure %s from streaming interface %s. " +
+                            "Every parameter but the first must be an array.";
+                    m_logger.rateLimitedLog(SUPPRESS_INTERVAL, Level.ERROR, null, fmt, batchProc, caller);
+                    return null;
+                }
+            }
+            return new BatchTarget(batchProc, batchCatProc, null, false);
+        }
+        if (catProc.getDefaultproc()) {
+            final String name = catProc.getTypeName().toLowerCase();
+            final boolean upsert = name.endsWith(".upsert");
+            final Table table = catProc.getPartitiontable();
+            if ((upsert || name.endsWith(".insert")) && table != null && !table.getIsreplicated() &&
+                    !CatalogUtil.isTableExportOnly(getCatalogContext().database, table)) {
+                final String loadProc = "@LoadSinglepartitionTable";
+                return new BatchTarget(loadProc, InvocationDispatcher.getProcedureFromName(loadProc, getCatalogContext()),
+                        table, upsert);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Invoke a procedure for each record of a batch. The records of a single partition procedure
+     * are grouped by partition with {@link TheHashinator} and every group runs as one transaction:
+     * <ul>
+     * <li>With a batch procedure, which is called with the partition parameter of the first record
+     *     of the group followed by one array per record field.</li>
+     * <li>Otherwise, when the procedure is the default insert or upsert of a partitioned table, by
+     *     loading the rows of the group with @LoadSinglepartitionTable.</li>
+     * </ul>
+     * Records that can't be batched are invoked one at a time. So are the records of a group whose
+     * transaction fails, so every record's callback gets the response for that record alone. The
+     * records of a group that succeeds each get a response of their own with the group's status.
+     *
+     * @return for each record, whether its invocation was queued
+     */
+    public boolean[] callProcedures(InternalConnectionContext caller,
+                                    Function<Integer, Boolean> backPressurePredicate,
+                                    InternalConnectionStatsCollector statsCollector,
+                                    String proc, String batchProc,
+                                    List<Object[]> records, List<ProcedureCallback> callbacks) {
+        final boolean[] queued = new boolean[records.size()];
+        Procedure catProc = InvocationDispatcher.getProcedureFromName(proc, getCatalogContext());
+        final BatchTarget target = (catProc == null) ? null : getBatchTarget(caller, catProc, batchProc);
+        if (target == null) {
+            for (int i = 0; i < queued.length; i++) {
+                queued[i] = callProcedure(caller, backPressurePredicate, statsCollector, callbacks.get(i), proc, records.get(i));
+            }
+            return queued;
+        }
+
+        final ProcedurePartitionInfo ppi = (ProcedurePartitionInfo) catProc.getAttachment();
+        final Map<Integer, List<Integer>> partitionRecords = new HashMap<>();
+        for (int i = 0; i < queued.length; i++) {
+            int partition;
+            try {
+                partition = TheHashinator.getPartitionForParameter(ppi.type, records.get(i)[ppi.index]);
+            } catch (Exception e) {
+                // Let the single invocation report why the record can't be routed
+                queued[i] = callProcedure(caller, backPressurePredicate, statsCollector, callbacks.get(i), proc, records.get(i));
+                continue;
+            }
+            List<Integer> group = partitionRecords.get(partition);
+            if (group == null) {
+                group = new ArrayList<>();
+                partitionRecords.put(partition, group);
+            }
+            group.add(i);
+        }
+
+        for (Map.Entry<Integer, List<Integer>> e : partitionRecords.entrySet()) {
+            final List<Integer> group = e.getValue();
+            if (group.size() > 1) {
+                callBatch(caller, backPressurePredicate, statsCollector, target, ppi, e.getKey(),
+                        proc, group, records, callbacks, queued);
+            }
+            for (int i : group) {
+                if (!queued[i]) {
+                    queued[i] = callProcedure(caller, backPressurePredicate, statsCollector, callbacks.get(i), proc, records.get(i));
+                }
+            }
+        }
+        return queued;
+    }
+
+    // Marks the records it queued as one transaction, the others are left to the caller
+    private void callBatch(final InternalConnectionContext caller,
+                              final Function<Integer, Boolean> backPressurePredicate,
+                              final InternalConnectionStatsCollector statsCollector,
+                              BatchTarget target, ProcedurePartitionInfo ppi, int partition,
+                              final String proc, List<Integer> group,
+                              final List<Object[]> records, final List<ProcedureCallback> callbacks,
+                              boolean[] queued) {
+        final List<Integer> batched = new ArrayList<>(group.size());
+        final Object[] params;
+        if (target.m_table != null) {
+            VoltTable table = CatalogUtil.getVoltTable(target.m_table);
+            for (int i : group) {
+                try {
+                    table.addRow(records.get(i));
+                    batched.add(i);
+                } catch (RuntimeException badRecord) {
+                    // Invoked on its own, which reports the problem
+                }
+            }
+            if (batched.size() < 2) {
+                return;
+            }
+            byte[] partitionParam = VoltType.valueToBytes(table.fetchRow(0).get(ppi.index, ppi.type));
+            params = new Object[] { partitionParam, target.m_table.getTypeName(), (byte) (target.m_upsert ? 1 : 0), table };
+        } else {
+            final List<ProcParameter> procParams =
+                    CatalogUtil.getSortedCatalogItems(target.m_catProc.getParameters(), "index");
+            final int fieldCount = procParams.size() - 1;
+            params = new Object[procParams.size()];
+            params[0] = records.get(group.get(0))[ppi.index];
+            try {
+                for (int j = 0; j < fieldCount; j++) {
+                    Class<?> componentClz = VoltType.get((byte) procParams.get(j + 1).getType()).vectorClassFromType().getComponentType();
+                    Object values = Array.newInstance(componentClz, group.size());
+                    for (int r = 0; r < group.size(); r++) {
+                        Array.set(values, r, ParameterConverter.tryToMakeCompatible(componentClz, records.get(group.get(r))[j]));
+                    }
+                    params[j + 1] = values;
+                }
+            } catch (RuntimeException e) {
+                String fmt = "Cannot pass records to batch procedure %s from streaming interface %s, invoking them one at a time.";
+                m_logger.rateLimitedLog(SUPPRESS_INTERVAL, Level.WARN, e, fmt, target.m_procName, caller);
+                return;
+            }
+            batched.addAll(group);
+        }
+
+        StoredProcedureInvocation task = new StoredProcedureInvocation();
+        task.setProcName(target.m_procName);
+        task.setParams(params);
+        try {
+            task = MiscUtils.roundTripForCL(task);
+        } catch (Exception e) {
+            String fmt = "Cannot invoke procedure %s from streaming interface %s. failed to create task.";
+            m_logger.rateLimitedLog(SUPPRESS_INTERVAL, Level.ERROR, null, fmt, target.m_procName, caller);
+            return;
+        }
+
+        final InternalClientResponseAdapter adapter = m_adapters.get(partition);
+        InternalAdapterTaskAttributes kattrs = new InternalAdapterTaskAttributes(caller, adapter.connectionId());
+        final AuthUser user = getCatalogContext().authSystem.getImporterUser();
+
+        final ProcedureCallback batchCallback = new ProcedureCallback() {
+            @Override
+            public void clientCallback(ClientResponse response) throws Exception {
+                final byte status = response.getStatus();
+                if (status == ClientResponse.USER_ABORT || status == ClientResponse.GRACEFUL_FAILURE ||
+                        status == ClientResponse.UNEXPECTED_FAILURE) {
+                    // Nothing was applied, find out which records failed
+                    m_retryExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            for (int i : batched) {
+                                retryRecord(caller, backPressurePredicate, statsCollector, proc, records.get(i), callbacks.get(i));
+                            }
+                        }
+                    });
+                    return;
+                }
+                for (int i : batched) {
+                    final ClientResponse recordResponse = getRecordResponse(target, response);
+                    if (statsCollector != null) {
+                        statsCollector.reportCompletion(caller.getName(), proc, recordResponse);
+                    }
+                    if (callbacks.get(i) != null) {
+                        callbacks.get(i).clientCallback(recordResponse);
+                    }
+                }
+            }
+        };
+        if (!adapter.createTransaction(kattrs, target.m_procName, target.m_catProc, batchCallback, null, task, user,
+                new int[] { partition }, false, backPressurePredicate)) {
+            m_failedCount.incrementAndGet();
+            return;
+        }
+        m_submitSuccessCount.incrementAndGet();
+        for (int i : batched) {
+            queued[i] = true;
+        }
+    }
+
+    // The response of one record of a batch, which has the batch's status but not its results
+    private static ClientResponse getRecordResponse(BatchTarget target, ClientResponse batchResponse) {
+        VoltTable[] results = new VoltTable[0];
+        if (target.m_table != null && batchResponse.getStatus() == ClientResponse.SUCCESS) {
+            // What the default insert or upsert of the record would have returned
+            VoltTable modified = new VoltTable(new VoltTable.ColumnInfo("modified_tuples", VoltType.BIGINT));
+            modified.addRow(1L);
+            results = new VoltTable[] { modified };
+        }
+        ClientResponseImpl response = new ClientResponseImpl(batchResponse.getStatus(), batchResponse.getAppStatus(),
+                batchResponse.getAppStatusString(), results, batchResponse.getStatusString());
+        response.setClusterRoundtrip(batchResponse.getClusterRoundtrip());
+        return response;
+    }
+
+    private void retryRecord(InternalConnectionContext caller, Function<Integer, Boolean> backPressurePredicate,
+                             InternalConnectionStatsCollector statsCollector,
+                             String proc, Object[] record, ProcedureCallback callback) {
+        if (callProcedure(caller, backPressurePredicate, statsCollector, callback, proc, record)) {
+            return;
+        }
+        ClientResponseImpl response = new ClientResponseImpl(ClientResponse.GRACEFUL_FAILURE, new VoltTable[0],
+                "Failed to invoke " + proc + " for a record of a failed batch");
+        if (statsCollector != null) {
+            statsCollector.reportCompletion(caller.getName(), proc, response);
+        }
+        if (callback != null) {
+            try {
+                callback.clientCallback(response);
+            } catch (Exception e) {
+                m_logger.error("Failed to process callback.", e);
+            }
+        }
+    }
 }
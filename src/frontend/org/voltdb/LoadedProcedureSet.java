@@ -115,6 +115,9 @@ public class LoadedProcedureSet {
         } catch (Exception e) {
             VoltDB.crashLocalVoltDB("Error trying to load user procedures: " + e.getMessage());
         }
+        for (ProcedureRunner runner : m_userProcs.values()) {
+            runner.publishParameterTypes(catalogContext.catalogVersion);
+        }
     }
 
     public static ImmutableMap<String, ProcedureRunner> loadUserProcedureRunners(
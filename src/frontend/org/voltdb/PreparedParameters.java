@@ -0,0 +1,134 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Procedure parameters that were deserialized and converted to the types of the
+ * procedure's run method before the invocation reached the site thread.
+ *
+ * ProcedureRunners publish their parameter types here when they are loaded for a catalog.
+ * Whoever delivers an initiate task to an initiator (the client interface or the network
+ * thread of a remote host) can then do the work of {@link ParameterConverter} up front,
+ * using the types of the most recently loaded catalog. The converted values are only used
+ * by a runner that is holding the very same types array, any other runner (e.g. one of a
+ * site that hasn't applied a catalog update yet) converts the parameters itself as before.
+ */
+public final class PreparedParameters {
+
+    public static final boolean ENABLED =
+            Boolean.valueOf(System.getProperty("PREPARE_PARAMETERS_OFF_SITE", "true"));
+
+    // Procedure name -> parameter types of one catalog version, shared by all runners
+    // loaded for that version. Replaced as a whole when runners of another version load.
+    private static final class CatalogParameterTypes {
+        final int m_catalogVersion;
+        final ConcurrentHashMap<String, Class<?>[]> m_types = new ConcurrentHashMap<String, Class<?>[]>();
+
+        CatalogParameterTypes(int catalogVersion) {
+            m_catalogVersion = catalogVersion;
+        }
+    }
+
+    private static volatile CatalogParameterTypes s_paramTypes = new CatalogParameterTypes(-1);
+
+    private final Class<?>[] m_types;
+    private final Object[] m_decoded;
+    private final Object[] m_converted;
+
+    private PreparedParameters(Class<?>[] types, Object[] decoded, Object[] converted) {
+        m_types = types;
+        m_decoded = decoded;
+        m_converted = converted;
+    }
+
+    /**
+     * Publish the parameter types of a procedure of the given catalog version. Publishing
+     * for a version other than the current one drops every type published before, so
+     * parameters are never converted to the signature of a procedure of an older catalog.
+     * @return The published array that the caller should use from now on, which is an
+     * existing one if another runner of the procedure published identical types.
+     */
+    static Class<?>[] internParameterTypes(int catalogVersion, String procName, Class<?>[] types) {
+        CatalogParameterTypes current = s_paramTypes;
+        if (current.m_catalogVersion != catalogVersion) {
+            synchronized (PreparedParameters.class) {
+                current = s_paramTypes;
+                if (current.m_catalogVersion != catalogVersion) {
+                    current = new CatalogParameterTypes(catalogVersion);
+                    s_paramTypes = current;
+                }
+            }
+        }
+        final Class<?>[] existing = current.m_types.putIfAbsent(procName, types);
+        if (existing != null && Arrays.equals(existing, types)) {
+            return existing;
+        }
+        return types;
+    }
+
+    /**
+     * Deserialize the parameters of the invocation and, if the types of the procedure are
+     * known, convert them. Meant to be called off the site thread, the deserialized set is
+     * cached in the invocation so the site won't decode it again.
+     * @return The converted parameters or null if they could not be prepared, in which
+     * case the site reports whatever is wrong with them.
+     */
+    public static PreparedParameters prepare(StoredProcedureInvocation invocation) {
+        if (!ENABLED || invocation == null) {
+            return null;
+        }
+        final Object[] decoded;
+        try {
+            decoded = invocation.getParams().toArray();
+        } catch (RuntimeException e) {
+            return null;
+        }
+        final Class<?>[] types = s_paramTypes.m_types.get(invocation.getProcName());
+        if (types == null || types.length != decoded.length) {
+            return null;
+        }
+        final Object[] converted = new Object[decoded.length];
+        try {
+            for (int i = 0; i < types.length; i++) {
+                converted[i] = ParameterConverter.tryToMakeCompatible(types[i], decoded[i]);
+            }
+        } catch (Exception e) {
+            return null;
+        }
+        return new PreparedParameters(types, decoded, converted);
+    }
+
+    /**
+     * @return A copy of the converted parameters if they were converted to the given
+     * types from the given values, otherwise null.
+     */
+    Object[] convertedFor(Class<?>[] types, Object[] params) {
+        if (types != m_types || params.length != m_decoded.length) {
+            return null;
+        }
+        for (int i = 0; i < params.length; i++) {
+            if (params[i] != m_decoded[i]) {
+                return null;
+            }
+        }
+        return m_converted.clone();
+    }
+}
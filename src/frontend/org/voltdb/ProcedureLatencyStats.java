@@ -0,0 +1,259 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram_voltpatches.Histogram;
+import org.voltcore.logging.VoltLogger;
+import org.voltcore.utils.CoreUtils;
+import org.voltcore.utils.Pair;
+import org.voltdb.VoltTable.ColumnInfo;
+
+/**
+ * Source of @Statistics PROCEDURELATENCY, latency percentiles of every procedure and statement
+ * over the trailing windows configured with PROCEDURE_LATENCY_WINDOWS (seconds, comma separated).
+ *
+ * Each {@link StatementStats} owned by a site records execution times in a single writer
+ * HdrHistogram recorder, so recording never takes a lock and never waits for this class.
+ * Every interval the interval histograms of all the procedure stats sources registered with the
+ * {@link StatsAgent} are taken and merged into a ring of per interval histograms for each
+ * procedure and statement, which the windows are summed from. Sites on this host are merged,
+ * there is one row per host, procedure, statement and window.
+ *
+ * Unlike @Statistics PROCEDURE, procedure rows count every invocation. Statements are only timed
+ * for the invocations sampled for statement statistics.
+ *
+ * Only collected when the server is started with -DPROCEDURE_LATENCY_HISTOGRAMS=true.
+ */
+public class ProcedureLatencyStats extends StatsSource {
+
+    private static final VoltLogger log = new VoltLogger("HOST");
+
+    // Off by default, recording puts a clock read and a histogram update on every invocation
+    public static final boolean ENABLED = Boolean.getBoolean("PROCEDURE_LATENCY_HISTOGRAMS");
+    static final int SIGNIFICANT_DIGITS = 2;
+    static final int INTERVAL_MS = Integer.getInteger("PROCEDURE_LATENCY_INTERVAL_MS", (int) TimeUnit.SECONDS.toMillis(5));
+    static final int[] WINDOWS_SECONDS = parseWindows(System.getProperty("PROCEDURE_LATENCY_WINDOWS", "10,60,300"));
+
+    static int[] parseWindows(String windows) {
+        List<Integer> parsed = new ArrayList<>();
+        for (String window : windows.split(",")) {
+            try {
+                int seconds = Integer.parseInt(window.trim());
+                if (seconds > 0) {
+                    parsed.add(seconds);
+                    continue;
+                }
+            } catch (NumberFormatException e) {}
+            log.warn("Ignoring invalid procedure latency window " + window);
+        }
+        if (parsed.isEmpty()) {
+            parsed.add(60);
+        }
+        int[] result = new int[parsed.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = parsed.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Histograms of the most recent intervals of one procedure or statement, indexed by interval number
+     */
+    private final class IntervalRing {
+        private final Histogram[] m_histograms = new Histogram[m_intervalCount];
+        private final long[] m_intervals = new long[m_intervalCount];
+        private long m_lastInterval = -1;
+
+        void add(long interval, Histogram histogram) {
+            final int slot = (int) (interval % m_intervalCount);
+            if (m_histograms[slot] == null) {
+                m_histograms[slot] = new Histogram(SIGNIFICANT_DIGITS);
+            } else if (m_intervals[slot] != interval) {
+                m_histograms[slot].reset();
+            }
+            m_intervals[slot] = interval;
+            m_histograms[slot].add(histogram);
+            m_lastInterval = interval;
+        }
+
+        /**
+         * Sum the most recent windowIntervals intervals into the given histogram
+         */
+        void sumInto(long currentInterval, int windowIntervals, Histogram sum) {
+            sum.reset();
+            for (int slot = 0; slot < m_intervalCount; slot++) {
+                if (m_histograms[slot] != null &&
+                        m_intervals[slot] <= currentInterval &&
+                        currentInterval - m_intervals[slot] < windowIntervals) {
+                    sum.add(m_histograms[slot]);
+                }
+            }
+        }
+
+        boolean isStale(long currentInterval) {
+            return currentInterval - m_lastInterval >= m_intervalCount;
+        }
+    }
+
+    private static final class Row {
+        final String m_procName;
+        final String m_stmtName;
+        final int m_windowSeconds;
+        final Histogram m_histogram;
+
+        Row(String procName, String stmtName, int windowSeconds, Histogram histogram) {
+            m_procName = procName;
+            m_stmtName = stmtName;
+            m_windowSeconds = windowSeconds;
+            m_histogram = histogram;
+        }
+    }
+
+    private final StatsAgent m_statsAgent;
+    private final int m_intervalCount;
+    // (procedure, statement) to its recent intervals, only accessed while synchronized on this
+    private final Map<Pair<String, String>, IntervalRing> m_rings = new HashMap<>();
+    private final ScheduledThreadPoolExecutor m_harvester;
+
+    public ProcedureLatencyStats(StatsAgent statsAgent) {
+        this(statsAgent, true);
+    }
+
+    ProcedureLatencyStats(StatsAgent statsAgent, boolean schedule) {
+        super(false);
+        m_statsAgent = statsAgent;
+        int longestWindowMs = 0;
+        for (int window : WINDOWS_SECONDS) {
+            longestWindowMs = Math.max(longestWindowMs, (int) TimeUnit.SECONDS.toMillis(window));
+        }
+        m_intervalCount = Math.max(1, (longestWindowMs + INTERVAL_MS - 1) / INTERVAL_MS);
+        if (schedule) {
+            m_harvester = CoreUtils.getScheduledThreadPoolExecutor("ProcedureLatencyStats", 1, CoreUtils.SMALL_STACK_SIZE);
+            m_harvester.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        harvest(System.currentTimeMillis());
+                    } catch (Exception e) {
+                        log.warn("Failed to collect procedure latency histograms", e);
+                    }
+                }
+            }, INTERVAL_MS, INTERVAL_MS, TimeUnit.MILLISECONDS);
+        } else {
+            m_harvester = null;
+        }
+    }
+
+    public void shutdown() {
+        if (m_harvester != null) {
+            m_harvester.shutdown();
+        }
+    }
+
+    /**
+     * Take the interval histograms of every procedure and statement on every site of this host and
+     * merge them into the interval that contains nowMs.
+     */
+    synchronized void harvest(long nowMs) {
+        final long interval = nowMs / INTERVAL_MS;
+        for (StatsSource source : m_statsAgent.getRegisteredStatsSources(StatsSelector.PROCEDURE)) {
+            if (!(source instanceof ProcedureStatsCollector)) {
+                continue;
+            }
+            final ProcedureStatsCollector collector = (ProcedureStatsCollector) source;
+            for (StatementStats stmtStats : collector.getStatementStats()) {
+                if (stmtStats.m_latency == null) {
+                    continue;
+                }
+                final Histogram histogram = stmtStats.m_latency.getIntervalHistogram(stmtStats.m_latencyToRecycle);
+                stmtStats.m_latencyToRecycle = histogram;
+                if (histogram.getTotalCount() == 0) {
+                    continue;
+                }
+                final Pair<String, String> key = Pair.of(collector.getProcName(), stmtStats.m_stmtName);
+                IntervalRing ring = m_rings.get(key);
+                if (ring == null) {
+                    ring = new IntervalRing();
+                    m_rings.put(key, ring);
+                }
+                ring.add(interval, histogram);
+            }
+        }
+
+        // Forget procedures and statements that haven't run for longer than the longest window
+        Iterator<IntervalRing> iter = m_rings.values().iterator();
+        while (iter.hasNext()) {
+            if (iter.next().isStale(interval)) {
+                iter.remove();
+            }
+        }
+    }
+
+    @Override
+    protected void populateColumnSchema(ArrayList<ColumnInfo> columns) {
+        super.populateColumnSchema(columns);
+        columns.add(new ColumnInfo("PROCEDURE", VoltType.STRING));
+        columns.add(new ColumnInfo("STATEMENT", VoltType.STRING));
+        columns.add(new ColumnInfo("WINDOW", VoltType.INTEGER));      // seconds
+        columns.add(new ColumnInfo("INVOCATIONS", VoltType.BIGINT));
+        columns.add(new ColumnInfo("P50", VoltType.BIGINT));          // microseconds
+        columns.add(new ColumnInfo("P99", VoltType.BIGINT));          // microseconds
+        columns.add(new ColumnInfo("P99.9", VoltType.BIGINT));        // microseconds
+        columns.add(new ColumnInfo("MAX", VoltType.BIGINT));          // microseconds
+    }
+
+    @Override
+    protected Iterator<Object> getStatsRowKeyIterator(boolean interval) {
+        final long currentInterval = System.currentTimeMillis() / INTERVAL_MS;
+        List<Object> rows = new ArrayList<>();
+        for (Map.Entry<Pair<String, String>, IntervalRing> e : m_rings.entrySet()) {
+            for (int window : WINDOWS_SECONDS) {
+                final int windowIntervals = Math.max(1, (int) (TimeUnit.SECONDS.toMillis(window) / INTERVAL_MS));
+                final Histogram sum = new Histogram(SIGNIFICANT_DIGITS);
+                e.getValue().sumInto(currentInterval, windowIntervals, sum);
+                if (sum.getTotalCount() > 0) {
+                    rows.add(new Row(e.getKey().getFirst(), e.getKey().getSecond(), window, sum));
+                }
+            }
+        }
+        return rows.iterator();
+    }
+
+    @Override
+    protected void updateStatsRow(Object rowKey, Object[] rowValues) {
+        super.updateStatsRow(rowKey, rowValues);
+        final Row row = (Row) rowKey;
+        final Histogram histogram = row.m_histogram;
+        rowValues[columnNameToIndex.get("PROCEDURE")] = row.m_procName;
+        rowValues[columnNameToIndex.get("STATEMENT")] = row.m_stmtName;
+        rowValues[columnNameToIndex.get("WINDOW")] = row.m_windowSeconds;
+        rowValues[columnNameToIndex.get("INVOCATIONS")] = histogram.getTotalCount();
+        rowValues[columnNameToIndex.get("P50")] = TimeUnit.NANOSECONDS.toMicros(histogram.getValueAtPercentile(50D));
+        rowValues[columnNameToIndex.get("P99")] = TimeUnit.NANOSECONDS.toMicros(histogram.getValueAtPercentile(99D));
+        rowValues[columnNameToIndex.get("P99.9")] = TimeUnit.NANOSECONDS.toMicros(histogram.getValueAtPercentile(99.9D));
+        rowValues[columnNameToIndex.get("MAX")] = TimeUnit.NANOSECONDS.toMicros(histogram.getMaxValue());
+    }
+}
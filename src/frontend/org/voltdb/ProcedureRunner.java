@@ -37,13 +37,19 @@ import java.util.concurrent.ExecutionException;
 
 import org.voltcore.logging.VoltLogger;
 import org.voltcore.utils.CoreUtils;
+import org.voltcore.utils.RefCountedBuffer;
 import org.voltdb.StatementStats.SingleCallStatsToken;
 import org.voltdb.VoltProcedure.VoltAbortException;
+import org.voltdb.catalog.Database;
+import org.voltdb.catalog.Index;
+import org.voltdb.catalog.MaterializedViewHandlerInfo;
 import org.voltdb.catalog.PlanFragment;
 import org.voltdb.catalog.ProcParameter;
 import org.voltdb.catalog.Procedure;
 import org.voltdb.catalog.Statement;
 import org.voltdb.catalog.StmtParameter;
+import org.voltdb.catalog.Table;
+import org.voltdb.catalog.TableRef;
 import org.voltdb.client.BatchTimeoutOverrideType;
 import org.voltdb.client.ClientResponse;
 import org.voltdb.compiler.AdHocPlannedStatement;
@@ -67,7 +73,9 @@ import org.voltdb.planner.ActivePlanRepository;
 import org.voltdb.sysprocs.AdHocBase;
 import org.voltdb.sysprocs.AdHocNTBase;
 import org.voltdb.sysprocs.AdHoc_RO_SP;
+import org.voltdb.types.QueryType;
 import org.voltdb.types.TimestampType;
+import org.voltdb.utils.CatalogUtil;
 import org.voltdb.utils.CompressionService;
 import org.voltdb.utils.Encoder;
 import org.voltdb.utils.MiscUtils;
@@ -87,6 +95,11 @@ public class ProcedureRunner {
     //
     // This must be less than or equal to MAX_BATCH_COUNT in src/ee/execution/VoltDBEngine.h
     final static int MAX_BATCH_SIZE = 200;
+
+    // Read-only results at least this large go to the client from the buffer the EE wrote them to
+    // instead of being copied to the heap first, see ExecutionEngine.detachResultBuffer()
+    static final int RESULT_HANDOFF_THRESHOLD = Integer.getInteger("RESULT_HANDOFF_THRESHOLD", 1024 * 1024);
+
     static class QueuedSQL {
         SQLStmt stmt;
         ParameterSet params;
@@ -142,6 +155,9 @@ public class ProcedureRunner {
     protected final boolean m_isReadOnly;
     protected final int m_partitionColumn;
     protected final VoltType m_partitionColumnType;
+    // Default procedure single row inserts and upserts that can run without undo logging
+    protected final boolean m_isUndoFreeWrite;
+    private static final boolean UNDO_FREE_DEFAULT_WRITES = !Boolean.getBoolean("DISABLE_UNDO_FREE_WRITES");
 
     // dependency ids for ad hoc
     protected final static int AGG_DEPID = 1;
@@ -183,6 +199,7 @@ public class ProcedureRunner {
             m_partitionColumn = 0;
             m_partitionColumnType = null;
         }
+        m_isUndoFreeWrite = UNDO_FREE_DEFAULT_WRITES && isUndoFreeWrite(catProc);
         m_site = site;
 
         m_procedure.init(this);
@@ -197,6 +214,50 @@ public class ProcedureRunner {
         }
     }
 
+    /**
+     * A default single partition insert or upsert writes a single row, and nothing after the
+     * write can fail as long as the table has no views or tuple limit purge to maintain and
+     * isn't DR'ed or exported. An upsert that updates a row could still trip a second unique index.
+     * The EE refuses to insert more than one row without an undo quantum.
+     *
+     * @param catProc the procedure with its statements compiled
+     */
+    static boolean isUndoFreeWrite(Procedure catProc) {
+        if (!catProc.getDefaultproc() || !catProc.getSinglepartition() || catProc.getReadonly() ||
+                catProc.getStatements().size() != 1) {
+            return false;
+        }
+        QueryType queryType = QueryType.get(catProc.getStatements().iterator().next().getQuerytype());
+        Table table = catProc.getPartitiontable();
+        if ((queryType != QueryType.INSERT && queryType != QueryType.UPSERT) || table == null ||
+                table.getIsreplicated() || table.getIsdred() ||
+                table.getTuplelimit() != Integer.MAX_VALUE || !table.getViews().isEmpty() ||
+                CatalogUtil.isTableExportOnly((Database) table.getParent(), table)) {
+            return false;
+        }
+        // Views that join the table are defined on the view
+        for (Table view : ((Database) table.getParent()).getTables()) {
+            MaterializedViewHandlerInfo mvHandlerInfo = view.getMvhandlerinfo().get("mvHandlerInfo");
+            if (mvHandlerInfo != null) {
+                for (TableRef source : mvHandlerInfo.getSourcetables()) {
+                    if (source.getTable() == table) {
+                        return false;
+                    }
+                }
+            }
+        }
+        if (queryType == QueryType.UPSERT) {
+            int uniqueIndexes = 0;
+            for (Index index : table.getIndexes()) {
+                if (index.getUnique() || index.getAssumeunique()) {
+                    uniqueIndexes++;
+                }
+            }
+            return uniqueIndexes <= 1;
+        }
+        return true;
+    }
+
     public void initSiteAndStats(SiteProcedureConnection site) {
         m_site = site;
         // Normally m_statsCollector is returned as it is and there is no affect to assign it to itself.
@@ -302,6 +363,28 @@ public class ProcedureRunner {
         return result;
     }
 
+    /**
+     * Share the parameter types with the other runners of this procedure loaded for the same
+     * catalog, so that parameters can be converted for all of them before they reach a site.
+     */
+    void publishParameterTypes(int catalogVersion) {
+        if (!m_isSysProc && m_paramTypes != null) {
+            m_paramTypes = PreparedParameters.internParameterTypes(catalogVersion, m_catProc.getTypeName(), m_paramTypes);
+        }
+    }
+
+    /**
+     * @return The parameters of the current transaction converted to this procedure's types
+     * off the site thread, or null if the given parameters still have to be converted here.
+     */
+    private Object[] getPreparedParameters(Object[] paramList) {
+        if (m_isSysProc || m_txnState == null || !(m_txnState.getNotice() instanceof Iv2InitiateTaskMessage)) {
+            return null;
+        }
+        final PreparedParameters prepared = ((Iv2InitiateTaskMessage) m_txnState.getNotice()).getPreparedParameters();
+        return prepared == null ? null : prepared.convertedFor(m_paramTypes, paramList);
+    }
+
     /**
      * @return Custom batch timeout value or 0 if there isn't one.
      */
@@ -336,6 +419,8 @@ public class ProcedureRunner {
         m_determinismHash.reset(m_site.getSystemProcedureExecutionContext().getCatalogVersion());
 
         ClientResponseImpl retval = null;
+        // result tables left in the buffer the EE wrote them to, owned by the response once it is built
+        RefCountedBuffer sharedResults = null;
         // assert no sql is queued
         assert(m_batch.size() == 0);
 
@@ -360,16 +445,22 @@ public class ProcedureRunner {
                 return getErrorResponse(m_statusCode, m_appStatusCode, m_appStatusString, msg, null);
             }
 
-            for (int i = 0; i < m_paramTypes.length; i++) {
-                try {
-                    paramList[i] = ParameterConverter.tryToMakeCompatible(m_paramTypes[i], paramList[i]);
-                    // check the result type in an assert
-                    assert(ParameterConverter.verifyParameterConversion(paramList[i], m_paramTypes[i]));
-                } catch (Exception e) {
-                    String msg = "PROCEDURE " + m_procedureName + " TYPE ERROR FOR PARAMETER " + i +
-                            ": " + e.toString();
-                    m_statusCode = ClientResponse.GRACEFUL_FAILURE;
-                    return getErrorResponse(m_statusCode, m_appStatusCode, m_appStatusString, msg, null);
+            // use the parameters converted before the task got to this site if there are any
+            final Object[] prepared = getPreparedParameters(paramList);
+            if (prepared != null) {
+                paramList = prepared;
+            } else {
+                for (int i = 0; i < m_paramTypes.length; i++) {
+                    try {
+                        paramList[i] = ParameterConverter.tryToMakeCompatible(m_paramTypes[i], paramList[i]);
+                        // check the result type in an assert
+                        assert(ParameterConverter.verifyParameterConversion(paramList[i], m_paramTypes[i]));
+                    } catch (Exception e) {
+                        String msg = "PROCEDURE " + m_procedureName + " TYPE ERROR FOR PARAMETER " + i +
+                                ": " + e.toString();
+                        m_statusCode = ClientResponse.GRACEFUL_FAILURE;
+                        return getErrorResponse(m_statusCode, m_appStatusCode, m_appStatusString, msg, null);
+                    }
                 }
             }
 
@@ -382,7 +473,12 @@ public class ProcedureRunner {
                     try {
                         Object rawResult = m_procMethod.invoke(m_procedure, paramList);
 
-                        results = ParameterConverter.getResultsFromRawResults(m_procedureName, rawResult);
+                        // ad hoc queries return the tables of their final batch as they come from the EE
+                        if (m_procedure instanceof AdHocBase && rawResult instanceof VoltTable[]) {
+                            sharedResults = detachLargeResults((VoltTable[]) rawResult);
+                        }
+                        results = sharedResults != null ? (VoltTable[]) rawResult :
+                            ParameterConverter.getResultsFromRawResults(m_procedureName, rawResult);
                     } catch (IllegalAccessException e) {
                         // If reflection fails, invoke the same error handling that other exceptions do
                         throw new InvocationTargetException(e);
@@ -443,7 +539,10 @@ public class ProcedureRunner {
                     if (getNonVoltDBBackendIfExists() == null) {
                         m_batch.addAll(m_sqlStmts);
                         results = voltExecuteSQL(true);
-                        results = convertTablesToHeapBuffers(results);
+                        sharedResults = detachLargeResults(results);
+                        if (sharedResults == null) {
+                            results = convertTablesToHeapBuffers(results);
+                        }
                     }
                 } catch (SerializableException ex) {
                     retval = getErrorResponse(m_procedureName,
@@ -476,6 +575,10 @@ public class ProcedureRunner {
                         m_appStatusString,
                         results,
                         m_statusString);
+                if (sharedResults != null) {
+                    retval.setResultBuffer(sharedResults);
+                    sharedResults = null;
+                }
             }
 
             // Even when the transaction fails, the computed hashes are valuable for diagnostic purpose,
@@ -487,6 +590,10 @@ public class ProcedureRunner {
             // garbage collected and that the queue will be empty for
             // the next call
             m_batch.clear();
+            if (sharedResults != null) {
+                // the results were replaced by an error response
+                sharedResults.release();
+            }
             for ( QueuedSQL stmt: m_sqlStmts ) {
                 stmt.params = null;
                 stmt.expectation = null;
@@ -1331,6 +1438,28 @@ public class ProcedureRunner {
        return response;
     }
 
+    /**
+     * Take over the EE buffer a large read-only result was written to, so that it can be sent to
+     * the client without copying the tables. Only done for single partition transactions whose
+     * response goes to a client interface on this host, where the network write gives the buffer
+     * back to the EE once it is done with it.
+     * @return The buffer the tables are slices of, or null if they have to be copied
+     */
+    private RefCountedBuffer detachLargeResults(VoltTable[] results) {
+        if (!m_isReadOnly || !m_isSinglePartition || m_txnState == null ||
+                CoreUtils.getHostIdFromHSId(m_txnState.initiatorHSId) != m_site.getCorrespondingHostId()) {
+            return null;
+        }
+        long resultSize = 0;
+        for (VoltTable table : results) {
+            resultSize += table.getSerializedSize();
+        }
+        if (resultSize < RESULT_HANDOFF_THRESHOLD) {
+            return null;
+        }
+        return getExecutionEngine().detachResultBuffer(results);
+    }
+
     final private VoltTable[] convertTablesToHeapBuffers(VoltTable[] results) {
         for (VoltTable table : results) {
             // Make sure this table does not use an ee cache buffer
@@ -1607,9 +1736,17 @@ public class ProcedureRunner {
         // timed.
         getExecutionEngine().setPerFragmentTimingEnabled(m_perCallStats.samplingStmts());
         try {
-            FastDeserializer fragResult = m_site.executePlanFragments(batchSize, fragmentIds, null, params,
-                    m_determinismHash, sqlTexts, isWriteFrag, sqlCRCs, m_txnState.txnId, m_txnState.m_spHandle,
-                    m_txnState.uniqueId, m_isReadOnly, VoltTrace.log(VoltTrace.Category.EE) != null);
+            final FastDeserializer fragResult;
+            if (m_isUndoFreeWrite && finalTask && m_batchIndex == 0 && batchSize == 1) {
+                // The statement is the whole transaction, there is nothing to roll back
+                fragResult = m_site.executeUndoFreePlanFragments(batchSize, fragmentIds, params,
+                        m_determinismHash, sqlTexts, isWriteFrag, sqlCRCs, m_txnState.txnId, m_txnState.m_spHandle,
+                        m_txnState.uniqueId, VoltTrace.log(VoltTrace.Category.EE) != null);
+            } else {
+                fragResult = m_site.executePlanFragments(batchSize, fragmentIds, null, params,
+                        m_determinismHash, sqlTexts, isWriteFrag, sqlCRCs, m_txnState.txnId, m_txnState.m_spHandle,
+                        m_txnState.uniqueId, m_isReadOnly, VoltTrace.log(VoltTrace.Category.EE) != null);
+            }
             final int totalSize;
             try {
                 // read the size of the DR buffer used
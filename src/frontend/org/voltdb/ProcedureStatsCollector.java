@@ -24,6 +24,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.atomic.AtomicLong;
 
+import org.HdrHistogram_voltpatches.SingleWriterRecorder;
 import org.voltcore.logging.VoltLogger;
 import org.voltdb.StatementStats.SingleCallStatsToken;
 import org.voltdb.StatementStats.StatsData;
@@ -64,6 +65,7 @@ public class ProcedureStatsCollector extends SiteStatsSource {
     // Mapping from the variable name of the user-defined SQLStmts to its stats.
     private final Map<String, StatementStats> m_stmtStatsMap;
     private final StatsData m_procStatsData;
+    private final SingleWriterRecorder m_procLatency;
     private final boolean m_isTransactional;
     private final boolean m_isUAC;
 
@@ -82,6 +84,18 @@ public class ProcedureStatsCollector extends SiteStatsSource {
                                    boolean singlePartition,
                                    ArrayList<String> stmtNames,
                                    boolean isTransactional)
+    {
+        this(siteId, partitionId, procName, singlePartition, stmtNames, isTransactional,
+                ProcedureLatencyStats.ENABLED);
+    }
+
+    ProcedureStatsCollector(long siteId,
+                            int partitionId,
+                            String procName,
+                            boolean singlePartition,
+                            ArrayList<String> stmtNames,
+                            boolean isTransactional,
+                            boolean recordLatency)
     {
         super(siteId, false);
         m_partitionId = partitionId;
@@ -91,8 +105,9 @@ public class ProcedureStatsCollector extends SiteStatsSource {
         // Use one StatementStats instance to hold the procedure-wide statistics.
         // The statement name for this StatementStats is "<ALL>".
         // It does not have coordinator task to track.
-        StatementStats procedureWideStats = new StatementStats("<ALL>", false);
+        StatementStats procedureWideStats = new StatementStats("<ALL>", false, recordLatency);
         m_procStatsData = procedureWideStats.m_workerTask;
+        m_procLatency = procedureWideStats.m_latency;
         // The NULL key entry is reserved for the procedure-wide statistics.
         m_stmtStatsMap.put(null, procedureWideStats);
         // Add stats entry for each of the individual SQL statements.
@@ -100,7 +115,7 @@ public class ProcedureStatsCollector extends SiteStatsSource {
             for (String stmtName : stmtNames) {
                 // If the procedure is a multi-partition one, its statements will have coordinator tasks.
                 boolean hasCoordinatorTask = ! singlePartition;
-                m_stmtStatsMap.put(stmtName, new StatementStats(stmtName, hasCoordinatorTask));
+                m_stmtStatsMap.put(stmtName, new StatementStats(stmtName, hasCoordinatorTask, recordLatency));
             }
         }
         m_isTransactional = isTransactional;
@@ -123,9 +138,9 @@ public class ProcedureStatsCollector extends SiteStatsSource {
         boolean samplingProcedure = (invocations % m_procSamplingInterval == 0) || m_isUAC;
         boolean samplingStmts = invocations % m_stmtSamplingInterval == 0;
 
-        long startTimeNanos = samplingProcedure ? System.nanoTime() : 0;
+        long startTimeNanos = (samplingProcedure || m_procLatency != null) ? System.nanoTime() : 0;
 
-        return new SingleCallStatsToken(startTimeNanos, samplingStmts);
+        return new SingleCallStatsToken(startTimeNanos, samplingProcedure, samplingStmts);
     }
 
     /**
@@ -144,6 +159,13 @@ public class ProcedureStatsCollector extends SiteStatsSource {
         }
         m_procStatsData.m_invocations++;
 
+        // Every invocation goes into the latency histogram, not only the sampled ones
+        final boolean timed = statsToken.startTimeNanos != 0;
+        final long duration = timed ? System.nanoTime() - statsToken.startTimeNanos : 0;
+        if (m_procLatency != null && timed && duration >= 0) {
+            m_procLatency.recordValue(duration);
+        }
+
         // this means additional stats were not recorded
         if (!statsToken.samplingProcedure()) {
             return;
@@ -151,8 +173,6 @@ public class ProcedureStatsCollector extends SiteStatsSource {
 
         // This is a sampled invocation.
         // Update timings and size statistics.
-        final long endTime = System.nanoTime();
-        final long duration = endTime - statsToken.startTimeNanos;
         if (duration < 0) {
             if (Math.abs(duration) > 1000000000) {
                 log.info("Procedure: " + m_procName +
@@ -249,6 +269,10 @@ public class ProcedureStatsCollector extends SiteStatsSource {
             return;
         }
 
+        if (stmtStats.m_latency != null) {
+            stmtStats.m_latency.recordValue(duration);
+        }
+
         dataToUpdate.m_timedInvocations++;
         // sampled timings
         dataToUpdate.m_totalTimedExecutionTime += duration;
@@ -416,6 +440,18 @@ public class ProcedureStatsCollector extends SiteStatsSource {
         };
     }
 
+    String getProcName() {
+        return m_procName;
+    }
+
+    /**
+     * The per statement stats including the procedure wide one, for harvesting
+     * the latency histograms. Only read by the stats thread, the map is not modified after construction.
+     */
+    Iterable<StatementStats> getStatementStats() {
+        return m_stmtStatsMap.values();
+    }
+
     @Override
     public String toString() {
         return m_procName;
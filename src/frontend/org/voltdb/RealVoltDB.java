@@ -466,6 +466,7 @@ public class RealVoltDB implements VoltDBInterface, RestoreAgent.Callback, HostM
     private LatencyStats m_latencyStats;
     private LatencyHistogramStats m_latencyCompressedStats;
     private LatencyUncompressedHistogramStats m_latencyHistogramStats;
+    private ProcedureLatencyStats m_procedureLatencyStats;
 
     private File getConfigDirectory() {
         return getConfigDirectory(m_config);
@@ -1358,6 +1359,10 @@ public class RealVoltDB implements VoltDBInterface, RestoreAgent.Callback, HostM
             m_latencyHistogramStats = new LatencyUncompressedHistogramStats(m_myHostId);
             getStatsAgent().registerStatsSource(StatsSelector.LATENCY_HISTOGRAM,
                     0, m_latencyHistogramStats);
+            if (ProcedureLatencyStats.ENABLED) {
+                m_procedureLatencyStats = new ProcedureLatencyStats(getStatsAgent());
+                getStatsAgent().registerStatsSource(StatsSelector.PROCEDURELATENCY, 0, m_procedureLatencyStats);
+            }
 
 
             BalancePartitionsStatistics rebalanceStats = new BalancePartitionsStatistics();
@@ -3662,6 +3667,10 @@ public class RealVoltDB implements VoltDBInterface, RestoreAgent.Callback, HostM
                 m_latencyStats = null;
                 m_latencyCompressedStats = null;
                 m_latencyHistogramStats = null;
+                if (m_procedureLatencyStats != null) {
+                    m_procedureLatencyStats.shutdown();
+                    m_procedureLatencyStats = null;
+                }
 
                 AdHocCompilerCache.clearHashCache();
                 org.voltdb.iv2.InitiatorMailbox.m_allInitiatorMailboxes.clear();
@@ -4526,7 +4535,9 @@ public class RealVoltDB implements VoltDBInterface, RestoreAgent.Callback, HostM
     }
 
     private void deleteStagedCatalogIfNeeded() {
-        if (((m_commandLog != null) && m_commandLog.isEnabled()) || (m_terminusNonce != null)) {
+        // The file command log isn't replayed at recovery, so the schema is still needed
+        if (((m_commandLog != null) && m_commandLog.isEnabled() && !(m_commandLog instanceof FileCommandLog))
+                || (m_terminusNonce != null)) {
             File stagedCatalog = new VoltFile(RealVoltDB.getStagedCatalogPath(getVoltDBRootPath()));
             if (stagedCatalog.exists()) {
                 if (stagedCatalog.delete()) {
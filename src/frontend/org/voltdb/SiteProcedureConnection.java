@@ -130,6 +130,24 @@ public interface SiteProcedureConnection {
             boolean readOnly,
             boolean traceOn) throws EEException;
 
+    /**
+     * Execute a set of plan fragments without undo logging. Only for fragments that make
+     * up the whole of a single partition transaction and that cannot fail once they have
+     * changed any data, so that there is never anything to roll back.
+     */
+    public FastDeserializer executeUndoFreePlanFragments(
+            int numFragmentIds,
+            long[] planFragmentIds,
+            Object[] parameterSets,
+            DeterminismHash determinismHash,
+            String[] sqlTexts,
+            boolean[] isWriteFrags,
+            int[] sqlCRCs,
+            long txnId,
+            long spHandle,
+            long uniqueId,
+            boolean traceOn) throws EEException;
+
     /**
      * Allows caller to determine that a 50MB temporary (deallocated on next call) buffer
      * was used to generate the EE result table.
@@ -20,6 +20,9 @@ package org.voltdb;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.HdrHistogram_voltpatches.Histogram;
+import org.HdrHistogram_voltpatches.SingleWriterRecorder;
+
 /**
  * Record statistics for each statement in the stored procedure.
  */
@@ -31,13 +34,27 @@ public final class StatementStats {
     String m_stmtName;
     StatsData m_coordinatorTask = null;
     StatsData m_workerTask;
+    /**
+     * Execution times in nanoseconds recorded by the site that owns this instance,
+     * harvested by {@link ProcedureLatencyStats} without blocking the site.
+     * Null when latency histograms are disabled.
+     */
+    final SingleWriterRecorder m_latency;
+    // Last interval histogram taken from m_latency, only touched by the harvesting thread
+    Histogram m_latencyToRecycle = null;
 
     public StatementStats(String stmtName, boolean hasCoordinatorTask) {
+        this(stmtName, hasCoordinatorTask, ProcedureLatencyStats.ENABLED);
+    }
+
+    StatementStats(String stmtName, boolean hasCoordinatorTask, boolean recordLatency) {
         m_stmtName = stmtName;
         m_workerTask = new StatsData();
         if (hasCoordinatorTask) {
             m_coordinatorTask = new StatsData();
         }
+        m_latency = recordLatency ?
+                new SingleWriterRecorder(ProcedureLatencyStats.SIGNIFICANT_DIGITS) : null;
     }
 
     // Maybe the worker task got executed and timed multiple times, but all failed.
@@ -295,6 +312,7 @@ public final class StatementStats {
         }
 
         final long startTimeNanos;
+        final boolean samplingProcedure;
         final boolean samplingStatements;
         // stays null until used
         List<PerStmtStats> stmtStats = null;
@@ -303,12 +321,21 @@ public final class StatementStats {
         int resultSize = 0;
 
         public SingleCallStatsToken(long startTimeNanos, boolean samplingStatements) {
+            this(startTimeNanos, startTimeNanos != 0, samplingStatements);
+        }
+
+        /**
+         * The start time may be taken for an invocation that is not sampled,
+         * it is then only used for the latency histogram.
+         */
+        public SingleCallStatsToken(long startTimeNanos, boolean samplingProcedure, boolean samplingStatements) {
             this.startTimeNanos = startTimeNanos;
+            this.samplingProcedure = samplingProcedure;
             this.samplingStatements = samplingStatements;
         }
 
         public boolean samplingProcedure() {
-            return startTimeNanos != 0;
+            return samplingProcedure;
         }
 
         public boolean samplingStmts() {
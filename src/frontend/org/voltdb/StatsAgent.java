@@ -16,7 +16,9 @@
  */
 package org.voltdb;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NoSuchElementException;
@@ -543,6 +545,9 @@ public class StatsAgent extends OpsAgent
         case LATENCY_HISTOGRAM:
             stats = collectStats(StatsSelector.LATENCY_HISTOGRAM, interval);
             break;
+        case PROCEDURELATENCY:
+            stats = collectStats(StatsSelector.PROCEDURELATENCY, false);
+            break;
         case MANAGEMENT:
             stats = collectManagementStats(interval);
             break;
@@ -697,6 +702,22 @@ public class StatsAgent extends OpsAgent
         statsSources.add(source);
     }
 
+    /**
+     * @return Every source currently registered for the selector on any site
+     */
+    public List<StatsSource> getRegisteredStatsSources(StatsSelector selector) {
+        assert selector != null;
+        final NonBlockingHashMap<Long, NonBlockingHashSet<StatsSource>> siteIdToStatsSources =
+                m_registeredStatsSources.get(selector);
+        List<StatsSource> sources = new ArrayList<StatsSource>();
+        if (siteIdToStatsSources != null) {
+            for (NonBlockingHashSet<StatsSource> statsSources : siteIdToStatsSources.values()) {
+                sources.addAll(statsSources);
+            }
+        }
+        return sources;
+    }
+
     public void deregisterStatsSource(StatsSelector selector, long siteId, StatsSource source) {
         assert selector != null;
         assert source != null;
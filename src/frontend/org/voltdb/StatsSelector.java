@@ -37,6 +37,7 @@ public enum StatsSelector {
     PROCEDUREINPUT,
     PROCEDUREOUTPUT,
     PROCEDUREDETAIL,  // provides more granular statistics for procedure calls at a per-statement level.
+    PROCEDURELATENCY, // latency percentiles per procedure and statement over recent windows
 
     /*
      * DRPRODUCERPARTITION and DRPRODUCERNODE are internal names
@@ -34,6 +34,7 @@ import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Logger;
 
@@ -49,6 +50,8 @@ import org.voltdb.common.Constants;
 import org.voltdb.utils.Encoder;
 
 import com.google_voltpatches.common.collect.ImmutableSet;
+import com.google_voltpatches.common.util.concurrent.ListenableFuture;
+import com.google_voltpatches.common.util.concurrent.SettableFuture;
 
 import io.netty.handler.ssl.SslContext;
 
@@ -343,6 +346,59 @@ public final class ClientImpl implements Client {
                 Distributer.USE_DEFAULT_CLIENT_TIMEOUT, TimeUnit.NANOSECONDS, parameters);
     }
 
+    /**
+     * <p>Asynchronously invoke a procedure and return a future for its response. The future is completed
+     * by the single thread backing the client instance, so listeners that are run by that thread are subject
+     * to the same restrictions as a {@link ProcedureCallback}. Queueing follows the same rules as
+     * {@link #callProcedure(ProcedureCallback, String, Object...)}, blocking on backpressure unless
+     * configureBlocking(false) is invoked.</p>
+     *
+     * <p>The future fails with a {@link ProcCallException} if the response is anything other than success
+     * or the invocation could not be queued, and with a {@link NoConnectionsException} or {@link IOException}
+     * if it could not be sent at all.</p>
+     *
+     * <p>Not part of the {@link Client} interface, the returned future is the guava type that is bundled with
+     * the client library.</p>
+     *
+     * @param procName class name (not qualified by package) of the procedure to execute.
+     * @param parameters vararg list of procedure's parameter values.
+     * @return A future for the {@link ClientResponse} of the invocation.
+     */
+    public ListenableFuture<ClientResponse> callProcedureAsync(String procName, Object... parameters) {
+        final SettableFuture<ClientResponse> future = SettableFuture.create();
+        final ProcedureCallback callback = new ProcedureCallback() {
+            @Override
+            public void clientCallback(ClientResponse response) {
+                if (response.getStatus() == ClientResponse.SUCCESS) {
+                    future.set(response);
+                } else {
+                    future.setException(new ProcCallException(response, response.getStatusString(), null));
+                }
+            }
+        };
+
+        if (m_isShutdown) {
+            future.setException(new NoConnectionsException("Client instance is shutdown"));
+            return future;
+        }
+        final ProcedureInvocation invocation = new ProcedureInvocation(m_handle.getAndIncrement(),
+                BatchTimeoutOverrideType.NO_TIMEOUT, false, procName, parameters);
+        try {
+            if (!internalAsyncCallProcedure(callback, Distributer.USE_DEFAULT_CLIENT_TIMEOUT, invocation)) {
+                final ClientResponseImpl r = new ClientResponseImpl(
+                        ClientResponse.GRACEFUL_FAILURE,
+                        ClientResponse.UNINITIALIZED_APP_STATUS_CODE,
+                        "",
+                        new VoltTable[0],
+                        "Unable to queue client request.");
+                future.setException(new ProcCallException(r, "Unable to queue client request.", null));
+            }
+        } catch (IOException e) {
+            future.setException(e);
+        }
+        return future;
+    }
+
     /**
      * Asynchronously invoke a procedure call with timeout.
      * @param callback TransactionCallback that will be invoked with procedure results.
@@ -626,8 +682,11 @@ public final class ClientImpl implements Client {
                     " without deadlocking the client library");
         }
         m_isShutdown = true;
-        synchronized (m_backpressureLock) {
-            m_backpressureLock.notifyAll();
+        m_backpressureLock.lock();
+        try {
+            m_backpressureCondition.signalAll();
+        } finally {
+            m_backpressureLock.unlock();
         }
 
         if (m_reconnectStatusListener != null) {
@@ -666,37 +725,38 @@ public final class ClientImpl implements Client {
                     " without deadlocking the client library");
         }
         if (m_backpressure) {
-            synchronized (m_backpressureLock) {
-                if (m_backpressure) {
-                    while (m_backpressure && !m_isShutdown) {
-                       if (start != 0) {
-                           if (timeoutNanos <= 0) {
-                               // timeout nano value is negative or zero, indicating it timed out.
-                               return true;
-                           }
-
-                            //Wait on the condition for the specified timeout remaining
-                            m_backpressureLock.wait(timeoutNanos / TimeUnit.MILLISECONDS.toNanos(1), (int)(timeoutNanos % TimeUnit.MILLISECONDS.toNanos(1)));
-
-                            //Condition is true, break and return false
-                            if (!m_backpressure) {
-                                break;
-                            }
-
-                            //Calculate whether the timeout should be triggered
-                            final long nowNanos = System.nanoTime();
-                            final long deltaNanos = Math.max(1, nowNanos - start);
-                            if (deltaNanos >= timeoutNanos) {
-                                return true;
-                            }
-
-                            //Reassigning timeout nanos with remainder of timeout
-                            timeoutNanos -= deltaNanos;
-                       } else {
-                           m_backpressureLock.wait();
-                       }
+            m_backpressureLock.lock();
+            try {
+                while (m_backpressure && !m_isShutdown) {
+                    if (start != 0) {
+                        if (timeoutNanos <= 0) {
+                            // timeout nano value is negative or zero, indicating it timed out.
+                            return true;
+                        }
+
+                        //Wait on the condition for the specified timeout remaining
+                        m_backpressureCondition.awaitNanos(timeoutNanos);
+
+                        //Condition is true, break and return false
+                        if (!m_backpressure) {
+                            break;
+                        }
+
+                        //Calculate whether the timeout should be triggered
+                        final long nowNanos = System.nanoTime();
+                        final long deltaNanos = Math.max(1, nowNanos - start);
+                        if (deltaNanos >= timeoutNanos) {
+                            return true;
+                        }
+
+                        //Reassigning timeout nanos with remainder of timeout
+                        timeoutNanos -= deltaNanos;
+                    } else {
+                        m_backpressureCondition.await();
                     }
                 }
+            } finally {
+                m_backpressureLock.unlock();
             }
         }
         return false;
@@ -732,13 +792,16 @@ public final class ClientImpl implements Client {
         AtomicInteger connectionTaskCount = new AtomicInteger(0);
         @Override
         public void backpressure(boolean status) {
-            synchronized (m_backpressureLock) {
+            m_backpressureLock.lock();
+            try {
                 if (status) {
                     m_backpressure = true;
                 } else {
                     m_backpressure = false;
-                    m_backpressureLock.notifyAll();
+                    m_backpressureCondition.signalAll();
                 }
+            } finally {
+                m_backpressureLock.unlock();
             }
         }
 
@@ -748,9 +811,12 @@ public final class ClientImpl implements Client {
             if (connectionsLeft == 0) {
                 //Wake up client and let it attempt to queue work
                 //and then fail with a NoConnectionsException
-                synchronized (m_backpressureLock) {
+                m_backpressureLock.lock();
+                try {
                     m_backpressure = false;
-                    m_backpressureLock.notifyAll();
+                    m_backpressureCondition.signalAll();
+                } finally {
+                    m_backpressureLock.unlock();
                 }
             }
         }
@@ -879,8 +945,11 @@ public final class ClientImpl implements Client {
 
     static final Logger LOG = Logger.getLogger(ClientImpl.class.getName());  // Logger shared by client package.
     private final Distributer m_distributer;                             // de/multiplexes connections to a cluster
-    private final Object m_backpressureLock = new Object();
-    private boolean m_backpressure = false;
+    // A j.u.c lock rather than a monitor so that callers waiting out backpressure,
+    // virtual threads in particular, don't hold on to a carrier thread while they wait
+    private final ReentrantLock m_backpressureLock = new ReentrantLock();
+    private final Condition m_backpressureCondition = m_backpressureLock.newCondition();
+    private volatile boolean m_backpressure = false;
 
     private boolean m_blockingQueue = true;
 
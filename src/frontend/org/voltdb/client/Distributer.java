@@ -72,6 +72,7 @@ import org.voltdb.common.Constants;
 
 import com.google_voltpatches.common.base.Throwables;
 import com.google_voltpatches.common.collect.ImmutableList;
+import com.google_voltpatches.common.collect.ImmutableMap;
 import com.google_voltpatches.common.collect.ImmutableSet;
 import com.google_voltpatches.common.collect.ImmutableSortedMap;
 import com.google_voltpatches.common.collect.Maps;
@@ -86,6 +87,12 @@ import jsr166y.ThreadLocalRandom;
  *
  *   It is safe to synchronized on an individual connection and then the distributer, but it is always unsafe
  *   to synchronized on the distributer and then an individual connection.
+ *
+ *   The submission path in {@link #queue} does not take the distributer monitor. Routing state
+ *   (connections, partition masters/replicas and the hashinator) is mutated under the monitor by
+ *   topology updates and connection loss, and then republished as immutable snapshots that
+ *   submitting threads read without locking. The monitor is only taken on submission to report
+ *   backpressure, so that it can't race with {@link NodeConnection#offBackPressure()}.
  */
 class Distributer {
 
@@ -103,7 +110,11 @@ class Distributer {
     private final CopyOnWriteArrayList<NodeConnection> m_connections =
             new CopyOnWriteArrayList<>();
 
-    private final ArrayList<ClientStatusListenerExt> m_listeners = new ArrayList<>();
+    // immutable copy of m_connections for the lock-free submission path, republished under the
+    // distributer monitor whenever a connection is added or removed
+    private volatile NodeConnection[] m_connectionSnapshot = new NodeConnection[0];
+
+    private final CopyOnWriteArrayList<ClientStatusListenerExt> m_listeners = new CopyOnWriteArrayList<>();
 
     //Selector and connection handling, does all work in blocking selection thread
     private final VoltNetworkPool m_network;
@@ -111,7 +122,7 @@ class Distributer {
     private final SslContext m_sslContext;
 
     // Temporary until a distribution/affinity algorithm is written
-    private int m_nextConnection = 0;
+    private final AtomicInteger m_nextConnection = new AtomicInteger(0);
 
     private final boolean m_useMultipleThreads;
     private final boolean m_useClientAffinity;
@@ -134,9 +145,39 @@ class Distributer {
         }
     }
 
+    /**
+     * Immutable view of the client affinity routing state. Rebuilt by {@link #publishAffinityTopology()}
+     * under the distributer monitor and read without locking when routing invocations.
+     */
+    private static final class AffinityTopology {
+        private final HashinatorLite hashinator;
+        private final ImmutableMap<Integer, NodeConnection> partitionMasters;
+        private final ImmutableMap<Integer, NodeConnection[]> partitionReplicas;
+        private AffinityTopology(HashinatorLite hashinator,
+                Map<Integer, NodeConnection> partitionMasters,
+                Map<Integer, NodeConnection[]> partitionReplicas) {
+            this.hashinator = hashinator;
+            this.partitionMasters = ImmutableMap.copyOf(partitionMasters);
+            this.partitionReplicas = ImmutableMap.copyOf(partitionReplicas);
+        }
+    }
+
+    /**
+     * Affinity routing counters for one partition, updated concurrently by submitting threads.
+     * Copied into {@link ClientAffinityStats} instances when a snapshot is taken.
+     */
+    private static final class AffinityCounters {
+        private final AtomicLong affinityWrites = new AtomicLong();
+        private final AtomicLong rrWrites = new AtomicLong();
+        private final AtomicLong affinityReads = new AtomicLong();
+        private final AtomicLong rrReads = new AtomicLong();
+    }
+
+    // guarded by the distributer monitor, readers on the submission path use m_affinityTopology
     private final Map<Integer, NodeConnection> m_partitionMasters = new HashMap<>();
     private final Map<Integer, NodeConnection[]> m_partitionReplicas = new HashMap<>();
-    private final Map<Integer, NodeConnection> m_hostIdToConnection = new HashMap<>();
+    private volatile AffinityTopology m_affinityTopology = null;
+    private final Map<Integer, NodeConnection> m_hostIdToConnection = new ConcurrentHashMap<>();
     private final AtomicReference<ImmutableSortedMap<String, Procedure>> m_procedureInfo =
                                 new AtomicReference<ImmutableSortedMap<String, Procedure>>();
     private final AtomicReference<ImmutableSet<Integer>> m_partitionKeys = new AtomicReference<ImmutableSet<Integer>>();
@@ -144,13 +185,13 @@ class Distributer {
     private final AtomicReference<ClientResponse> m_partitionUpdateStatus = new AtomicReference<ClientResponse>();
 
     //This is the instance of the Hashinator we picked from TOPO used only for client affinity.
-    private HashinatorLite m_hashinator = null;
+    private volatile HashinatorLite m_hashinator = null;
     //This is a global timeout that will be used if a per-procedure timeout is not provided with the procedure call.
     private final long m_procedureCallTimeoutNanos;
     private static final long MINIMUM_LONG_RUNNING_SYSTEM_CALL_TIMEOUT_MS = 30 * 60 * 1000; // 30 minutes
     private final long m_connectionResponseTimeoutNanos;
-    private final Map<Integer, ClientAffinityStats> m_clientAffinityStats =
-        new HashMap<>();
+    private final ConcurrentMap<Integer, AffinityCounters> m_clientAffinityStats =
+        new ConcurrentHashMap<>();
 
     public final RateLimiter m_rateLimiter = new RateLimiter();
 
@@ -320,11 +361,8 @@ class Distributer {
         @Override
         public void run() {
             try {
-                // make a threadsafe copy of all connections
-                ArrayList<NodeConnection> connections = new ArrayList<>();
-                synchronized (Distributer.this) {
-                    connections.addAll(m_connections);
-                }
+                // the snapshot is immutable, no need to copy it
+                final NodeConnection[] connections = m_connectionSnapshot;
 
                 final long nowNanos = System.nanoTime();
 
@@ -795,6 +833,8 @@ class Distributer {
                 }
 
                 m_connections.remove(this);
+                publishConnections();
+                publishAffinityTopology();
                 //Notify listeners that a connection has been lost
                 for (ClientStatusListenerExt s : m_listeners) {
                     s.connectionLost(
@@ -1046,12 +1086,11 @@ class Distributer {
             m_buildString = (String)socketChannelAndInstanceIdAndBuildString[2];
 
             m_connections.add(cxn);
+            publishConnections();
         }
 
         if (m_useClientAffinity) {
-            synchronized (this) {
-                m_hostIdToConnection.put(hostId, cxn);
-            }
+            m_hostIdToConnection.put(hostId, cxn);
 
             if (m_subscribedConnection == null) {
                 subscribeToNewNode();
@@ -1142,140 +1181,191 @@ class Distributer {
         assert(invocation != null);
         assert(cb != null);
 
-        NodeConnection cxn = null;
-        boolean backpressure = true;
+        if (m_connectionSnapshot.length == 0) {
+            throw new NoConnectionsException("No connections.");
+        }
 
         /*
-         * Synchronization is necessary to ensure that m_connections is not modified
-         * as well as to ensure that backpressure is reported correctly
+         * Route without holding the distributer monitor. Only if every candidate connection
+         * reports backpressure do we fall back to the monitor, re-check under it and notify
+         * the listeners, which ensures that backpressure is not reported AFTER the write stream
+         * reported (under the same monitor) that backpressure has ended.
          */
-        synchronized (this) {
-            final int totalConnections = m_connections.size();
+        NodeConnection cxn = selectConnection(invocation, m_connectionSnapshot, ignoreBackpressure, true);
+        if (cxn == null) {
+            synchronized (this) {
+                final NodeConnection[] connections = m_connectionSnapshot;
+                if (connections.length == 0) {
+                    throw new NoConnectionsException("No connections.");
+                }
+                cxn = selectConnection(invocation, connections, ignoreBackpressure, false);
+                if (cxn == null) {
+                    for (ClientStatusListenerExt s : m_listeners) {
+                        s.backpressure(true);
+                    }
+                }
+            }
+        }
+        final boolean backpressure = (cxn == null);
 
-            if (totalConnections == 0) {
-                throw new NoConnectionsException("No connections.");
+        /*
+         * Do the heavy weight serialization before touching the connection.
+         * createWork only contends on the write stream of an individual connection.
+         */
+        if (cxn != null) {
+            ByteBuffer buf = null;
+            try {
+                buf = serializeSPI(invocation);
+            } catch (Exception e) {
+                Throwables.propagate(e);
             }
+            cxn.createWork(nowNanos, invocation.getHandle(), invocation.getProcName(), buf, cb, ignoreBackpressure, timeoutNanos);
+        }
+        if (m_topologyChangeAware) {
+            createConnectionsUponTopologyChange();
+        }
+        return !backpressure;
+    }
 
-            /*
-             * Check if the master for the partition is known. No back pressure check to ensure correct
-             * routing, but backpressure will be managed anyways. This is where we guess partition based on client
-             * affinity and known topology (hashinator initialized).
-             */
-            if (m_useClientAffinity && (m_hashinator != null)) {
-                final ImmutableSortedMap<String, Procedure> procedures = m_procedureInfo.get();
-                Procedure procedureInfo = null;
-                if (procedures != null) {
-                    procedureInfo = procedures.get(invocation.getProcName());
+    /**
+     * Pick the connection an invocation should be sent on, using client affinity when the
+     * topology is known and round-robin otherwise.
+     * @param invocation The invocation to route
+     * @param connections Snapshot of the connections to choose from
+     * @param ignoreBackpressure If true a connection with backpressure may be returned
+     * @param updateStats If true count the routing decision in the client affinity stats
+     * @return The connection or null if all candidate connections have backpressure
+     */
+    private NodeConnection selectConnection(
+            ProcedureInvocation invocation,
+            NodeConnection[] connections,
+            boolean ignoreBackpressure,
+            boolean updateStats) {
+        NodeConnection cxn = null;
+        boolean backpressure = true;
+
+        /*
+         * Check if the master for the partition is known. No back pressure check to ensure correct
+         * routing, but backpressure will be managed anyways. This is where we guess partition based on client
+         * affinity and known topology (hashinator initialized).
+         */
+        final AffinityTopology topology = m_affinityTopology;
+        if (m_useClientAffinity && (topology != null) && (topology.hashinator != null)) {
+            final ImmutableSortedMap<String, Procedure> procedures = m_procedureInfo.get();
+            Procedure procedureInfo = null;
+            if (procedures != null) {
+                procedureInfo = procedures.get(invocation.getProcName());
+            }
+            Integer hashedPartition = -1;
+
+            if (procedureInfo != null) {
+                hashedPartition = Constants.MP_INIT_PID;
+                if (( ! procedureInfo.multiPart) &&
+                    // User may have passed too few parameters to allow dispatching.
+                    // Avoid an indexing error here to fall through to the proper ProcCallException.
+                        (procedureInfo.partitionParameter < invocation.getPassedParamCount())) {
+                    hashedPartition = topology.hashinator.getHashedPartitionForParameter(
+                            procedureInfo.partitionParameterType,
+                            invocation.getPartitionParamValue(procedureInfo.partitionParameter));
                 }
-                Integer hashedPartition = -1;
-
-                if (procedureInfo != null) {
-                    hashedPartition = Constants.MP_INIT_PID;
-                    if (( ! procedureInfo.multiPart) &&
-                        // User may have passed too few parameters to allow dispatching.
-                        // Avoid an indexing error here to fall through to the proper ProcCallException.
-                            (procedureInfo.partitionParameter < invocation.getPassedParamCount())) {
-                        hashedPartition = m_hashinator.getHashedPartitionForParameter(
-                                procedureInfo.partitionParameterType,
-                                invocation.getPartitionParamValue(procedureInfo.partitionParameter));
-                    }
-                    /*
-                     * If the procedure is read only and single part and the user wants it, load balance across replicas
-                     * This is probably slower for SAFE consistency.
-                     */
-                    if (!procedureInfo.multiPart && procedureInfo.readOnly && m_sendReadsToReplicasBytDefaultIfCAEnabled) {
-                        NodeConnection partitionReplicas[] = m_partitionReplicas.get(hashedPartition);
-                        if (partitionReplicas != null && partitionReplicas.length > 0) {
-                            cxn = partitionReplicas[ThreadLocalRandom.current().nextInt(partitionReplicas.length)];
-                            if (cxn.hadBackPressure()) {
-                                //See if there is one without backpressure, make sure it's still connected
-                                for (NodeConnection nc : partitionReplicas) {
-                                    if (!nc.hadBackPressure() && nc.m_isConnected) {
-                                        cxn = nc;
-                                        break;
-                                    }
+                /*
+                 * If the procedure is read only and single part and the user wants it, load balance across replicas
+                 * This is probably slower for SAFE consistency.
+                 */
+                if (!procedureInfo.multiPart && procedureInfo.readOnly && m_sendReadsToReplicasBytDefaultIfCAEnabled) {
+                    NodeConnection partitionReplicas[] = topology.partitionReplicas.get(hashedPartition);
+                    if (partitionReplicas != null && partitionReplicas.length > 0) {
+                        cxn = partitionReplicas[ThreadLocalRandom.current().nextInt(partitionReplicas.length)];
+                        if (cxn.hadBackPressure()) {
+                            //See if there is one without backpressure, make sure it's still connected
+                            for (NodeConnection nc : partitionReplicas) {
+                                if (!nc.hadBackPressure() && nc.m_isConnected) {
+                                    cxn = nc;
+                                    break;
                                 }
                             }
-                            if (!cxn.hadBackPressure() || ignoreBackpressure) {
-                                backpressure = false;
-                            }
                         }
-                    } else {
-                        /*
-                         * For writes or SAFE reads, this is the best way to go
-                         */
-                        cxn = m_partitionMasters.get(hashedPartition);
-                        if (cxn != null && !cxn.hadBackPressure() || ignoreBackpressure) {
+                        if (!cxn.hadBackPressure() || ignoreBackpressure) {
                             backpressure = false;
                         }
                     }
-                }
-                if (cxn != null && !cxn.m_isConnected) {
-                    // Would be nice to log something here
-                    // Client affinity picked a connection that was actually disconnected.  Reset to null
-                    // and let the round-robin choice pick a connection
-                    cxn = null;
-                }
-                ClientAffinityStats stats = m_clientAffinityStats.get(hashedPartition);
-                if (stats == null) {
-                    stats = new ClientAffinityStats(hashedPartition, 0, 0, 0, 0);
-                    m_clientAffinityStats.put(hashedPartition, stats);
-                }
-                if (cxn != null) {
-                    if (procedureInfo != null && procedureInfo.readOnly) {
-                        stats.addAffinityRead();
-                    }
-                    else {
-                        stats.addAffinityWrite();
+                } else {
+                    /*
+                     * For writes or SAFE reads, this is the best way to go
+                     */
+                    cxn = topology.partitionMasters.get(hashedPartition);
+                    if (cxn != null && !cxn.hadBackPressure() || ignoreBackpressure) {
+                        backpressure = false;
                     }
                 }
+            }
+            if (cxn != null && !cxn.m_isConnected) {
+                // Would be nice to log something here
+                // Client affinity picked a connection that was actually disconnected.  Reset to null
+                // and let the round-robin choice pick a connection
+                cxn = null;
+            }
+            if (updateStats) {
                 // account these here because we lose the partition ID and procedure info once we
                 // bust out of this scope.
-                else {
-                    if (procedureInfo != null && procedureInfo.readOnly) {
-                        stats.addRrRead();
-                    }
-                    else {
-                        stats.addRrWrite();
-                    }
-                }
+                countAffinityRouting(hashedPartition, cxn != null, procedureInfo != null && procedureInfo.readOnly);
             }
-            if (cxn == null) {
-                for (int i=0; i < totalConnections; ++i) {
-                    cxn = m_connections.get(Math.abs(++m_nextConnection % totalConnections));
-                    if (!cxn.hadBackPressure() || ignoreBackpressure) {
-                        // serialize and queue the invocation
-                        backpressure = false;
-                        break;
-                    }
+        }
+        if (cxn == null) {
+            final int totalConnections = connections.length;
+            for (int i=0; i < totalConnections; ++i) {
+                cxn = connections[Math.abs(m_nextConnection.incrementAndGet() % totalConnections)];
+                if (!cxn.hadBackPressure() || ignoreBackpressure) {
+                    // serialize and queue the invocation
+                    backpressure = false;
+                    break;
                 }
             }
+        }
+        return backpressure ? null : cxn;
+    }
 
-            if (backpressure) {
-                cxn = null;
-                for (ClientStatusListenerExt s : m_listeners) {
-                    s.backpressure(true);
-                }
+    private void countAffinityRouting(Integer partition, boolean usedAffinity, boolean readOnly) {
+        AffinityCounters counters = m_clientAffinityStats.get(partition);
+        if (counters == null) {
+            final AffinityCounters newCounters = new AffinityCounters();
+            counters = m_clientAffinityStats.putIfAbsent(partition, newCounters);
+            if (counters == null) {
+                counters = newCounters;
             }
         }
-
-        /*
-         * Do the heavy weight serialization outside the synchronized block.
-         * createWork synchronizes on an individual connection which allows for more concurrency
-         */
-        if (cxn != null) {
-            ByteBuffer buf = null;
-            try {
-                buf = serializeSPI(invocation);
-            } catch (Exception e) {
-                Throwables.propagate(e);
+        if (usedAffinity) {
+            if (readOnly) {
+                counters.affinityReads.incrementAndGet();
+            }
+            else {
+                counters.affinityWrites.incrementAndGet();
             }
-            cxn.createWork(nowNanos, invocation.getHandle(), invocation.getProcName(), buf, cb, ignoreBackpressure, timeoutNanos);
         }
-        if (m_topologyChangeAware) {
-            createConnectionsUponTopologyChange();
+        else {
+            if (readOnly) {
+                counters.rrReads.incrementAndGet();
+            }
+            else {
+                counters.rrWrites.incrementAndGet();
+            }
         }
-        return !backpressure;
+    }
+
+    /**
+     * Republish the connection list for the submission path. Must hold the distributer monitor.
+     */
+    private void publishConnections() {
+        assert(Thread.holdsLock(this));
+        m_connectionSnapshot = m_connections.toArray(new NodeConnection[0]);
+    }
+
+    /**
+     * Republish the client affinity routing state for the submission path. Must hold the distributer monitor.
+     */
+    private void publishAffinityTopology() {
+        assert(Thread.holdsLock(this));
+        m_affinityTopology = new AffinityTopology(m_hashinator, m_partitionMasters, m_partitionReplicas);
     }
 
     /**
@@ -1318,13 +1408,11 @@ class Distributer {
         }
     }
 
-    synchronized void addClientStatusListener(ClientStatusListenerExt listener) {
-        if (!m_listeners.contains(listener)) {
-            m_listeners.add(listener);
-        }
+    void addClientStatusListener(ClientStatusListenerExt listener) {
+        m_listeners.addIfAbsent(listener);
     }
 
-    synchronized boolean removeClientStatusListener(ClientStatusListenerExt listener) {
+    boolean removeClientStatusListener(ClientStatusListenerExt listener) {
         return m_listeners.remove(listener);
     }
 
@@ -1378,11 +1466,12 @@ class Distributer {
     Map<Integer, ClientAffinityStats> getAffinityStatsSnapshot()
     {
         Map<Integer, ClientAffinityStats> retval = new HashMap<>();
-        // these get modified under this lock in queue()
-        synchronized(this) {
-            for (Entry<Integer, ClientAffinityStats> e : m_clientAffinityStats.entrySet()) {
-                retval.put(e.getKey(), (ClientAffinityStats)e.getValue().clone());
-            }
+        // these get modified concurrently by queue(), each counter is read once
+        for (Entry<Integer, AffinityCounters> e : m_clientAffinityStats.entrySet()) {
+            final AffinityCounters counters = e.getValue();
+            retval.put(e.getKey(), new ClientAffinityStats(e.getKey(),
+                    counters.affinityWrites.get(), counters.rrWrites.get(),
+                    counters.affinityReads.get(), counters.rrReads.get()));
         }
         return retval;
     }
@@ -1471,6 +1560,7 @@ class Distributer {
                 m_partitionMasters.put(partition, m_hostIdToConnection.get(leaderHostId));
             }
         }
+        publishAffinityTopology();
         if (m_topologyChangeAware) {
             m_unconnectedHosts.set(ImmutableSet.copyOf(unconnected));
         }
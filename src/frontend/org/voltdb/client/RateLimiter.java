@@ -40,7 +40,7 @@ class RateLimiter {
     final int MINIMUM_MOVEMENT = 5;
 
     //Boolean indicating whether the only thing being tracked is max outstanding
-    protected boolean m_doesAnyTuning = false;
+    protected volatile boolean m_doesAnyTuning = false;
     protected boolean m_autoTune = false;
     protected int m_targetTxnsPerSecond = Integer.MAX_VALUE;
     //protected int m_targetTxnsPerBlock = Integer.MAX_VALUE;
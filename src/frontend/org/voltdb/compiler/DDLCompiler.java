@@ -1785,8 +1785,12 @@ public class DDLCompiler {
         // - Covering cell index (geo index for CONTAINS predicates)
         // - HASH index (set in HSQL because "hash" is in the name of the
         //   constraint or the index
+        // - BTREE index (set in HSQL because "btree" is in the name of the
+        //   constraint or the index), a B+tree that is used in place of the
+        //   TREE index when the key is made of integers only
         // - TREE index, which is the default
         boolean isHashIndex = node.attributes.get("ishashindex").equals("true");
+        boolean isBTreeIndex = "true".equals(node.attributes.get("isbtreeindex"));
         if (has_geo_col) {
             index.setType(IndexType.COVERING_CELL_INDEX.getValue());
         }
@@ -1803,6 +1807,10 @@ public class DDLCompiler {
             }
             index.setType(IndexType.HASH_TABLE.getValue());
         }
+        else if (isBTreeIndex) {
+            // The B+tree does not keep ranks, so it can't serve counting plans
+            index.setType(IndexType.BTREE.getValue());
+        }
         else {
             index.setType(IndexType.BALANCED_TREE.getValue());
             index.setCountable(true);
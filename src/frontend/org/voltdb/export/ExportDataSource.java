@@ -113,6 +113,12 @@ public class ExportDataSource implements Comparable<ExportDataSource> {
 
     private long m_firstUnpolledSeqNo = 1L; // sequence number starts from 1
     private long m_lastReleasedSeqNo = 0L;
+    // Last sequence number of the most recently polled container
+    private long m_lastPolledSeqNo = 0L;
+    // Containers polled but not yet acked or requeued, more than one when a decoder pipelines blocks
+    private int m_outstandingContainers = 0;
+    // Containers acked out of order, acks are released once there is no gap before them
+    private final ExportSequenceNumberTracker m_outOfOrderAcks = new ExportSequenceNumberTracker();
     // End sequence number of most recently pushed export buffer
     private long m_lastPushedSeqNo = 0L;
     // Relinquish export master after this sequence number
@@ -138,7 +144,7 @@ public class ExportDataSource implements Comparable<ExportDataSource> {
             new AtomicReference<>(Pair.of((Mailbox)null, ImmutableList.<Long>builder().build()));
     private final Semaphore m_bufferPushPermits = new Semaphore(16);
 
-    private volatile ListeningExecutorService m_es;
+    private volatile ExportExecutorPool.SerialExecutor m_es;
     // A place to keep unfinished export buffer when processor shuts down.
     private final AtomicReference<AckingContainer> m_pendingContainer = new AtomicReference<>();
     // Is EDS from catalog or from disk pdb?
@@ -298,8 +304,8 @@ public class ExportDataSource implements Comparable<ExportDataSource> {
                 exportLog.debug(toString() + " is a replicated export stream");
             }
         }
-        m_es = CoreUtils.getListeningExecutorService("ExportDataSource for table " +
-                    m_tableName + " partition " + m_partitionId, 1);
+        m_es = ExportExecutorPool.newSerialExecutor("ExportDataSource for table " +
+                m_tableName + " partition " + m_partitionId);
     }
 
     public ExportDataSource(Generation generation, File adFile,
@@ -375,8 +381,8 @@ public class ExportDataSource implements Comparable<ExportDataSource> {
                 exportLog.debug(toString() + " is a replicated export stream");
             }
         }
-        m_es = CoreUtils.getListeningExecutorService("ExportDataSource for table " +
-                m_tableName + " partition " + m_partitionId, 1);
+        m_es = ExportExecutorPool.newSerialExecutor("ExportDataSource for table " +
+                m_tableName + " partition " + m_partitionId);
     }
 
     public void setReadyForPolling(boolean readyForPolling) {
@@ -615,10 +621,12 @@ public class ExportDataSource implements Comparable<ExportDataSource> {
                 } else {
                     exportingRole = (m_mastershipAccepted.get() ? "TRUE" : "FALSE");
                 }
+                Pair<Long, Long> queueDelay = m_es.getQueueDelayMicros(interval);
                 return new ExportStatsRow(m_partitionId, m_siteId, m_tableName, m_exportTargetName,
                         exportingRole, m_tupleCount, m_tuplesPending.get(),
                         m_lastQueuedTimestamp, m_lastAckedTimestamp,
-                        avgLatency, maxLatency, m_queueGap, m_status.toString());
+                        avgLatency, maxLatency, m_queueGap, m_status.toString(),
+                        queueDelay.getFirst(), queueDelay.getSecond());
             }
         });
     }
@@ -923,6 +931,7 @@ public class ExportDataSource implements Comparable<ExportDataSource> {
         try {
             cleanupEmptySource();
             StreamBlock first_unpolled_block = null;
+            long startSeqNo = 0;
             //Assemble a list of blocks to delete so that they can be deleted
             //outside of the m_committedBuffers critical section
             ArrayList<StreamBlock> blocksToDelete = new ArrayList<>();
@@ -941,9 +950,16 @@ public class ExportDataSource implements Comparable<ExportDataSource> {
                     if (firstUnpolledSeq >= block.startSequenceNumber() &&
                             firstUnpolledSeq <= block.lastSequenceNumber()) {
                         first_unpolled_block = block;
+                        // Consecutive containers cover contiguous ranges, even across a skipped gap,
+                        // so out of order acks can always catch up
+                        startSeqNo = Math.min(firstUnpolledSeq, m_lastPolledSeqNo + 1);
                         m_firstUnpolledSeqNo = block.lastSequenceNumber() + 1;
                         break;
                     } else if (firstUnpolledSeq > block.lastSequenceNumber()) {
+                        // Blocks still in flight in a pipelined decoder are kept until they are acked
+                        if (m_outstandingContainers > 0 && block.lastSequenceNumber() > m_lastReleasedSeqNo) {
+                            continue;
+                        }
                         blocksToDelete.add(block);
                         iter.remove();
                         if (exportLog.isDebugEnabled()) {
@@ -997,9 +1013,11 @@ public class ExportDataSource implements Comparable<ExportDataSource> {
                     setStatus(StreamStatus.ACTIVE);
                     m_queueGap = 0;
                 }
+                final long lastSeqNo = first_unpolled_block.startSequenceNumber() + first_unpolled_block.rowCount() - 1;
                 final AckingContainer ackingContainer =
-                        new AckingContainer(first_unpolled_block.unreleasedContainer(),
-                                first_unpolled_block.startSequenceNumber() + first_unpolled_block.rowCount() - 1);
+                        new AckingContainer(first_unpolled_block.unreleasedContainer(), startSeqNo, lastSeqNo);
+                m_lastPolledSeqNo = lastSeqNo;
+                m_outstandingContainers++;
                 try {
                     fut.set(ackingContainer);
                 } catch (RejectedExecutionException reex) {
@@ -1013,12 +1031,14 @@ public class ExportDataSource implements Comparable<ExportDataSource> {
     }
 
     public class AckingContainer extends BBContainer {
+        final long m_startSeqNo;
         final long m_lastSeqNo;
         final BBContainer m_backingCont;
         long m_startTime = 0;
 
-        public AckingContainer(BBContainer cont, long seq) {
+        public AckingContainer(BBContainer cont, long startSeq, long seq) {
             super(cont.b());
+            m_startSeqNo = startSeq;
             m_lastSeqNo = seq;
             m_backingCont = cont;
         }
@@ -1029,13 +1049,27 @@ public class ExportDataSource implements Comparable<ExportDataSource> {
 
         @Override
         public void discard() {
+            ack(false);
+        }
+
+        /**
+         * Ack a container while containers polled before it may still be in flight. The
+         * data source is released up to the container once every container before it has
+         * been acked.
+         */
+        public void discardOutOfOrder() {
+            ack(true);
+        }
+
+        private void ack(final boolean outOfOrder) {
             checkDoubleFree();
             try {
                 m_es.execute(new Runnable() {
                     @Override
                     public void run() {
                         if (exportLog.isTraceEnabled()) {
-                            exportLog.trace("AckingContainer.discard with sequence number: " + m_lastSeqNo);
+                            exportLog.trace("AckingContainer.discard with sequence number: " + m_lastSeqNo +
+                                    (outOfOrder ? " out of order" : ""));
                         }
                         assert(m_startTime != 0);
                         long elapsedMS = System.currentTimeMillis() - m_startTime;
@@ -1045,15 +1079,27 @@ public class ExportDataSource implements Comparable<ExportDataSource> {
                         if (m_averageLatency > m_maxLatency) {
                             m_maxLatency = m_averageLatency;
                         }
+                        m_outstandingContainers--;
 
                         try {
                              m_backingCont.discard();
+                            long ackSeqNo = m_lastSeqNo;
+                            if (outOfOrder) {
+                                m_outOfOrderAcks.addRange(m_lastReleasedSeqNo, m_lastReleasedSeqNo);
+                                m_outOfOrderAcks.addRange(m_startSeqNo, m_lastSeqNo);
+                                m_outOfOrderAcks.truncate(m_lastReleasedSeqNo);
+                                ackSeqNo = m_outOfOrderAcks.getSafePoint();
+                                if (ackSeqNo <= m_lastReleasedSeqNo) {
+                                    // Still waiting on a container polled before this one
+                                    return;
+                                }
+                            }
                             try {
                                 if (!m_es.isShutdown()) {
-                                    ackImpl(m_lastSeqNo);
+                                    ackImpl(ackSeqNo);
                                 }
                             } finally {
-                                forwardAckToOtherReplicas(m_lastSeqNo);
+                                forwardAckToOtherReplicas(ackSeqNo);
                             }
                         } catch (Exception e) {
                             exportLog.error("Error acking export buffer", e);
@@ -1068,6 +1114,34 @@ public class ExportDataSource implements Comparable<ExportDataSource> {
                   m_backingCont.discard();
             }
         }
+
+        /**
+         * Give the container back without acking it. Polling restarts from the first sequence
+         * number that hasn't been acked, so containers polled after this one are polled again.
+         */
+        public void requeue() {
+            checkDoubleFree();
+            try {
+                m_es.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        m_outstandingContainers--;
+                        m_backingCont.discard();
+                        synchronized (ExportDataSource.this) {
+                            if (exportLog.isDebugEnabled()) {
+                                exportLog.debug("Requeued export buffer [" + m_startSeqNo + "," + m_lastSeqNo +
+                                        "], next seqNo to poll is " + (m_lastReleasedSeqNo + 1));
+                            }
+                            m_firstUnpolledSeqNo = m_lastReleasedSeqNo + 1;
+                            m_lastPolledSeqNo = m_lastReleasedSeqNo;
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException rej) {
+                exportLog.info("Requeueing export data task rejected, this should be harmless");
+                m_backingCont.discard();
+            }
+        }
     }
 
     public void forwardAckToOtherReplicas() {
@@ -0,0 +1,262 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb.export;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.voltcore.logging.VoltLogger;
+import org.voltcore.utils.CoreUtils;
+import org.voltcore.utils.Pair;
+
+import com.google_voltpatches.common.base.Preconditions;
+import com.google_voltpatches.common.util.concurrent.AbstractListeningExecutorService;
+
+/**
+ * A bounded work stealing pool shared by every export stream on the host. Each stream
+ * partition used to own a thread, which with hundreds of streams and dozens of partitions
+ * meant thousands of mostly idle threads. A {@link SerialExecutor} keeps the one task at a
+ * time ordering those threads provided while running on the shared pool.
+ */
+public final class ExportExecutorPool {
+    private static final VoltLogger exportLog = new VoltLogger("EXPORT");
+
+    static final int THREADS = Integer.getInteger("EXPORT_EXECUTOR_THREADS",
+            Math.max(2, Math.min(CoreUtils.availableProcessors(), 16)));
+    // Number of tasks an executor runs before letting the other executors have the thread
+    static final int FAIRNESS_QUANTUM = Integer.getInteger("EXPORT_EXECUTOR_QUANTUM", 16);
+
+    private static final ForkJoinPool s_pool = new ForkJoinPool(THREADS, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+        private final AtomicInteger m_threadId = new AtomicInteger();
+
+        @Override
+        public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("Export executor - " + m_threadId.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }, null, true);
+
+    private ExportExecutorPool() {}
+
+    public static SerialExecutor newSerialExecutor(String name) {
+        return new SerialExecutor(name);
+    }
+
+    /**
+     * Wait for a future. Tasks of the pool that have to wait on something, such as the
+     * I/O of a file export client, wait through here so that the pool adds a thread for
+     * the other executors rather than have every worker wait.
+     */
+    public static <V> V await(final Future<V> future) throws InterruptedException, ExecutionException {
+        ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+            @Override
+            public boolean block() throws InterruptedException {
+                try {
+                    future.get();
+                } catch (ExecutionException ignore) {
+                    // Thrown to the caller by the get below
+                }
+                return true;
+            }
+
+            @Override
+            public boolean isReleasable() {
+                return future.isDone();
+            }
+        });
+        return future.get();
+    }
+
+    /**
+     * Runs its tasks one at a time in submission order on the shared pool. Tasks are queued
+     * here rather than in the pool so that a busy stream only ever holds one pool thread and
+     * gives it up every {@link #FAIRNESS_QUANTUM} tasks.
+     */
+    public static final class SerialExecutor extends AbstractListeningExecutorService {
+        private final String m_name;
+        private final ArrayDeque<QueuedTask> m_tasks = new ArrayDeque<>();
+        private final CountDownLatch m_terminated = new CountDownLatch(1);
+        // Drainer is queued on or running in the pool
+        private boolean m_scheduled = false;
+        private boolean m_shutdown = false;
+
+        // Queueing delay, only touched by tasks of this executor
+        private long m_tasksSinceClear = 0;
+        private long m_delayNanosSinceClear = 0;
+        private long m_maxDelayNanosSinceClear = 0;
+        private long m_overallTasks = 0;
+        private long m_overallDelayNanos = 0;
+        private long m_overallMaxDelayNanos = 0;
+
+        private final Runnable m_drainer = new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < FAIRNESS_QUANTUM; i++) {
+                    QueuedTask task;
+                    synchronized (SerialExecutor.this) {
+                        task = m_tasks.poll();
+                        if (task == null) {
+                            m_scheduled = false;
+                            if (m_shutdown) {
+                                m_terminated.countDown();
+                            }
+                            return;
+                        }
+                    }
+                    recordDelay(System.nanoTime() - task.m_queuedNanos);
+                    try {
+                        task.m_task.run();
+                    } catch (Throwable t) {
+                        exportLog.error("Unexpected error running task on " + m_name, t);
+                    }
+                }
+                // Go to the back of the pool so other executors get a turn
+                s_pool.execute(this);
+            }
+        };
+
+        private SerialExecutor(String name) {
+            m_name = name;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            Preconditions.checkNotNull(command);
+            synchronized (this) {
+                if (m_shutdown) {
+                    throw new RejectedExecutionException(m_name + " has been shut down");
+                }
+                m_tasks.add(new QueuedTask(command, System.nanoTime()));
+                if (m_scheduled) {
+                    return;
+                }
+                m_scheduled = true;
+            }
+            s_pool.execute(m_drainer);
+        }
+
+        private void recordDelay(long delayNanos) {
+            m_tasksSinceClear++;
+            m_delayNanosSinceClear += delayNanos;
+            m_maxDelayNanosSinceClear = Math.max(m_maxDelayNanosSinceClear, delayNanos);
+        }
+
+        /**
+         * Must be called from a task of this executor.
+         * @return The average and maximum time in microseconds tasks waited before running
+         */
+        public Pair<Long, Long> getQueueDelayMicros(boolean interval) {
+            long tasks = m_tasksSinceClear;
+            long delayNanos = m_delayNanosSinceClear;
+            long maxDelayNanos = m_maxDelayNanosSinceClear;
+            if (interval) {
+                m_overallTasks += m_tasksSinceClear;
+                m_overallDelayNanos += m_delayNanosSinceClear;
+                m_overallMaxDelayNanos = Math.max(m_overallMaxDelayNanos, m_maxDelayNanosSinceClear);
+                m_tasksSinceClear = 0;
+                m_delayNanosSinceClear = 0;
+                m_maxDelayNanosSinceClear = 0;
+            } else {
+                tasks += m_overallTasks;
+                delayNanos += m_overallDelayNanos;
+                maxDelayNanos = Math.max(maxDelayNanos, m_overallMaxDelayNanos);
+            }
+            long avgDelayNanos = tasks > 0 ? delayNanos / tasks : 0;
+            return Pair.of(TimeUnit.NANOSECONDS.toMicros(avgDelayNanos), TimeUnit.NANOSECONDS.toMicros(maxDelayNanos));
+        }
+
+        @Override
+        public synchronized void shutdown() {
+            m_shutdown = true;
+            if (!m_scheduled) {
+                m_terminated.countDown();
+            }
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            List<Runnable> pending = new ArrayList<>();
+            synchronized (this) {
+                shutdown();
+                for (QueuedTask task : m_tasks) {
+                    pending.add(task.m_task);
+                }
+                m_tasks.clear();
+            }
+            return pending;
+        }
+
+        @Override
+        public synchronized boolean isShutdown() {
+            return m_shutdown;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return m_terminated.getCount() == 0;
+        }
+
+        /**
+         * Decoders wait for each other's executors when a source goes away, so a wait on a pool
+         * thread lets the pool add a thread for the executor that is being waited on.
+         */
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            final long deadline = System.nanoTime() + unit.toNanos(timeout);
+            ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                @Override
+                public boolean block() throws InterruptedException {
+                    m_terminated.await(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    return true;
+                }
+
+                @Override
+                public boolean isReleasable() {
+                    return isTerminated() || deadline - System.nanoTime() <= 0;
+                }
+            });
+            return isTerminated();
+        }
+
+        @Override
+        public String toString() {
+            return m_name;
+        }
+    }
+
+    private static final class QueuedTask {
+        final Runnable m_task;
+        final long m_queuedNanos;
+
+        QueuedTask(Runnable task, long queuedNanos) {
+            m_task = task;
+            m_queuedNanos = queuedNanos;
+        }
+    }
+}
@@ -225,6 +225,8 @@ public class ExportManager
             rowValues[columnNameToIndex.get(Columns.MAX_LATENCY)] = stat.m_maxLatency;
             rowValues[columnNameToIndex.get(Columns.QUEUE_GAP)] = stat.m_queueGap;
             rowValues[columnNameToIndex.get(Columns.STATUS)] = stat.m_status;
+            rowValues[columnNameToIndex.get(Columns.AVERAGE_QUEUE_DELAY)] = stat.m_averageQueueDelay;
+            rowValues[columnNameToIndex.get(Columns.MAX_QUEUE_DELAY)] = stat.m_maxQueueDelay;
         }
 
         public ExportStatsRow getStatsRow(Object rowKey) {
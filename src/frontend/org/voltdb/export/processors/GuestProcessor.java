@@ -30,6 +30,7 @@ import java.util.Properties;
 import java.util.Set;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 import org.voltcore.logging.VoltLogger;
 import org.voltcore.utils.Pair;
@@ -42,12 +43,17 @@ import org.voltdb.export.ExportDataSource.AckingContainer;
 import org.voltdb.export.ExportDataSource.ReentrantPollException;
 import org.voltdb.export.ExportGeneration;
 import org.voltdb.export.StreamBlockQueue;
+import org.voltdb.exportclient.ColumnarExportDecoder;
 import org.voltdb.exportclient.ExportClientBase;
+import org.voltdb.exportclient.ExportColumnBatch;
 import org.voltdb.exportclient.ExportDecoderBase;
 import org.voltdb.exportclient.ExportDecoderBase.RestartBlockException;
 import org.voltdb.exportclient.ExportRow;
+import org.voltdb.exportclient.PipelinedExportDecoder;
 
 import com.google_voltpatches.common.base.Preconditions;
+import com.google_voltpatches.common.util.concurrent.FutureCallback;
+import com.google_voltpatches.common.util.concurrent.Futures;
 import com.google_voltpatches.common.util.concurrent.ListenableFuture;
 
 public class GuestProcessor implements ExportDataProcessor {
@@ -64,7 +70,6 @@ public class GuestProcessor implements ExportDataProcessor {
 
     private final List<Pair<ExportDecoderBase, AdvertisedDataSource>> m_decoders = new ArrayList<Pair<ExportDecoderBase, AdvertisedDataSource>>();
 
-    private final long m_startTS = System.currentTimeMillis();
     private volatile boolean m_startPolling = false;
 
     // Instantiated at ExportManager
@@ -224,8 +229,12 @@ public class GuestProcessor implements ExportDataProcessor {
             detectDecoder(m_client, edb);
             Pair<ExportDecoderBase, AdvertisedDataSource> pair = Pair.of(edb, ads);
             m_decoders.add(pair);
+            BlockPipeline pipeline = null;
+            if (edb instanceof PipelinedExportDecoder && ((PipelinedExportDecoder) edb).getMaxBlocksInFlight() > 1) {
+                pipeline = new BlockPipeline(m_source, edb);
+            }
             final ListenableFuture<AckingContainer> fut = m_source.poll();
-            addBlockListener(m_source, fut, edb);
+            addBlockListener(m_source, fut, edb, pipeline);
             m_source.forwardAckToOtherReplicas();
         }
 
@@ -307,10 +316,103 @@ public class GuestProcessor implements ExportDataProcessor {
     }
 
 
+    /**
+     * Blocks handed to a {@link PipelinedExportDecoder} that the destination hasn't acknowledged
+     * yet. Only touched from the decoder executor.
+     */
+    private class BlockPipeline {
+        final ExportDataSource m_source;
+        final ExportDecoderBase m_edb;
+        final PipelinedExportDecoder m_decoder;
+        final int m_maxBlocksInFlight;
+        int m_blocksInFlight = 0;
+        // The next poll waits for a block in flight to complete, or for the backoff to end
+        boolean m_pollDeferred = false;
+        // A block failed, polling resumes once the retry is due
+        boolean m_backingOff = false;
+        int m_backoffQuantity = 10;
+
+        BlockPipeline(ExportDataSource source, ExportDecoderBase edb) {
+            m_source = source;
+            m_edb = edb;
+            m_decoder = (PipelinedExportDecoder) edb;
+            m_maxBlocksInFlight = m_decoder.getMaxBlocksInFlight();
+        }
+
+        boolean canPoll() {
+            if (m_blocksInFlight < m_maxBlocksInFlight && !m_backingOff) {
+                return true;
+            }
+            m_pollDeferred = true;
+            return false;
+        }
+
+        void blockSent(final AckingContainer cont, ListenableFuture<?> sent) {
+            m_blocksInFlight++;
+            Futures.addCallback(sent, new FutureCallback<Object>() {
+                @Override
+                public void onSuccess(Object result) {
+                    cont.discardOutOfOrder();
+                    m_backoffQuantity = 10;
+                    blockDone();
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    // The block and every block polled after it is polled again
+                    cont.requeue();
+                    if (m_shutdown) {
+                        blockDone();
+                        return;
+                    }
+                    m_logger.warn("Failed to send export block for " + m_source.getTableName() + " partition "
+                            + m_source.getPartitionId() + ", polling it again: " + t.getMessage());
+                    // Poll again once the backoff is over, without holding up the executor meanwhile
+                    m_backingOff = true;
+                    VoltDB.instance().scheduleWork(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                m_edb.getExecutor().execute(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        m_backingOff = false;
+                                        blockDone();
+                                    }
+                                });
+                            } catch (RejectedExecutionException e) {
+                                // The decoder is gone
+                            }
+                        }
+                    }, m_backoffQuantity, -1, TimeUnit.MILLISECONDS);
+                    //Cap backoff to 8 seconds, same as the in order retry
+                    m_backoffQuantity = Math.min(8000, m_backoffQuantity * 2);
+                }
+            }, m_edb.getExecutor());
+        }
+
+        private void blockDone() {
+            m_blocksInFlight--;
+            if (m_pollDeferred && !m_backingOff && !m_shutdown) {
+                m_pollDeferred = false;
+                addBlockListener(m_source, m_source.poll(), m_edb, this);
+            }
+        }
+    }
+
+    private static void ack(AckingContainer cont, BlockPipeline pipeline) {
+        if (pipeline == null) {
+            cont.discard();
+        } else {
+            cont.discardOutOfOrder();
+        }
+    }
+
     private void addBlockListener(
             final ExportDataSource source,
             final ListenableFuture<AckingContainer> fut,
-            final ExportDecoderBase edb) {
+            final ExportDecoderBase edb,
+            final BlockPipeline pipeline) {
         /*
          * The listener runs in the thread specified by the EDB.
          *
@@ -329,6 +431,7 @@ public class GuestProcessor implements ExportDataProcessor {
                     if (cont == null) {
                         return;
                     }
+                    ListenableFuture<?> sent = null;
                     try {
                         //Position to restart at on error
                         final int startPosition = cont.b().position();
@@ -362,43 +465,58 @@ public class GuestProcessor implements ExportDataProcessor {
                                     // Skip past the schema header because it has not changed.
                                     buf.position(buf.position() + schemaSize);
                                 }
-                                ExportRow row = null;
-                                boolean firstRowOfBlock = true;
-                                while (buf.hasRemaining() && !m_shutdown) {
-                                    int length = buf.getInt();
-                                    byte[] rowdata = new byte[length];
-                                    buf.get(rowdata, 0, length);
-                                    if (edb.isLegacy()) {
+                                if (edb.isLegacy()) {
+                                    boolean firstRowOfBlock = true;
+                                    while (buf.hasRemaining() && !m_shutdown) {
+                                        int length = buf.getInt();
+                                        byte[] rowdata = new byte[length];
+                                        buf.get(rowdata, 0, length);
                                         cont.updateStartTime(System.currentTimeMillis());
                                         if (firstRowOfBlock) {
-                                            edb.onBlockStart(row);
+                                            edb.onBlockStart(null);
                                             firstRowOfBlock = false;
                                         }
                                         edb.processRow(length, rowdata);
-                                    } else {
-                                        //New style connector.
-                                        try {
-                                            cont.updateStartTime(System.currentTimeMillis());
-                                            row = ExportRow.decodeRow(edb.getPreviousRow(), source.getPartitionId(), m_startTS, rowdata);
-                                            edb.setPreviousRow(row);
-                                        } catch (IOException ioe) {
-                                            m_logger.warn("Failed decoding row for partition" + source.getPartitionId() + ". " + ioe.getMessage());
-                                            cont.discard();
-                                            cont = null;
-                                            break;
+                                    }
+                                    edb.onBlockCompletion();
+                                } else {
+                                    //New style connector, the block is decoded into column vectors and row
+                                    //decoders get rows materialized from them.
+                                    final ExportColumnBatch batch = edb.getColumnBatch();
+                                    IOException decodeError = null;
+                                    try {
+                                        batch.decode(edb.getPreviousRow(), source.getPartitionId(), buf);
+                                    } catch (IOException ioe) {
+                                        decodeError = ioe;
+                                    }
+                                    final int rowCount = batch.getRowCount();
+                                    if (rowCount > 0) {
+                                        cont.updateStartTime(System.currentTimeMillis());
+                                        edb.onBlockStart(batch.getRow(0));
+                                        ExportRow row = null;
+                                        if (edb instanceof ColumnarExportDecoder) {
+                                            ((ColumnarExportDecoder) edb).processBatch(batch);
+                                            row = batch.getRow(rowCount - 1);
+                                        } else {
+                                            for (int i = 0; i < rowCount && !m_shutdown; i++) {
+                                                cont.updateStartTime(System.currentTimeMillis());
+                                                row = batch.getRow(i);
+                                                edb.processRow(row);
+                                            }
                                         }
-                                        if (firstRowOfBlock) {
-                                            edb.onBlockStart(row);
-                                            firstRowOfBlock = false;
+                                        if (pipeline != null) {
+                                            sent = pipeline.m_decoder.onBlockSent(row);
+                                        } else {
+                                            edb.onBlockCompletion(row);
+                                        }
+                                    }
+                                    if (decodeError != null) {
+                                        m_logger.warn("Failed decoding row for partition" + source.getPartitionId() + ". " + decodeError.getMessage());
+                                        if (sent == null) {
+                                            ack(cont, pipeline);
+                                            cont = null;
                                         }
-                                        edb.processRow(row);
                                     }
-                                }
-                                if (edb.isLegacy()) {
-                                    edb.onBlockCompletion();
-                                }
-                                if (row != null) {
-                                    edb.onBlockCompletion(row);
                                 }
                                 // Make sure to discard after onBlockCompletion so that if completion
                                 // wants to retry we don't lose block.
@@ -406,7 +524,11 @@ public class GuestProcessor implements ExportDataProcessor {
                                 // that container isn't fully consumed. Discard the buffer prematurely
                                 // would cause missing rows in export stream.
                                 if (!m_shutdown && cont != null) {
-                                    cont.discard();
+                                    if (sent != null) {
+                                        pipeline.blockSent(cont, sent);
+                                    } else {
+                                        ack(cont, pipeline);
+                                    }
                                     cont = null;
                                 }
                                 break;
@@ -441,7 +563,7 @@ public class GuestProcessor implements ExportDataProcessor {
                         }
                     } finally {
                         if (cont != null) {
-                            cont.discard();
+                            ack(cont, pipeline);
                         }
                     }
                 } catch (Exception e) {
@@ -453,8 +575,8 @@ public class GuestProcessor implements ExportDataProcessor {
                         m_logger.error("Error processing export block, continuing processing: ", e);
                     }
                 }
-                if (!m_shutdown) {
-                    addBlockListener(source, source.poll(), edb);
+                if (!m_shutdown && (pipeline == null || pipeline.canPoll())) {
+                    addBlockListener(source, source.poll(), edb, pipeline);
                 }
             }
         }, edb.getExecutor());
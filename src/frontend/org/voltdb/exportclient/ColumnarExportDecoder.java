@@ -0,0 +1,39 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb.exportclient;
+
+import org.voltdb.exportclient.ExportDecoderBase.RestartBlockException;
+
+/**
+ * Implemented by an {@link ExportDecoderBase} that would rather consume a whole export
+ * block as column vectors than one boxed {@link ExportRow} at a time. The block callbacks
+ * are unchanged, {@link ExportDecoderBase#onBlockStart(ExportRow)} and
+ * {@link ExportDecoderBase#onBlockCompletion(ExportRow)} still get the first and last row.
+ * The decoder must still accept rows through {@link ExportDecoderBase#processRow(ExportRow)},
+ * for instance by loading them with {@link ExportColumnBatch#decodeRow(ExportRow)}.
+ */
+public interface ColumnarExportDecoder {
+    /**
+     * Process all of the rows of a block.
+     *
+     * @param batch Decoded block, only valid for the duration of the call
+     * @return whether or not the batch processing was successful
+     * @throws RestartBlockException to have the block processed again from the start
+     */
+    public boolean processBatch(ExportColumnBatch batch) throws RestartBlockException;
+}
@@ -0,0 +1,217 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb.exportclient;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.voltdb.VoltType;
+import org.voltdb.types.GeographyPointValue;
+import org.voltdb.types.GeographyValue;
+import org.voltdb.types.TimestampType;
+import org.xerial.snappy.Snappy;
+
+/**
+ * Reads the files written by {@link ColumnarFileWriter}. Values are returned boxed
+ * the same way {@link ExportRow} decodes them.
+ */
+public class ColumnarFileReader {
+    private final RandomAccessFile m_file;
+    private final String m_tableName;
+    private final long m_generation;
+    private final List<String> m_names = new ArrayList<>();
+    private final List<VoltType> m_types = new ArrayList<>();
+    private final int[] m_rowGroupRows;
+    private final long[][] m_chunkOffsets;
+    private final int[][] m_chunkLengths;
+
+    public ColumnarFileReader(File file) throws IOException {
+        m_file = new RandomAccessFile(file, "r");
+        try {
+            final int magicLength = ColumnarFileWriter.MAGIC.length;
+            final long fileLength = m_file.length();
+            if (fileLength < magicLength * 2 + 4) {
+                throw new IOException(file + " is not a columnar export file");
+            }
+            ByteBuffer trailer = read(fileLength - 4 - magicLength, 4 + magicLength);
+            final int footerLength = trailer.getInt();
+            byte[] magic = new byte[magicLength];
+            trailer.get(magic);
+            if (!Arrays.equals(magic, ColumnarFileWriter.MAGIC)) {
+                throw new IOException(file + " is not a complete columnar export file");
+            }
+            ByteBuffer footer = read(fileLength - 4 - magicLength - footerLength, footerLength);
+            final int version = footer.getInt();
+            if (version != ColumnarFileWriter.VERSION) {
+                throw new IOException("Unsupported columnar export file version " + version);
+            }
+            m_tableName = getString(footer);
+            m_generation = footer.getLong();
+            final int columnCount = footer.getInt();
+            for (int i = 0; i < columnCount; i++) {
+                m_names.add(getString(footer));
+                m_types.add(VoltType.get(footer.get()));
+            }
+            final int rowGroupCount = footer.getInt();
+            m_rowGroupRows = new int[rowGroupCount];
+            m_chunkOffsets = new long[rowGroupCount][columnCount];
+            m_chunkLengths = new int[rowGroupCount][columnCount];
+            for (int g = 0; g < rowGroupCount; g++) {
+                m_rowGroupRows[g] = footer.getInt();
+                for (int i = 0; i < columnCount; i++) {
+                    m_chunkOffsets[g][i] = footer.getLong();
+                    m_chunkLengths[g][i] = footer.getInt();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            m_file.close();
+            throw e;
+        }
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        m_file.seek(position);
+        m_file.readFully(bytes);
+        return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static String getString(ByteBuffer buf) {
+        final byte[] bytes = new byte[buf.getInt()];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public String getTableName() {
+        return m_tableName;
+    }
+
+    public long getGeneration() {
+        return m_generation;
+    }
+
+    public List<String> getNames() {
+        return m_names;
+    }
+
+    public List<VoltType> getTypes() {
+        return m_types;
+    }
+
+    public int getRowGroupCount() {
+        return m_rowGroupRows.length;
+    }
+
+    public long getRowCount() {
+        long rows = 0;
+        for (int rowCount : m_rowGroupRows) {
+            rows += rowCount;
+        }
+        return rows;
+    }
+
+    /**
+     * @return The values of one column of a row group, null for SQL nulls
+     */
+    public Object[] readColumn(int rowGroup, int column) throws IOException {
+        final int rowCount = m_rowGroupRows[rowGroup];
+        final byte[] compressed = read(m_chunkOffsets[rowGroup][column], m_chunkLengths[rowGroup][column]).array();
+        final ByteBuffer chunk = ByteBuffer.wrap(Snappy.uncompress(compressed)).order(ByteOrder.LITTLE_ENDIAN);
+        final VoltType type = m_types.get(column);
+        final Object[] values = new Object[rowCount];
+        chunk.position((rowCount + 7) >> 3);
+        for (int r = 0; r < rowCount; r++) {
+            if ((chunk.get(r >> 3) & (0x80 >>> (r & 7))) != 0) {
+                continue;
+            }
+            switch (type) {
+            case TINYINT:
+                values[r] = chunk.get();
+                break;
+            case SMALLINT:
+                values[r] = chunk.getShort();
+                break;
+            case INTEGER:
+                values[r] = chunk.getInt();
+                break;
+            case BIGINT:
+                values[r] = chunk.getLong();
+                break;
+            case TIMESTAMP:
+                values[r] = new TimestampType(chunk.getLong());
+                break;
+            case FLOAT:
+                values[r] = chunk.getDouble();
+                break;
+            case STRING:
+                values[r] = ExportRow.decodeString(chunk);
+                break;
+            case VARBINARY:
+                values[r] = ExportRow.decodeVarbinary(chunk);
+                break;
+            case DECIMAL:
+                values[r] = ExportRow.decodeDecimal(chunk);
+                break;
+            case GEOGRAPHY_POINT:
+                values[r] = GeographyPointValue.unflattenFromBuffer(chunk);
+                break;
+            case GEOGRAPHY: {
+                final int length = chunk.getInt();
+                final int position = chunk.position();
+                values[r] = GeographyValue.unflattenFromBuffer(chunk, position);
+                chunk.position(position + length);
+                break;
+            }
+            default:
+                throw new IOException("Invalid column type: " + type);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @return All of the rows of the file
+     */
+    public List<Object[]> readRows() throws IOException {
+        List<Object[]> rows = new ArrayList<>();
+        for (int g = 0; g < m_rowGroupRows.length; g++) {
+            final int first = rows.size();
+            for (int r = 0; r < m_rowGroupRows[g]; r++) {
+                rows.add(new Object[m_types.size()]);
+            }
+            for (int i = 0; i < m_types.size(); i++) {
+                Object[] column = readColumn(g, i);
+                for (int r = 0; r < column.length; r++) {
+                    rows.get(first + r)[i] = column[r];
+                }
+            }
+        }
+        return rows;
+    }
+
+    public void close() throws IOException {
+        m_file.close();
+    }
+}
@@ -0,0 +1,466 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb.exportclient;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import org.voltdb.VoltType;
+import org.voltdb.export.ExportExecutorPool;
+import org.voltdb.exportclient.ExportColumnBatch.Column;
+import org.xerial.snappy.Snappy;
+
+import com.google_voltpatches.common.base.Throwables;
+import com.google_voltpatches.common.util.concurrent.Futures;
+import com.google_voltpatches.common.util.concurrent.ListenableFuture;
+import com.google_voltpatches.common.util.concurrent.ListeningExecutorService;
+
+/**
+ * Writes the rows of one exported table and generation to a columnar file. Rows are
+ * buffered column by column into row groups, and every full row group is compressed
+ * on the encoder pool while the next one fills. Encoded row groups are written in order,
+ * also on the encoder pool, so appending never does file I/O on the export executor that
+ * calls it. It only waits when too many row groups are pending.
+ *
+ * File layout, little endian:
+ * <pre>
+ * MAGIC
+ * row group column chunks, each a snappy compressed null bitmap followed by the non null values
+ * footer: version, table name, generation, columns (name, type),
+ *         row groups (row count, then offset and compressed length of every column chunk)
+ * footer length (int), MAGIC
+ * </pre>
+ * Values use the export encoding: integers, floats and timestamps (microseconds) at their
+ * natural width, strings, varbinary and geography as a length followed by the bytes,
+ * decimals as scale, length and unscaled bytes, and points as two doubles.
+ * {@link ColumnarFileReader} reads it back.
+ */
+public class ColumnarFileWriter {
+    public static final byte[] MAGIC = "VCOL".getBytes(StandardCharsets.US_ASCII);
+    public static final int VERSION = 1;
+    // Stop filling a row group at this many bytes of uncompressed values
+    static final int MAX_ROW_GROUP_BYTES = 16 * 1024 * 1024;
+
+    private final File m_file;
+    // Only used by the write tasks, which run one after the other on the encoder pool
+    private OutputStream m_out;
+    private final String m_tableName;
+    private final long m_generation;
+    private final List<String> m_names;
+    private final List<VoltType> m_types;
+    private final int m_firstColumn;
+    private final int m_rowGroupRows;
+    private final ListeningExecutorService m_encoders;
+    private final int m_maxPendingRowGroups;
+
+    private RowGroup m_rowGroup;
+    // Writes of the row groups that haven't been seen to complete, oldest first
+    private final ArrayDeque<ListenableFuture<?>> m_pending = new ArrayDeque<>();
+    // The last write, every write waits for the one before it
+    private ListenableFuture<?> m_lastWrite;
+    private final List<EncodedRowGroup> m_written = new ArrayList<>();
+    private long m_offset;
+    private boolean m_closed = false;
+    // Set by a failed append, the row groups that weren't written by then never are
+    private volatile IOException m_failure;
+
+    /**
+     * @param firstColumn index of the first exported column, to skip the internal columns
+     * @param rowGroupRows maximum number of rows in a row group
+     * @param encoders pool compressing row groups
+     * @param maxPendingRowGroups row groups that may be waiting for the pool before appends block
+     *
+     * The file is created on the encoder pool, a failure to create it is thrown by the next
+     * {@link #append(ExportColumnBatch)} or {@link #close()}.
+     */
+    public ColumnarFileWriter(File file, String tableName, long generation, List<String> names, List<VoltType> types,
+            int firstColumn, int rowGroupRows, ListeningExecutorService encoders, int maxPendingRowGroups) {
+        m_file = file;
+        m_tableName = tableName;
+        m_generation = generation;
+        m_names = names;
+        m_types = types;
+        m_firstColumn = firstColumn;
+        m_rowGroupRows = rowGroupRows;
+        m_encoders = encoders;
+        m_maxPendingRowGroups = Math.max(1, maxPendingRowGroups);
+        m_lastWrite = encoders.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                m_out = new BufferedOutputStream(new FileOutputStream(m_file, false), 64 * 1024);
+                m_out.write(MAGIC);
+                m_offset = MAGIC.length;
+                return null;
+            }
+        });
+        m_pending.add(m_lastWrite);
+        m_rowGroup = new RowGroup();
+    }
+
+    public File getFile() {
+        return m_file;
+    }
+
+    /**
+     * Append all of the rows of a batch. The batch must have the schema of this file.
+     * If it throws none of the rows are written, nor are any rows appended later, so
+     * the batch can be retried with another writer without writing rows twice.
+     */
+    public synchronized void append(ExportColumnBatch batch) throws IOException {
+        if (m_closed) {
+            throw new IOException("Columnar export file " + m_file + " is closed");
+        }
+        if (m_failure != null) {
+            throw new IOException("Columnar export file " + m_file + " failed before", m_failure);
+        }
+        try {
+            // Fail before taking any rows if a write already did
+            checkCompletedWrites();
+            int row = 0;
+            final int rowCount = batch.getRowCount();
+            while (row < rowCount) {
+                final int count = Math.min(rowCount - row, m_rowGroupRows - m_rowGroup.m_rowCount);
+                m_rowGroup.append(batch, row, count);
+                row += count;
+                if (m_rowGroup.m_rowCount == m_rowGroupRows || m_rowGroup.valueBytes() >= MAX_ROW_GROUP_BYTES) {
+                    submitRowGroup();
+                }
+            }
+            checkCompletedWrites();
+        } catch (IOException e) {
+            // Some of the rows may be in row groups already submitted, keep them from being written
+            m_failure = e;
+            m_rowGroup = new RowGroup();
+            throw e;
+        }
+    }
+
+    /**
+     * Write out everything that has been appended, add the footer and close the file.
+     */
+    public synchronized void close() throws IOException {
+        if (m_closed) {
+            return;
+        }
+        m_closed = true;
+        IOException failure = m_failure;
+        if (failure == null && m_rowGroup.m_rowCount > 0) {
+            try {
+                submitRowGroup();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        // Close the file whether or not the writes before succeeded
+        final ListenableFuture<?> lastWrite = m_lastWrite;
+        m_lastWrite = Futures.whenAllComplete(lastWrite).call(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                if (m_out == null) {
+                    return null;
+                }
+                try {
+                    lastWrite.get();
+                    writeFooter();
+                    m_out.flush();
+                } catch (InterruptedException | ExecutionException e) {
+                    // Failed before, thrown to close below
+                } finally {
+                    m_out.close();
+                }
+                return null;
+            }
+        }, m_encoders);
+        m_pending.add(m_lastWrite);
+        while (!m_pending.isEmpty()) {
+            try {
+                await(m_pending.poll());
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void submitRowGroup() throws IOException {
+        final RowGroup rowGroup = m_rowGroup;
+        m_rowGroup = new RowGroup();
+        final ListenableFuture<EncodedRowGroup> encoded = m_encoders.submit(new Callable<EncodedRowGroup>() {
+            @Override
+            public EncodedRowGroup call() throws Exception {
+                return rowGroup.encode();
+            }
+        });
+        m_lastWrite = Futures.whenAllSucceed(m_lastWrite, encoded).call(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                if (m_failure != null) {
+                    throw new IOException("Row group abandoned by a failed append", m_failure);
+                }
+                write(Futures.getDone(encoded));
+                return null;
+            }
+        }, m_encoders);
+        m_pending.add(m_lastWrite);
+        checkCompletedWrites();
+        while (m_pending.size() > m_maxPendingRowGroups) {
+            // The pool is behind, wait for the oldest row group
+            await(m_pending.poll());
+        }
+    }
+
+    /**
+     * Forget the writes that completed, throwing the failure of any of them
+     */
+    private void checkCompletedWrites() throws IOException {
+        while (!m_pending.isEmpty() && m_pending.peek().isDone()) {
+            await(m_pending.poll());
+        }
+    }
+
+    private static void await(ListenableFuture<?> future) throws IOException {
+        try {
+            ExportExecutorPool.await(future);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted writing a row group", e);
+        } catch (ExecutionException e) {
+            Throwables.propagateIfPossible(e.getCause(), IOException.class);
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private void write(EncodedRowGroup encoded) throws IOException {
+        encoded.m_offsets = new long[encoded.m_chunks.length];
+        for (int i = 0; i < encoded.m_chunks.length; i++) {
+            encoded.m_offsets[i] = m_offset;
+            m_out.write(encoded.m_chunks[i]);
+            m_offset += encoded.m_chunks[i].length;
+            encoded.m_chunkLengths[i] = encoded.m_chunks[i].length;
+            encoded.m_chunks[i] = null;
+        }
+        m_written.add(encoded);
+    }
+
+    private void writeFooter() throws IOException {
+        final int columnCount = m_types.size() - m_firstColumn;
+        final byte[] tableName = m_tableName.getBytes(StandardCharsets.UTF_8);
+        final byte[][] names = new byte[columnCount][];
+        int size = 4 + 4 + tableName.length + 8 + 4 + 4;
+        for (int i = 0; i < columnCount; i++) {
+            names[i] = m_names.get(m_firstColumn + i).getBytes(StandardCharsets.UTF_8);
+            size += 4 + names[i].length + 1;
+        }
+        size += m_written.size() * (4 + columnCount * 12);
+
+        ByteBuffer footer = ByteBuffer.allocate(size + 4 + MAGIC.length).order(ByteOrder.LITTLE_ENDIAN);
+        footer.putInt(VERSION);
+        footer.putInt(tableName.length).put(tableName);
+        footer.putLong(m_generation);
+        footer.putInt(columnCount);
+        for (int i = 0; i < columnCount; i++) {
+            footer.putInt(names[i].length).put(names[i]);
+            footer.put(m_types.get(m_firstColumn + i).getValue());
+        }
+        footer.putInt(m_written.size());
+        for (EncodedRowGroup encoded : m_written) {
+            footer.putInt(encoded.m_rowCount);
+            for (int i = 0; i < columnCount; i++) {
+                footer.putLong(encoded.m_offsets[i]);
+                footer.putInt(encoded.m_chunkLengths[i]);
+            }
+        }
+        footer.putInt(size);
+        footer.put(MAGIC);
+        m_out.write(footer.array(), 0, footer.position());
+    }
+
+    private static final class EncodedRowGroup {
+        final int m_rowCount;
+        final byte[][] m_chunks;
+        final int[] m_chunkLengths;
+        long[] m_offsets;
+
+        EncodedRowGroup(int rowCount, byte[][] chunks) {
+            m_rowCount = rowCount;
+            m_chunks = chunks;
+            m_chunkLengths = new int[chunks.length];
+        }
+    }
+
+    /**
+     * Rows being buffered, one null bitmap and value buffer per column
+     */
+    private final class RowGroup {
+        int m_rowCount = 0;
+        final byte[][] m_nulls;
+        final ByteBuffer[] m_values;
+
+        RowGroup() {
+            final int columnCount = m_types.size() - m_firstColumn;
+            m_nulls = new byte[columnCount][(m_rowGroupRows + 7) >> 3];
+            m_values = new ByteBuffer[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+                m_values[i] = ByteBuffer.allocate(4096).order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+
+        int valueBytes() {
+            int bytes = 0;
+            for (ByteBuffer values : m_values) {
+                bytes += values.position();
+            }
+            return bytes;
+        }
+
+        private ByteBuffer ensureRemaining(int column, int needed) {
+            ByteBuffer values = m_values[column];
+            if (values.remaining() < needed) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(values.capacity() * 2, values.position() + needed))
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                values.flip();
+                grown.put(values);
+                m_values[column] = values = grown;
+            }
+            return values;
+        }
+
+        void append(ExportColumnBatch batch, int start, int count) {
+            for (int i = 0; i < m_values.length; i++) {
+                final Column column = batch.getColumn(m_firstColumn + i);
+                final boolean[] nulls = column.nulls();
+                final byte[] nullBits = m_nulls[i];
+                for (int r = start, dest = m_rowCount; r < start + count; r++, dest++) {
+                    if (nulls[r]) {
+                        nullBits[dest >> 3] |= (byte) (0x80 >>> (dest & 7));
+                    }
+                }
+                switch (column.getType()) {
+                case TINYINT: {
+                    final long[] longs = column.longs();
+                    ByteBuffer values = ensureRemaining(i, count);
+                    for (int r = start; r < start + count; r++) {
+                        if (!nulls[r]) {
+                            values.put((byte) longs[r]);
+                        }
+                    }
+                    break;
+                }
+                case SMALLINT: {
+                    final long[] longs = column.longs();
+                    ByteBuffer values = ensureRemaining(i, count * 2);
+                    for (int r = start; r < start + count; r++) {
+                        if (!nulls[r]) {
+                            values.putShort((short) longs[r]);
+                        }
+                    }
+                    break;
+                }
+                case INTEGER: {
+                    final long[] longs = column.longs();
+                    ByteBuffer values = ensureRemaining(i, count * 4);
+                    for (int r = start; r < start + count; r++) {
+                        if (!nulls[r]) {
+                            values.putInt((int) longs[r]);
+                        }
+                    }
+                    break;
+                }
+                case BIGINT:
+                case TIMESTAMP: {
+                    final long[] longs = column.longs();
+                    ByteBuffer values = ensureRemaining(i, count * 8);
+                    for (int r = start; r < start + count; r++) {
+                        if (!nulls[r]) {
+                            values.putLong(longs[r]);
+                        }
+                    }
+                    break;
+                }
+                case FLOAT: {
+                    final double[] doubles = column.doubles();
+                    ByteBuffer values = ensureRemaining(i, count * 8);
+                    for (int r = start; r < start + count; r++) {
+                        if (!nulls[r]) {
+                            values.putDouble(doubles[r]);
+                        }
+                    }
+                    break;
+                }
+                default:
+                    appendVariableLength(i, column, batch.getBuffer(), start, count);
+                }
+            }
+            m_rowCount += count;
+        }
+
+        private void appendVariableLength(int i, Column column, ByteBuffer buf, int start, int count) {
+            final boolean[] nulls = column.nulls();
+            final int[] offsets = column.offsets();
+            final int[] lengths = column.lengths();
+            final boolean lengthPrefixed = column.getType() == VoltType.STRING ||
+                    column.getType() == VoltType.VARBINARY || column.getType() == VoltType.GEOGRAPHY;
+            final ByteBuffer src = buf.hasArray() ? null : buf.duplicate();
+            for (int r = start; r < start + count; r++) {
+                if (nulls[r]) {
+                    continue;
+                }
+                final int length = lengths[r];
+                ByteBuffer values = ensureRemaining(i, length + 4);
+                if (lengthPrefixed) {
+                    values.putInt(length);
+                }
+                if (src == null) {
+                    values.put(buf.array(), buf.arrayOffset() + offsets[r], length);
+                } else {
+                    src.limit(offsets[r] + length);
+                    src.position(offsets[r]);
+                    values.put(src);
+                }
+            }
+        }
+
+        EncodedRowGroup encode() throws IOException {
+            final byte[][] chunks = new byte[m_values.length][];
+            final int bitmapLength = (m_rowCount + 7) >> 3;
+            for (int i = 0; i < m_values.length; i++) {
+                final ByteBuffer values = m_values[i];
+                final byte[] chunk = Arrays.copyOf(m_nulls[i], bitmapLength + values.position());
+                System.arraycopy(values.array(), values.arrayOffset(), chunk, bitmapLength, values.position());
+                chunks[i] = Snappy.compress(chunk);
+            }
+            return new EncodedRowGroup(m_rowCount, chunks);
+        }
+    }
+}
@@ -0,0 +1,478 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb.exportclient;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.List;
+
+import org.voltdb.VoltType;
+import org.voltdb.messaging.FastSerializer;
+import org.voltdb.types.GeographyPointValue;
+import org.voltdb.types.GeographyValue;
+import org.voltdb.types.TimestampType;
+
+import com.google_voltpatches.common.base.Charsets;
+
+/**
+ * The rows of an export block decoded into one vector per column. Integer, timestamp
+ * and float columns are decoded into primitive arrays, every other type is left in the
+ * block buffer and recorded as an offset and length. Values are only decoded into
+ * objects on request, so exporters that re-serialize the rows don't box anything.
+ *
+ * A batch is reused from block to block. Its contents, and in particular the offsets
+ * into the block buffer, are only valid until the decoder returns from
+ * {@link ColumnarExportDecoder#processBatch(ExportColumnBatch)}.
+ */
+public class ExportColumnBatch {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private ExportRow m_schema;
+    private int m_partitionId;
+    private ByteBuffer m_buffer;
+    private int m_rowCount;
+    private int m_capacity;
+    private int[] m_partitionColIndexes = new int[0];
+    private Column[] m_columns = new Column[0];
+
+    /**
+     * One column of the batch. Only the array matching the column type is allocated
+     * and only the first {@link ExportColumnBatch#getRowCount()} entries are meaningful.
+     */
+    public final class Column {
+        private final VoltType m_type;
+        boolean[] m_nulls;
+        // TINYINT, SMALLINT, INTEGER, BIGINT and TIMESTAMP in microseconds
+        long[] m_longs;
+        // FLOAT
+        double[] m_doubles;
+        // Every other type, the bytes of the value in the block buffer
+        int[] m_offsets;
+        int[] m_lengths;
+
+        Column(VoltType type, int capacity) {
+            m_type = type;
+            m_nulls = new boolean[capacity];
+            if (isFixedLength()) {
+                if (type == VoltType.FLOAT) {
+                    m_doubles = new double[capacity];
+                } else {
+                    m_longs = new long[capacity];
+                }
+            } else {
+                m_offsets = new int[capacity];
+                m_lengths = new int[capacity];
+            }
+        }
+
+        private boolean isFixedLength() {
+            switch (m_type) {
+            case TINYINT:
+            case SMALLINT:
+            case INTEGER:
+            case BIGINT:
+            case TIMESTAMP:
+            case FLOAT:
+                return true;
+            default:
+                return false;
+            }
+        }
+
+        void grow(int capacity) {
+            m_nulls = Arrays.copyOf(m_nulls, capacity);
+            if (m_longs != null) {
+                m_longs = Arrays.copyOf(m_longs, capacity);
+            }
+            if (m_doubles != null) {
+                m_doubles = Arrays.copyOf(m_doubles, capacity);
+            }
+            if (m_offsets != null) {
+                m_offsets = Arrays.copyOf(m_offsets, capacity);
+                m_lengths = Arrays.copyOf(m_lengths, capacity);
+            }
+        }
+
+        public VoltType getType() {
+            return m_type;
+        }
+
+        public boolean isNull(int row) {
+            return m_nulls[row];
+        }
+
+        /**
+         * @return The integer value or, for a TIMESTAMP, the microseconds since the epoch
+         */
+        public long getLong(int row) {
+            return m_longs[row];
+        }
+
+        public double getDouble(int row) {
+            return m_doubles[row];
+        }
+
+        /**
+         * @return The position in {@link ExportColumnBatch#getBuffer()} of a variable length value
+         */
+        public int getOffset(int row) {
+            return m_offsets[row];
+        }
+
+        public int getLength(int row) {
+            return m_lengths[row];
+        }
+
+        public long[] longs() {
+            return m_longs;
+        }
+
+        public double[] doubles() {
+            return m_doubles;
+        }
+
+        public boolean[] nulls() {
+            return m_nulls;
+        }
+
+        public int[] offsets() {
+            return m_offsets;
+        }
+
+        public int[] lengths() {
+            return m_lengths;
+        }
+
+        public String getString(int row) {
+            if (m_nulls[row]) {
+                return null;
+            }
+            if (m_buffer.hasArray()) {
+                return new String(m_buffer.array(), m_buffer.arrayOffset() + m_offsets[row], m_lengths[row], Charsets.UTF_8);
+            }
+            return new String(getBytes(row), Charsets.UTF_8);
+        }
+
+        public byte[] getBytes(int row) {
+            if (m_nulls[row]) {
+                return null;
+            }
+            byte[] bytes = new byte[m_lengths[row]];
+            ByteBuffer dup = m_buffer.duplicate();
+            dup.position(m_offsets[row]);
+            dup.get(bytes);
+            return bytes;
+        }
+
+        /**
+         * Box the value the way {@link ExportRow#decodeRow} does.
+         */
+        public Object getObject(int row) {
+            if (m_nulls[row]) {
+                return null;
+            }
+            switch (m_type) {
+            case TINYINT:
+                return (byte) m_longs[row];
+            case SMALLINT:
+                return (short) m_longs[row];
+            case INTEGER:
+                return (int) m_longs[row];
+            case BIGINT:
+                return m_longs[row];
+            case FLOAT:
+                return m_doubles[row];
+            case TIMESTAMP:
+                return new TimestampType(m_longs[row]);
+            case STRING:
+                return getString(row);
+            case VARBINARY:
+                return getBytes(row);
+            case DECIMAL: {
+                final int offset = m_offsets[row];
+                final int scale = m_buffer.get(offset);
+                final byte[] bytes = new byte[m_lengths[row] - 2];
+                ByteBuffer dup = m_buffer.duplicate();
+                dup.position(offset + 2);
+                dup.get(bytes);
+                return new BigDecimal(new BigInteger(bytes), scale);
+            }
+            case GEOGRAPHY_POINT:
+                return GeographyPointValue.unflattenFromBuffer(m_buffer, m_offsets[row]);
+            case GEOGRAPHY:
+                return GeographyValue.unflattenFromBuffer(m_buffer, m_offsets[row]);
+            default:
+                throw new IllegalStateException("Invalid column type: " + m_type);
+            }
+        }
+    }
+
+    /**
+     * Decode the rows from the position of the buffer up to its limit. Every row is preceded
+     * by its length. If a row can't be decoded the rows before it remain in the batch.
+     *
+     * @param schema row carrying the schema of the block
+     * @param partitionId partition of the data source
+     * @param buf little endian buffer positioned at the first row
+     * @throws IOException
+     */
+    public void decode(ExportRow schema, int partitionId, ByteBuffer buf) throws IOException {
+        if (schema == null) {
+            throw new IOException("Export block with no schema found without prior block with schema.");
+        }
+        assert(buf.order() == ByteOrder.LITTLE_ENDIAN);
+        reset(schema, partitionId, buf);
+        final List<VoltType> types = schema.types;
+        while (buf.hasRemaining()) {
+            final int length = buf.getInt();
+            final int rowStart = buf.position();
+            if (m_rowCount == m_capacity) {
+                grow(m_capacity * 2);
+            }
+            final int row = m_rowCount;
+            m_partitionColIndexes[row] = buf.getInt();
+            final int columnCount = buf.getInt();
+            final int nullFlags = buf.position();
+            buf.position(nullFlags + ((columnCount + 7) >> 3));
+            for (int i = 0; i < m_columns.length; ++i) {
+                final Column column = m_columns[i];
+                // Same mapping as ExportRow.extractNullFlags
+                final boolean isNull = (buf.get(nullFlags + (i >> 3)) & (0x80 >>> (i & 7))) != 0;
+                column.m_nulls[row] = isNull;
+                if (!isNull) {
+                    decodeNextColumn(buf, column, row, types.get(i));
+                }
+            }
+            buf.position(rowStart + length);
+            ++m_rowCount;
+        }
+    }
+
+    /**
+     * Replace the contents of the batch with a single row, so that a row handed to a
+     * decoder that consumes batches can take the same path as a block.
+     *
+     * @param row decoded row, carrying its schema
+     * @throws IOException
+     */
+    public void decodeRow(ExportRow row) throws IOException {
+        // Keep the columns of the previous rows if the schema is the same
+        final ExportRow schema = (m_schema != null && m_schema.generation == row.generation &&
+                m_schema.tableName.equals(row.tableName) && m_schema.types.equals(row.types)) ? m_schema : row;
+        final int columnCount = row.values.length;
+        FastSerializer fs = new FastSerializer(false, false);
+        try {
+            // row length, filled in below
+            fs.writeInt(0);
+            fs.writeInt(row.partitionColIndex);
+            fs.writeInt(columnCount);
+            final byte[] nullBits = new byte[(columnCount + 7) >> 3];
+            for (int i = 0; i < columnCount; i++) {
+                if (row.values[i] == null) {
+                    nullBits[i >> 3] |= (byte) (0x80 >>> (i & 7));
+                }
+            }
+            fs.write(nullBits);
+            for (int i = 0; i < columnCount; i++) {
+                if (row.values[i] != null) {
+                    encodeColumn(fs, row.types.get(i), row.values[i]);
+                }
+            }
+            final ByteBuffer buf = ByteBuffer.wrap(fs.getBytes()).order(ByteOrder.LITTLE_ENDIAN);
+            buf.putInt(0, buf.limit() - 4);
+            decode(schema, row.partitionId, buf);
+        } finally {
+            fs.discard();
+        }
+    }
+
+    private static void encodeColumn(FastSerializer fs, VoltType type, Object value) throws IOException {
+        switch (type) {
+        case TINYINT:
+            ExportEncoder.encodeTinyInt(fs, ((Number) value).longValue());
+            break;
+        case SMALLINT:
+            ExportEncoder.encodeSmallInt(fs, ((Number) value).longValue());
+            break;
+        case INTEGER:
+            ExportEncoder.encodeInteger(fs, ((Number) value).longValue());
+            break;
+        case BIGINT:
+            ExportEncoder.encodeBigInt(fs, ((Number) value).longValue());
+            break;
+        case FLOAT:
+            ExportEncoder.encodeFloat(fs, ((Number) value).doubleValue());
+            break;
+        case TIMESTAMP:
+            ExportEncoder.encodeTimestamp(fs, (TimestampType) value);
+            break;
+        case STRING:
+            ExportEncoder.encodeString(fs, (String) value);
+            break;
+        case VARBINARY: {
+            final byte[] bytes = (byte[]) value;
+            fs.writeInt(bytes.length);
+            fs.write(bytes);
+            break;
+        }
+        case DECIMAL:
+            ExportEncoder.encodeDecimal(fs, (BigDecimal) value);
+            break;
+        case GEOGRAPHY_POINT:
+            ExportEncoder.encodeGeographyPoint(fs, (GeographyPointValue) value);
+            break;
+        case GEOGRAPHY:
+            ExportEncoder.encodeGeography(fs, (GeographyValue) value);
+            break;
+        default:
+            throw new IOException("Invalid column type: " + type);
+        }
+    }
+
+    private static void decodeNextColumn(ByteBuffer buf, Column column, int row, VoltType type) throws IOException {
+        switch (type) {
+        case TINYINT:
+            column.m_longs[row] = buf.get();
+            break;
+        case SMALLINT:
+            column.m_longs[row] = buf.getShort();
+            break;
+        case INTEGER:
+            column.m_longs[row] = buf.getInt();
+            break;
+        case BIGINT:
+        case TIMESTAMP:
+            column.m_longs[row] = buf.getLong();
+            break;
+        case FLOAT:
+            column.m_doubles[row] = buf.getDouble();
+            break;
+        case STRING:
+        case VARBINARY:
+        case GEOGRAPHY: {
+            final int length = buf.getInt();
+            column.m_offsets[row] = buf.position();
+            column.m_lengths[row] = length;
+            buf.position(buf.position() + length);
+            break;
+        }
+        case DECIMAL: {
+            // scale, precision bytes and the unscaled value
+            final int length = 2 + buf.get(buf.position() + 1);
+            column.m_offsets[row] = buf.position();
+            column.m_lengths[row] = length;
+            buf.position(buf.position() + length);
+            break;
+        }
+        case GEOGRAPHY_POINT:
+            column.m_offsets[row] = buf.position();
+            column.m_lengths[row] = GeographyPointValue.getLengthInBytes();
+            buf.position(buf.position() + GeographyPointValue.getLengthInBytes());
+            break;
+        default:
+            throw new IOException("Invalid column type: " + type);
+        }
+    }
+
+    private void reset(ExportRow schema, int partitionId, ByteBuffer buf) {
+        m_partitionId = partitionId;
+        m_buffer = buf;
+        m_rowCount = 0;
+        if (schema != m_schema) {
+            m_schema = schema;
+            if (m_capacity == 0) {
+                m_capacity = INITIAL_CAPACITY;
+                m_partitionColIndexes = new int[m_capacity];
+            }
+            m_columns = new Column[schema.types.size()];
+            for (int i = 0; i < m_columns.length; ++i) {
+                m_columns[i] = new Column(schema.types.get(i), m_capacity);
+            }
+        }
+    }
+
+    private void grow(int capacity) {
+        m_capacity = capacity;
+        m_partitionColIndexes = Arrays.copyOf(m_partitionColIndexes, capacity);
+        for (Column column : m_columns) {
+            column.grow(capacity);
+        }
+    }
+
+    /**
+     * Materialize a row the way {@link ExportRow#decodeRow} does, for decoders that consume rows.
+     */
+    public ExportRow getRow(int row) {
+        final int partitionColIndex = m_partitionColIndexes[row];
+        final Object[] values = new Object[m_columns.length];
+        Object pval = null;
+        for (int i = 0; i < m_columns.length; ++i) {
+            values[i] = m_columns[i].getObject(row);
+            if (i == partitionColIndex) {
+                pval = values[i];
+            }
+        }
+        return new ExportRow(m_schema.tableName, m_schema.names, m_schema.types, m_schema.lengths,
+                values, (pval == null ? m_partitionId : pval), partitionColIndex, m_partitionId, m_schema.generation);
+    }
+
+    public int getRowCount() {
+        return m_rowCount;
+    }
+
+    public int getColumnCount() {
+        return m_columns.length;
+    }
+
+    public Column getColumn(int index) {
+        return m_columns[index];
+    }
+
+    public int getPartitionColumnIndex(int row) {
+        return m_partitionColIndexes[row];
+    }
+
+    public ByteBuffer getBuffer() {
+        return m_buffer;
+    }
+
+    public int getPartitionId() {
+        return m_partitionId;
+    }
+
+    public String getTableName() {
+        return m_schema.tableName;
+    }
+
+    public long getGeneration() {
+        return m_schema.generation;
+    }
+
+    public List<String> getNames() {
+        return m_schema.names;
+    }
+
+    public List<VoltType> getTypes() {
+        return m_schema.types;
+    }
+}
@@ -83,6 +83,8 @@ public abstract class ExportDecoderBase {
 
     //Used by new style connector to pickup schema information from previous record.
     ExportRow m_previousRow;
+    //Used by new style connector to decode blocks, reused from block to block.
+    private ExportColumnBatch m_columnBatch;
     public ExportDecoderBase(AdvertisedDataSource ads) {
         m_source = ads;
         m_startTS = System.currentTimeMillis();
@@ -280,6 +282,13 @@ public abstract class ExportDecoderBase {
         m_previousRow = row;
     }
 
+    public ExportColumnBatch getColumnBatch() {
+        if (m_columnBatch == null) {
+            m_columnBatch = new ExportColumnBatch();
+        }
+        return m_columnBatch;
+    }
+
     public ExportRow getPreviousRow() {
         //We do keep the values of previous row but they should not be relied upon only schema information is used.
         return m_previousRow;
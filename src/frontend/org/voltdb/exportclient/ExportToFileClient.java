@@ -24,6 +24,7 @@ import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
@@ -115,6 +116,12 @@ public class ExportToFileClient extends ExportClientBase {
     // date formatter time zone
     protected TimeZone m_timeZone;
 
+    // write columnar files instead of CSV or TSV
+    protected boolean m_columnar;
+    protected int m_rowGroupRows;
+    // compresses the row groups of columnar files
+    protected ListeningExecutorService m_encoderPool;
+
     //For test
     public static String TEST_VOLTDB_ROOT = null;
 
@@ -164,6 +171,8 @@ public class ExportToFileClient extends ExportClientBase {
     class PeriodicExportContext {
         File m_dirContainingFiles;
         final Map<FileHandle, CSVWriter> m_writers = Collections.synchronizedMap(new TreeMap<FileHandle, CSVWriter>());
+        final Map<FileHandle, ColumnarFileWriter> m_columnarWriters =
+                Collections.synchronizedMap(new TreeMap<FileHandle, ColumnarFileWriter>());
         boolean m_hasClosed = false;
         protected Date start;
         protected final Set<String> m_batchSchemasWritten = new HashSet<>();
@@ -314,6 +323,14 @@ public class ExportToFileClient extends ExportClientBase {
                 }
             }
 
+            for (Entry<FileHandle, ColumnarFileWriter> entry : m_columnarWriters.entrySet()) {
+                try {
+                    entry.getValue().close();
+                } catch (IOException e) {
+                    m_logger.error("Failed to close file, export file may be unavailable/unwritable, or not enough space.", e);
+                }
+            }
+
             if (m_batched) {
                 closeBatch();
             }
@@ -323,6 +340,7 @@ public class ExportToFileClient extends ExportClientBase {
 
             // empty the writer set (probably not needed)
             m_writers.clear();
+            m_columnarWriters.clear();
 
             // note that we're closed now
             m_hasClosed = true;
@@ -354,14 +372,16 @@ public class ExportToFileClient extends ExportClientBase {
         }
 
         void closeFiles() {
-            File[] notifySet = new VoltFile[m_writers.size()];
+            File[] notifySet = new VoltFile[m_writers.size() + m_columnarWriters.size()];
 
             int i = 0;
             // Sort the open files by TXN ID so that we can close and rename
             // them in the order in which they were created.  This allows
             // apps interested in the files to know that whenever a new file
             // is closed, it will be the next file temporally in the export stream
-            FileHandle[] keys = m_writers.keySet().toArray(new FileHandle[] {});
+            List<FileHandle> handles = new ArrayList<>(m_writers.keySet());
+            handles.addAll(m_columnarWriters.keySet());
+            FileHandle[] keys = handles.toArray(new FileHandle[] {});
             Arrays.sort(keys, new Comparator<FileHandle>(){
                 @Override
                 public int compare(FileHandle f1, FileHandle f2)
@@ -434,6 +454,54 @@ public class ExportToFileClient extends ExportClientBase {
             return writer;
         }
 
+        ColumnarFileWriter getColumnarWriter(ExportColumnBatch batch) {
+            FileHandle handle = new FileHandle(batch.getTableName(), batch.getGeneration());
+            synchronized (m_columnarWriters) {
+                ColumnarFileWriter writer = m_columnarWriters.get(handle);
+                if (writer != null) {
+                    return writer;
+                }
+
+                String path = handle.getPath(ACTIVE_PREFIX);
+                File newFile = new VoltFile(path);
+                if (newFile.exists()) {
+                    m_logger.error("Error: Output file for next period already exists at path: " + newFile.getPath()
+                            + " Consider using a more specific timestamp in your filename or cleaning up your export data directory."
+                            + " ExportToFileClient will stop to prevent data loss.");
+                    throw new RuntimeException();
+                }
+                // The file is created by the encoder pool, a failure is thrown by the first append
+                writer = new ColumnarFileWriter(newFile, batch.getTableName(), batch.getGeneration(),
+                        batch.getNames(), batch.getTypes(), ExportRow.getFirstField(m_skipinternal),
+                        m_rowGroupRows, m_encoderPool, 2 * CoreUtils.availableProcessors());
+                m_columnarWriters.put(handle, writer);
+                return writer;
+            }
+        }
+
+        /**
+         * Forget a writer that failed and close it. Its file is moved aside so that the
+         * block can be retried from the start of a new file at the same path.
+         */
+        void dropColumnarWriter(ColumnarFileWriter writer) {
+            synchronized (m_columnarWriters) {
+                // The other partitions of the table find out from their own appends
+                if (!m_columnarWriters.values().remove(writer)) {
+                    return;
+                }
+                try {
+                    writer.close();
+                } catch (IOException expected) {
+                    // Already logged by the append that failed
+                }
+                File file = writer.getFile();
+                File failed = new VoltFile(file.getPath() + ".failed-" + System.currentTimeMillis());
+                if (file.exists() && !file.renameTo(failed)) {
+                    m_logger.error("Failed to rename incomplete export file from " + file + " to " + failed);
+                }
+            }
+        }
+
         void writeSchema(String tableName, long generation, String schema) throws IOException {
             // if no schema's enabled pretend like this worked
             if (!m_withSchema) return;
@@ -496,7 +564,7 @@ public class ExportToFileClient extends ExportClientBase {
 
     // This class outputs exported rows converted to CSV or TSV values
     // for the table named in the constructor's AdvertisedDataSource
-    class ExportToFileDecoder extends ExportDecoderBase {
+    class ExportToFileDecoder extends ExportDecoderBase implements ColumnarExportDecoder {
         DecoderMetaData m_metaData;
         protected String m_schemaString = "ERROR SERIALIZING SCHEMA";
         private FutureTask<CSVWriter> m_firstBlockTask;
@@ -604,9 +672,9 @@ public class ExportToFileClient extends ExportClientBase {
                     if (m_es == null) {
                         ListeningExecutorService executor = m_decoderExecutor.get(row.tableName);
                         if (executor == null) {
+                            // The decoder writes the files, which would block a thread of the shared export pool
                             executor = CoreUtils.getListeningSingleThreadExecutor(
-                                "File Export decoder for table " + row.tableName + CoreUtils.MEDIUM_STACK_SIZE
-                                );
+                                "File Export decoder for table " + row.tableName, CoreUtils.MEDIUM_STACK_SIZE);
                             m_decoderExecutor.put(row.tableName, executor);
                         }
                         m_es = executor;
@@ -671,6 +739,21 @@ public class ExportToFileClient extends ExportClientBase {
             return true;
         }
 
+        @Override
+        public boolean processBatch(ExportColumnBatch batch) throws RestartBlockException {
+            // reader lock is acquired in on-block start
+            try {
+                for (int row = 0; row < batch.getRowCount(); row++) {
+                    m_csvWriterDecoder.decode(batch, row, m_writer);
+                }
+            }
+            catch (IOException io) {
+                rateLimitedLogError(m_logger, "failed to to process export rows %s", Throwables.getStackTraceAsString(io));
+                return false;
+            }
+            return true;
+        }
+
         /**
          * Release the current batch folder.
          * @throws RestartBlockException
@@ -719,8 +802,81 @@ public class ExportToFileClient extends ExportClientBase {
         }
     }
 
+    // This class outputs the exported rows of the table named in the constructor's
+    // AdvertisedDataSource to columnar files. Unlike the CSV decoder it doesn't need
+    // a table executor, the partitions of a table take turns appending to the file.
+    class ExportToColumnarFileDecoder extends ExportToFileDecoder {
+        private ColumnarFileWriter m_columnarWriter;
+        // Holds a row handed to processRow, the export processor hands over whole blocks
+        private final ExportColumnBatch m_rowBatch = new ExportColumnBatch();
+
+        ExportToColumnarFileDecoder(AdvertisedDataSource source) {
+            super(source);
+        }
+
+        @Override
+        public ListeningExecutorService getExecutor() {
+            return CoreUtils.LISTENINGSAMETHREADEXECUTOR;
+        }
+
+        @Override
+        public void onBlockStart(ExportRow row) throws RestartBlockException {
+            // Released in onBlockCompletion, holds off a roll for the duration of the block
+            m_batchLock.readLock().lock();
+            m_columnarWriter = null;
+        }
+
+        /**
+         * Append a single row, a row at a time is much slower than {@link #processBatch(ExportColumnBatch)}.
+         */
+        @Override
+        public boolean processRow(ExportRow row) throws RestartBlockException {
+            try {
+                m_rowBatch.decodeRow(row);
+            }
+            catch (IOException e) {
+                rateLimitedLogError(m_logger, "failed to to process export row %s", Throwables.getStackTraceAsString(e));
+                return false;
+            }
+            return processBatch(m_rowBatch);
+        }
+
+        @Override
+        public boolean processBatch(ExportColumnBatch batch) throws RestartBlockException {
+            try {
+                m_columnarWriter = m_current.getColumnarWriter(batch);
+                m_columnarWriter.append(batch);
+            }
+            catch (IOException e) {
+                rateLimitedLogError(m_logger, "Failed to write export file %s, file may be unavailable/unwritable, or not enough space. %s",
+                        m_columnarWriter == null ? "" : m_columnarWriter.getFile(), Throwables.getStackTraceAsString(e));
+                if (m_columnarWriter != null) {
+                    m_current.dropColumnarWriter(m_columnarWriter);
+                    m_columnarWriter = null;
+                }
+                m_batchLock.readLock().unlock();
+                // The block restarts in a new file. No backoff, it would sleep on a thread of the
+                // shared export pool since this decoder runs on the caller's thread.
+                throw new RestartBlockException("Failed to process the block", e, false);
+            }
+            return true;
+        }
+
+        @Override
+        public void onBlockCompletion(ExportRow row) throws RestartBlockException {
+            m_batchLock.readLock().unlock();
+        }
+
+        @Override
+        public void sourceNoLongerAdvertised(AdvertisedDataSource source) {
+        }
+    }
+
     @Override
     public ExportToFileDecoder constructExportDecoder(AdvertisedDataSource source) {
+        if (m_columnar) {
+            return new ExportToColumnarFileDecoder(source);
+        }
         return new ExportToFileDecoder(source);
     }
 
@@ -740,6 +896,9 @@ public class ExportToFileClient extends ExportClientBase {
         finally {
             m_batchLock.writeLock().unlock();
         }
+        if (m_encoderPool != null) {
+            m_encoderPool.shutdown();
+        }
     }
 
     /**
@@ -778,6 +937,7 @@ public class ExportToFileClient extends ExportClientBase {
             throw new IllegalArgumentException("ExportToFile: must provide a filename nonce");
         }
         char delimiter = '\0';
+        boolean columnar = false;
         // Default to CSV if missing
         String type = conf.getProperty("type", "csv").trim();
         if (type.equalsIgnoreCase("csv")) {
@@ -786,8 +946,13 @@ public class ExportToFileClient extends ExportClientBase {
         else if (type.equalsIgnoreCase("tsv")) {
             delimiter = '\t';
         }
+        else if (type.equalsIgnoreCase("columnar")) {
+            // The delimiter is unused
+            delimiter = ',';
+            columnar = true;
+        }
         else {
-            throw new IllegalArgumentException("Error: --type must be one of CSV or TSV");
+            throw new IllegalArgumentException("Error: --type must be one of CSV, TSV or COLUMNAR");
         }
         if (delimiter == '\0') {
             throw new IllegalArgumentException("ExportToFile: must provide an output type");
@@ -843,6 +1008,16 @@ public class ExportToFileClient extends ExportClientBase {
                 conf.getProperty("binaryencoding", "HEX").trim().toUpperCase());
         boolean uniquenames = Boolean.parseBoolean(conf.getProperty("uniquenames"));
 
+        int rowGroupRows = Integer.parseInt(conf.getProperty("rowgroupsize", "65536"));
+        if (rowGroupRows < 1) {
+            throw new IllegalArgumentException("Error: Specified value for rowgroupsize must be >= 1.");
+        }
+        int encoders = Integer.parseInt(conf.getProperty("encoders",
+                Integer.toString(Math.max(1, CoreUtils.availableProcessors() / 2))));
+        if (encoders < 1) {
+            throw new IllegalArgumentException("Error: Specified value for encoders must be >= 1.");
+        }
+
         //Dont do actual config in check mode.
         boolean configcheck = Boolean.parseBoolean(conf.getProperty(ExportManager.CONFIG_CHECK_ONLY, "false"));
         if (configcheck) {
@@ -861,7 +1036,10 @@ public class ExportToFileClient extends ExportClientBase {
                 withSchema,
                 tz,
                 encoding,
-                uniquenames);
+                uniquenames,
+                columnar,
+                rowGroupRows,
+                encoders);
     }
 
     private void configureInternal(
@@ -876,9 +1054,17 @@ public class ExportToFileClient extends ExportClientBase {
                               final boolean withSchema,
                               final TimeZone tz,
                               final BinaryEncoding be,
-                              final boolean uniquenames) {
+                              final boolean uniquenames,
+                              final boolean columnar,
+                              final int rowGroupRows,
+                              final int encoders) {
         m_delimiter = delimiter;
-        m_extension = (delimiter == ',') ? ".csv" : ".tsv";
+        m_extension = columnar ? ".vcol" : (delimiter == ',') ? ".csv" : ".tsv";
+        m_columnar = columnar;
+        m_rowGroupRows = rowGroupRows;
+        if (columnar) {
+            m_encoderPool = CoreUtils.getListeningExecutorService("Export columnar encoder for nonce " + nonce, encoders);
+        }
         m_nonce = nonce;
         m_outDir = outdir;
         m_tableDecoders = new HashMap<>();
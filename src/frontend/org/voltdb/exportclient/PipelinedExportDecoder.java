@@ -0,0 +1,48 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb.exportclient;
+
+import org.voltdb.exportclient.ExportDecoderBase.RestartBlockException;
+
+import com.google_voltpatches.common.util.concurrent.ListenableFuture;
+
+/**
+ * Implemented by an {@link ExportDecoderBase} whose destination acknowledges rows
+ * asynchronously. Instead of waiting for the acknowledgements of a block in
+ * {@link ExportDecoderBase#onBlockCompletion(ExportRow)}, the decoder hands back a future
+ * and the next blocks are processed while the block is in flight. Blocks are acknowledged
+ * to the data source as their futures complete, in any order.
+ */
+public interface PipelinedExportDecoder {
+    /**
+     * @return The number of blocks that may be in flight, 1 disables pipelining and
+     *         {@link ExportDecoderBase#onBlockCompletion(ExportRow)} is called as usual
+     */
+    public int getMaxBlocksInFlight();
+
+    /**
+     * Called in place of {@link ExportDecoderBase#onBlockCompletion(ExportRow)} once every row
+     * of the block has been processed.
+     *
+     * @param row last row of the block
+     * @return A future that succeeds once the destination has the rows of the block. If it
+     *         fails the block, and the blocks polled after it, are polled again.
+     * @throws RestartBlockException to have the block processed again from the start
+     */
+    public ListenableFuture<?> onBlockSent(ExportRow row) throws RestartBlockException;
+}
@@ -21,6 +21,7 @@ import java.io.IOException;
 import java.util.List;
 
 import org.voltdb.VoltType;
+import org.voltdb.exportclient.ExportColumnBatch;
 
 import au.com.bytecode.opencsv_voltpatches.CSVWriter;
 
@@ -39,6 +40,11 @@ public class CSVWriterDecoder extends RowDecoder<CSVWriter, IOException> {
         return to;
     }
 
+    public CSVWriter decode(ExportColumnBatch batch, int row, CSVWriter to) throws IOException {
+        to.writeNext(m_stringArrayDecoder.decode(batch, row, null));
+        return to;
+    }
+
     public static Builder builder() {
         return new Builder();
     }
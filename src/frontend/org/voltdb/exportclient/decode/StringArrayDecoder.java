@@ -25,6 +25,8 @@ import java.util.TimeZone;
 
 import org.voltdb.VoltType;
 import org.voltdb.common.Constants;
+import org.voltdb.exportclient.ExportColumnBatch;
+import org.voltdb.exportclient.ExportColumnBatch.Column;
 import org.voltdb.exportclient.ExportDecoderBase.BinaryEncoding;
 import org.voltdb.exportclient.decode.DecodeType.SimpleVisitor;
 import org.voltdb.types.GeographyPointValue;
@@ -72,24 +74,7 @@ public class StringArrayDecoder extends RowDecoder<String[], RuntimeException> {
                 fields != null && fields.length > m_firstFieldOffset,
                 "null or inapropriately sized export row array"
         );
-        /*
-         * Builds a list of string formatters that reflects the row
-         * column types.
-         */
-        StringFieldDecoder [] fieldDecoders;
-        if (!m_fieldDecoders.containsKey(generation)) {
-            int fieldCount = 0;
-            Map<String, DecodeType> typeMap = getTypeMap(generation, types, names);
-            ImmutableList.Builder<StringFieldDecoder> lb = ImmutableList.builder();
-            for (org.voltdb.exportclient.decode.DecodeType dt: typeMap.values()) {
-                lb.add(dt.accept(decodingVisitor, fieldCount++, null));
-            }
-
-            fieldDecoders = lb.build().toArray(new StringFieldDecoder[0]);
-            m_fieldDecoders.put(generation, fieldDecoders);
-        } else {
-            fieldDecoders = m_fieldDecoders.get(generation);
-        }
+        StringFieldDecoder [] fieldDecoders = getFieldDecoders(generation, types, names);
         if (to == null || to.length < fieldDecoders.length) {
             to = new String[fieldDecoders.length];
         }
@@ -104,12 +89,65 @@ public class StringArrayDecoder extends RowDecoder<String[], RuntimeException> {
         return to;
     }
 
+    /**
+     * Converts a row of a column batch into an array of the string representations
+     * of its values, the same way {@link #decode(long, String, List, List, String[], Object[])}
+     * would convert the row materialized from the batch
+     */
+    public String[] decode(ExportColumnBatch batch, int row, String[] to) throws RuntimeException {
+        Preconditions.checkArgument(
+                batch.getColumnCount() > m_firstFieldOffset,
+                "inapropriately sized export column batch"
+        );
+        StringFieldDecoder [] fieldDecoders = getFieldDecoders(batch.getGeneration(), batch.getTypes(), batch.getNames());
+        if (to == null || to.length < fieldDecoders.length) {
+            to = new String[fieldDecoders.length];
+        }
+        for (
+                int i = m_firstFieldOffset, j = 0;
+                i < batch.getColumnCount() && j < fieldDecoders.length;
+                ++i, ++j
+        ) {
+            fieldDecoders[j].decode(to, batch.getColumn(i), row);
+        }
+
+        return to;
+    }
+
+    /*
+     * Builds a list of string formatters that reflects the row
+     * column types.
+     */
+    private StringFieldDecoder [] getFieldDecoders(long generation, List<VoltType> types, List<String> names) {
+        StringFieldDecoder [] fieldDecoders = m_fieldDecoders.get(generation);
+        if (fieldDecoders == null) {
+            int fieldCount = 0;
+            Map<String, DecodeType> typeMap = getTypeMap(generation, types, names);
+            ImmutableList.Builder<StringFieldDecoder> lb = ImmutableList.builder();
+            for (org.voltdb.exportclient.decode.DecodeType dt: typeMap.values()) {
+                lb.add(dt.accept(decodingVisitor, fieldCount++, null));
+            }
+
+            fieldDecoders = lb.build().toArray(new StringFieldDecoder[0]);
+            m_fieldDecoders.put(generation, fieldDecoders);
+        }
+        return fieldDecoders;
+    }
+
     static abstract class StringFieldDecoder implements FieldDecoder<String[], RuntimeException> {
         protected final int m_fieldIndex;
 
         StringFieldDecoder(int fieldIndex) {
             m_fieldIndex = fieldIndex;
         }
+
+        /**
+         * Convert the value of a column batch row. Types with a primitive vector
+         * override this to format it without boxing.
+         */
+        public void decode(String[] to, Column column, int row) throws RuntimeException {
+            decode(to, column.getObject(row));
+        }
     }
 
     final SimpleVisitor<StringFieldDecoder,Integer> decodingVisitor = new SimpleVisitor<StringFieldDecoder,Integer>() {
@@ -121,6 +159,11 @@ public class StringArrayDecoder extends RowDecoder<String[], RuntimeException> {
                 public final void decode(String[] to, Object field) throws RuntimeException {
                     to[m_fieldIndex] = field != null ? field.toString() : m_nullRepresentation;
                 }
+
+                @Override
+                public final void decode(String[] to, Column column, int row) throws RuntimeException {
+                    to[m_fieldIndex] = !column.isNull(row) ? Long.toString(column.getLong(row)) : m_nullRepresentation;
+                }
             };
         }
 
@@ -131,6 +174,11 @@ public class StringArrayDecoder extends RowDecoder<String[], RuntimeException> {
                 public final void decode(String[] to, Object field) throws RuntimeException {
                     to[m_fieldIndex] = field != null ? field.toString() : m_nullRepresentation;
                 }
+
+                @Override
+                public final void decode(String[] to, Column column, int row) throws RuntimeException {
+                    to[m_fieldIndex] = !column.isNull(row) ? Long.toString(column.getLong(row)) : m_nullRepresentation;
+                }
             };
         }
 
@@ -141,6 +189,11 @@ public class StringArrayDecoder extends RowDecoder<String[], RuntimeException> {
                 public final void decode(String[] to, Object field) throws RuntimeException {
                     to[m_fieldIndex] = field != null ? field.toString() : m_nullRepresentation;
                 }
+
+                @Override
+                public final void decode(String[] to, Column column, int row) throws RuntimeException {
+                    to[m_fieldIndex] = !column.isNull(row) ? Long.toString(column.getLong(row)) : m_nullRepresentation;
+                }
             };
         }
 
@@ -151,6 +204,11 @@ public class StringArrayDecoder extends RowDecoder<String[], RuntimeException> {
                 public final void decode(String[] to, Object field) throws RuntimeException {
                     to[m_fieldIndex] = field != null ? field.toString() : m_nullRepresentation;
                 }
+
+                @Override
+                public final void decode(String[] to, Column column, int row) throws RuntimeException {
+                    to[m_fieldIndex] = !column.isNull(row) ? Long.toString(column.getLong(row)) : m_nullRepresentation;
+                }
             };
         }
 
@@ -161,6 +219,11 @@ public class StringArrayDecoder extends RowDecoder<String[], RuntimeException> {
                 public final void decode(String[] to, Object field) throws RuntimeException {
                     to[m_fieldIndex] = field != null ? field.toString() : m_nullRepresentation;
                 }
+
+                @Override
+                public final void decode(String[] to, Column column, int row) throws RuntimeException {
+                    to[m_fieldIndex] = !column.isNull(row) ? Double.toString(column.getDouble(row)) : m_nullRepresentation;
+                }
             };
         }
 
@@ -177,6 +240,16 @@ public class StringArrayDecoder extends RowDecoder<String[], RuntimeException> {
                     TimestampType ts = (TimestampType)field;
                     to[m_fieldIndex] = m_df.format(ts.asApproximateJavaDate());
                 }
+
+                @Override
+                public final void decode(String[] to, Column column, int row) throws RuntimeException {
+                    if (column.isNull(row)) {
+                        to[m_fieldIndex] = m_nullRepresentation;
+                        return;
+                    }
+                    TimestampType ts = new TimestampType(column.getLong(row));
+                    to[m_fieldIndex] = m_df.format(ts.asApproximateJavaDate());
+                }
             };
         }
 
@@ -187,6 +260,11 @@ public class StringArrayDecoder extends RowDecoder<String[], RuntimeException> {
                 public final void decode(String[] to, Object field) throws RuntimeException {
                     to[m_fieldIndex] = field != null ? (String)field : m_nullRepresentation;
                 }
+
+                @Override
+                public final void decode(String[] to, Column column, int row) throws RuntimeException {
+                    to[m_fieldIndex] = !column.isNull(row) ? column.getString(row) : m_nullRepresentation;
+                }
             };
         }
 
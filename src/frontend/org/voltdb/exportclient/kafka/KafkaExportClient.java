@@ -27,13 +27,16 @@ import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.kafka.clients.producer.Callback;
 import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
 import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.clients.producer.RecordMetadata;
 import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.PartitionInfo;
 import org.apache.kafka.common.config.ConfigException;
 import org.apache.kafka.common.serialization.StringSerializer;
 import org.voltcore.utils.CoreUtils;
@@ -46,12 +49,15 @@ import org.voltdb.exportclient.ExportClientLogger;
 import org.voltdb.exportclient.ExportDecoderBase;
 import org.voltdb.exportclient.ExportDecoderBase.BinaryEncoding;
 import org.voltdb.exportclient.ExportRow;
+import org.voltdb.exportclient.PipelinedExportDecoder;
 import org.voltdb.exportclient.decode.CSVStringDecoder;
 
 import com.google_voltpatches.common.base.Splitter;
 import com.google_voltpatches.common.collect.ImmutableList;
 import com.google_voltpatches.common.collect.ImmutableMap;
+import com.google_voltpatches.common.util.concurrent.ListenableFuture;
 import com.google_voltpatches.common.util.concurrent.ListeningExecutorService;
+import com.google_voltpatches.common.util.concurrent.SettableFuture;
 
 public class KafkaExportClient extends ExportClientBase {
 
@@ -67,6 +73,7 @@ public class KafkaExportClient extends ExportClientBase {
     private final static String OLD_PARTITIONER = "partitioner.class";
     private final static String ACKS_TIMEOUT = "acks.retry.timeout";
     private final static String LEGACY_ACKS = "request.required.acks";
+    private final static String PIPELINE_DEPTH_PN = "pipeline.depth";
 
     private final static Splitter COMMA_SPLITTER = Splitter.on(",").omitEmptyStrings().trimResults();
     private final static Splitter PERIOD_SPLITTER = Splitter.on(".").omitEmptyStrings().trimResults();
@@ -84,6 +91,8 @@ public class KafkaExportClient extends ExportClientBase {
     Map<String, String> m_tablePartitionColumns;
     boolean m_pollFutures = false;
     int m_acksTimeout = 5_000;
+    // Export blocks in flight per partition, more than one enables pipelined sends
+    int m_pipelineDepth = 1;
 
     @Override
     public void configure(Properties config) throws Exception {
@@ -169,9 +178,33 @@ public class KafkaExportClient extends ExportClientBase {
             m_producerConfig.setProperty(ProducerConfig.CLIENT_ID_CONFIG, "voltdb");
         }
 
+        String pipelineDepth = "1";
+        try {
+            pipelineDepth = config.getProperty(PIPELINE_DEPTH_PN, pipelineDepth).trim();
+            if ((m_pipelineDepth = Integer.parseInt(pipelineDepth)) <= 0) {
+                throw new IllegalArgumentException(
+                        "\"" + PIPELINE_DEPTH_PN + "\" must be > 0"
+                        );
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(
+                    "\"" + PIPELINE_DEPTH_PN + "\" must be an integer", e
+                    );
+        }
+        m_producerConfig.remove(PIPELINE_DEPTH_PN);
+
         String acksVal = config.getProperty(ProducerConfig.ACKS_CONFIG, "").trim();
         if (acksVal.isEmpty()) {
-            m_producerConfig.setProperty(ProducerConfig.ACKS_CONFIG, "0");
+            // Pipelined blocks are acked when the broker acks their records
+            m_producerConfig.setProperty(ProducerConfig.ACKS_CONFIG, m_pipelineDepth > 1 ? "all" : "0");
+        }
+        if (m_pipelineDepth > 1) {
+            // The bundled producer has no idempotence, a single request in flight per broker
+            // keeps retried records in order within their partition
+            String inFlightVal = config.getProperty(ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION, "").trim();
+            if (inFlightVal.isEmpty()) {
+                m_producerConfig.setProperty(ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION, "1");
+            }
         }
         m_pollFutures = !"0".equals(m_producerConfig.get(ProducerConfig.ACKS_CONFIG));
 
@@ -282,15 +315,52 @@ public class KafkaExportClient extends ExportClientBase {
         return new KafkaExportDecoder(source);
     }
 
-    class KafkaExportDecoder extends ExportDecoderBase {
+    Producer<String, String> createProducer() {
+        return new KafkaProducer<>(m_producerConfig);
+    }
+
+    /**
+     * Sends of one pipelined export block, done once the block is sealed and every send
+     * has been acknowledged.
+     */
+    static class BlockSends implements Callback {
+        final SettableFuture<Object> m_done = SettableFuture.create();
+        // Outstanding sends, plus one until the block is sealed
+        final AtomicInteger m_pending = new AtomicInteger(1);
+
+        void sent() {
+            m_pending.incrementAndGet();
+        }
+
+        ListenableFuture<Object> seal() {
+            if (m_pending.decrementAndGet() == 0) {
+                m_done.set(null);
+            }
+            return m_done;
+        }
+
+        @Override
+        public void onCompletion(RecordMetadata metadata, Exception e) {
+            if (e != null) {
+                m_done.setException(e);
+            } else if (m_pending.decrementAndGet() == 0) {
+                m_done.set(null);
+            }
+        }
+    }
+
+    class KafkaExportDecoder extends ExportDecoderBase implements PipelinedExportDecoder {
 
         String m_topic = null;
         boolean m_primed = false;
-        KafkaProducer<String, String> m_producer;
+        Producer<String, String> m_producer;
         final CSVStringDecoder m_decoder;
         final List<Future<RecordMetadata>> m_futures = new ArrayList<>();
         private final AtomicBoolean m_failure = new AtomicBoolean(false);
         final ListeningExecutorService m_es;
+        // Kafka partition all of the rows of this VoltDB partition go to when pipelined
+        Integer m_kafkaPartition = null;
+        BlockSends m_blockSends = null;
 
         public KafkaExportDecoder(AdvertisedDataSource source) {
             super(source);
@@ -311,7 +381,7 @@ public class KafkaExportClient extends ExportClientBase {
 
         final void checkOnFirstRow() throws RestartBlockException {
             if (!m_primed) try {
-                m_producer = new KafkaProducer<>(m_producerConfig);
+                m_producer = createProducer();
             }
             catch (ConfigException e) {
                 LOG.error("Unable to instantiate a Kafka producer", e);
@@ -360,6 +430,42 @@ public class KafkaExportClient extends ExportClientBase {
         public void onBlockStart(ExportRow row) throws RestartBlockException {
             if (!m_primed) checkOnFirstRow();
             if (m_topic == null) populateTopic(row.tableName);
+            if (m_pipelineDepth > 1) {
+                if (m_kafkaPartition == null) {
+                    m_kafkaPartition = getKafkaPartition();
+                }
+                m_blockSends = new BlockSends();
+            }
+        }
+
+        /**
+         * Keeps the rows of a VoltDB partition in one Kafka partition, and so in order, for
+         * as long as the number of partitions of the topic doesn't change.
+         */
+        private int getKafkaPartition() throws RestartBlockException {
+            final List<PartitionInfo> partitions;
+            try {
+                partitions = m_producer.partitionsFor(m_topic);
+            } catch (KafkaException e) {
+                LOG.warn("Unable to get the partitions of topic %s", e, m_topic);
+                throw new RestartBlockException("Unable to get the partitions of topic " + m_topic, e, true);
+            }
+            if (partitions == null || partitions.isEmpty()) {
+                throw new RestartBlockException("Topic " + m_topic + " has no partitions", true);
+            }
+            return Math.abs(m_source.partitionId % partitions.size());
+        }
+
+        @Override
+        public int getMaxBlocksInFlight() {
+            return m_pipelineDepth;
+        }
+
+        @Override
+        public ListenableFuture<?> onBlockSent(ExportRow row) throws RestartBlockException {
+            final BlockSends blockSends = m_blockSends;
+            m_blockSends = null;
+            return blockSends.seal();
         }
 
         @Override
@@ -370,18 +476,28 @@ public class KafkaExportClient extends ExportClientBase {
             //Use partition value by default if its null use partition id.
             //partition value will be null only if partition column is overridden table.column and is nullable
             String pval = (rd.partitionValue == null) ? String.valueOf(rd.partitionId) : rd.partitionValue.toString();
-            ProducerRecord<String, String> krec = new ProducerRecord<String, String>(m_topic, pval, decoded);
+            final ProducerRecord<String, String> krec;
+            if (m_blockSends != null) {
+                krec = new ProducerRecord<String, String>(m_topic, m_kafkaPartition, pval, decoded);
+            } else {
+                krec = new ProducerRecord<String, String>(m_topic, pval, decoded);
+            }
             try {
-                m_futures.add(m_producer.send(krec, new Callback() {
-                    @Override
-                    public void onCompletion(RecordMetadata metadata, Exception e) {
-                        if (e != null){
-                            LOG.warn("Failed to send data. Verify if the kafka server matches bootstrap.servers %s", e,
-                                    m_producerConfig.getProperty(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG));
-                            m_failure.compareAndSet(false, true);
+                if (m_blockSends != null) {
+                    m_blockSends.sent();
+                    m_producer.send(krec, m_blockSends);
+                } else {
+                    m_futures.add(m_producer.send(krec, new Callback() {
+                        @Override
+                        public void onCompletion(RecordMetadata metadata, Exception e) {
+                            if (e != null){
+                                LOG.warn("Failed to send data. Verify if the kafka server matches bootstrap.servers %s", e,
+                                        m_producerConfig.getProperty(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG));
+                                m_failure.compareAndSet(false, true);
+                            }
                         }
-                    }
-                }));
+                    }));
+                }
             } catch (KafkaException e) {
                 LOG.warn("Unable to send %s", e, krec);
                 throw new RestartBlockException("Unable to send message", e, true);
@@ -191,6 +191,21 @@ public abstract class KafkaConsumerRunner implements Runnable {
 
     public abstract boolean invoke(String rawMessage, long offset, String topic, Object[] params, ProcedureCallback procedureCallback) throws Exception;
 
+    /**
+     * Invoke the procedure for the messages of a topic partition that were polled together.
+     * Runners that can batch the invocations override this.
+     *
+     * @return for each message, whether its invocation was queued
+     */
+    public boolean[] invoke(List<String> rawMessages, List<Long> offsets, String topic, List<Object[]> params,
+            List<ProcedureCallback> procedureCallbacks) throws Exception {
+        boolean[] queued = new boolean[params.size()];
+        for (int i = 0; i < queued.length; i++) {
+            queued[i] = invoke(rawMessages.get(i), offsets.get(i), topic, params.get(i), procedureCallbacks.get(i));
+        }
+        return queued;
+    }
+
     @Override
     public void run() {
         LOGGER.info("Starting Kafka consumer for group:" + m_config.getGroupId() + " topics:" + m_config.getTopics());
@@ -256,6 +271,11 @@ public abstract class KafkaConsumerRunner implements Runnable {
                         String topicIdentifer = "group " + m_config.getGroupId() + "-" + partition;
                         List<ConsumerRecord<ByteBuffer, ByteBuffer>> messages = records.records(partition);
                         int count = messages.size();
+                        List<String> batchMessages = new ArrayList<>(count);
+                        List<Long> batchOffsets = new ArrayList<>(count);
+                        List<Long> batchNextOffsets = new ArrayList<>(count);
+                        List<Object[]> batchParams = new ArrayList<>(count);
+                        List<ProcedureCallback> batchCallbacks = new ArrayList<>(count);
                         for (int i = 0; i < count; i++) {
                             if (!m_lifecycle.shouldRun()) {
                                 break;
@@ -294,14 +314,11 @@ public abstract class KafkaConsumerRunner implements Runnable {
                                         topicIdentifer);
                                 partitionSubmittedCount++;
 
-                                if (invoke(smsg, offset, partition.topic(), params, cb)) {
-                                    m_workTrackers.get(partition).produceWork();
-                                } else {
-                                    if (LOGGER.isDebugEnabled()) {
-                                        LOGGER.debug("Failed to process. possibly bad data: " + Arrays.toString(params));
-                                    }
-                                    commitTracker.commit(nextOffSet);
-                                }
+                                batchMessages.add(smsg);
+                                batchOffsets.add(offset);
+                                batchNextOffsets.add(nextOffSet);
+                                batchParams.add(params);
+                                batchCallbacks.add(cb);
                             } catch (FormatException | IOException e) {
                                 partitionSubmittedCount++;
                                 LOGGER.rateLimitedLog(KafkaConstants.LOG_SUPPRESSION_INTERVAL_SECONDS, Level.WARN, e,
@@ -312,6 +329,20 @@ public abstract class KafkaConsumerRunner implements Runnable {
                                 break;
                             }
                         }
+                        //The messages of the partition are invoked together so that they can be batched
+                        if (!batchParams.isEmpty()) {
+                            boolean[] queued = invoke(batchMessages, batchOffsets, partition.topic(), batchParams, batchCallbacks);
+                            for (int i = 0; i < queued.length; i++) {
+                                if (queued[i]) {
+                                    m_workTrackers.get(partition).produceWork();
+                                } else {
+                                    if (LOGGER.isDebugEnabled()) {
+                                        LOGGER.debug("Failed to process. possibly bad data: " + Arrays.toString(batchParams.get(i)));
+                                    }
+                                    commitTracker.commit(batchNextOffsets.get(i));
+                                }
+                            }
+                        }
                         if (partitionSubmittedCount > 0) {
                             topicPartitions.add(partition);
                         }
@@ -18,6 +18,7 @@
 package org.voltdb.importer;
 
 import java.net.URI;
+import java.util.List;
 import java.util.function.Function;
 
 import org.voltcore.logging.Level;
@@ -120,6 +121,36 @@ public abstract class AbstractImporter
         }
     }
 
+    /**
+     * This should be used by importer implementations to execute a stored procedure for each of
+     * a batch of records, which costs a transaction per partition rather than one per record.
+     * See {@link ImporterServerAdapter#callProcedures} for how the records are batched.
+     *
+     * @param procedure the procedure executed for a single record
+     * @param batchProcedure the procedure executed for the records of a partition, or null
+     * @param records the parameters of each record
+     * @param callbacks one callback per record, receiving the execution status of that record
+     * @return for each record, true if its execution was queued successfully; false otherwise
+     */
+    public boolean[] callProcedures(String procedure, String batchProcedure,
+            List<Object[]> records, List<ProcedureCallback> callbacks)
+    {
+        try {
+            boolean[] result = m_importServerAdapter.callProcedures(this, m_backPressurePredicate,
+                                                                   procedure, batchProcedure, records, callbacks);
+            for (boolean queued : result) {
+                reportStat(queued, procedure);
+            }
+            return result;
+        } catch (Exception ex) {
+            rateLimitedLog(Level.ERROR, ex, "%s: Error trying to import", getName());
+            for (int i = 0; i < records.size(); i++) {
+                reportFailureStat(procedure);
+            }
+            return new boolean[records.size()];
+        }
+    }
+
     /**
      * Called to stop the importer from processing more data.
      */
@@ -19,6 +19,7 @@ package org.voltdb.importer;
 
 import org.voltdb.client.ProcedureCallback;
 
+import java.util.List;
 import java.util.function.Function;
 
 
@@ -49,6 +50,26 @@ public interface ImporterServerAdapter {
      */
     public boolean callProcedure(AbstractImporter importer, Function<Integer, Boolean> backPressurePredicate, ProcedureCallback callback, String proc, Object... fieldList);
 
+    /**
+     * This is used by importers to execute a procedure for each of a batch of records. Records are
+     * grouped by partition and each group is executed as one transaction, either by calling
+     * <code>batchProc</code> or, when <code>proc</code> is the default insert or upsert procedure of a
+     * partitioned table, by loading the rows of the group into the table. Records that can't be
+     * batched, and the records of a group whose transaction fails, are executed one at a time.
+     *
+     * @param importer the calling importer instance
+     * @param backPressurePredicate see {@link #callProcedure}
+     * @param proc the name of the procedure that is executed for a single record
+     * @param batchProc the name of a procedure executed for all of the records of a partition, or null.
+     * It must be partitioned on its first parameter, which gets the partition value of the first record,
+     * and take one array per record field.
+     * @param records the parameters of each record
+     * @param callbacks one callback per record, receiving the execution status of that record
+     * @return for each record, true if its execution was queued successfully; false otherwise.
+     */
+    public boolean[] callProcedures(AbstractImporter importer, Function<Integer, Boolean> backPressurePredicate,
+            String proc, String batchProc, List<Object[]> records, List<ProcedureCallback> callbacks);
+
     /**
      * This should be used by importers to report failure while trying to execute a procedure.
      *
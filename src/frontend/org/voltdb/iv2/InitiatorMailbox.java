@@ -293,6 +293,10 @@ public class InitiatorMailbox implements Mailbox
     @Override
     public void deliver(final VoltMessage message)
     {
+        if (message instanceof Iv2InitiateTaskMessage) {
+            // decode the parameters here rather than on the site
+            ((Iv2InitiateTaskMessage) message).prepareParameters();
+        }
         if (SCHEDULE_IN_SITE_THREAD) {
             SiteTasker.SiteTaskerRunnable task = new SiteTasker.SiteTaskerRunnable() {
                 @Override
@@ -262,6 +262,10 @@ public class MpInitiatorMailbox extends InitiatorMailbox
 
     @Override
     public void deliver(final VoltMessage message) {
+        if (message instanceof Iv2InitiateTaskMessage) {
+            // decode the parameters here rather than on the MP site
+            ((Iv2InitiateTaskMessage) message).prepareParameters();
+        }
         m_taskQueue.offer(new Runnable() {
             @Override
             public void run() {
@@ -614,6 +614,24 @@ public class MpRoSite implements Runnable, SiteProcedureConnection
         throw new RuntimeException("RO MP Site doesn't do this, shouldn't be here.");
     }
 
+    @Override
+    public FastDeserializer executeUndoFreePlanFragments(
+            int numFragmentIds,
+            long[] planFragmentIds,
+            Object[] parameterSets,
+            DeterminismHash determinismHash,
+            String[] sqlTexts,
+            boolean[] isWriteFrags,
+            int[] sqlCRCs,
+            long txnId,
+            long spHandle,
+            long uniqueId,
+            boolean traceOn)
+            throws EEException
+    {
+        throw new RuntimeException("RO MP Site doesn't do this, shouldn't be here.");
+    }
+
     @Override
     public boolean usingFallbackBuffer() {
         return false;
@@ -20,6 +20,7 @@ package org.voltdb.iv2;
 import java.io.IOException;
 import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Deque;
 import java.util.HashMap;
@@ -150,6 +151,44 @@ public class Site implements Runnable, SiteProcedureConnection, SiteSnapshotConn
     // Manages pending tasks.
     final SiteTaskerQueue m_scheduler;
 
+    // Maximum number of tasks taken from the scheduler per wakeup of the site thread
+    private static final int TASK_BATCH_SIZE = Integer.getInteger("SITE_TASK_BATCH_SIZE", 64);
+
+    // Seconds a table block has to go without writes before the EE keeps a columnar
+    // copy of it for aggregate scans, 0 to disable
+    private static final int COLUMNAR_COLD_SECONDS = Integer.getInteger("EE_COLUMNAR_COLD_SECONDS", 0);
+
+    // Build hash indexes on integer keys with the open addressing table instead of the chained one
+    private static final boolean OPEN_HASH_INDEXES = Boolean.getBoolean("EE_OPEN_HASH_INDEXES");
+
+    // Tuples the EE scans for the indexes a catalog update is building incrementally per
+    // step. Steps run as site tasks, with transactions queued meanwhile running in between,
+    // and after every write transaction. Only the latter count towards completing the build,
+    // so that each replica completes it at the same transaction. Must match across the cluster.
+    private static final long INDEX_BUILD_CHUNK_TUPLES = Long.getLong("INDEX_BUILD_CHUNK_TUPLES", 50000);
+    private boolean m_indexBuildScheduled = false;
+    private boolean m_indexBuildPending = false;
+    private final SiteTasker m_indexBuildTask = new SiteTasker.SiteTaskerRunnable() {
+        @Override
+        void run() {
+            if (buildIndexes(false) > 0) {
+                m_scheduler.offer(this);
+            }
+            else {
+                m_indexBuildScheduled = false;
+            }
+        }
+    };
+    private final ArrayList<SiteTasker> m_taskBatch = new ArrayList<>(TASK_BATCH_SIZE);
+
+    // Microseconds the EE may spend merging sparse table blocks each time the task queue
+    // runs empty, 0 to only compact tables as transactions finish
+    private static final long IDLE_COMPACTION_BUDGET_MICROS = Long.getLong("IDLE_COMPACTION_BUDGET_MICROS", 2000);
+    // Set by every tick, cleared once the EE reports no fragmented tables
+    private boolean m_idleCompactionDue = false;
+    // Tuple storage freed by idle compaction since the site started
+    private long m_idleCompactedBytes = 0;
+
     /*
      * There is really no legitimate reason to touch the initiator mailbox from the site,
      * but it turns out to be necessary at startup when restoring a snapshot. The snapshot
@@ -792,9 +831,20 @@ public class Site implements Runnable, SiteProcedureConnection, SiteSnapshotConn
                         String.format("Unexpected BackendTarget value %s", m_backend)
                 );
             }
+            if (OPEN_HASH_INDEXES) {
+                // before the catalog, which creates the indexes
+                ByteBuffer paramBuffer = eeTemp.getParamBufferForExecuteTask(4);
+                paramBuffer.putInt(1);
+                eeTemp.executeTask(TaskType.SET_OPEN_HASH_INDEXES, paramBuffer);
+            }
             eeTemp.loadCatalog(m_startupConfig.m_timestamp, m_startupConfig.m_serializedCatalog);
             eeTemp.setBatchTimeout(m_context.cluster.getDeployment().get("deployment").
                             getSystemsettings().get("systemsettings").getQuerytimeout());
+            if (COLUMNAR_COLD_SECONDS > 0) {
+                ByteBuffer paramBuffer = eeTemp.getParamBufferForExecuteTask(4);
+                paramBuffer.putInt(COLUMNAR_COLD_SECONDS);
+                eeTemp.executeTask(TaskType.SET_COLUMNAR_COLD_BLOCKS, paramBuffer);
+            }
         }
         // just print error info an bail if we run into an error here
         catch (final Exception ex) {
@@ -825,13 +875,27 @@ public class Site implements Runnable, SiteProcedureConnection, SiteSnapshotConn
         try {
             while (m_shouldContinue) {
                 if (m_rejoinState == kStateRunning) {
-                    // Normal operation blocks the site thread on the sitetasker queue.
-                    SiteTasker task = m_scheduler.take();
-                    if (task instanceof TransactionTask) {
-                        m_currentTxnId = ((TransactionTask)task).getTxnId();
-                        m_lastTxnTime = EstTime.currentTimeMillis();
+                    if (m_idleCompactionDue && m_scheduler.isEmpty()) {
+                        // Nothing to run, spend a slice of the gap compacting tables
+                        m_idleCompactionDue = compactTablesWhileIdle();
+                        continue;
+                    }
+                    // Normal operation blocks the site thread on the sitetasker queue
+                    // and then runs everything that was ready when it woke up.
+                    // Running is the final rejoin state so only shutdown can end the batch early.
+                    // Every task still makes its own EE calls. Packing procedures into one call
+                    // would need the EE to take a txnId, spHandle, uniqueId and undo token per
+                    // procedure in a single executePlanFragments, which it doesn't.
+                    m_scheduler.drainTo(m_taskBatch, TASK_BATCH_SIZE);
+                    for (int i = 0; i < m_taskBatch.size() && m_shouldContinue; i++) {
+                        SiteTasker task = m_taskBatch.get(i);
+                        if (task instanceof TransactionTask) {
+                            m_currentTxnId = ((TransactionTask)task).getTxnId();
+                            m_lastTxnTime = EstTime.currentTimeMillis();
+                        }
+                        task.run(getSiteProcedureConnection());
                     }
-                    task.run(getSiteProcedureConnection());
+                    m_taskBatch.clear();
                 } else if (m_rejoinState == kStateReplayingRejoin) {
                     // Rejoin operation poll and try to do some catchup work. Tasks
                     // are responsible for logging any rejoin work they might have.
@@ -1195,22 +1259,39 @@ public class Site implements Runnable, SiteProcedureConnection, SiteSnapshotConn
         //Any new txnid will create a new undo quantum, including the same txnid again
         m_latestUndoTxnId = Long.MIN_VALUE;
         //If the begin undo token is not set the txn never did any work so there is nothing to undo/release
-        if (beginUndoToken == Site.kInvalidUndoToken) {
-            return;
-        }
-        if (rollback) {
-            m_ee.undoUndoToken(beginUndoToken);
-        }
-        else {
-            assert(m_latestUndoToken != Site.kInvalidUndoToken);
-            assert(m_latestUndoToken >= beginUndoToken);
-            if (m_latestUndoToken > beginUndoToken) {
-                m_ee.releaseUndoToken(m_latestUndoToken, isEmptyDRTxn);
+        if (beginUndoToken != Site.kInvalidUndoToken) {
+            if (rollback) {
+                m_ee.undoUndoToken(beginUndoToken);
+            }
+            else {
+                assert(m_latestUndoToken != Site.kInvalidUndoToken);
+                assert(m_latestUndoToken >= beginUndoToken);
+                if (m_latestUndoToken > beginUndoToken) {
+                    m_ee.releaseUndoToken(m_latestUndoToken, isEmptyDRTxn);
+                }
             }
+
+            // java level roll back
+            handleUndoLog(undoLog, rollback);
+        }
+
+        // Every replica finishes the same write transactions in the same order
+        if (m_indexBuildPending) {
+            m_indexBuildPending = buildIndexes(true) > 0;
         }
+    }
 
-        // java level roll back
-        handleUndoLog(undoLog, rollback);
+    /**
+     * Take a step in building the indexes catalog updates added incrementally.
+     * Returns the number of tables still building, or with tuples left to scan
+     * if the step is not taken in transaction order.
+     */
+    private long buildIndexes(boolean ordered)
+    {
+        ByteBuffer paramBuffer = m_ee.getParamBufferForExecuteTask(9);
+        paramBuffer.putLong(INDEX_BUILD_CHUNK_TUPLES);
+        paramBuffer.put(ordered ? (byte) 1 : (byte) 0);
+        return ByteBuffer.wrap(m_ee.executeTask(TaskType.BUILD_INDEXES, paramBuffer)).getLong();
     }
 
     @Override
@@ -1290,6 +1371,21 @@ public class Site implements Runnable, SiteProcedureConnection, SiteSnapshotConn
 
         m_ee.tick(time, m_lastCommittedSpHandle);
         statsTick(time);
+        m_idleCompactionDue = IDLE_COMPACTION_BUDGET_MICROS > 0;
+    }
+
+    /**
+     * Let the EE merge table blocks for one idle time slice.
+     * @return true if tables were still fragmented when the slice ran out
+     */
+    private boolean compactTablesWhileIdle()
+    {
+        ByteBuffer paramBuffer = m_ee.getParamBufferForExecuteTask(8);
+        paramBuffer.putLong(IDLE_COMPACTION_BUDGET_MICROS);
+        ByteBuffer resultBuffer = ByteBuffer.wrap(m_ee.executeTask(TaskType.COMPACT_TABLES, paramBuffer));
+        long fragmentedTables = resultBuffer.getLong();
+        m_idleCompactedBytes += resultBuffer.getLong();
+        return fragmentedTables > 0;
     }
 
     /**
@@ -1395,7 +1491,8 @@ public class Site implements Runnable, SiteProcedureConnection, SiteSnapshotConn
                                             tupleAllocatedMem,
                                             indexMem,
                                             stringMem,
-                                            m_ee.getThreadLocalPoolAllocations());
+                                            m_ee.getThreadLocalPoolAllocations(),
+                                            m_idleCompactedBytes / 1024);
             }
         }
     }
@@ -1553,6 +1650,43 @@ public class Site implements Runnable, SiteProcedureConnection, SiteSnapshotConn
                 traceOn);
     }
 
+    @Override
+    public FastDeserializer executeUndoFreePlanFragments(
+            int numFragmentIds,
+            long[] planFragmentIds,
+            Object[] parameterSets,
+            DeterminismHash determinismHash,
+            String[] sqlTexts,
+            boolean[] isWriteFrags,
+            int[] sqlCRCs,
+            long txnId,
+            long spHandle,
+            long uniqueId,
+            boolean traceOn)
+            throws EEException
+    {
+        // The EE ends DR transactions as it releases their undo quanta
+        if (VoltDB.instance().getNodeDRGateway() != null) {
+            return executePlanFragments(numFragmentIds, planFragmentIds, null, parameterSets, determinismHash,
+                    sqlTexts, isWriteFrags, sqlCRCs, txnId, spHandle, uniqueId, false, traceOn);
+        }
+        return m_ee.executePlanFragments(
+                numFragmentIds,
+                planFragmentIds,
+                null,
+                parameterSets,
+                determinismHash,
+                sqlTexts,
+                isWriteFrags,
+                sqlCRCs,
+                txnId,
+                spHandle,
+                m_lastCommittedSpHandle,
+                uniqueId,
+                Long.MAX_VALUE,
+                traceOn);
+    }
+
     @Override
     public boolean usingFallbackBuffer() {
         return m_ee.usingFallbackBuffer();
@@ -1650,6 +1784,12 @@ public class Site implements Runnable, SiteProcedureConnection, SiteSnapshotConn
         //No need to quiesce as there is no rolling of generation OLD datasources will be polled and pushed until there is no more data.
         //m_ee.quiesce(m_lastCommittedSpHandle);
         m_ee.updateCatalog(m_context.m_genId, requiresNewExportGeneration, diffCmds);
+        // Indexes added to large tables are left for the EE to populate
+        m_indexBuildPending = true;
+        if (!m_indexBuildScheduled) {
+            m_indexBuildScheduled = true;
+            m_scheduler.offer(m_indexBuildTask);
+        }
         if (DRCatalogChange) {
             final DRCatalogCommands catalogCommands = DRCatalogDiffEngine.serializeCatalogCommandsForDr(m_context.catalog, -1);
             generateDREvent(EventType.CATALOG_UPDATE, txnId, uniqueId, m_lastCommittedSpHandle,
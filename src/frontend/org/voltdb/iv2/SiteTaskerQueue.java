@@ -17,16 +17,18 @@
 
 package org.voltdb.iv2;
 
-import java.util.concurrent.LinkedTransferQueue;
+import java.util.Collection;
 
 import org.voltcore.utils.CoreUtils;
+import org.voltcore.utils.MpscArrayQueue;
 import org.voltdb.QueueDepthTracker;
 import org.voltdb.StarvationTracker;
 
 /** SiteTaskerScheduler orders SiteTaskers for execution. */
 public class SiteTaskerQueue
 {
-    private final LinkedTransferQueue<SiteTasker> m_tasks = new LinkedTransferQueue<SiteTasker>();
+    // Many threads offer, only the site thread takes
+    private final MpscArrayQueue<SiteTasker> m_tasks = new MpscArrayQueue<SiteTasker>();
     private StarvationTracker m_starvationTracker;
     private QueueDepthTracker m_queueDepthTracker;
     private int m_partitionId;
@@ -62,7 +64,7 @@ public class SiteTaskerQueue
             return task;
         }
         try {
-            task = CoreUtils.queueSpinTake(m_tasks);
+            task = m_tasks.take(CoreUtils.QUEUE_SPIN_MICROSECONDS);
             // task is never null
             m_queueDepthTracker.pollUpdate(task.getQueueOfferTime());
             return task;
@@ -71,6 +73,31 @@ public class SiteTaskerQueue
         }
     }
 
+    /**
+     * Block on the site tasker queue until at least one task is available, then move
+     * up to maxTasks tasks into the batch so they can be run with a single wakeup.
+     * @return The number of tasks added to the batch, at least one
+     */
+    public int drainTo(Collection<SiteTasker> batch, int maxTasks) throws InterruptedException
+    {
+        SiteTasker task = m_tasks.poll();
+        if (task == null) {
+            m_starvationTracker.beginStarvation();
+            try {
+                task = m_tasks.take(CoreUtils.QUEUE_SPIN_MICROSECONDS);
+            } finally {
+                m_starvationTracker.endStarvation();
+            }
+        }
+        int count = 0;
+        do {
+            m_queueDepthTracker.pollUpdate(task.getQueueOfferTime());
+            batch.add(task);
+            ++count;
+        } while (count < maxTasks && (task = m_tasks.poll()) != null);
+        return count;
+    }
+
     // Non-blocking poll on the site tasker queue.
     public SiteTasker poll()
     {
@@ -32,6 +32,7 @@ import org.voltcore.logging.VoltLogger;
 import org.voltcore.utils.CoreUtils;
 import org.voltcore.utils.DBBPool;
 import org.voltcore.utils.Pair;
+import org.voltcore.utils.RefCountedBuffer;
 import org.voltdb.CatalogContext;
 import org.voltdb.PlannerStatsCollector;
 import org.voltdb.PlannerStatsCollector.CacheUse;
@@ -79,7 +80,11 @@ public abstract class ExecutionEngine implements FastDeserializer.Deserializatio
         SET_MERGED_DRID_TRACKER(7),
         INIT_DRID_TRACKER(8),
         RESET_DR_APPLIED_TRACKER_SINGLE(9),
-        ELASTIC_CHANGE(10);
+        ELASTIC_CHANGE(10),
+        SET_COLUMNAR_COLD_BLOCKS(11),
+        BUILD_INDEXES(12),
+        COMPACT_TABLES(13),
+        SET_OPEN_HASH_INDEXES(14);
 
         private TaskType(int taskId) {
             this.taskId = taskId;
@@ -189,6 +194,17 @@ public abstract class ExecutionEngine implements FastDeserializer.Deserializatio
         return m_usingFallbackBuffer;
     }
 
+    /**
+     * Give up the buffer the result tables of the last batch were written to, so they can reach
+     * the client without being copied, and switch to a fresh buffer for the following batches.
+     * @param results Tables returned by the last batch of plan fragments
+     * @return The buffer with a reference owned by the caller, or null if the tables are not all
+     * backed by it or the engine has no replacement to spare, in which case they must be copied.
+     */
+    public RefCountedBuffer detachResultBuffer(VoltTable[] results) {
+        return null;
+    }
+
     public void setBatchTimeout(int batchTimeout) {
         m_batchTimeout = batchTimeout;
     }
@@ -648,6 +664,17 @@ public abstract class ExecutionEngine implements FastDeserializer.Deserializatio
         m_currentProcedureName = null;
     }
 
+    private static boolean hasWriteFragment(boolean[] isWriteFrags) {
+        if (isWriteFrags != null) {
+            for (boolean isWrite : isWriteFrags) {
+                if (isWrite) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     /** Run multiple plan fragments */
     public FastDeserializer executePlanFragments(
             int numFragmentIds,
@@ -667,7 +694,9 @@ public abstract class ExecutionEngine implements FastDeserializer.Deserializatio
     {
         try {
             // For now, re-transform undoQuantumToken to readOnly. Redundancy work in site.executePlanFragments()
-            m_fragmentContext = (undoQuantumToken == Long.MAX_VALUE) ? FragmentContext.RO_BATCH : FragmentContext.RW_BATCH;
+            // Undo-free writes run without an undo quantum too, but can't be timed out like reads.
+            m_fragmentContext = (undoQuantumToken == Long.MAX_VALUE && !hasWriteFragment(isWriteFrags)) ?
+                    FragmentContext.RO_BATCH : FragmentContext.RW_BATCH;
 
             // reset context for progress updates
             m_sqlTexts = sqlTexts;
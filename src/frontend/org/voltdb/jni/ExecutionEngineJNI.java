@@ -25,6 +25,7 @@ import java.util.List;
 import org.voltcore.utils.DBBPool;
 import org.voltcore.utils.DBBPool.BBContainer;
 import org.voltcore.utils.Pair;
+import org.voltcore.utils.RefCountedBuffer;
 import org.voltdb.ParameterSet;
 import org.voltdb.PrivateVoltTableFactory;
 import org.voltdb.StatsSelector;
@@ -76,6 +77,10 @@ public class ExecutionEngineJNI extends ExecutionEngine {
     // 256K is a reasonable size for those relatively small buffers.
     private static final int smallBufferSize = 256 * 1024;
 
+    // Number of first result buffers each engine may have, including the one it is using.
+    // The others hold large results handed off to the network, see detachResultBuffer().
+    private static final int RESULT_BUFFER_LIMIT = Integer.getInteger("EE_RESULT_BUFFER_LIMIT", 4);
+
     static {
         EE_COMPACTION_THRESHOLD = Integer.getInteger("EE_COMPACTION_THRESHOLD", 95);
         if (EE_COMPACTION_THRESHOLD < 0 || EE_COMPACTION_THRESHOLD > 99) {
@@ -117,7 +122,9 @@ public class ExecutionEngineJNI extends ExecutionEngine {
      * that rely on being able to serialize large results sets will get the same amount of storage
      * when using the IPC backend.
      **/
-    private final BBContainer m_firstDeserializerBufferOrigin = org.voltcore.utils.DBBPool.allocateDirect(1024 * 1024 * 10);
+    private final RefCountedBuffer.Pool m_firstDeserializerBufferPool =
+            new RefCountedBuffer.Pool(1024 * 1024 * 10, Math.max(1, RESULT_BUFFER_LIMIT));
+    private RefCountedBuffer m_firstDeserializerBufferOrigin = m_firstDeserializerBufferPool.acquire();
     private FastDeserializer m_firstDeserializer =
             new FastDeserializer(m_firstDeserializerBufferOrigin.b());
     private final BBContainer m_nextDeserializerBufferOrigin = org.voltcore.utils.DBBPool.allocateDirect(1024 * 1024 * 10);
@@ -309,7 +316,8 @@ public class ExecutionEngineJNI extends ExecutionEngine {
             checkErrorCode(errorCode);
         }
         m_firstDeserializer = null;
-        m_firstDeserializerBufferOrigin.discard();
+        m_firstDeserializerBufferOrigin.release();
+        m_firstDeserializerBufferPool.close();
         m_nextDeserializer = null;
         m_nextDeserializerBufferOrigin.discard();
         m_exceptionBuffer = null;
@@ -489,6 +497,24 @@ public class ExecutionEngineJNI extends ExecutionEngine {
         }
     }
 
+    @Override
+    public RefCountedBuffer detachResultBuffer(VoltTable[] results) {
+        for (VoltTable vt : results) {
+            if (m_firstDeserializerBufferOrigin.offsetOf(PrivateVoltTableFactory.getTableDataReference(vt)) < 0) {
+                return null;
+            }
+        }
+        final RefCountedBuffer replacement = m_firstDeserializerBufferPool.acquire();
+        if (replacement == null) {
+            return null;
+        }
+        final RefCountedBuffer detached = m_firstDeserializerBufferOrigin;
+        m_firstDeserializerBufferOrigin = replacement;
+        m_firstDeserializer = new FastDeserializer(replacement.b());
+        updateEEBufferPointers();
+        return detached;
+    }
+
     @Override
     public VoltTable serializeTable(final int tableId) throws EEException {
         if (HOST_TRACE_ENABLED) {
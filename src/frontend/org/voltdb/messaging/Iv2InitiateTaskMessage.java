@@ -23,6 +23,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.voltcore.messaging.TransactionInfoBaseMessage;
 import org.voltcore.utils.CoreUtils;
+import org.voltdb.PreparedParameters;
 import org.voltdb.StoredProcedureInvocation;
 import org.voltdb.iv2.TxnEgo;
 import org.voltdb.iv2.UniqueIdGenerator;
@@ -55,6 +56,8 @@ public class Iv2InitiateTaskMessage extends TransactionInfoBaseMessage {
 
     // not serialized.
     AtomicBoolean m_isDurable;
+    // not serialized, parameters converted before the message got to the site
+    private volatile PreparedParameters m_preparedParams;
 
     /** Empty constructor for de-serialization */
     public Iv2InitiateTaskMessage() {
@@ -191,6 +194,20 @@ public class Iv2InitiateTaskMessage extends TransactionInfoBaseMessage {
         return m_invocation.getParams().toArray();
     }
 
+    /**
+     * Decode and convert the procedure parameters ahead of execution.
+     * Called by the thread delivering the message, not the site.
+     */
+    public void prepareParameters() {
+        if (m_preparedParams == null) {
+            m_preparedParams = PreparedParameters.prepare(m_invocation);
+        }
+    }
+
+    public PreparedParameters getPreparedParameters() {
+        return m_preparedParams;
+    }
+
     public long getClientInterfaceHandle() {
         return m_clientInterfaceHandle;
     }
@@ -134,6 +134,9 @@ public class PlanAssembler {
 
     private final boolean m_isLargeQuery;
 
+    /** Whether hash joins may replace nested loop joins, see QueryPlanner.HASH_JOIN_ENABLED. */
+    private final boolean m_hashJoinEnabled;
+
     /** Describes the specified and inferred partition context. */
     private StatementPartitioning m_partitioning;
 
@@ -156,16 +159,20 @@ public class PlanAssembler {
      *            Catalog info about schema, metadata and procedures.
      * @param partitioning
      *            Describes the specified and inferred partition context.
+     * @param hashJoinEnabled
+     *            Whether hash joins may be planned.
      */
     PlanAssembler(
             Database catalogDb,
             StatementPartitioning partitioning,
             PlanSelector planSelector,
-            boolean isLargeQuery) {
+            boolean isLargeQuery,
+            boolean hashJoinEnabled) {
         m_catalogDb = catalogDb;
         m_partitioning = partitioning;
         m_planSelector = planSelector;
         m_isLargeQuery = isLargeQuery;
+        m_hashJoinEnabled = hashJoinEnabled;
     }
 
     String getSQLText() {
@@ -311,7 +318,8 @@ public class PlanAssembler {
                 // Convert RIGHT joins to the LEFT ones
                 ((BranchNode)m_parsedSelect.m_joinTree).toLeftJoin();
             }
-            m_subAssembler = new SelectSubPlanAssembler(m_catalogDb, m_parsedSelect, m_partitioning);
+            m_subAssembler = new SelectSubPlanAssembler(m_catalogDb, m_parsedSelect, m_partitioning,
+                    m_hashJoinEnabled);
 
             // Process the GROUP BY information, decide whether it is group by the partition column
             if (isPartitionColumnInGroupbyList(m_parsedSelect.groupByColumns())) {
@@ -785,7 +793,8 @@ public class PlanAssembler {
             StatementPartitioning partitioning = (StatementPartitioning)m_partitioning.clone();
             PlanSelector planSelector = (PlanSelector) m_planSelector.clone();
             planSelector.m_planId = planId;
-            PlanAssembler assembler = new PlanAssembler(m_catalogDb, partitioning, planSelector, m_isLargeQuery);
+            PlanAssembler assembler = new PlanAssembler(m_catalogDb, partitioning, planSelector,
+                    m_isLargeQuery, m_hashJoinEnabled);
             CompiledPlan bestChildPlan = assembler.getBestCostPlan(parsedChildStmt);
             partitioning = assembler.m_partitioning;
 
@@ -958,7 +967,8 @@ public class PlanAssembler {
         PlanSelector planSelector = (PlanSelector)m_planSelector.clone();
         planSelector.m_planId = planId;
         StatementPartitioning currentPartitioning = (StatementPartitioning)m_partitioning.clone();
-        PlanAssembler assembler = new PlanAssembler(m_catalogDb, currentPartitioning, planSelector, m_isLargeQuery);
+        PlanAssembler assembler = new PlanAssembler(m_catalogDb, currentPartitioning, planSelector,
+                m_isLargeQuery, m_hashJoinEnabled);
         CompiledPlan compiledPlan = assembler.getBestCostPlan(stmt);
         // make sure we got a winner
         if (compiledPlan == null) {
@@ -1164,10 +1174,11 @@ public class PlanAssembler {
 
                         List<AbstractPlanNode> nljs = receiveNode.findAllNodesOfType(PlanNodeType.NESTLOOP);
                         List<AbstractPlanNode> nlijs = receiveNode.findAllNodesOfType(PlanNodeType.NESTLOOPINDEX);
+                        List<AbstractPlanNode> hjs = receiveNode.findAllNodesOfType(PlanNodeType.HASHJOIN);
 
                         // outer join edge case does not have any join plan node under receive node.
                         // This is like a single table case.
-                        if (nljs.size() + nlijs.size() == 0) {
+                        if (nljs.size() + nlijs.size() + hjs.size() == 0) {
                             mvFixInfoEdgeCaseOuterJoin = true;
                         }
                         root = handleMVBasedMultiPartQuery(reAggNode, root, mvFixInfoEdgeCaseOuterJoin);
@@ -2395,7 +2406,8 @@ public class PlanAssembler {
         }
 
         // For join node, find outer sequential scan plan node
-        if (candidate.getPlanNodeType() == PlanNodeType.NESTLOOP) {
+        if (candidate.getPlanNodeType() == PlanNodeType.NESTLOOP ||
+                candidate.getPlanNodeType() == PlanNodeType.HASHJOIN) {
             assert(candidate.getChildCount() == 2);
             return findSeqScanCandidateForGroupBy(candidate.getChild(0));
         }
@@ -55,6 +55,7 @@ public class QueryPlanner implements AutoCloseable {
     private PlanSelector m_planSelector;
     private boolean m_isUpsert;
     private boolean m_isLargeQuery;
+    private final boolean m_hashJoinEnabled;
 
     // generated by parse(..)
     private VoltXMLElement m_xmlSQL = null;
@@ -70,6 +71,13 @@ public class QueryPlanner implements AutoCloseable {
 
     public final static String UPSERT_TAG = "isUpsert";
 
+    /**
+     * Whether equi-joins of sequential scans may be planned as hash joins. The planner's
+     * uniform table estimates would turn nearly every such join into a hash join, so this
+     * is off unless the HASH_JOIN system property is set to true.
+     */
+    public static final boolean HASH_JOIN_ENABLED = Boolean.getBoolean("HASH_JOIN");
+
     private static final Lock PLANNER_LOCK = new ReentrantLock();
 
     /**
@@ -96,6 +104,8 @@ public class QueryPlanner implements AutoCloseable {
      * @param costModel The current cost model to evaluate plans with.
      * @param paramHints
      * @param joinOrder
+     * @param detMode
+     * @param isLargeQuery
      */
     public QueryPlanner(String sql,
                         String stmtName,
@@ -110,6 +120,28 @@ public class QueryPlanner implements AutoCloseable {
                         String joinOrder,
                         DeterminismMode detMode,
                         boolean isLargeQuery) {
+        this(sql, stmtName, procName, catalogDb, partitioning, HSQL, estimates, suppressDebugOutput,
+                costModel, paramHints, joinOrder, detMode, isLargeQuery, HASH_JOIN_ENABLED);
+    }
+
+    /**
+     * Initialize planner as above, choosing whether hash joins may be planned
+     * instead of following {@link #HASH_JOIN_ENABLED}.
+     */
+    public QueryPlanner(String sql,
+                        String stmtName,
+                        String procName,
+                        Database catalogDb,
+                        StatementPartitioning partitioning,
+                        HSQLInterface HSQL,
+                        DatabaseEstimates estimates,
+                        boolean suppressDebugOutput,
+                        AbstractCostModel costModel,
+                        ScalarValueHints[] paramHints,
+                        String joinOrder,
+                        DeterminismMode detMode,
+                        boolean isLargeQuery,
+                        boolean hashJoinEnabled) {
         PLANNER_LOCK.lock();
         assert(sql != null);
         assert(stmtName != null);
@@ -131,6 +163,7 @@ public class QueryPlanner implements AutoCloseable {
         m_joinOrder = joinOrder;
         m_detMode = detMode;
         m_isLargeQuery = isLargeQuery;
+        m_hashJoinEnabled = hashJoinEnabled;
         m_planSelector = new PlanSelector(m_estimates, m_stmtName,
                 m_procName, m_sql, m_costModel, m_paramHints, m_detMode,
                 suppressDebugOutput);
@@ -426,7 +459,7 @@ public class QueryPlanner implements AutoCloseable {
         // Init Assembler. Each plan assembler requires a new instance of the PlanSelector
         // to keep track of the best plan
         PlanAssembler assembler = new PlanAssembler(m_db, m_partitioning,
-                (PlanSelector) m_planSelector.clone(), m_isLargeQuery);
+                (PlanSelector) m_planSelector.clone(), m_isLargeQuery, m_hashJoinEnabled);
         // find the plan with minimal cost
         CompiledPlan bestPlan = assembler.getBestCostPlan(parsedStmt);
 
@@ -112,7 +112,8 @@ public class ScanDeterminizer {
                 continue;
             }
             // skip hash indexes
-            else if (index.getType() != IndexType.BALANCED_TREE.getValue()) {
+            else if (index.getType() != IndexType.BALANCED_TREE.getValue() &&
+                     index.getType() != IndexType.BTREE.getValue()) {
                 continue;
             }
             // skip partial indexes
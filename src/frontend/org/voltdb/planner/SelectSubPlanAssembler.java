@@ -19,7 +19,9 @@ package org.voltdb.planner;
 
 import java.util.*;
 
+import org.voltdb.VoltType;
 import org.voltdb.catalog.Database;
+import org.voltdb.compiler.DatabaseEstimates;
 import org.voltdb.expressions.AbstractExpression;
 import org.voltdb.expressions.ExpressionUtil;
 import org.voltdb.expressions.TupleValueExpression;
@@ -32,11 +34,14 @@ import org.voltdb.plannodes.IndexSortablePlanNode;
 import org.voltdb.plannodes.AbstractJoinPlanNode;
 import org.voltdb.plannodes.AbstractPlanNode;
 import org.voltdb.plannodes.AbstractReceivePlanNode;
+import org.voltdb.plannodes.HashJoinPlanNode;
 import org.voltdb.plannodes.IndexScanPlanNode;
 import org.voltdb.plannodes.IndexUseForOrderBy;
 import org.voltdb.plannodes.MaterializedScanPlanNode;
 import org.voltdb.plannodes.NestLoopIndexPlanNode;
 import org.voltdb.plannodes.NestLoopPlanNode;
+import org.voltdb.plannodes.SeqScanPlanNode;
+import org.voltdb.types.ExpressionType;
 import org.voltdb.types.JoinType;
 import org.voltdb.utils.PermutationGenerator;
 
@@ -65,6 +70,11 @@ public class SelectSubPlanAssembler extends SubPlanAssembler {
     private static final short MAX_HEAP_MEMORY_USAGE_PCT = 80;
     private static final long MAX_ALLOWED_PLAN_MEMORY = RUN_TIME.maxMemory() * MAX_HEAP_MEMORY_USAGE_PCT / 100;
 
+    // Whether nested loop joins of sequential scans may be replaced by hash joins, see getHashJoinPlanNode().
+    private final boolean m_hashJoinEnabled;
+    // Relative cost of putting a tuple into the hash table compared to reading it
+    private static final double HASH_BUILD_COST_FACTOR = 2.0;
+
     /**
      * Stop further planning, if we have used more heap memory than we could hopefully exhaustively plan it out,
      * at the time this method is called.
@@ -81,10 +91,13 @@ public class SelectSubPlanAssembler extends SubPlanAssembler {
      * @param selectStmt The parsed and dissected statement object describing the sql to execute.
      * @param partitioning in/out param first element is partition key value, forcing a single-partition statement if non-null,
      * second may be an inferred partition key if no explicit single-partitioning was specified
+     * @param hashJoinEnabled Whether hash joins may be planned.
      */
-    SelectSubPlanAssembler(Database db, ParsedSelectStmt selectStmt, StatementPartitioning partitioning)
+    SelectSubPlanAssembler(Database db, ParsedSelectStmt selectStmt, StatementPartitioning partitioning,
+                           boolean hashJoinEnabled)
     {
         super(db, selectStmt, partitioning);
+        m_hashJoinEnabled = hashJoinEnabled;
         if (selectStmt.hasJoinOrder()) {
             // If a join order was provided or large number of tables join
             m_joinOrders.addAll(selectStmt.getJoinOrder());
@@ -593,6 +606,7 @@ public class SelectSubPlanAssembler extends SubPlanAssembler {
             // branch node is an inner join.
             if ((answer != null)
                     && (branchJoinNode.getJoinType() == JoinType.INNER)
+                    && ! (answer instanceof HashJoinPlanNode)
                     && outerScanPlan instanceof IndexSortablePlanNode) {
                 IndexUseForOrderBy indexUseForJoin = answer.indexUse();
                 IndexUseForOrderBy indexUseFromScan = ((IndexSortablePlanNode)outerScanPlan).indexUse();
@@ -737,7 +751,6 @@ public class SelectSubPlanAssembler extends SubPlanAssembler {
 
         AbstractJoinPlanNode ajNode = null;
         if (canHaveNLJ) {
-            NestLoopPlanNode nljNode = new NestLoopPlanNode();
             // get all the clauses that join the applicable two tables
             // Copy innerAccessPath.joinExprs to leave it unchanged,
             // avoiding accumulation of redundant expressions when
@@ -778,6 +791,15 @@ public class SelectSubPlanAssembler extends SubPlanAssembler {
                 // the inner node ONLY, that can not be pushed down.
                 joinClauses.addAll(innerAccessPath.otherExprs);
             }
+            // An equi-join of a sequential scan may be cheaper to do as a hash join.
+            // It takes the place of the NLJ in the rest of this method.
+            AbstractJoinPlanNode nljNode = null;
+            if ( ! needInnerSendReceive) {
+                nljNode = getHashJoinPlanNode(joinNode, joinClauses, outerPlan, innerPlan);
+            }
+            if (nljNode == null) {
+                nljNode = new NestLoopPlanNode();
+            }
             nljNode.setJoinPredicate(ExpressionUtil.combinePredicates(joinClauses));
 
             // combine the tails plan graph with the new head node
@@ -825,6 +847,75 @@ public class SelectSubPlanAssembler extends SubPlanAssembler {
         return ajNode;
     }
 
+    /**
+     * If hash joins are enabled, try to plan an INNER or LEFT join with a sequential scan
+     * on the inner side as a hash join. Its keys are the equality conditions between a column
+     * of the outer tables and a column of the inner table that have the same type. The hash join
+     * is chosen over the NLJ when it is expected to touch fewer tuples: the NLJ compares every
+     * outer tuple with every inner tuple while the hash join reads both inputs once and puts
+     * the build side into a hash table.
+     *
+     * @param joinNode The join node to plan.
+     * @param joinClauses The conditions joining the outer and the inner tables.
+     * @param outerPlan The outer node plan-sub-graph.
+     * @param innerPlan The inner node plan-sub-graph.
+     * @return A hash join with its keys set or null if a NLJ should be used.
+     */
+    private HashJoinPlanNode getHashJoinPlanNode(BranchNode joinNode,
+                                                 List<AbstractExpression> joinClauses,
+                                                 AbstractPlanNode outerPlan,
+                                                 AbstractPlanNode innerPlan) {
+        if ( ! m_hashJoinEnabled ||
+                ! (innerPlan instanceof SeqScanPlanNode) ||
+                (joinNode.getJoinType() != JoinType.INNER && joinNode.getJoinType() != JoinType.LEFT)) {
+            return null;
+        }
+
+        Collection<String> innerTables = joinNode.getRightNode().generateTableJoinOrder();
+        HashJoinPlanNode hjNode = new HashJoinPlanNode();
+        for (AbstractExpression clause : joinClauses) {
+            if (clause.getExpressionType() != ExpressionType.COMPARE_EQUAL ||
+                    ! (clause.getLeft() instanceof TupleValueExpression) ||
+                    ! (clause.getRight() instanceof TupleValueExpression)) {
+                continue;
+            }
+            TupleValueExpression left = (TupleValueExpression) clause.getLeft();
+            TupleValueExpression right = (TupleValueExpression) clause.getRight();
+            // Equal keys must hash alike, which values of different types may not.
+            // Floats are out because 0.0 and -0.0 are equal but hash differently.
+            VoltType keyType = left.getValueType();
+            if (keyType != right.getValueType() || keyType == VoltType.FLOAT ||
+                    keyType == VoltType.GEOGRAPHY || keyType == VoltType.GEOGRAPHY_POINT) {
+                continue;
+            }
+            boolean leftIsInner = innerTables.contains(left.getTableAlias());
+            boolean rightIsInner = innerTables.contains(right.getTableAlias());
+            if (leftIsInner == rightIsInner) {
+                continue;
+            }
+            if (leftIsInner) {
+                hjNode.addHashKey(right, left);
+            }
+            else {
+                hjNode.addHashKey(left, right);
+            }
+        }
+        if (hjNode.getOuterHashExpressions().isEmpty()) {
+            return null;
+        }
+
+        // Estimate the sizes of both inputs the same way the plan selector will cost them.
+        PlanStatistics stats = new PlanStatistics();
+        DatabaseEstimates estimates = new DatabaseEstimates();
+        outerPlan.computeEstimatesRecursively(stats, estimates, null);
+        innerPlan.computeEstimatesRecursively(stats, estimates, null);
+        double outerTuples = outerPlan.getEstimatedOutputTupleCount();
+        double innerTuples = innerPlan.getEstimatedOutputTupleCount();
+        double nestLoopCost = outerTuples * innerTuples;
+        double hashJoinCost = outerTuples + HASH_BUILD_COST_FACTOR * innerTuples;
+        return hashJoinCost < nestLoopCost ? hjNode : null;
+    }
+
     /**
      * A method to filter out single-TVE expressions.
      *
@@ -345,8 +345,16 @@ public abstract class CatalogSizing {
             isize.widthMin += TUPLE_MAP_ENTRY + MIN_CELLS * CELL_MAP_ENTRY;
             isize.widthMax += TUPLE_MAP_ENTRY + MAX_CELLS * CELL_MAP_ENTRY;
         }
+        else if (index.getType() == IndexType.BTREE.getValue() && isIntegerKey(index, indexColumns)) {
+            // B+tree entries are packed into wide nodes without per row pointers.
+            // Full nodes only add the tuple address, nodes that are half full
+            // after random inserts and deletes take twice the size of an entry.
+            isize.widthMin += TUPLE_PTR_SIZE;
+            isize.widthMax += isize.widthMax + 2 * TUPLE_PTR_SIZE;
+        }
         else {
             // Tree indexes have a 40 byte overhead per row.
+            // This includes BTREE indexes on keys that the EE keeps in a tree index instead.
             isize.widthMin += TREE_MAP_ENTRY_OVERHEAD + TUPLE_PTR_SIZE;
             isize.widthMax += TREE_MAP_ENTRY_OVERHEAD + TUPLE_PTR_SIZE;
         }
@@ -354,6 +362,18 @@ public abstract class CatalogSizing {
         return isize;
     }
 
+    private static boolean isIntegerKey(Index index, List<Column> indexColumns) {
+        if ( ! index.getExpressionsjson().isEmpty()) {
+            return false;
+        }
+        for (Column column : indexColumns) {
+            if ( ! VoltType.get((byte) column.getType()).isBackendIntegerType()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private static TableSize getTableSize(Table table, boolean bActiveActiveEnabled) {
         // The cardinality is the estimated tuple count or an arbitrary number
         // if not estimated.
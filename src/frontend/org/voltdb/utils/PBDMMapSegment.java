@@ -0,0 +1,519 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.voltcore.logging.VoltLogger;
+import org.voltcore.utils.DBBPool;
+import org.voltcore.utils.DBBPool.BBContainer;
+import org.voltcore.utils.DBBPool.MBBContainer;
+import org.voltcore.utils.DeferredSerialization;
+import org.voltdb.utils.BinaryDeque.OutputContainerFactory;
+
+import com.google_voltpatches.common.base.Preconditions;
+
+/**
+ * A segment with the same on disk format as {@link PBDRegularSegment} that is accessed through
+ * a memory mapping of the file instead of reads and writes on the file channel.
+ *
+ * A segment opened for write maps the full {@link PBDSegment#CHUNK_SIZE} and objects are serialized
+ * or compressed straight into the mapping. The file is truncated back to the end of the last object when
+ * the segment is closed. A segment opened only for reading maps the file as it is.
+ *
+ * Every reader keeps its own offset and reads with absolute gets so readers never move a shared file position
+ * and don't interfere with each other or with the writer. The entry count is published after the object bytes
+ * are in the mapping, a reader never looks past the count it has observed.
+ */
+public class PBDMMapSegment extends PBDSegment {
+    private static final VoltLogger LOG = new VoltLogger("HOST");
+
+    private final Map<String, SegmentReader> m_readCursors = new HashMap<>();
+    private final Map<String, SegmentReader> m_closedCursors = new HashMap<>();
+
+    //ID of this segment
+    private final Long m_index;
+
+    private volatile int m_numOfEntries = -1;
+    private volatile int m_size = -1;
+
+    private MBBContainer m_buf = null;
+    // Offset just past the last object in the mapping
+    private int m_writeOffset = SEGMENT_HEADER_BYTES;
+    private boolean m_forWrite = false;
+
+    public PBDMMapSegment(Long index, File file) {
+        super(file);
+        m_index = index;
+        reset();
+    }
+
+    @Override
+    public long segmentId()
+    {
+        return m_index;
+    }
+
+    @Override
+    public File file()
+    {
+        return m_file;
+    }
+
+    @Override
+    public void reset()
+    {
+        m_syncedSinceLastEdit = false;
+    }
+
+    @Override
+    public int getNumEntries() throws IOException
+    {
+        boolean wasClosed = false;
+        if (m_closed) {
+            wasClosed = true;
+            open(false, false);
+        }
+        readHeader();
+        if (wasClosed) closeReadersAndFile();
+        return m_numOfEntries;
+    }
+
+    private void readHeader() {
+        final ByteBuffer buf = m_buf.b();
+        if (buf.capacity() >= SEGMENT_HEADER_BYTES) {
+            m_numOfEntries = buf.getInt(COUNT_OFFSET);
+            m_size = buf.getInt(SIZE_OFFSET);
+        } else {
+            m_numOfEntries = 0;
+            m_size = 0;
+        }
+    }
+
+    @Override
+    public boolean isBeingPolled()
+    {
+        return !m_readCursors.isEmpty();
+    }
+
+    @Override
+    public boolean isOpenForReading(String cursorId) {
+        return m_readCursors.containsKey(cursorId);
+    }
+
+    @Override
+    public PBDSegmentReader openForRead(String cursorId) throws IOException
+    {
+        Preconditions.checkNotNull(cursorId, "Reader id must be non-null");
+        if (m_readCursors.containsKey(cursorId) || m_closedCursors.containsKey(cursorId)) {
+            throw new IOException("Segment is already open for reading for cursor " + cursorId);
+        }
+
+        if (m_closed) {
+            open(false, false);
+            readHeader();
+        }
+        SegmentReader reader = new SegmentReader(cursorId);
+        m_readCursors.put(cursorId, reader);
+        return reader;
+    }
+
+    @Override
+    public PBDSegmentReader getReader(String cursorId) {
+        PBDSegmentReader reader = m_closedCursors.get(cursorId);
+        return (reader == null) ? m_readCursors.get(cursorId) : reader;
+    }
+
+    @Override
+    protected void openForWrite(boolean emptyFile) throws IOException {
+        open(true, emptyFile);
+    }
+
+    private void open(boolean forWrite, boolean emptyFile) throws IOException {
+        if (!m_closed) {
+            throw new IOException("Segment is already opened");
+        }
+
+        if (!m_file.exists()) {
+            if (!forWrite) {
+                throw new IOException("File " + m_file + " does not exist");
+            }
+            m_syncedSinceLastEdit = false;
+        }
+        assert(m_ras == null);
+        m_ras = new RandomAccessFile( m_file, forWrite ? "rw" : "r");
+        m_fc = m_ras.getChannel();
+        try {
+            if (forWrite) {
+                m_buf = DBBPool.wrapMBB(m_fc.map(MapMode.READ_WRITE, 0, CHUNK_SIZE));
+            } else {
+                m_buf = DBBPool.wrapMBB(m_fc.map(MapMode.READ_ONLY, 0, m_fc.size()));
+            }
+        } catch (IOException e) {
+            m_ras.close();
+            m_ras = null;
+            m_fc = null;
+            throw e;
+        }
+        m_forWrite = forWrite;
+
+        if (emptyFile) {
+            initNumEntries(0, 0);
+        } else if (forWrite) {
+            readHeader();
+            m_writeOffset = endOfEntries(m_numOfEntries);
+        }
+
+        m_closed = false;
+    }
+
+    /**
+     * Walk the object headers to find where the given number of objects ends
+     */
+    private int endOfEntries(int count) throws IOException {
+        final ByteBuffer buf = m_buf.b();
+        int offset = SEGMENT_HEADER_BYTES;
+        for (int i = 0; i < count; i++) {
+            if (offset + OBJECT_HEADER_BYTES > buf.capacity()) {
+                throw new IOException("Segment " + m_file + " is shorter than its " + count + " objects");
+            }
+            final int length = buf.getInt(offset);
+            if (length < 1) {
+                throw new IOException("Read an invalid length in segment " + m_file);
+            }
+            offset += OBJECT_HEADER_BYTES + length;
+        }
+        return offset;
+    }
+
+    @Override
+    protected void initNumEntries(int count, int size) throws IOException {
+        final ByteBuffer buf = m_buf.b();
+        buf.putInt(COUNT_OFFSET, count);
+        buf.putInt(SIZE_OFFSET, size);
+        // Truncation rewrites the count after moving the end of the segment
+        m_writeOffset = endOfEntries(count);
+        m_size = size;
+        m_numOfEntries = count;
+        m_syncedSinceLastEdit = false;
+    }
+
+    private void incrementNumEntries(int size) throws IOException
+    {
+        final ByteBuffer buf = m_buf.b();
+        buf.putInt(COUNT_OFFSET, m_numOfEntries + 1);
+        buf.putInt(SIZE_OFFSET, m_size + size);
+        m_size += size;
+        // Publish the entry last, the object bytes are already in the mapping
+        m_numOfEntries++;
+        m_syncedSinceLastEdit = false;
+    }
+
+    /**
+     * Bytes of space available for inserting more entries
+     * @return
+     */
+    private int remaining() {
+        //Subtract 8 for the length and size prefix, same as PBDRegularSegment
+        return PBDSegment.CHUNK_SIZE - m_writeOffset - SEGMENT_HEADER_BYTES;
+    }
+
+    @Override
+    public void closeAndDelete() throws IOException {
+        close();
+        m_file.delete();
+
+        m_numOfEntries = -1;
+        m_size = -1;
+    }
+
+    @Override
+    public void closeAndTruncate() throws IOException {
+        close();
+        RandomAccessFile ras = new RandomAccessFile( m_file, "rw");
+        try {
+            ras.setLength(0);
+        } finally {
+            ras.close();
+        }
+    }
+
+    @Override
+    public boolean isClosed()
+    {
+        return m_closed;
+    }
+
+    @Override
+    public void close() throws IOException {
+        m_closedCursors.clear();
+        closeReadersAndFile();
+    }
+
+    private void closeReadersAndFile() throws IOException {
+        m_readCursors.clear();
+        try {
+            if (m_buf != null) {
+                // Unmap before truncating the file, the dirty pages stay in the page cache
+                m_buf.discard();
+            }
+            if (m_ras != null && m_forWrite && m_fc.size() > m_writeOffset) {
+                m_ras.setLength(m_writeOffset);
+            }
+        } finally {
+            try {
+                if (m_ras != null) {
+                    m_ras.close();
+                }
+            } finally {
+                m_buf = null;
+                m_ras = null;
+                m_fc = null;
+                m_forWrite = false;
+                m_writeOffset = SEGMENT_HEADER_BYTES;
+                m_closed = true;
+                reset();
+            }
+        }
+    }
+
+    @Override
+    public void sync() throws IOException {
+        if (m_closed) throw new IOException("Segment closed");
+        if (!m_syncedSinceLastEdit) {
+            m_buf.b().force();
+        }
+        m_syncedSinceLastEdit = true;
+    }
+
+    @Override
+    public boolean hasAllFinishedReading() throws IOException {
+        if (m_closed) throw new IOException("Segment closed");
+
+        if (m_readCursors.size() == 0) return false;
+
+        for (SegmentReader reader : m_readCursors.values()) {
+            if (reader.m_objectReadIndex < m_numOfEntries) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public boolean offer(DBBPool.BBContainer cont, boolean compress) throws IOException
+    {
+        if (m_closed) throw new IOException("Segment closed");
+        final ByteBuffer buf = cont.b();
+        final int remaining = buf.remaining();
+        if (remaining < 32 || !buf.isDirect()) compress = false;
+        final int maxCompressedSize = (compress ? CompressionService.maxCompressedLength(remaining) : remaining) + OBJECT_HEADER_BYTES;
+        if (remaining() < maxCompressedSize) return false;
+
+        m_syncedSinceLastEdit = false;
+        try {
+            final ByteBuffer mapped = m_buf.b();
+            final ByteBuffer dest = mapped.duplicate();
+            dest.limit(m_writeOffset + maxCompressedSize);
+            dest.position(m_writeOffset + OBJECT_HEADER_BYTES);
+
+            final int length;
+            if (compress) {
+                length = CompressionService.compressBuffer(buf, dest.slice());
+                mapped.putInt(m_writeOffset, length);
+                mapped.putInt(m_writeOffset + 4, FLAG_COMPRESSED);
+            } else {
+                length = remaining;
+                dest.put(buf);
+                mapped.putInt(m_writeOffset, length);
+                mapped.putInt(m_writeOffset + 4, NO_FLAGS);
+            }
+            m_writeOffset += OBJECT_HEADER_BYTES + length;
+
+            incrementNumEntries(remaining);
+        } finally {
+            cont.discard();
+        }
+
+        return true;
+    }
+
+    @Override
+    public int offer(DeferredSerialization ds) throws IOException
+    {
+        if (m_closed) throw new IOException("closed");
+        final int fullSize = ds.getSerializedSize() + OBJECT_HEADER_BYTES;
+        if (remaining() < fullSize) return -1;
+
+        m_syncedSinceLastEdit = false;
+        final ByteBuffer dest = m_buf.b().duplicate();
+        dest.limit(m_writeOffset + fullSize);
+        dest.position(m_writeOffset);
+
+        final int written = PBDUtils.writeDeferredSerialization(dest, ds);
+        m_writeOffset += OBJECT_HEADER_BYTES + written;
+
+        incrementNumEntries(written);
+        return written;
+    }
+
+    @Override
+    public int size() {
+        return m_size;
+    }
+
+    @Override
+    protected int writeTruncatedEntry(BinaryDeque.TruncatorResponse entry) throws IOException
+    {
+        // The caller positions the file channel where the truncated object starts
+        final int entryOffset = (int)m_fc.position();
+        final ByteBuffer dest = m_buf.b().duplicate();
+        dest.limit(entryOffset + OBJECT_HEADER_BYTES + entry.getTruncatedBuffSize());
+        dest.position(entryOffset);
+        return entry.writeTruncatedObject(dest.slice());
+    }
+
+    private class SegmentReader implements PBDSegmentReader {
+        private final String m_cursorId;
+        private long m_readOffset = SEGMENT_HEADER_BYTES;
+        //Index of the next object to read, not an offset into the file
+        private int m_objectReadIndex = 0;
+        private int m_bytesRead = 0;
+        private int m_discardCount = 0;
+        private boolean m_closed = false;
+
+        public SegmentReader(String cursorId) {
+            assert(cursorId != null);
+            m_cursorId = cursorId;
+        }
+
+        @Override
+        public boolean hasMoreEntries() throws IOException {
+            return m_objectReadIndex < m_numOfEntries;
+        }
+
+        @Override
+        public boolean allReadAndDiscarded() throws IOException {
+            return m_discardCount == m_numOfEntries;
+        }
+
+        @Override
+        public BBContainer poll(OutputContainerFactory factory) throws IOException {
+            if (m_closed) throw new IOException("Reader closed");
+
+            if (!hasMoreEntries()) {
+                return null;
+            }
+
+            final ByteBuffer mapped = m_buf.b();
+            final int offset = (int)m_readOffset;
+            final int length = mapped.getInt(offset);
+            final int flags = mapped.getInt(offset + 4);
+            final boolean compressed = (flags & FLAG_COMPRESSED) != 0;
+
+            if (length < 1 || offset + OBJECT_HEADER_BYTES + length > mapped.capacity()) {
+                throw new IOException("Read an invalid length");
+            }
+
+            final ByteBuffer src = mapped.duplicate();
+            src.limit(offset + OBJECT_HEADER_BYTES + length);
+            src.position(offset + OBJECT_HEADER_BYTES);
+
+            final int uncompressedLen;
+            final DBBPool.BBContainer retcont;
+            if (compressed) {
+                final ByteBuffer compressedBuf = src.slice();
+                uncompressedLen = CompressionService.uncompressedLength(compressedBuf);
+                retcont = factory.getContainer(uncompressedLen);
+                retcont.b().limit(uncompressedLen);
+                CompressionService.decompressBuffer(compressedBuf, retcont.b());
+            } else {
+                uncompressedLen = length;
+                retcont = factory.getContainer(length);
+                retcont.b().limit(length);
+                retcont.b().put(src);
+                retcont.b().flip();
+            }
+
+            m_readOffset = offset + OBJECT_HEADER_BYTES + length;
+            m_bytesRead += uncompressedLen;
+            m_objectReadIndex++;
+
+            return new DBBPool.BBContainer(retcont.b()) {
+                private boolean m_discarded = false;
+
+                @Override
+                public void discard() {
+                    checkDoubleFree();
+                    if (m_discarded) {
+                        LOG.error("PBD Container discarded more than once");
+                        return;
+                    }
+
+                    m_discarded = true;
+                    retcont.discard();
+                    m_discardCount++;
+                }
+            };
+        }
+
+        @Override
+        public int uncompressedBytesToRead() {
+            if (m_closed) throw new RuntimeException("Reader closed");
+
+            return m_size - m_bytesRead;
+        }
+
+        @Override
+        public long readOffset() {
+            return m_readOffset;
+        }
+
+        @Override
+        public int readIndex() {
+            return m_objectReadIndex;
+        }
+
+        @Override
+        public void rewindReadOffset(int byBytes) {
+            m_readOffset -= byBytes;
+        }
+
+        @Override
+        public void close() throws IOException {
+            m_closed = true;
+            m_readCursors.remove(m_cursorId);
+            m_closedCursors.put(m_cursorId, this);
+            if (m_readCursors.isEmpty()) {
+                closeReadersAndFile();
+            }
+        }
+
+        @Override
+        public boolean isClosed() {
+            return m_closed;
+        }
+    }
+}
@@ -238,6 +238,12 @@ public class PersistentBinaryDeque implements BinaryDeque {
 
     public static final OutputContainerFactory UNSAFE_CONTAINER_FACTORY = new UnsafeOutputContainerFactory();
 
+    /**
+     * Access segments through a memory mapping instead of file channel reads and writes.
+     * Both kinds of segment have the same format on disk.
+     */
+    static final boolean USE_MMAP_SEGMENTS = Boolean.getBoolean("PBD_USE_MMAP");
+
     /**
      * Processors also log using this facility.
      */
@@ -484,6 +490,9 @@ public class PersistentBinaryDeque implements BinaryDeque {
     }
 
     private PBDSegment newSegment(long segmentId, File file) {
+        if (USE_MMAP_SEGMENTS) {
+            return new PBDMMapSegment(segmentId, file);
+        }
         return new PBDRegularSegment(segmentId, file);
     }
 
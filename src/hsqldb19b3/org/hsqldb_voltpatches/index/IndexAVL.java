@@ -1688,6 +1688,15 @@ public class IndexAVL implements Index {
         return false;
     }
 
+    private static boolean isNameRequestingBTreeIndex(String name) {
+        String noCaseName = name.toLowerCase();
+
+        if (noCaseName.contains("btree") && !noCaseName.contains("hash"))
+            return true;
+
+        return false;
+    }
+
     /**
      * VoltDB added method to get a non-catalog-dependent
      * representation of this HSQLDB object.
@@ -1727,6 +1736,7 @@ public class IndexAVL implements Index {
         String hsqlIndexName = getName().name;
         String voltdbIndexName = null;
         boolean isHashIndex = false;
+        boolean isBTreeIndex = false;
 
         if (indexConstraintMapping.containsKey(hsqlIndexName)) {
             // This is an index backing a constraint.
@@ -1741,6 +1751,7 @@ public class IndexAVL implements Index {
 
             if (!isAutoName) {
                 isHashIndex = isNameRequestingHashIndex(hsqlConstraintName);
+                isBTreeIndex = isNameRequestingBTreeIndex(hsqlConstraintName);
                 voltdbIndexName = HSQLInterface.AUTO_GEN_NAMED_CONSTRAINT_IDX + hsqlConstraintName;
             }
             else {
@@ -1779,11 +1790,13 @@ public class IndexAVL implements Index {
         else {
             // This is an index created via CREATE INDEX
             isHashIndex = isNameRequestingHashIndex(hsqlIndexName);
+            isBTreeIndex = isNameRequestingBTreeIndex(hsqlIndexName);
             voltdbIndexName = hsqlIndexName;
         }
 
         index.attributes.put("name", voltdbIndexName);
         index.attributes.put("ishashindex", isHashIndex ? "true" : "false");
+        index.attributes.put("isbtreeindex", isBTreeIndex ? "true" : "false");
 
         index.attributes.put("assumeunique", isAssumeUnique() ? "true" : "false");
         index.attributes.put("unique", isUnique() ? "true" : "false");
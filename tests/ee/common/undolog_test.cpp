@@ -61,6 +61,17 @@ private:
     MockUndoActionHistory *m_history;
 };
 
+class MockReleaseInterest : public voltdb::UndoQuantumReleaseInterest {
+public:
+    MockReleaseInterest() : m_notifications(0) {}
+
+    void notifyQuantumRelease() {
+        m_notifications++;
+    }
+
+    int m_notifications;
+};
+
 class UndoLogTest : public Test {
 public:
 
@@ -73,7 +84,8 @@ public:
     std::vector<int64_t> generateQuantumsAndActions(int numUndoQuantums, int numUndoActions) {
         std::vector<int64_t> undoTokens;
         for (int ii = 0; ii < numUndoQuantums; ii++) {
-            const int64_t undoToken = (INT64_MIN + 1) + (ii * 3);
+            // Keep the tokens increasing across calls
+            const int64_t undoToken = (INT64_MIN + 1) + (m_undoActionHistoryByQuantum.size() * 3);
             undoTokens.push_back(undoToken);
             voltdb::UndoQuantum *quantum = m_undoLog->generateUndoQuantum(undoToken);
             std::vector<MockUndoActionHistory*> histories;
@@ -292,6 +304,111 @@ TEST_F(UndoLogTest, TestTwoQuantumTwoActionUndoOneReleaseOne) {
     confirmReleaseActionHistoryOrder(m_undoActionHistoryByQuantum[0], startingIndex);
 }
 
+/*
+ * The actions of a quantum are linked through the actions themselves, check the
+ * ordering holds for a quantum with many of them.
+ */
+TEST_F(UndoLogTest, TestOneQuantumManyActionUndoOrdering) {
+    std::vector<int64_t> undoTokens = generateQuantumsAndActions( 1, 10000);
+    ASSERT_EQ( 1, undoTokens.size());
+
+    m_undoLog->undo(undoTokens[0]);
+    int startingIndex = 0;
+    confirmUndoneActionHistoryOrder(m_undoActionHistoryByQuantum[0], startingIndex);
+    ASSERT_EQ(10000, startingIndex);
+}
+
+TEST_F(UndoLogTest, TestOneQuantumManyActionReleaseOrdering) {
+    std::vector<int64_t> undoTokens = generateQuantumsAndActions( 1, 10000);
+    ASSERT_EQ( 1, undoTokens.size());
+
+    m_undoLog->release(undoTokens[0]);
+    int startingIndex = 0;
+    confirmReleaseActionHistoryOrder(m_undoActionHistoryByQuantum[0], startingIndex);
+    ASSERT_EQ(10000, startingIndex);
+}
+
+/*
+ * A quantum generated on a recycled pool must start with an empty action list
+ * and must only undo the actions registered with it.
+ */
+TEST_F(UndoLogTest, TestRecycledQuantumUndoesOnlyItsActions) {
+    std::vector<int64_t> undoTokens = generateQuantumsAndActions( 1, 3);
+    m_undoLog->release(undoTokens[0]);
+    int startingIndex = 0;
+    confirmReleaseActionHistoryOrder(m_undoActionHistoryByQuantum[0], startingIndex);
+
+    undoTokens = generateQuantumsAndActions( 1, 2);
+    ASSERT_EQ( 2, m_undoActionHistoryByQuantum.size());
+    m_undoLog->undo(undoTokens[0]);
+    startingIndex = 0;
+    confirmUndoneActionHistoryOrder(m_undoActionHistoryByQuantum[1], startingIndex);
+    ASSERT_EQ(2, staticUndoneIndex);
+    ASSERT_EQ(3, staticReleaseIndex);
+
+    undoTokens = generateQuantumsAndActions( 1, 0);
+    m_undoLog->release(undoTokens[0]);
+    ASSERT_EQ(2, staticUndoneIndex);
+    ASSERT_EQ(3, staticReleaseIndex);
+}
+
+/*
+ * A table registers itself as an interest for every row a statement touches,
+ * it should still be notified once, after every action was released.
+ */
+TEST_F(UndoLogTest, TestReleaseInterestNotifiedOnce) {
+    MockReleaseInterest first;
+    MockReleaseInterest second;
+    voltdb::UndoQuantum *quantum = m_undoLog->generateUndoQuantum(INT64_MIN + 1);
+    std::vector<MockUndoActionHistory*> histories;
+    for (int ii = 0; ii < 6; ii++) {
+        MockUndoActionHistory *history = new MockUndoActionHistory();
+        histories.push_back(history);
+        quantum->registerUndoAction(new (*quantum) MockUndoAction(history), ii < 3 ? &first : &second);
+    }
+    m_undoActionHistoryByQuantum.push_back(histories);
+
+    m_undoLog->release(INT64_MIN + 1);
+    int startingIndex = 0;
+    confirmReleaseActionHistoryOrder(histories, startingIndex);
+    ASSERT_EQ(1, first.m_notifications);
+    ASSERT_EQ(1, second.m_notifications);
+}
+
+TEST_F(UndoLogTest, TestReleaseInterestNotNotifiedOnUndo) {
+    MockReleaseInterest interest;
+    MockReleaseInterest removed;
+    voltdb::UndoQuantum *quantum = m_undoLog->generateUndoQuantum(INT64_MIN + 1);
+    std::vector<MockUndoActionHistory*> histories;
+    for (int ii = 0; ii < 3; ii++) {
+        MockUndoActionHistory *history = new MockUndoActionHistory();
+        histories.push_back(history);
+        quantum->registerUndoAction(new (*quantum) MockUndoAction(history), &removed);
+    }
+    MockUndoActionHistory *history = new MockUndoActionHistory();
+    histories.push_back(history);
+    quantum->registerUndoAction(new (*quantum) MockUndoAction(history), &interest, &removed);
+    m_undoActionHistoryByQuantum.push_back(histories);
+
+    m_undoLog->undo(INT64_MIN + 1);
+    int startingIndex = 0;
+    confirmUndoneActionHistoryOrder(histories, startingIndex);
+    ASSERT_EQ(0, interest.m_notifications);
+    ASSERT_EQ(0, removed.m_notifications);
+
+    quantum = m_undoLog->generateUndoQuantum(INT64_MIN + 4);
+    histories.clear();
+    for (int ii = 0; ii < 2; ii++) {
+        histories.push_back(new MockUndoActionHistory());
+    }
+    m_undoActionHistoryByQuantum.push_back(histories);
+    quantum->registerUndoAction(new (*quantum) MockUndoAction(histories[0]), &removed);
+    quantum->registerUndoAction(new (*quantum) MockUndoAction(histories[1]), &interest, &removed);
+    m_undoLog->release(INT64_MIN + 4);
+    ASSERT_EQ(1, interest.m_notifications);
+    ASSERT_EQ(0, removed.m_notifications);
+}
+
 int main() {
     return TestSuite::globalInstance()->runAll();
 }
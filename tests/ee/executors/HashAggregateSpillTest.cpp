@@ -0,0 +1,530 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+#include <algorithm>
+#include <string>
+#include <tuple>
+#include <vector>
+
+#include <boost/foreach.hpp>
+
+#include "harness.h"
+
+#include "test_utils/LargeTempTableTopend.hpp"
+#include "test_utils/Tools.hpp"
+#include "test_utils/UniqueEngine.hpp"
+
+#include "common/LargeTempTableBlockCache.h"
+#include "common/ValuePeeker.hpp"
+#include "common/executorcontext.hpp"
+#include "common/tabletuple.h"
+#include "execution/ExecutorVector.h"
+#include "storage/AbstractTempTable.hpp"
+#include "storage/LargeTempTable.h"
+#include "storage/table.h"
+#include "storage/tableiterator.h"
+
+using namespace voltdb;
+
+// Catalog for the following DDL:
+//
+// CREATE TABLE T (
+//     ID INTEGER NOT NULL,
+//     K INTEGER,
+//     V INTEGER,
+//     PAD VARCHAR(63 BYTES)
+// );
+// PARTITION TABLE T ON COLUMN ID;
+
+const std::string catalogPayload =
+    "add / clusters cluster\n"
+    "set /clusters#cluster localepoch 0\n"
+    "set $PREV securityEnabled false\n"
+    "set $PREV httpdportno 0\n"
+    "set $PREV jsonapi false\n"
+    "set $PREV networkpartition false\n"
+    "set $PREV heartbeatTimeout 0\n"
+    "set $PREV useddlschema false\n"
+    "set $PREV drConsumerEnabled false\n"
+    "set $PREV drProducerEnabled false\n"
+    "set $PREV drRole \"\"\n"
+    "set $PREV drClusterId 0\n"
+    "set $PREV drProducerPort 0\n"
+    "set $PREV drMasterHost \"\"\n"
+    "set $PREV drConsumerSslPropertyFile \"\"\n"
+    "set $PREV drFlushInterval 0\n"
+    "set $PREV preferredSource 0\n"
+    "add /clusters#cluster databases database\n"
+    "set /clusters#cluster/databases#database schema \"yQFUNDM1MjQ1NDE1NDQ1MjA1NDQxNDI0QwkMFDIwMjgyMBECEDQ5NDQyAQYARQEsMDQ3NDU1MjIwNEU0RjUBGCBFNTU0QzRDMkMRMAwyMDRCQjAAHR4ENTZyHgAIMDQxAXAkNTY0MTUyNDM0OAEIaDI4MzYzMzIwNDI1OTU0NDU1MzI5MjAyOTNCCg==\"\n"
+    "set $PREV isActiveActiveDRed false\n"
+    "set $PREV securityprovider \"\"\n"
+    "add /clusters#cluster/databases#database groups administrator\n"
+    "set /clusters#cluster/databases#database/groups#administrator admin true\n"
+    "set $PREV defaultproc true\n"
+    "set $PREV defaultprocread true\n"
+    "set $PREV sql true\n"
+    "set $PREV sqlread true\n"
+    "set $PREV allproc true\n"
+    "add /clusters#cluster/databases#database groups user\n"
+    "set /clusters#cluster/databases#database/groups#user admin false\n"
+    "set $PREV defaultproc true\n"
+    "set $PREV defaultprocread true\n"
+    "set $PREV sql true\n"
+    "set $PREV sqlread true\n"
+    "set $PREV allproc true\n"
+    "add /clusters#cluster/databases#database tables T\n"
+    "set /clusters#cluster/databases#database/tables#T isreplicated false\n"
+    "set $PREV partitioncolumn /clusters#cluster/databases#database/tables#T/columns#ID\n"
+    "set $PREV estimatedtuplecount 0\n"
+    "set $PREV materializer null\n"
+    "set $PREV signature \"T|iiiv\"\n"
+    "set $PREV tuplelimit 2147483647\n"
+    "set $PREV isDRed false\n"
+    "add /clusters#cluster/databases#database/tables#T columns ID\n"
+    "set /clusters#cluster/databases#database/tables#T/columns#ID index 0\n"
+    "set $PREV type 5\n"
+    "set $PREV size 4\n"
+    "set $PREV nullable false\n"
+    "set $PREV name \"ID\"\n"
+    "set $PREV defaultvalue null\n"
+    "set $PREV defaulttype 0\n"
+    "set $PREV aggregatetype 0\n"
+    "set $PREV matviewsource null\n"
+    "set $PREV matview null\n"
+    "set $PREV inbytes false\n"
+    "add /clusters#cluster/databases#database/tables#T columns K\n"
+    "set /clusters#cluster/databases#database/tables#T/columns#K index 1\n"
+    "set $PREV type 5\n"
+    "set $PREV size 4\n"
+    "set $PREV nullable true\n"
+    "set $PREV name \"K\"\n"
+    "set $PREV defaultvalue null\n"
+    "set $PREV defaulttype 0\n"
+    "set $PREV aggregatetype 0\n"
+    "set $PREV matviewsource null\n"
+    "set $PREV matview null\n"
+    "set $PREV inbytes false\n"
+    "add /clusters#cluster/databases#database/tables#T columns PAD\n"
+    "set /clusters#cluster/databases#database/tables#T/columns#PAD index 3\n"
+    "set $PREV type 9\n"
+    "set $PREV size 63\n"
+    "set $PREV nullable true\n"
+    "set $PREV name \"PAD\"\n"
+    "set $PREV defaultvalue null\n"
+    "set $PREV defaulttype 0\n"
+    "set $PREV aggregatetype 0\n"
+    "set $PREV matviewsource null\n"
+    "set $PREV matview null\n"
+    "set $PREV inbytes true\n"
+    "add /clusters#cluster/databases#database/tables#T columns V\n"
+    "set /clusters#cluster/databases#database/tables#T/columns#V index 2\n"
+    "set $PREV type 5\n"
+    "set $PREV size 4\n"
+    "set $PREV nullable true\n"
+    "set $PREV name \"V\"\n"
+    "set $PREV defaultvalue null\n"
+    "set $PREV defaulttype 0\n"
+    "set $PREV aggregatetype 0\n"
+    "set $PREV matviewsource null\n"
+    "set $PREV matview null\n"
+    "set $PREV inbytes false\n";
+
+// Plan for the following query, without its send node:
+//
+// SELECT K, COUNT(*), SUM(V), COUNT(DISTINCT V) FROM T GROUP BY K, PAD;
+
+const std::string groupByPlan =
+    "{\n"
+    "   \"EXECUTE_LIST\":[\n"
+    "      3,\n"
+    "      2\n"
+    "   ],\n"
+    "   \"IS_LARGE_QUERY\":false,\n"
+    "   \"PLAN_NODES\":[\n"
+    "      {\n"
+    "         \"CHILDREN_IDS\":[\n"
+    "            3\n"
+    "         ],\n"
+    "         \"ID\":2,\n"
+    "         \"OUTPUT_SCHEMA\":[\n"
+    "            {\n"
+    "               \"COLUMN_NAME\":\"K\",\n"
+    "               \"EXPRESSION\":{\n"
+    "                  \"COLUMN_IDX\":3,\n"
+    "                  \"TYPE\":32,\n"
+    "                  \"VALUE_TYPE\":5\n"
+    "               }\n"
+    "            },\n"
+    "            {\n"
+    "               \"COLUMN_NAME\":\"C2\",\n"
+    "               \"EXPRESSION\":{\n"
+    "                  \"COLUMN_IDX\":0,\n"
+    "                  \"TYPE\":32,\n"
+    "                  \"VALUE_TYPE\":6\n"
+    "               }\n"
+    "            },\n"
+    "            {\n"
+    "               \"COLUMN_NAME\":\"C3\",\n"
+    "               \"EXPRESSION\":{\n"
+    "                  \"COLUMN_IDX\":1,\n"
+    "                  \"TYPE\":32,\n"
+    "                  \"VALUE_TYPE\":6\n"
+    "               }\n"
+    "            },\n"
+    "            {\n"
+    "               \"COLUMN_NAME\":\"C4\",\n"
+    "               \"EXPRESSION\":{\n"
+    "                  \"COLUMN_IDX\":2,\n"
+    "                  \"TYPE\":32,\n"
+    "                  \"VALUE_TYPE\":6\n"
+    "               }\n"
+    "            }\n"
+    "         ],\n"
+    "         \"PLAN_NODE_TYPE\":\"PROJECTION\"\n"
+    "      },\n"
+    "      {\n"
+    "         \"ID\":3,\n"
+    "         \"INLINE_NODES\":[\n"
+    "            {\n"
+    "               \"AGGREGATE_COLUMNS\":[\n"
+    "                  {\n"
+    "                     \"AGGREGATE_DISTINCT\":0,\n"
+    "                     \"AGGREGATE_OUTPUT_COLUMN\":0,\n"
+    "                     \"AGGREGATE_TYPE\":\"AGGREGATE_COUNT_STAR\"\n"
+    "                  },\n"
+    "                  {\n"
+    "                     \"AGGREGATE_DISTINCT\":0,\n"
+    "                     \"AGGREGATE_EXPRESSION\":{\n"
+    "                        \"COLUMN_IDX\":1,\n"
+    "                        \"TYPE\":32,\n"
+    "                        \"VALUE_TYPE\":5\n"
+    "                     },\n"
+    "                     \"AGGREGATE_OUTPUT_COLUMN\":1,\n"
+    "                     \"AGGREGATE_TYPE\":\"AGGREGATE_SUM\"\n"
+    "                  },\n"
+    "                  {\n"
+    "                     \"AGGREGATE_DISTINCT\":1,\n"
+    "                     \"AGGREGATE_EXPRESSION\":{\n"
+    "                        \"COLUMN_IDX\":1,\n"
+    "                        \"TYPE\":32,\n"
+    "                        \"VALUE_TYPE\":5\n"
+    "                     },\n"
+    "                     \"AGGREGATE_OUTPUT_COLUMN\":2,\n"
+    "                     \"AGGREGATE_TYPE\":\"AGGREGATE_COUNT\"\n"
+    "                  }\n"
+    "               ],\n"
+    "               \"GROUPBY_EXPRESSIONS\":[\n"
+    "                  {\n"
+    "                     \"COLUMN_IDX\":0,\n"
+    "                     \"TYPE\":32,\n"
+    "                     \"VALUE_TYPE\":5\n"
+    "                  },\n"
+    "                  {\n"
+    "                     \"COLUMN_IDX\":2,\n"
+    "                     \"IN_BYTES\":true,\n"
+    "                     \"TYPE\":32,\n"
+    "                     \"VALUE_SIZE\":63,\n"
+    "                     \"VALUE_TYPE\":9\n"
+    "                  }\n"
+    "               ],\n"
+    "               \"ID\":4,\n"
+    "               \"OUTPUT_SCHEMA\":[\n"
+    "                  {\n"
+    "                     \"COLUMN_NAME\":\"C2\",\n"
+    "                     \"EXPRESSION\":{\n"
+    "                        \"COLUMN_IDX\":0,\n"
+    "                        \"TYPE\":32,\n"
+    "                        \"VALUE_TYPE\":6\n"
+    "                     }\n"
+    "                  },\n"
+    "                  {\n"
+    "                     \"COLUMN_NAME\":\"C3\",\n"
+    "                     \"EXPRESSION\":{\n"
+    "                        \"COLUMN_IDX\":1,\n"
+    "                        \"TYPE\":32,\n"
+    "                        \"VALUE_TYPE\":6\n"
+    "                     }\n"
+    "                  },\n"
+    "                  {\n"
+    "                     \"COLUMN_NAME\":\"C4\",\n"
+    "                     \"EXPRESSION\":{\n"
+    "                        \"COLUMN_IDX\":2,\n"
+    "                        \"TYPE\":32,\n"
+    "                        \"VALUE_TYPE\":6\n"
+    "                     }\n"
+    "                  },\n"
+    "                  {\n"
+    "                     \"COLUMN_NAME\":\"K\",\n"
+    "                     \"EXPRESSION\":{\n"
+    "                        \"COLUMN_IDX\":0,\n"
+    "                        \"TYPE\":32,\n"
+    "                        \"VALUE_TYPE\":5\n"
+    "                     }\n"
+    "                  },\n"
+    "                  {\n"
+    "                     \"COLUMN_NAME\":\"PAD\",\n"
+    "                     \"EXPRESSION\":{\n"
+    "                        \"COLUMN_IDX\":2,\n"
+    "                        \"IN_BYTES\":true,\n"
+    "                        \"TYPE\":32,\n"
+    "                        \"VALUE_SIZE\":63,\n"
+    "                        \"VALUE_TYPE\":9\n"
+    "                     }\n"
+    "                  }\n"
+    "               ],\n"
+    "               \"PLAN_NODE_TYPE\":\"HASHAGGREGATE\"\n"
+    "            },\n"
+    "            {\n"
+    "               \"ID\":5,\n"
+    "               \"OUTPUT_SCHEMA\":[\n"
+    "                  {\n"
+    "                     \"COLUMN_NAME\":\"K\",\n"
+    "                     \"EXPRESSION\":{\n"
+    "                        \"COLUMN_IDX\":1,\n"
+    "                        \"TYPE\":32,\n"
+    "                        \"VALUE_TYPE\":5\n"
+    "                     }\n"
+    "                  },\n"
+    "                  {\n"
+    "                     \"COLUMN_NAME\":\"V\",\n"
+    "                     \"EXPRESSION\":{\n"
+    "                        \"COLUMN_IDX\":2,\n"
+    "                        \"TYPE\":32,\n"
+    "                        \"VALUE_TYPE\":5\n"
+    "                     }\n"
+    "                  },\n"
+    "                  {\n"
+    "                     \"COLUMN_NAME\":\"PAD\",\n"
+    "                     \"EXPRESSION\":{\n"
+    "                        \"COLUMN_IDX\":3,\n"
+    "                        \"IN_BYTES\":true,\n"
+    "                        \"TYPE\":32,\n"
+    "                        \"VALUE_SIZE\":63,\n"
+    "                        \"VALUE_TYPE\":9\n"
+    "                     }\n"
+    "                  }\n"
+    "               ],\n"
+    "               \"PLAN_NODE_TYPE\":\"PROJECTION\"\n"
+    "            }\n"
+    "         ],\n"
+    "         \"OUTPUT_SCHEMA\":[\n"
+    "            {\n"
+    "               \"COLUMN_NAME\":\"C2\",\n"
+    "               \"EXPRESSION\":{\n"
+    "                  \"COLUMN_IDX\":0,\n"
+    "                  \"TYPE\":32,\n"
+    "                  \"VALUE_TYPE\":6\n"
+    "               }\n"
+    "            },\n"
+    "            {\n"
+    "               \"COLUMN_NAME\":\"C3\",\n"
+    "               \"EXPRESSION\":{\n"
+    "                  \"COLUMN_IDX\":1,\n"
+    "                  \"TYPE\":32,\n"
+    "                  \"VALUE_TYPE\":6\n"
+    "               }\n"
+    "            },\n"
+    "            {\n"
+    "               \"COLUMN_NAME\":\"C4\",\n"
+    "               \"EXPRESSION\":{\n"
+    "                  \"COLUMN_IDX\":2,\n"
+    "                  \"TYPE\":32,\n"
+    "                  \"VALUE_TYPE\":6\n"
+    "               }\n"
+    "            },\n"
+    "            {\n"
+    "               \"COLUMN_NAME\":\"K\",\n"
+    "               \"EXPRESSION\":{\n"
+    "                  \"COLUMN_IDX\":3,\n"
+    "                  \"TYPE\":32,\n"
+    "                  \"VALUE_TYPE\":5\n"
+    "               }\n"
+    "            },\n"
+    "            {\n"
+    "               \"COLUMN_NAME\":\"PAD\",\n"
+    "               \"EXPRESSION\":{\n"
+    "                  \"COLUMN_IDX\":4,\n"
+    "                  \"IN_BYTES\":true,\n"
+    "                  \"TYPE\":32,\n"
+    "                  \"VALUE_SIZE\":63,\n"
+    "                  \"VALUE_TYPE\":9\n"
+    "               }\n"
+    "            }\n"
+    "         ],\n"
+    "         \"PLAN_NODE_TYPE\":\"SEQSCAN\",\n"
+    "         \"TARGET_TABLE_ALIAS\":\"T\",\n"
+    "         \"TARGET_TABLE_NAME\":\"T\"\n"
+    "      }\n"
+    "   ]\n"
+    "}\n";
+
+class HashAggregateSpillTest : public Test {
+protected:
+    // ID, K, V and PAD
+    typedef std::tuple<int32_t, int32_t, int32_t, std::string> InRow;
+    // K, COUNT(*), SUM(V) and COUNT(DISTINCT V)
+    typedef std::tuple<int64_t, int64_t, int64_t, int64_t> OutRow;
+
+    struct Result {
+        std::vector<OutRow> rows;
+        // The large temp table blocks made while executing, other than those of the output
+        int64_t spillBlocks;
+    };
+
+    static std::string jsonPlan(bool isLargeQuery) {
+        std::string plan = groupByPlan;
+        if (isLargeQuery) {
+            const std::string from = "\"IS_LARGE_QUERY\":false";
+            size_t pos = plan.find(from);
+            assert(pos != std::string::npos);
+            plan.replace(pos, from.length(), "\"IS_LARGE_QUERY\":true");
+        }
+        return plan;
+    }
+
+    static void insertRows(VoltDBEngine* engine, const std::vector<InRow>& rows) {
+        Table* table = engine->getTableByName("T");
+        StandAloneTupleStorage storage(table->schema());
+        TableTuple tuple = storage.tuple();
+        BOOST_FOREACH(const InRow& row, rows) {
+            Tools::initTuple(&tuple, row);
+            table->insertTuple(tuple);
+        }
+    }
+
+    /** The counter of the next large temp table block, blocks are numbered in sequence */
+    static int64_t nextBlockCounter(VoltDBEngine* engine) {
+        LargeTempTableBlockCache* lttBlockCache = ExecutorContext::getExecutorContext()->lttBlockCache();
+        LargeTempTableBlockId id = lttBlockCache->getEmptyBlock(engine->getTableByName("T")->schema())->id();
+        lttBlockCache->unpinBlock(id);
+        lttBlockCache->releaseBlock(id);
+        return id.getBlockCounter() + 1;
+    }
+
+    static Result execute(VoltDBEngine* engine, bool isLargeQuery) {
+        auto ev = ExecutorVector::fromJsonPlan(engine, jsonPlan(isLargeQuery), 0);
+        Result result;
+        int64_t firstBlock = nextBlockCounter(engine);
+        {
+            UniqueTempTableResult output = engine->executePlanFragment(ev.get(), NULL);
+            result.spillBlocks = nextBlockCounter(engine) - firstBlock - 1;
+            LargeTempTable* largeOutput = dynamic_cast<LargeTempTable*>(output.get());
+            if (largeOutput != NULL) {
+                result.spillBlocks -= largeOutput->allocatedBlockCount();
+            }
+            TableTuple tuple(output->schema());
+            TableIterator iterator = output->iterator();
+            while (iterator.next(tuple)) {
+                result.rows.push_back(OutRow(ValuePeeker::peekAsBigInt(tuple.getNValue(0)),
+                                             ValuePeeker::peekAsBigInt(tuple.getNValue(1)),
+                                             ValuePeeker::peekAsBigInt(tuple.getNValue(2)),
+                                             ValuePeeker::peekAsBigInt(tuple.getNValue(3))));
+            }
+        }
+        ExecutorContext::getExecutorContext()->cleanupAllExecutors();
+        std::sort(result.rows.begin(), result.rows.end());
+        return result;
+    }
+
+    /** Aggregate the rows in memory, with a limit well above what the groups need */
+    std::vector<OutRow> aggregateWithoutSpilling(const std::vector<InRow>& rows) {
+        UniqueEngine engine = UniqueEngineBuilder()
+            .setTempTableMemoryLimit(1024 * 1024 * 1024)
+            .build();
+        EXPECT_TRUE(engine->loadCatalog(0, catalogPayload));
+        insertRows(engine.get(), rows);
+        Result result = execute(engine.get(), false);
+        EXPECT_EQ(0, result.spillBlocks);
+        return result.rows;
+    }
+
+    /** Aggregate the rows as a large query with the smallest limit the block cache allows */
+    Result aggregateWithSpilling(const std::vector<InRow>& rows) {
+        // The LTT block cache holds four blocks: the output's and those of two spill partitions
+        std::unique_ptr<Topend> topend{new LargeTempTableTopend()};
+        UniqueEngine engine = UniqueEngineBuilder()
+            .setTopend(std::move(topend))
+            .setTempTableMemoryLimit(32 * 1024 * 1024)
+            .build();
+        EXPECT_TRUE(engine->loadCatalog(0, catalogPayload));
+        insertRows(engine.get(), rows);
+        return execute(engine.get(), true);
+    }
+
+    void verifyRows(const std::vector<OutRow>& expected, const std::vector<OutRow>& actual) {
+        ASSERT_EQ(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); ++i) {
+            ASSERT_TRUE(expected[i] == actual[i]);
+        }
+    }
+};
+
+TEST_F(HashAggregateSpillTest, SpillAndSpillAgain) {
+    // Groups with a wide key, so that the partitions the first pass spills do not fit
+    // in memory either and spill again
+    const std::string pad(60, 'x');
+    const int32_t groupCount = 300000;
+    std::vector<InRow> rows;
+    int32_t id = 0;
+    for (int32_t k = 0; k < groupCount; ++k) {
+        rows.push_back(InRow{id++, k, k % 7, pad});
+    }
+    // Some groups get more rows once groups are being spilled, one of them a repeated value
+    for (int32_t k = 0; k < groupCount; k += 10) {
+        rows.push_back(InRow{id++, k, k % 7, pad});
+        rows.push_back(InRow{id++, k, k % 7 + 1, pad});
+    }
+
+    std::vector<OutRow> expected = aggregateWithoutSpilling(rows);
+    ASSERT_EQ(groupCount, expected.size());
+    Result actual = aggregateWithSpilling(rows);
+    // Two partitions for the first pass, and at least two more for a partition that spilled again
+    ASSERT_TRUE(actual.spillBlocks >= 4);
+    verifyRows(expected, actual.rows);
+}
+
+TEST_F(HashAggregateSpillTest, DistinctValuesCountTowardsTheLimit) {
+    // Few groups, which only go over the limit with the values their COUNT(DISTINCT V) holds
+    const int32_t groupCount = 400;
+    const int32_t valuesPerGroup = 2000;
+    std::vector<InRow> rows;
+    int32_t id = 0;
+    for (int32_t k = 0; k < groupCount; ++k) {
+        for (int32_t v = 0; v < valuesPerGroup; ++v) {
+            rows.push_back(InRow{id++, k, v, ""});
+        }
+        // and a repeated value
+        rows.push_back(InRow{id++, k, 0, ""});
+    }
+
+    std::vector<OutRow> expected = aggregateWithoutSpilling(rows);
+    ASSERT_EQ(groupCount, expected.size());
+    ASSERT_TRUE(expected[0] == OutRow(0, valuesPerGroup + 1, valuesPerGroup * (valuesPerGroup - 1) / 2, valuesPerGroup));
+    Result actual = aggregateWithSpilling(rows);
+    ASSERT_TRUE(actual.spillBlocks >= 2);
+    verifyRows(expected, actual.rows);
+}
+
+int main() {
+    return TestSuite::globalInstance()->runAll();
+}
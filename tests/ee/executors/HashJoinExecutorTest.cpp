@@ -0,0 +1,583 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+#include <algorithm>
+#include <string>
+#include <tuple>
+#include <vector>
+
+#include <boost/foreach.hpp>
+#include <boost/optional.hpp>
+
+#include "harness.h"
+
+#include "test_utils/LargeTempTableTopend.hpp"
+#include "test_utils/Tools.hpp"
+#include "test_utils/UniqueEngine.hpp"
+
+#include "common/ValuePeeker.hpp"
+#include "common/executorcontext.hpp"
+#include "common/tabletuple.h"
+#include "execution/ExecutorVector.h"
+#include "storage/AbstractTempTable.hpp"
+#include "storage/table.h"
+#include "storage/tableiterator.h"
+
+using namespace voltdb;
+
+// Catalog for the following DDL:
+//
+// CREATE TABLE L (
+//     ID INTEGER NOT NULL,
+//     K INTEGER,
+//     PAD VARCHAR(100000 BYTES)
+// );
+// PARTITION TABLE L ON COLUMN ID;
+// CREATE TABLE R (
+//     ID INTEGER NOT NULL,
+//     K INTEGER,
+//     PAD VARCHAR(100000 BYTES)
+// );
+// PARTITION TABLE R ON COLUMN ID;
+
+const std::string catalogPayload =
+    "add / clusters cluster\n"
+    "set /clusters#cluster localepoch 0\n"
+    "set $PREV securityEnabled false\n"
+    "set $PREV httpdportno 0\n"
+    "set $PREV jsonapi false\n"
+    "set $PREV networkpartition false\n"
+    "set $PREV heartbeatTimeout 0\n"
+    "set $PREV useddlschema false\n"
+    "set $PREV drConsumerEnabled false\n"
+    "set $PREV drProducerEnabled false\n"
+    "set $PREV drRole \"\"\n"
+    "set $PREV drClusterId 0\n"
+    "set $PREV drProducerPort 0\n"
+    "set $PREV drMasterHost \"\"\n"
+    "set $PREV drConsumerSslPropertyFile \"\"\n"
+    "set $PREV drFlushInterval 0\n"
+    "set $PREV preferredSource 0\n"
+    "add /clusters#cluster databases database\n"
+    "set /clusters#cluster/databases#database schema \"5gJUNDM1MjQ1NDE1NDQ1MjA1NDQxNDI0QwEMHDRDMjAyODIwEQIQNDk0NDIBBgBFASwwNDc0NTUyMjA0RTRGNQEYIEU1NTRDNEMyQxEwDDIwNEJCMAAdHgw1MDQxAVIkNTY0MTUyNDM0OAEIFDI4MzEzMBECUDIwNDI1OTU0NDU1MzI5MjAyOTNCCmazAAQ1Mv6zAP6zAFqzAA==\"\n"
+    "set $PREV isActiveActiveDRed false\n"
+    "set $PREV securityprovider \"\"\n"
+    "add /clusters#cluster/databases#database groups administrator\n"
+    "set /clusters#cluster/databases#database/groups#administrator admin true\n"
+    "set $PREV defaultproc true\n"
+    "set $PREV defaultprocread true\n"
+    "set $PREV sql true\n"
+    "set $PREV sqlread true\n"
+    "set $PREV allproc true\n"
+    "add /clusters#cluster/databases#database groups user\n"
+    "set /clusters#cluster/databases#database/groups#user admin false\n"
+    "set $PREV defaultproc true\n"
+    "set $PREV defaultprocread true\n"
+    "set $PREV sql true\n"
+    "set $PREV sqlread true\n"
+    "set $PREV allproc true\n"
+    "add /clusters#cluster/databases#database tables L\n"
+    "set /clusters#cluster/databases#database/tables#L isreplicated false\n"
+    "set $PREV partitioncolumn /clusters#cluster/databases#database/tables#L/columns#ID\n"
+    "set $PREV estimatedtuplecount 0\n"
+    "set $PREV materializer null\n"
+    "set $PREV signature \"L|iiv\"\n"
+    "set $PREV tuplelimit 2147483647\n"
+    "set $PREV isDRed false\n"
+    "add /clusters#cluster/databases#database/tables#L columns ID\n"
+    "set /clusters#cluster/databases#database/tables#L/columns#ID index 0\n"
+    "set $PREV type 5\n"
+    "set $PREV size 4\n"
+    "set $PREV nullable false\n"
+    "set $PREV name \"ID\"\n"
+    "set $PREV defaultvalue null\n"
+    "set $PREV defaulttype 0\n"
+    "set $PREV aggregatetype 0\n"
+    "set $PREV matviewsource null\n"
+    "set $PREV matview null\n"
+    "set $PREV inbytes false\n"
+    "add /clusters#cluster/databases#database/tables#L columns K\n"
+    "set /clusters#cluster/databases#database/tables#L/columns#K index 1\n"
+    "set $PREV type 5\n"
+    "set $PREV size 4\n"
+    "set $PREV nullable true\n"
+    "set $PREV name \"K\"\n"
+    "set $PREV defaultvalue null\n"
+    "set $PREV defaulttype 0\n"
+    "set $PREV aggregatetype 0\n"
+    "set $PREV matviewsource null\n"
+    "set $PREV matview null\n"
+    "set $PREV inbytes false\n"
+    "add /clusters#cluster/databases#database/tables#L columns PAD\n"
+    "set /clusters#cluster/databases#database/tables#L/columns#PAD index 2\n"
+    "set $PREV type 9\n"
+    "set $PREV size 100000\n"
+    "set $PREV nullable true\n"
+    "set $PREV name \"PAD\"\n"
+    "set $PREV defaultvalue null\n"
+    "set $PREV defaulttype 0\n"
+    "set $PREV aggregatetype 0\n"
+    "set $PREV matviewsource null\n"
+    "set $PREV matview null\n"
+    "set $PREV inbytes true\n"
+    "add /clusters#cluster/databases#database tables R\n"
+    "set /clusters#cluster/databases#database/tables#R isreplicated false\n"
+    "set $PREV partitioncolumn /clusters#cluster/databases#database/tables#R/columns#ID\n"
+    "set $PREV estimatedtuplecount 0\n"
+    "set $PREV materializer null\n"
+    "set $PREV signature \"R|iiv\"\n"
+    "set $PREV tuplelimit 2147483647\n"
+    "set $PREV isDRed false\n"
+    "add /clusters#cluster/databases#database/tables#R columns ID\n"
+    "set /clusters#cluster/databases#database/tables#R/columns#ID index 0\n"
+    "set $PREV type 5\n"
+    "set $PREV size 4\n"
+    "set $PREV nullable false\n"
+    "set $PREV name \"ID\"\n"
+    "set $PREV defaultvalue null\n"
+    "set $PREV defaulttype 0\n"
+    "set $PREV aggregatetype 0\n"
+    "set $PREV matviewsource null\n"
+    "set $PREV matview null\n"
+    "set $PREV inbytes false\n"
+    "add /clusters#cluster/databases#database/tables#R columns K\n"
+    "set /clusters#cluster/databases#database/tables#R/columns#K index 1\n"
+    "set $PREV type 5\n"
+    "set $PREV size 4\n"
+    "set $PREV nullable true\n"
+    "set $PREV name \"K\"\n"
+    "set $PREV defaultvalue null\n"
+    "set $PREV defaulttype 0\n"
+    "set $PREV aggregatetype 0\n"
+    "set $PREV matviewsource null\n"
+    "set $PREV matview null\n"
+    "set $PREV inbytes false\n"
+    "add /clusters#cluster/databases#database/tables#R columns PAD\n"
+    "set /clusters#cluster/databases#database/tables#R/columns#PAD index 2\n"
+    "set $PREV type 9\n"
+    "set $PREV size 100000\n"
+    "set $PREV nullable true\n"
+    "set $PREV name \"PAD\"\n"
+    "set $PREV defaultvalue null\n"
+    "set $PREV defaulttype 0\n"
+    "set $PREV aggregatetype 0\n"
+    "set $PREV matviewsource null\n"
+    "set $PREV matview null\n"
+    "set $PREV inbytes true\n";
+
+// Plan for
+//
+// SELECT L.ID, R.ID, CHAR_LENGTH(R.PAD) FROM L JOIN R ON L.K = R.K
+//
+// with hash joins enabled, less the SEND node so that the result table is
+// returned. The LEFT JOIN plan only differs in its JOIN_TYPE.
+
+const std::string innerJoinPlan =
+    "{\n"
+    "   \"EXECUTE_LIST\":[\n"
+    "      4,\n"
+    "      6,\n"
+    "      3,\n"
+    "      2\n"
+    "   ],\n"
+    "   \"IS_LARGE_QUERY\":false,\n"
+    "   \"PLAN_NODES\":[\n"
+    "      {\n"
+    "         \"CHILDREN_IDS\":[\n"
+    "            3\n"
+    "         ],\n"
+    "         \"ID\":2,\n"
+    "         \"OUTPUT_SCHEMA\":[\n"
+    "            {\n"
+    "               \"COLUMN_NAME\":\"ID\",\n"
+    "               \"EXPRESSION\":{\n"
+    "                  \"COLUMN_IDX\":0,\n"
+    "                  \"TYPE\":32,\n"
+    "                  \"VALUE_TYPE\":5\n"
+    "               }\n"
+    "            },\n"
+    "            {\n"
+    "               \"COLUMN_NAME\":\"ID\",\n"
+    "               \"EXPRESSION\":{\n"
+    "                  \"COLUMN_IDX\":2,\n"
+    "                  \"TYPE\":32,\n"
+    "                  \"VALUE_TYPE\":5\n"
+    "               }\n"
+    "            },\n"
+    "            {\n"
+    "               \"COLUMN_NAME\":\"C3\",\n"
+    "               \"EXPRESSION\":{\n"
+    "                  \"ARGS\":[\n"
+    "                     {\n"
+    "                        \"COLUMN_IDX\":4,\n"
+    "                        \"IN_BYTES\":true,\n"
+    "                        \"TYPE\":32,\n"
+    "                        \"VALUE_SIZE\":100000,\n"
+    "                        \"VALUE_TYPE\":9\n"
+    "                     }\n"
+    "                  ],\n"
+    "                  \"FUNCTION_ID\":7,\n"
+    "                  \"NAME\":\"char_length\",\n"
+    "                  \"TYPE\":100,\n"
+    "                  \"VALUE_TYPE\":6\n"
+    "               }\n"
+    "            }\n"
+    "         ],\n"
+    "         \"PLAN_NODE_TYPE\":\"PROJECTION\"\n"
+    "      },\n"
+    "      {\n"
+    "         \"CHILDREN_IDS\":[\n"
+    "            4,\n"
+    "            6\n"
+    "         ],\n"
+    "         \"ID\":3,\n"
+    "         \"INNER_HASH_EXPRESSIONS\":[\n"
+    "            {\n"
+    "               \"COLUMN_IDX\":1,\n"
+    "               \"TYPE\":32,\n"
+    "               \"VALUE_TYPE\":5\n"
+    "            }\n"
+    "         ],\n"
+    "         \"JOIN_PREDICATE\":{\n"
+    "            \"LEFT\":{\n"
+    "               \"COLUMN_IDX\":1,\n"
+    "               \"TABLE_IDX\":1,\n"
+    "               \"TYPE\":32,\n"
+    "               \"VALUE_TYPE\":5\n"
+    "            },\n"
+    "            \"RIGHT\":{\n"
+    "               \"COLUMN_IDX\":1,\n"
+    "               \"TYPE\":32,\n"
+    "               \"VALUE_TYPE\":5\n"
+    "            },\n"
+    "            \"TYPE\":10,\n"
+    "            \"VALUE_TYPE\":23\n"
+    "         },\n"
+    "         \"JOIN_TYPE\":\"INNER\",\n"
+    "         \"OUTER_HASH_EXPRESSIONS\":[\n"
+    "            {\n"
+    "               \"COLUMN_IDX\":1,\n"
+    "               \"TYPE\":32,\n"
+    "               \"VALUE_TYPE\":5\n"
+    "            }\n"
+    "         ],\n"
+    "         \"OUTPUT_SCHEMA\":[\n"
+    "            {\n"
+    "               \"COLUMN_NAME\":\"ID\",\n"
+    "               \"EXPRESSION\":{\n"
+    "                  \"COLUMN_IDX\":0,\n"
+    "                  \"TYPE\":32,\n"
+    "                  \"VALUE_TYPE\":5\n"
+    "               }\n"
+    "            },\n"
+    "            {\n"
+    "               \"COLUMN_NAME\":\"K\",\n"
+    "               \"EXPRESSION\":{\n"
+    "                  \"COLUMN_IDX\":1,\n"
+    "                  \"TYPE\":32,\n"
+    "                  \"VALUE_TYPE\":5\n"
+    "               }\n"
+    "            },\n"
+    "            {\n"
+    "               \"COLUMN_NAME\":\"ID\",\n"
+    "               \"EXPRESSION\":{\n"
+    "                  \"COLUMN_IDX\":2,\n"
+    "                  \"TYPE\":32,\n"
+    "                  \"VALUE_TYPE\":5\n"
+    "               }\n"
+    "            },\n"
+    "            {\n"
+    "               \"COLUMN_NAME\":\"K\",\n"
+    "               \"EXPRESSION\":{\n"
+    "                  \"COLUMN_IDX\":3,\n"
+    "                  \"TYPE\":32,\n"
+    "                  \"VALUE_TYPE\":5\n"
+    "               }\n"
+    "            },\n"
+    "            {\n"
+    "               \"COLUMN_NAME\":\"PAD\",\n"
+    "               \"EXPRESSION\":{\n"
+    "                  \"COLUMN_IDX\":4,\n"
+    "                  \"IN_BYTES\":true,\n"
+    "                  \"TYPE\":32,\n"
+    "                  \"VALUE_SIZE\":100000,\n"
+    "                  \"VALUE_TYPE\":9\n"
+    "               }\n"
+    "            }\n"
+    "         ],\n"
+    "         \"PLAN_NODE_TYPE\":\"HASHJOIN\",\n"
+    "         \"PRE_JOIN_PREDICATE\":null,\n"
+    "         \"WHERE_PREDICATE\":null\n"
+    "      },\n"
+    "      {\n"
+    "         \"ID\":4,\n"
+    "         \"INLINE_NODES\":[\n"
+    "            {\n"
+    "               \"ID\":5,\n"
+    "               \"OUTPUT_SCHEMA\":[\n"
+    "                  {\n"
+    "                     \"COLUMN_NAME\":\"ID\",\n"
+    "                     \"EXPRESSION\":{\n"
+    "                        \"COLUMN_IDX\":0,\n"
+    "                        \"TYPE\":32,\n"
+    "                        \"VALUE_TYPE\":5\n"
+    "                     }\n"
+    "                  },\n"
+    "                  {\n"
+    "                     \"COLUMN_NAME\":\"K\",\n"
+    "                     \"EXPRESSION\":{\n"
+    "                        \"COLUMN_IDX\":1,\n"
+    "                        \"TYPE\":32,\n"
+    "                        \"VALUE_TYPE\":5\n"
+    "                     }\n"
+    "                  }\n"
+    "               ],\n"
+    "               \"PLAN_NODE_TYPE\":\"PROJECTION\"\n"
+    "            }\n"
+    "         ],\n"
+    "         \"PLAN_NODE_TYPE\":\"SEQSCAN\",\n"
+    "         \"TARGET_TABLE_ALIAS\":\"L\",\n"
+    "         \"TARGET_TABLE_NAME\":\"L\"\n"
+    "      },\n"
+    "      {\n"
+    "         \"ID\":6,\n"
+    "         \"INLINE_NODES\":[\n"
+    "            {\n"
+    "               \"ID\":7,\n"
+    "               \"OUTPUT_SCHEMA\":[\n"
+    "                  {\n"
+    "                     \"COLUMN_NAME\":\"ID\",\n"
+    "                     \"EXPRESSION\":{\n"
+    "                        \"COLUMN_IDX\":0,\n"
+    "                        \"TYPE\":32,\n"
+    "                        \"VALUE_TYPE\":5\n"
+    "                     }\n"
+    "                  },\n"
+    "                  {\n"
+    "                     \"COLUMN_NAME\":\"K\",\n"
+    "                     \"EXPRESSION\":{\n"
+    "                        \"COLUMN_IDX\":1,\n"
+    "                        \"TYPE\":32,\n"
+    "                        \"VALUE_TYPE\":5\n"
+    "                     }\n"
+    "                  },\n"
+    "                  {\n"
+    "                     \"COLUMN_NAME\":\"PAD\",\n"
+    "                     \"EXPRESSION\":{\n"
+    "                        \"COLUMN_IDX\":2,\n"
+    "                        \"IN_BYTES\":true,\n"
+    "                        \"TYPE\":32,\n"
+    "                        \"VALUE_SIZE\":100000,\n"
+    "                        \"VALUE_TYPE\":9\n"
+    "                     }\n"
+    "                  }\n"
+    "               ],\n"
+    "               \"PLAN_NODE_TYPE\":\"PROJECTION\"\n"
+    "            }\n"
+    "         ],\n"
+    "         \"PLAN_NODE_TYPE\":\"SEQSCAN\",\n"
+    "         \"TARGET_TABLE_ALIAS\":\"R\",\n"
+    "         \"TARGET_TABLE_NAME\":\"R\"\n"
+    "      }\n"
+    "   ]\n"
+    "}\n";
+
+class HashJoinExecutorTest : public Test {
+protected:
+    typedef std::tuple<int32_t, boost::optional<int32_t>, boost::optional<std::string> > InRow;
+    // L.ID, R.ID and CHAR_LENGTH(R.PAD), with NULLs as -1
+    typedef std::tuple<int64_t, int64_t, int64_t> OutRow;
+
+    static std::string jsonPlan(bool leftJoin, bool isLargeQuery) {
+        std::string plan = innerJoinPlan;
+        if (leftJoin) {
+            replace(plan, "\"JOIN_TYPE\":\"INNER\"", "\"JOIN_TYPE\":\"LEFT\"");
+        }
+        if (isLargeQuery) {
+            replace(plan, "\"IS_LARGE_QUERY\":false", "\"IS_LARGE_QUERY\":true");
+        }
+        return plan;
+    }
+
+    static void replace(std::string& str, const std::string& from, const std::string& to) {
+        size_t pos = str.find(from);
+        assert(pos != std::string::npos);
+        str.replace(pos, from.length(), to);
+    }
+
+    static void insertRows(VoltDBEngine* engine, const std::string& tableName, const std::vector<InRow>& rows) {
+        Table* table = engine->getTableByName(tableName);
+        StandAloneTupleStorage storage(table->schema());
+        TableTuple tuple = storage.tuple();
+        BOOST_FOREACH(const InRow& row, rows) {
+            Tools::initTuple(&tuple, row);
+            table->insertTuple(tuple);
+        }
+    }
+
+    /** The result of joining with nested loops */
+    static std::vector<OutRow> nestedLoopJoin(const std::vector<InRow>& outer,
+                                              const std::vector<InRow>& inner,
+                                              bool leftJoin) {
+        std::vector<OutRow> rows;
+        BOOST_FOREACH(const InRow& outerRow, outer) {
+            bool matched = false;
+            BOOST_FOREACH(const InRow& innerRow, inner) {
+                const boost::optional<int32_t>& outerKey = std::get<1>(outerRow);
+                const boost::optional<int32_t>& innerKey = std::get<1>(innerRow);
+                if (outerKey && innerKey && *outerKey == *innerKey) {
+                    const boost::optional<std::string>& pad = std::get<2>(innerRow);
+                    rows.push_back(OutRow(std::get<0>(outerRow), std::get<0>(innerRow),
+                                          pad ? static_cast<int64_t>(pad->length()) : -1));
+                    matched = true;
+                }
+            }
+            if (leftJoin && ! matched) {
+                rows.push_back(OutRow(std::get<0>(outerRow), -1, -1));
+            }
+        }
+        std::sort(rows.begin(), rows.end());
+        return rows;
+    }
+
+    static int64_t valueOrMinusOne(const NValue& value) {
+        return value.isNull() ? -1 : ValuePeeker::peekAsBigInt(value);
+    }
+
+    static std::vector<OutRow> execute(VoltDBEngine* engine, bool leftJoin, bool isLargeQuery) {
+        auto ev = ExecutorVector::fromJsonPlan(engine, jsonPlan(leftJoin, isLargeQuery), 0);
+        std::vector<OutRow> rows;
+        {
+            UniqueTempTableResult result = engine->executePlanFragment(ev.get(), NULL);
+            TableTuple tuple(result->schema());
+            TableIterator iterator = result->iterator();
+            while (iterator.next(tuple)) {
+                rows.push_back(OutRow(valueOrMinusOne(tuple.getNValue(0)),
+                                      valueOrMinusOne(tuple.getNValue(1)),
+                                      valueOrMinusOne(tuple.getNValue(2))));
+            }
+        }
+        ExecutorContext::getExecutorContext()->cleanupAllExecutors();
+        std::sort(rows.begin(), rows.end());
+        return rows;
+    }
+
+    void verifyJoins(const std::vector<InRow>& outer, const std::vector<InRow>& inner) {
+        UniqueEngine engine = UniqueEngineBuilder().build();
+        ASSERT_TRUE(engine->loadCatalog(0, catalogPayload));
+        insertRows(engine.get(), "L", outer);
+        insertRows(engine.get(), "R", inner);
+
+        for (int left = 0; left < 2; ++left) {
+            std::vector<OutRow> expected = nestedLoopJoin(outer, inner, left == 1);
+            // In memory temp tables and large temp tables that fit in memory
+            for (int large = 0; large < 2; ++large) {
+                std::vector<OutRow> actual = execute(engine.get(), left == 1, large == 1);
+                ASSERT_EQ(expected.size(), actual.size());
+                for (int i = 0; i < expected.size(); ++i) {
+                    ASSERT_TRUE(expected[i] == actual[i]);
+                }
+            }
+        }
+    }
+};
+
+TEST_F(HashJoinExecutorTest, NullAndDuplicateKeys) {
+    std::vector<InRow> outer{
+        InRow{1, 1, boost::none},
+        InRow{2, 1, boost::none},
+        InRow{3, 2, boost::none},
+        InRow{4, boost::none, boost::none},
+        InRow{5, 7, boost::none}
+    };
+    std::vector<InRow> inner{
+        InRow{10, 1, std::string("a")},
+        InRow{11, 1, std::string("bb")},
+        InRow{12, 2, boost::none},
+        InRow{13, boost::none, std::string("ccc")},
+        InRow{14, 3, std::string("dddd")},
+        InRow{15, 2, std::string("eeeee")}
+    };
+    // Inner joins build on the outer side here
+    verifyJoins(outer, inner);
+    // and on the inner side here
+    verifyJoins(inner, outer);
+}
+
+TEST_F(HashJoinExecutorTest, NoMatches) {
+    std::vector<InRow> outer{
+        InRow{1, boost::none, boost::none},
+        InRow{2, 5, boost::none}
+    };
+    std::vector<InRow> inner{
+        InRow{10, boost::none, std::string("a")},
+        InRow{11, 6, std::string("bb")}
+    };
+    verifyJoins(outer, inner);
+    verifyJoins(outer, std::vector<InRow>());
+    verifyJoins(std::vector<InRow>(), inner);
+}
+
+TEST_F(HashJoinExecutorTest, SpillToPartitions) {
+    // The LTT block cache holds four blocks
+    const int64_t memoryLimit = 32 * 1024 * 1024;
+    std::unique_ptr<Topend> topend{new LargeTempTableTopend()};
+    UniqueEngine engine = UniqueEngineBuilder()
+        .setTopend(std::move(topend))
+        .setTempTableMemoryLimit(memoryLimit)
+        .build();
+    ASSERT_TRUE(engine->loadCatalog(0, catalogPayload));
+
+    // A left join builds on the inner table, which is made larger than the limit
+    const std::string pad(50000, 'x');
+    std::vector<InRow> inner;
+    for (int32_t i = 0; i < 900; ++i) {
+        inner.push_back(InRow{i, i % 300, pad});
+    }
+    ASSERT_TRUE(inner.size() * pad.length() > memoryLimit);
+    std::vector<InRow> outer;
+    for (int32_t i = 0; i < 400; ++i) {
+        if (i % 50 == 0) {
+            outer.push_back(InRow{i, boost::none, boost::none});
+        }
+        else {
+            outer.push_back(InRow{i, i, boost::none});
+        }
+    }
+    insertRows(engine.get(), "L", outer);
+    insertRows(engine.get(), "R", inner);
+
+    std::vector<OutRow> expected = nestedLoopJoin(outer, inner, true);
+    std::vector<OutRow> actual = execute(engine.get(), true, true);
+    ASSERT_EQ(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); ++i) {
+        ASSERT_TRUE(expected[i] == actual[i]);
+    }
+    LargeTempTableTopend* theTopend =
+        dynamic_cast<LargeTempTableTopend*>(ExecutorContext::getExecutorContext()->getPhysicalTopend());
+    ASSERT_EQ(0, theTopend->storedBlockCount());
+}
+
+int main() {
+    return TestSuite::globalInstance()->runAll();
+}
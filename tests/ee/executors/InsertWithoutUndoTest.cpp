@@ -0,0 +1,427 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+#include <algorithm>
+#include <string>
+#include <tuple>
+#include <vector>
+
+#include "harness.h"
+
+#include "test_utils/Tools.hpp"
+#include "test_utils/UniqueEngine.hpp"
+
+#include "common/SerializableEEException.h"
+#include "common/ValuePeeker.hpp"
+#include "common/executorcontext.hpp"
+#include "common/tabletuple.h"
+#include "execution/ExecutorVector.h"
+#include "indexes/tableindex.h"
+#include "storage/persistenttable.h"
+#include "storage/tableiterator.h"
+
+using namespace voltdb;
+
+// Catalog for the following DDL:
+//
+// CREATE TABLE T (
+//     ID INTEGER NOT NULL,
+//     V INTEGER NOT NULL,
+//     PRIMARY KEY (ID)
+// );
+// PARTITION TABLE T ON COLUMN ID;
+// CREATE TABLE S (
+//     ID INTEGER NOT NULL,
+//     V INTEGER
+// );
+// PARTITION TABLE S ON COLUMN ID;
+
+const std::string catalogPayload =
+    "add / clusters cluster\n"
+    "set /clusters#cluster localepoch 0\n"
+    "set $PREV securityEnabled false\n"
+    "set $PREV httpdportno 0\n"
+    "set $PREV jsonapi false\n"
+    "set $PREV networkpartition false\n"
+    "set $PREV heartbeatTimeout 0\n"
+    "set $PREV useddlschema false\n"
+    "set $PREV drConsumerEnabled false\n"
+    "set $PREV drProducerEnabled false\n"
+    "set $PREV drRole \"\"\n"
+    "set $PREV drClusterId 0\n"
+    "set $PREV drProducerPort 0\n"
+    "set $PREV drMasterHost \"\"\n"
+    "set $PREV drConsumerSslPropertyFile \"\"\n"
+    "set $PREV drFlushInterval 0\n"
+    "set $PREV preferredSource 0\n"
+    "add /clusters#cluster databases database\n"
+    "set /clusters#cluster/databases#database schema \"qAJUNDM1MjQ1NDE1NDQ1MjA1NDQxNDI0QwkMFDIwMjgyMBECEDQ5NDQyAQYARQEsMDQ3NDU1MjIwNEU0RjUBGCBFNTU0QzRDMkMRMAwyMDU2ujAASDA1MjQ5NEQ0MTUyNTkyMDRCNDUBCAQyOAV8HDkyMDI5M0IKarMAADP+swBOswAQMjkzQgo=\"\n"
+    "set $PREV isActiveActiveDRed false\n"
+    "set $PREV securityprovider \"\"\n"
+    "add /clusters#cluster/databases#database groups administrator\n"
+    "set /clusters#cluster/databases#database/groups#administrator admin true\n"
+    "set $PREV defaultproc true\n"
+    "set $PREV defaultprocread true\n"
+    "set $PREV sql true\n"
+    "set $PREV sqlread true\n"
+    "set $PREV allproc true\n"
+    "add /clusters#cluster/databases#database groups user\n"
+    "set /clusters#cluster/databases#database/groups#user admin false\n"
+    "set $PREV defaultproc true\n"
+    "set $PREV defaultprocread true\n"
+    "set $PREV sql true\n"
+    "set $PREV sqlread true\n"
+    "set $PREV allproc true\n"
+    "add /clusters#cluster/databases#database tables S\n"
+    "set /clusters#cluster/databases#database/tables#S isreplicated false\n"
+    "set $PREV partitioncolumn /clusters#cluster/databases#database/tables#S/columns#ID\n"
+    "set $PREV estimatedtuplecount 0\n"
+    "set $PREV materializer null\n"
+    "set $PREV signature \"S|ii\"\n"
+    "set $PREV tuplelimit 2147483647\n"
+    "set $PREV isDRed false\n"
+    "add /clusters#cluster/databases#database/tables#S columns ID\n"
+    "set /clusters#cluster/databases#database/tables#S/columns#ID index 0\n"
+    "set $PREV type 5\n"
+    "set $PREV size 4\n"
+    "set $PREV nullable false\n"
+    "set $PREV name \"ID\"\n"
+    "set $PREV defaultvalue null\n"
+    "set $PREV defaulttype 0\n"
+    "set $PREV aggregatetype 0\n"
+    "set $PREV matviewsource null\n"
+    "set $PREV matview null\n"
+    "set $PREV inbytes false\n"
+    "add /clusters#cluster/databases#database/tables#S columns V\n"
+    "set /clusters#cluster/databases#database/tables#S/columns#V index 1\n"
+    "set $PREV type 5\n"
+    "set $PREV size 4\n"
+    "set $PREV nullable true\n"
+    "set $PREV name \"V\"\n"
+    "set $PREV defaultvalue null\n"
+    "set $PREV defaulttype 0\n"
+    "set $PREV aggregatetype 0\n"
+    "set $PREV matviewsource null\n"
+    "set $PREV matview null\n"
+    "set $PREV inbytes false\n"
+    "add /clusters#cluster/databases#database tables T\n"
+    "set /clusters#cluster/databases#database/tables#T isreplicated false\n"
+    "set $PREV partitioncolumn /clusters#cluster/databases#database/tables#T/columns#ID\n"
+    "set $PREV estimatedtuplecount 0\n"
+    "set $PREV materializer null\n"
+    "set $PREV signature \"T|ii\"\n"
+    "set $PREV tuplelimit 2147483647\n"
+    "set $PREV isDRed false\n"
+    "add /clusters#cluster/databases#database/tables#T columns ID\n"
+    "set /clusters#cluster/databases#database/tables#T/columns#ID index 0\n"
+    "set $PREV type 5\n"
+    "set $PREV size 4\n"
+    "set $PREV nullable false\n"
+    "set $PREV name \"ID\"\n"
+    "set $PREV defaultvalue null\n"
+    "set $PREV defaulttype 0\n"
+    "set $PREV aggregatetype 0\n"
+    "set $PREV matviewsource null\n"
+    "set $PREV matview null\n"
+    "set $PREV inbytes false\n"
+    "add /clusters#cluster/databases#database/tables#T columns V\n"
+    "set /clusters#cluster/databases#database/tables#T/columns#V index 1\n"
+    "set $PREV type 5\n"
+    "set $PREV size 4\n"
+    "set $PREV nullable false\n"
+    "set $PREV name \"V\"\n"
+    "set $PREV defaultvalue null\n"
+    "set $PREV defaulttype 0\n"
+    "set $PREV aggregatetype 0\n"
+    "set $PREV matviewsource null\n"
+    "set $PREV matview null\n"
+    "set $PREV inbytes false\n"
+    "add /clusters#cluster/databases#database/tables#T indexes VOLTDB_AUTOGEN_IDX_PK_T_ID\n"
+    "set /clusters#cluster/databases#database/tables#T/indexes#VOLTDB_AUTOGEN_IDX_PK_T_ID unique true\n"
+    "set $PREV assumeUnique false\n"
+    "set $PREV countable true\n"
+    "set $PREV type 1\n"
+    "set $PREV expressionsjson \"\"\n"
+    "set $PREV predicatejson \"\"\n"
+    "set $PREV isSafeWithNonemptySources true\n"
+    "add /clusters#cluster/databases#database/tables#T/indexes#VOLTDB_AUTOGEN_IDX_PK_T_ID columns ID\n"
+    "set /clusters#cluster/databases#database/tables#T/indexes#VOLTDB_AUTOGEN_IDX_PK_T_ID/columns#ID index 0\n"
+    "set $PREV column /clusters#cluster/databases#database/tables#T/columns#ID\n"
+    "add /clusters#cluster/databases#database/tables#T constraints VOLTDB_AUTOGEN_CT__PK_T_ID\n"
+    "set /clusters#cluster/databases#database/tables#T/constraints#VOLTDB_AUTOGEN_CT__PK_T_ID type 4\n"
+    "set $PREV oncommit \"\"\n"
+    "set $PREV index /clusters#cluster/databases#database/tables#T/indexes#VOLTDB_AUTOGEN_IDX_PK_T_ID\n"
+    "set $PREV foreignkeytable null\n";
+
+// Plan for INSERT INTO T VALUES (1, 10);
+
+const std::string insertPlan =
+    "{\n"
+    "   \"EXECUTE_LIST\":[\n"
+    "      2,\n"
+    "      1\n"
+    "   ],\n"
+    "   \"IS_LARGE_QUERY\":false,\n"
+    "   \"PLAN_NODES\":[\n"
+    "      {\n"
+    "         \"CHILDREN_IDS\":[\n"
+    "            2\n"
+    "         ],\n"
+    "         \"FIELD_MAP\":[\n"
+    "            0,\n"
+    "            1\n"
+    "         ],\n"
+    "         \"ID\":1,\n"
+    "         \"MULTI_PARTITION\":false,\n"
+    "         \"PLAN_NODE_TYPE\":\"INSERT\",\n"
+    "         \"TARGET_TABLE_NAME\":\"T\"\n"
+    "      },\n"
+    "      {\n"
+    "         \"BATCHED\":false,\n"
+    "         \"ID\":2,\n"
+    "         \"OUTPUT_SCHEMA\":[\n"
+    "            {\n"
+    "               \"COLUMN_NAME\":\"ID\",\n"
+    "               \"EXPRESSION\":{\n"
+    "                  \"ISNULL\":false,\n"
+    "                  \"TYPE\":30,\n"
+    "                  \"VALUE\":1,\n"
+    "                  \"VALUE_TYPE\":5\n"
+    "               }\n"
+    "            },\n"
+    "            {\n"
+    "               \"COLUMN_NAME\":\"V\",\n"
+    "               \"EXPRESSION\":{\n"
+    "                  \"ISNULL\":false,\n"
+    "                  \"TYPE\":30,\n"
+    "                  \"VALUE\":10,\n"
+    "                  \"VALUE_TYPE\":5\n"
+    "               }\n"
+    "            }\n"
+    "         ],\n"
+    "         \"PLAN_NODE_TYPE\":\"MATERIALIZE\"\n"
+    "      }\n"
+    "   ]\n"
+    "}\n";
+
+// Plan for UPSERT INTO T VALUES (1, 20);
+
+const std::string upsertPlan =
+    "{\n"
+    "   \"EXECUTE_LIST\":[\n"
+    "      2,\n"
+    "      1\n"
+    "   ],\n"
+    "   \"IS_LARGE_QUERY\":false,\n"
+    "   \"PLAN_NODES\":[\n"
+    "      {\n"
+    "         \"CHILDREN_IDS\":[\n"
+    "            2\n"
+    "         ],\n"
+    "         \"FIELD_MAP\":[\n"
+    "            0,\n"
+    "            1\n"
+    "         ],\n"
+    "         \"ID\":1,\n"
+    "         \"MULTI_PARTITION\":false,\n"
+    "         \"PLAN_NODE_TYPE\":\"INSERT\",\n"
+    "         \"TARGET_TABLE_NAME\":\"T\",\n"
+    "         \"UPSERT\":true\n"
+    "      },\n"
+    "      {\n"
+    "         \"BATCHED\":false,\n"
+    "         \"ID\":2,\n"
+    "         \"OUTPUT_SCHEMA\":[\n"
+    "            {\n"
+    "               \"COLUMN_NAME\":\"ID\",\n"
+    "               \"EXPRESSION\":{\n"
+    "                  \"ISNULL\":false,\n"
+    "                  \"TYPE\":30,\n"
+    "                  \"VALUE\":1,\n"
+    "                  \"VALUE_TYPE\":5\n"
+    "               }\n"
+    "            },\n"
+    "            {\n"
+    "               \"COLUMN_NAME\":\"V\",\n"
+    "               \"EXPRESSION\":{\n"
+    "                  \"ISNULL\":false,\n"
+    "                  \"TYPE\":30,\n"
+    "                  \"VALUE\":20,\n"
+    "                  \"VALUE_TYPE\":5\n"
+    "               }\n"
+    "            }\n"
+    "         ],\n"
+    "         \"PLAN_NODE_TYPE\":\"MATERIALIZE\"\n"
+    "      }\n"
+    "   ]\n"
+    "}\n";
+
+// Plan for INSERT INTO T SELECT ID, V FROM S;
+// the insert is inlined in the scan of S.
+
+const std::string insertSelectPlan =
+    "{\n"
+    "   \"EXECUTE_LIST\":[\n"
+    "      1\n"
+    "   ],\n"
+    "   \"IS_LARGE_QUERY\":false,\n"
+    "   \"PLAN_NODES\":[\n"
+    "      {\n"
+    "         \"ID\":1,\n"
+    "         \"INLINE_NODES\":[\n"
+    "            {\n"
+    "               \"FIELD_MAP\":[\n"
+    "                  0,\n"
+    "                  1\n"
+    "               ],\n"
+    "               \"ID\":3,\n"
+    "               \"MULTI_PARTITION\":false,\n"
+    "               \"PLAN_NODE_TYPE\":\"INSERT\",\n"
+    "               \"SOURCE_IS_PARTITIONED\":true,\n"
+    "               \"TARGET_TABLE_NAME\":\"T\"\n"
+    "            },\n"
+    "            {\n"
+    "               \"ID\":2,\n"
+    "               \"OUTPUT_SCHEMA\":[\n"
+    "                  {\n"
+    "                     \"COLUMN_NAME\":\"ID\",\n"
+    "                     \"EXPRESSION\":{\n"
+    "                        \"COLUMN_IDX\":0,\n"
+    "                        \"TYPE\":32,\n"
+    "                        \"VALUE_TYPE\":5\n"
+    "                     }\n"
+    "                  },\n"
+    "                  {\n"
+    "                     \"COLUMN_NAME\":\"V\",\n"
+    "                     \"EXPRESSION\":{\n"
+    "                        \"COLUMN_IDX\":1,\n"
+    "                        \"TYPE\":32,\n"
+    "                        \"VALUE_TYPE\":5\n"
+    "                     }\n"
+    "                  }\n"
+    "               ],\n"
+    "               \"PLAN_NODE_TYPE\":\"PROJECTION\"\n"
+    "            }\n"
+    "         ],\n"
+    "         \"PLAN_NODE_TYPE\":\"SEQSCAN\",\n"
+    "         \"TARGET_TABLE_ALIAS\":\"S\",\n"
+    "         \"TARGET_TABLE_NAME\":\"S\"\n"
+    "      }\n"
+    "   ]\n"
+    "}\n";
+
+/**
+ * A single partition default insert or upsert is executed without an undo
+ * quantum. Check that a failed single row write leaves the table as it was,
+ * and that writes which could fail after changing a row are refused.
+ */
+class InsertWithoutUndoTest : public Test {
+protected:
+    typedef std::tuple<int32_t, int32_t> Row;
+
+    InsertWithoutUndoTest()
+        : m_engine(UniqueEngineBuilder().build())
+    {
+        int partitionCount = htonl(1);
+        m_engine->updateHashinator((char*)&partitionCount, NULL, 0);
+        m_engine->loadCatalog(0, catalogPayload);
+        // Release the quantum the engine starts with, so that the fragments
+        // run without one like they do when the undo token is Long.MAX_VALUE
+        m_engine->releaseUndoToken(0, false);
+    }
+
+    void insertRow(const std::string& tableName, const Row& row) {
+        Table* table = m_engine->getTableByName(tableName);
+        StandAloneTupleStorage storage(table->schema());
+        TableTuple tuple = storage.tuple();
+        Tools::initTuple(&tuple, row);
+        table->insertTuple(tuple);
+    }
+
+    /** Execute the plan, returning false if it failed */
+    bool execute(const std::string& plan) {
+        bool succeeded = true;
+        auto ev = ExecutorVector::fromJsonPlan(m_engine.get(), plan, 0);
+        try {
+            m_engine->executePlanFragment(ev.get(), NULL);
+        }
+        catch (const SerializableEEException&) {
+            succeeded = false;
+        }
+        ExecutorContext::getExecutorContext()->cleanupAllExecutors();
+        return succeeded;
+    }
+
+    /** Check the rows of T, by scanning the table and probing its primary key */
+    void verifyRows(const std::vector<Row>& expected) {
+        PersistentTable* table = dynamic_cast<PersistentTable*>(m_engine->getTableByName("T"));
+        ASSERT_EQ(expected.size(), table->activeTupleCount());
+        ASSERT_EQ(expected.size(), table->primaryKeyIndex()->getSize());
+        TableTuple tuple(table->schema());
+        TableIterator iterator = table->iterator();
+        int matched = 0;
+        while (iterator.next(tuple)) {
+            Row row(ValuePeeker::peekInteger(tuple.getNValue(0)), ValuePeeker::peekInteger(tuple.getNValue(1)));
+            ASSERT_TRUE(std::find(expected.begin(), expected.end(), row) != expected.end());
+            ASSERT_FALSE(table->lookupTupleByValues(tuple).isNullTuple());
+            ++matched;
+        }
+        ASSERT_EQ(expected.size(), matched);
+    }
+
+    UniqueEngine m_engine;
+};
+
+TEST_F(InsertWithoutUndoTest, FailedSingleRowWriteLeavesTableUnchanged) {
+    ASSERT_EQ(NULL, ExecutorContext::currentUndoQuantum());
+    ASSERT_TRUE(execute(insertPlan));
+    verifyRows({Row(1, 10)});
+
+    // A duplicate key fails before the row is in the table
+    ASSERT_FALSE(execute(insertPlan));
+    verifyRows({Row(1, 10)});
+
+    ASSERT_TRUE(execute(upsertPlan));
+    verifyRows({Row(1, 20)});
+}
+
+TEST_F(InsertWithoutUndoTest, MultiRowInsertIsRefused) {
+    insertRow("T", Row(1, 10));
+    insertRow("S", Row(5, 50));
+    insertRow("S", Row(1, 60));
+
+    // The second row of S fails after the first one was inserted, which only
+    // an undo quantum can take back
+    ASSERT_FALSE(execute(insertSelectPlan));
+    verifyRows({Row(1, 10)});
+
+    m_engine->setUndoToken(1);
+    ASSERT_FALSE(execute(insertSelectPlan));
+    verifyRows({Row(1, 10), Row(5, 50)});
+    m_engine->undoUndoToken(1);
+    verifyRows({Row(1, 10)});
+}
+
+int main() {
+    return TestSuite::globalInstance()->runAll();
+}
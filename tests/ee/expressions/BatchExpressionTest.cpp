@@ -0,0 +1,186 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+#include <vector>
+#include "boost/scoped_ptr.hpp"
+#include "harness.h"
+#include "common/PlannerDomValue.h"
+#include "common/TupleSchemaBuilder.h"
+#include "common/ValueFactory.hpp"
+#include "common/ValuePeeker.hpp"
+#include "common/tabletuple.h"
+#include "expressions/batchexpression.h"
+#include "expressions/constantvalueexpression.h"
+#include "expressions/expressionutil.h"
+#include "expressions/operatorexpression.h"
+#include "expressions/tuplevalueexpression.h"
+
+using namespace voltdb;
+
+static const int ROWS = 1000;
+
+class BatchExpressionTest : public Test {
+public:
+    BatchExpressionTest()
+        : m_emptyRoot("{}")
+    {
+        TupleSchemaBuilder builder(3);
+        builder.setColumnAtIndex(0, VALUE_TYPE_BIGINT);
+        builder.setColumnAtIndex(1, VALUE_TYPE_INTEGER);
+        builder.setColumnAtIndex(2, VALUE_TYPE_VARCHAR, 8);
+        m_schema = builder.build();
+        m_storage.resize(ROWS * m_schema->tupleLength() + ROWS * TUPLE_HEADER_SIZE);
+        for (int ii = 0; ii < ROWS; ++ii) {
+            m_tuples.push_back(&m_storage[ii * (m_schema->tupleLength() + TUPLE_HEADER_SIZE)]);
+            TableTuple tuple(m_tuples.back(), m_schema);
+            tuple.setNValue(0, ValueFactory::getBigIntValue(ii - ROWS / 2));
+            // every tenth b is NULL
+            tuple.setNValue(1, ii % 10 == 0 ? NValue::getNullValue(VALUE_TYPE_INTEGER) :
+                                              ValueFactory::getIntegerValue(ii % 7));
+            tuple.setNValue(2, ValueFactory::getNullValue());
+        }
+    }
+
+    ~BatchExpressionTest() {
+        TupleSchema::freeTupleSchema(m_schema);
+    }
+
+    AbstractExpression* column(int idx) {
+        return new TupleValueExpression(0, idx);
+    }
+
+    AbstractExpression* constant(int64_t value) {
+        return new ConstantValueExpression(ValueFactory::getBigIntValue(value));
+    }
+
+    AbstractExpression* compare(ExpressionType type, AbstractExpression* left, AbstractExpression* right) {
+        return ExpressionUtil::comparisonFactory(m_emptyRoot.rootObject(), type, left, right);
+    }
+
+    // Filter all the rows in one batch and check the selection against row at a time evaluation
+    void verifyFilter(AbstractExpression* expr) {
+        boost::scoped_ptr<AbstractExpression> owner(expr);
+        std::vector<int> columns;
+        boost::scoped_ptr<BatchPredicate> predicate(BatchPredicate::compile(expr, m_schema, columns));
+        ASSERT_TRUE(predicate.get() != NULL);
+        ColumnBatch batch(m_schema, columns);
+        batch.loadTuples(&m_tuples[0], ROWS);
+        uint16_t selection[ColumnBatch::CAPACITY];
+        for (int ii = 0; ii < ROWS; ++ii) {
+            selection[ii] = static_cast<uint16_t>(ii);
+        }
+        uint32_t count = ROWS;
+        ASSERT_TRUE(predicate->filter(batch, selection, count));
+
+        std::vector<uint16_t> expected;
+        for (int ii = 0; ii < ROWS; ++ii) {
+            TableTuple tuple(m_tuples[ii], m_schema);
+            if (expr->eval(&tuple, NULL).isTrue()) {
+                expected.push_back(static_cast<uint16_t>(ii));
+            }
+        }
+        ASSERT_EQ(expected.size(), count);
+        for (uint32_t ii = 0; ii < count; ++ii) {
+            EXPECT_EQ(expected[ii], selection[ii]);
+        }
+    }
+
+protected:
+    PlannerDomRoot m_emptyRoot;
+    TupleSchema* m_schema;
+    std::vector<char> m_storage;
+    std::vector<char*> m_tuples;
+};
+
+TEST_F(BatchExpressionTest, Comparisons) {
+    verifyFilter(compare(EXPRESSION_TYPE_COMPARE_GREATERTHAN, column(0), constant(100)));
+    verifyFilter(compare(EXPRESSION_TYPE_COMPARE_LESSTHANOREQUALTO, column(1), constant(3)));
+    verifyFilter(compare(EXPRESSION_TYPE_COMPARE_EQUAL, column(1), constant(0)));
+    verifyFilter(compare(EXPRESSION_TYPE_COMPARE_NOTEQUAL, column(0), column(1)));
+    verifyFilter(compare(EXPRESSION_TYPE_COMPARE_GREATERTHANOREQUALTO, column(0), column(1)));
+    verifyFilter(compare(EXPRESSION_TYPE_COMPARE_LESSTHAN, constant(-50), column(0)));
+}
+
+TEST_F(BatchExpressionTest, Conjunctions) {
+    verifyFilter(ExpressionUtil::conjunctionFactory(EXPRESSION_TYPE_CONJUNCTION_AND,
+            compare(EXPRESSION_TYPE_COMPARE_GREATERTHAN, column(0), constant(-200)),
+            compare(EXPRESSION_TYPE_COMPARE_LESSTHAN, column(1), constant(4))));
+    verifyFilter(ExpressionUtil::conjunctionFactory(EXPRESSION_TYPE_CONJUNCTION_OR,
+            compare(EXPRESSION_TYPE_COMPARE_LESSTHAN, column(0), constant(-400)),
+            compare(EXPRESSION_TYPE_COMPARE_EQUAL, column(1), constant(6))));
+}
+
+TEST_F(BatchExpressionTest, Arithmetic) {
+    // (a * b) + 5
+    boost::scoped_ptr<AbstractExpression> expr(
+            new OperatorExpression<OpPlus>(EXPRESSION_TYPE_OPERATOR_PLUS,
+                    new OperatorExpression<OpMultiply>(EXPRESSION_TYPE_OPERATOR_MULTIPLY, column(0), column(1)),
+                    constant(5)));
+    std::vector<int> columns;
+    boost::scoped_ptr<BatchExpression> batchExpr(BatchExpression::compile(expr.get(), m_schema, columns));
+    ASSERT_TRUE(batchExpr.get() != NULL);
+    ASSERT_EQ(2, columns.size());
+    ColumnBatch batch(m_schema, columns);
+    batch.loadTuples(&m_tuples[0], ROWS);
+    const int64_t* values;
+    const bool* nulls;
+    ASSERT_TRUE(batchExpr->evaluate(batch, values, nulls));
+    for (int ii = 0; ii < ROWS; ++ii) {
+        TableTuple tuple(m_tuples[ii], m_schema);
+        NValue expected = expr->eval(&tuple, NULL);
+        ASSERT_EQ(expected.isNull(), nulls[ii]);
+        if ( ! nulls[ii]) {
+            EXPECT_EQ(ValuePeeker::peekAsRawInt64(expected), values[ii]);
+        }
+    }
+}
+
+TEST_F(BatchExpressionTest, Overflow) {
+    boost::scoped_ptr<AbstractExpression> expr(
+            new OperatorExpression<OpMultiply>(EXPRESSION_TYPE_OPERATOR_MULTIPLY,
+                    column(0), constant(INT64_MAX / 2)));
+    std::vector<int> columns;
+    boost::scoped_ptr<BatchExpression> batchExpr(BatchExpression::compile(expr.get(), m_schema, columns));
+    ASSERT_TRUE(batchExpr.get() != NULL);
+    ColumnBatch batch(m_schema, columns);
+    batch.loadTuples(&m_tuples[0], ROWS);
+    const int64_t* values;
+    const bool* nulls;
+    // Left to the rows to report
+    EXPECT_FALSE(batchExpr->evaluate(batch, values, nulls));
+}
+
+TEST_F(BatchExpressionTest, Unsupported) {
+    std::vector<int> columns;
+    // Strings and division stay row at a time
+    boost::scoped_ptr<AbstractExpression> onString(
+            compare(EXPRESSION_TYPE_COMPARE_EQUAL, column(2), column(2)));
+    EXPECT_TRUE(BatchPredicate::compile(onString.get(), m_schema, columns) == NULL);
+    boost::scoped_ptr<AbstractExpression> divide(
+            new OperatorExpression<OpDivide>(EXPRESSION_TYPE_OPERATOR_DIVIDE, column(0), constant(2)));
+    EXPECT_TRUE(BatchExpression::compile(divide.get(), m_schema, columns) == NULL);
+}
+
+int main() {
+    return TestSuite::globalInstance()->runAll();
+}
@@ -0,0 +1,204 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+#include <vector>
+#include "boost/scoped_ptr.hpp"
+#include "harness.h"
+#include "common/PlannerDomValue.h"
+#include "common/TupleSchemaBuilder.h"
+#include "common/ValueFactory.hpp"
+#include "common/tabletuple.h"
+#include "expressions/compiledexpression.h"
+#include "expressions/constantvalueexpression.h"
+#include "expressions/expressionutil.h"
+#include "expressions/operatorexpression.h"
+#include "expressions/parametervalueexpression.h"
+#include "expressions/tuplevalueexpression.h"
+
+using namespace voltdb;
+
+static const int ROWS = 500;
+
+class CompiledExpressionTest : public Test {
+public:
+    CompiledExpressionTest()
+        : m_emptyRoot("{}")
+        , m_param(ValueFactory::getBigIntValue(3))
+    {
+        TupleSchemaBuilder builder(4);
+        builder.setColumnAtIndex(0, VALUE_TYPE_BIGINT);
+        builder.setColumnAtIndex(1, VALUE_TYPE_TINYINT);
+        builder.setColumnAtIndex(2, VALUE_TYPE_TIMESTAMP);
+        builder.setColumnAtIndex(3, VALUE_TYPE_VARCHAR, 8);
+        m_schema = builder.build();
+        const size_t tupleSize = m_schema->tupleLength() + TUPLE_HEADER_SIZE;
+        m_storage.resize(ROWS * tupleSize);
+        for (int ii = 0; ii < ROWS; ++ii) {
+            TableTuple tuple(&m_storage[ii * tupleSize], m_schema);
+            tuple.setNValue(0, ValueFactory::getBigIntValue(ii - ROWS / 2));
+            // every seventh b is NULL
+            tuple.setNValue(1, ii % 7 == 0 ? NValue::getNullValue(VALUE_TYPE_TINYINT) :
+                                             ValueFactory::getTinyIntValue(static_cast<int8_t>(ii % 5)));
+            tuple.setNValue(2, ii % 11 == 0 ? NValue::getNullValue(VALUE_TYPE_TIMESTAMP) :
+                                              ValueFactory::getTimestampValue(ii * 1000));
+            tuple.setNValue(3, ValueFactory::getNullValue());
+            m_tuples.push_back(tuple);
+        }
+    }
+
+    ~CompiledExpressionTest() {
+        TupleSchema::freeTupleSchema(m_schema);
+    }
+
+    AbstractExpression* column(int idx) {
+        return new TupleValueExpression(0, idx);
+    }
+
+    AbstractExpression* constant(const NValue& value) {
+        return new ConstantValueExpression(value);
+    }
+
+    AbstractExpression* constant(int64_t value) {
+        return constant(ValueFactory::getBigIntValue(value));
+    }
+
+    AbstractExpression* param() {
+        AbstractExpression* pve = new ParameterValueExpression(0, &m_param);
+        pve->setValueType(VALUE_TYPE_BIGINT);
+        return pve;
+    }
+
+    AbstractExpression* compare(ExpressionType type, AbstractExpression* left, AbstractExpression* right) {
+        return ExpressionUtil::comparisonFactory(m_emptyRoot.rootObject(), type, left, right);
+    }
+
+    AbstractExpression* conjunction(ExpressionType type, AbstractExpression* left, AbstractExpression* right) {
+        return ExpressionUtil::conjunctionFactory(type, left, right);
+    }
+
+    // Check the compiled predicate against the tree on every row
+    void verify(AbstractExpression* expr) {
+        boost::scoped_ptr<AbstractExpression> owner(expr);
+        boost::scoped_ptr<CompiledExpression> compiled(CompiledExpression::compile(expr, m_schema));
+        ASSERT_TRUE(compiled.get() != NULL);
+        for (int ii = 0; ii < ROWS; ++ii) {
+            bool passed;
+            ASSERT_TRUE(compiled->evalPredicate(&m_tuples[ii], passed));
+            EXPECT_EQ(expr->eval(&m_tuples[ii], NULL).isTrue(), passed);
+        }
+    }
+
+protected:
+    PlannerDomRoot m_emptyRoot;
+    NValue m_param;
+    TupleSchema* m_schema;
+    std::vector<char> m_storage;
+    std::vector<TableTuple> m_tuples;
+};
+
+TEST_F(CompiledExpressionTest, Comparisons) {
+    verify(compare(EXPRESSION_TYPE_COMPARE_GREATERTHAN, column(0), constant(10)));
+    verify(compare(EXPRESSION_TYPE_COMPARE_EQUAL, column(1), constant(2)));
+    verify(compare(EXPRESSION_TYPE_COMPARE_NOTEQUAL, column(0), column(1)));
+    verify(compare(EXPRESSION_TYPE_COMPARE_LESSTHANOREQUALTO, column(1), param()));
+    verify(compare(EXPRESSION_TYPE_COMPARE_GREATERTHANOREQUALTO, column(2),
+                   constant(ValueFactory::getTimestampValue(200000))));
+    verify(compare(EXPRESSION_TYPE_COMPARE_LESSTHAN,
+                   new OperatorExpression<OpMultiply>(EXPRESSION_TYPE_OPERATOR_MULTIPLY, column(0), column(1)),
+                   new OperatorExpression<OpMinus>(EXPRESSION_TYPE_OPERATOR_MINUS, param(), constant(40))));
+}
+
+TEST_F(CompiledExpressionTest, Logic) {
+    // NULLs in b and c go through the three valued AND, OR and NOT
+    verify(conjunction(EXPRESSION_TYPE_CONJUNCTION_AND,
+                       compare(EXPRESSION_TYPE_COMPARE_GREATERTHAN, column(0), constant(-100)),
+                       compare(EXPRESSION_TYPE_COMPARE_LESSTHAN, column(1), constant(3))));
+    verify(new OperatorNotExpression(
+            conjunction(EXPRESSION_TYPE_CONJUNCTION_OR,
+                        compare(EXPRESSION_TYPE_COMPARE_EQUAL, column(1), constant(4)),
+                        compare(EXPRESSION_TYPE_COMPARE_LESSTHAN, column(0), constant(0)))));
+    verify(new OperatorNotExpression(
+            conjunction(EXPRESSION_TYPE_CONJUNCTION_AND,
+                        compare(EXPRESSION_TYPE_COMPARE_NOTEQUAL, column(1), constant(1)),
+                        new OperatorIsNullExpression(column(2)))));
+    verify(conjunction(EXPRESSION_TYPE_CONJUNCTION_OR,
+                       new OperatorIsNullExpression(column(1)),
+                       conjunction(EXPRESSION_TYPE_CONJUNCTION_AND,
+                                   compare(EXPRESSION_TYPE_COMPARE_GREATERTHAN, column(0), param()),
+                                   compare(EXPRESSION_TYPE_COMPARE_EQUAL, column(1), constant(0)))));
+}
+
+TEST_F(CompiledExpressionTest, ConstantFolding) {
+    // 2 * 3 + 1 < a AND (1 = 1 OR a = 0)
+    verify(conjunction(EXPRESSION_TYPE_CONJUNCTION_AND,
+            compare(EXPRESSION_TYPE_COMPARE_LESSTHAN,
+                    new OperatorExpression<OpPlus>(EXPRESSION_TYPE_OPERATOR_PLUS,
+                            new OperatorExpression<OpMultiply>(EXPRESSION_TYPE_OPERATOR_MULTIPLY,
+                                    constant(2), constant(3)),
+                            constant(1)),
+                    column(0)),
+            conjunction(EXPRESSION_TYPE_CONJUNCTION_OR,
+                    compare(EXPRESSION_TYPE_COMPARE_EQUAL, constant(1), constant(1)),
+                    compare(EXPRESSION_TYPE_COMPARE_EQUAL, column(0), constant(0)))));
+    verify(compare(EXPRESSION_TYPE_COMPARE_EQUAL, constant(1), constant(2)));
+}
+
+TEST_F(CompiledExpressionTest, Fallback) {
+    boost::scoped_ptr<AbstractExpression> overflow(
+            compare(EXPRESSION_TYPE_COMPARE_GREATERTHAN,
+                    new OperatorExpression<OpMultiply>(EXPRESSION_TYPE_OPERATOR_MULTIPLY,
+                            column(0), constant(INT64_MAX / 10)),
+                    constant(0)));
+    boost::scoped_ptr<CompiledExpression> compiled(CompiledExpression::compile(overflow.get(), m_schema));
+    ASSERT_TRUE(compiled.get() != NULL);
+    bool passed;
+    // Rows whose product overflows are left to the tree
+    EXPECT_FALSE(compiled->evalPredicate(&m_tuples[0], passed));
+    EXPECT_TRUE(compiled->evalPredicate(&m_tuples[ROWS / 2], passed));
+    EXPECT_FALSE(passed);
+
+    // So is a parameter that is not bound to an integer
+    boost::scoped_ptr<AbstractExpression> onParam(
+            compare(EXPRESSION_TYPE_COMPARE_EQUAL, column(0), param()));
+    compiled.reset(CompiledExpression::compile(onParam.get(), m_schema));
+    ASSERT_TRUE(compiled.get() != NULL);
+    m_param = ValueFactory::getDoubleValue(1.5);
+    EXPECT_FALSE(compiled->evalPredicate(&m_tuples[0], passed));
+
+    // Strings and division are not compiled at all
+    boost::scoped_ptr<AbstractExpression> onString(
+            compare(EXPRESSION_TYPE_COMPARE_EQUAL, column(3), column(3)));
+    EXPECT_TRUE(CompiledExpression::compile(onString.get(), m_schema) == NULL);
+    boost::scoped_ptr<AbstractExpression> divide(
+            compare(EXPRESSION_TYPE_COMPARE_EQUAL,
+                    new OperatorExpression<OpDivide>(EXPRESSION_TYPE_OPERATOR_DIVIDE, column(0), constant(2)),
+                    constant(1)));
+    EXPECT_TRUE(CompiledExpression::compile(divide.get(), m_schema) == NULL);
+    // Nor is anything that is not a predicate
+    boost::scoped_ptr<AbstractExpression> notPredicate(column(0));
+    EXPECT_TRUE(CompiledExpression::compile(notPredicate.get(), m_schema) == NULL);
+}
+
+int main() {
+    return TestSuite::globalInstance()->runAll();
+}
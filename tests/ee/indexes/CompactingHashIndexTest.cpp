@@ -123,6 +123,63 @@ TEST_F(CompactingHashIndexTest, ENG1193) {
     delete tuple4;
 }
 
+TEST_F(CompactingHashIndexTest, OpenAddressingSwitch) {
+    vector<int> columnIndices(1, 0);
+    vector<ValueType> columnTypes(1, VALUE_TYPE_BIGINT);
+    vector<int32_t> columnLengths(1, NValue::getTupleStorageSize(VALUE_TYPE_BIGINT));
+    vector<bool> columnAllowNull(1, false);
+    TupleSchema *schema = TupleSchema::createTupleSchemaForTest(columnTypes,
+                                                                columnLengths,
+                                                                columnAllowNull);
+    TableIndexScheme multiScheme("multi", HASH_TABLE_INDEX,
+                                 columnIndices, TableIndex::simplyIndexColumns(),
+                                 false, false, schema);
+    TableIndexScheme uniqueScheme("unique", HASH_TABLE_INDEX,
+                                  columnIndices, TableIndex::simplyIndexColumns(),
+                                  true, false, schema);
+
+    // the chained table unless asked for
+    TableIndex *index = TableIndexFactory::getInstance(multiScheme);
+    EXPECT_EQ("CompactingHashMultiMapIndex", index->getTypeName());
+    delete index;
+
+    TableIndex *multi = TableIndexFactory::getInstance(multiScheme, true);
+    TableIndex *unique = TableIndexFactory::getInstance(uniqueScheme, true);
+    EXPECT_EQ("CompactingOpenHashMultiMapIndex", multi->getTypeName());
+    EXPECT_EQ("CompactingOpenHashUniqueIndex", unique->getTypeName());
+
+    // two tuples per key in the multimap
+    vector<TableTuple*> tuples;
+    for (int i = 0; i < 200; i++) {
+        tuples.push_back(newTuple(schema, 0, i / 2));
+        multi->addEntry(tuples.back(), NULL);
+        if (i % 2 == 0) {
+            unique->addEntry(tuples.back(), NULL);
+        }
+    }
+    EXPECT_EQ(200, multi->getSize());
+    EXPECT_EQ(100, unique->getSize());
+    for (int i = 0; i < 200; i += 4) {
+        EXPECT_TRUE(multi->deleteEntry(tuples[i]));
+        EXPECT_TRUE(multi->deleteEntry(tuples[i + 1]));
+        EXPECT_TRUE(unique->deleteEntry(tuples[i]));
+    }
+    EXPECT_EQ(100, multi->getSize());
+    EXPECT_EQ(50, unique->getSize());
+    for (int i = 0; i < 200; i += 2) {
+        EXPECT_EQ(i % 4 == 2, unique->exists(tuples[i]));
+        EXPECT_EQ(i % 4 == 2, multi->exists(tuples[i]));
+    }
+
+    delete multi;
+    delete unique;
+    TupleSchema::freeTupleSchema(schema);
+    for (int i = 0; i < tuples.size(); i++) {
+        delete[] tuples[i]->address();
+        delete tuples[i];
+    }
+}
+
 int main()
 {
     return TestSuite::globalInstance()->runAll();
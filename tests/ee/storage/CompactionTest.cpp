@@ -42,6 +42,7 @@
 
 #include "stx/btree_set.h"
 
+#include <boost/date_time/posix_time/posix_time.hpp>
 #include <boost/scoped_array.hpp>
 #include <boost/foreach.hpp>
 
@@ -381,6 +382,68 @@ TEST_F(CompactionTest, BasicCompaction) {
     ASSERT_EQ( m_table->activeTupleCount(), 0);
 }
 
+TEST_F(CompactionTest, BudgetedCompaction) {
+    initTable();
+#ifdef MEMCHECK
+    int tupleCount = 1000;
+#else
+    int tupleCount = 645260;
+#endif
+    addRandomUniqueTuples(m_table, tupleCount);
+
+    voltdb::TableIndex *pkeyIndex = m_table->primaryKeyIndex();
+    TableTuple key(pkeyIndex->getKeySchema());
+    boost::scoped_array<char> backingStore(new char[pkeyIndex->getKeySchema()->tupleLength()]);
+    key.moveNoHeader(backingStore.get());
+    IndexCursor indexCursor(pkeyIndex->getTupleSchema());
+
+    for (int ii = 0; ii < tupleCount; ii += 2) {
+        key.setNValue(0, ValueFactory::getIntegerValue(ii));
+        ASSERT_TRUE(pkeyIndex->moveToKey(&key, indexCursor));
+        TableTuple tuple = pkeyIndex->nextValueAtKey(indexCursor);
+        m_table->deleteTuple(tuple, true);
+    }
+    m_table->doForcedCompaction();
+    ASSERT_TRUE(m_table->idleCompactionPredicate());
+
+    // No time left, nothing moves
+    boost::posix_time::ptime now = boost::posix_time::microsec_clock::universal_time();
+    size_t blocksBefore = m_table->allocatedBlockCount();
+    ASSERT_EQ(0, m_table->doBudgetedCompaction(now));
+    ASSERT_EQ(blocksBefore, m_table->allocatedBlockCount());
+
+    int64_t reclaimed = m_table->doBudgetedCompaction(now + boost::posix_time::hours(1));
+    ASSERT_TRUE(m_table->allocatedBlockCount() < blocksBefore);
+    ASSERT_EQ(static_cast<int64_t>(blocksBefore - m_table->allocatedBlockCount()) *
+              m_table->getTableAllocationSize(), reclaimed);
+    ASSERT_FALSE(m_table->idleCompactionPredicate());
+    ASSERT_EQ(tupleCount / 2, m_table->activeTupleCount());
+
+    // Every tuple that was moved can still be found through the indexes
+    TableIterator iter = m_table->iterator();
+    TableTuple tuple(m_table->schema());
+    while (iter.next(tuple)) {
+        key.setNValue(0, tuple.getNValue(0));
+        BOOST_FOREACH (TableIndex* index, m_table->allIndexes()) {
+            ASSERT_TRUE(index->moveToKey(&key, indexCursor));
+            TableTuple indexTuple = index->nextValueAtKey(indexCursor);
+            ASSERT_EQ(indexTuple.address(), tuple.address());
+        }
+    }
+}
+
+TEST_F(CompactionTest, AdaptiveAllocationSize) {
+    // Unknown row counts keep the default 2MB blocks
+    ASSERT_EQ(2097152, PersistentTable::adaptiveAllocationSize(64, 0));
+    // Small tables get small blocks, but never below 64KB
+    ASSERT_EQ(65536, PersistentTable::adaptiveAllocationSize(64, 100));
+    ASSERT_EQ(262144, PersistentTable::adaptiveAllocationSize(64, 50000));
+    // Large tables are capped at the default
+    ASSERT_EQ(2097152, PersistentTable::adaptiveAllocationSize(64, 100000000));
+    // Wide tuples still get a few dozen to a block
+    ASSERT_EQ(524288, PersistentTable::adaptiveAllocationSize(8000, 100));
+}
+
 TEST_F(CompactionTest, CompactionWithCopyOnWrite) {
     initTable();
 #ifdef MEMCHECK
@@ -0,0 +1,172 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+#include <algorithm>
+#include <cstdlib>
+#include <vector>
+#include "harness.h"
+#include "common/value_defs.h"
+#include "storage/EncodedColumn.h"
+
+using namespace voltdb;
+
+class EncodedColumnTest : public Test {
+public:
+    // Check every row through both accessors and the summary against the input
+    void verify(const std::vector<int64_t>& values, int64_t nullValue, bool sumFits = true) {
+        EncodedColumn column(values.data(), static_cast<uint32_t>(values.size()), nullValue);
+        ASSERT_EQ(values.size(), column.size());
+        for (uint32_t ii = 0; ii < values.size(); ++ii) {
+            ASSERT_EQ(values[ii], column.valueAt(ii));
+        }
+        std::vector<int64_t> decoded(values.size());
+        // decode in uneven pieces to cross run and word boundaries
+        uint32_t start = 0;
+        while (start < values.size()) {
+            uint32_t count = std::min<uint32_t>(static_cast<uint32_t>(values.size()) - start, 1 + start % 97);
+            column.decode(start, count, &decoded[start]);
+            start += count;
+        }
+        ASSERT_TRUE(decoded == values);
+
+        int64_t count = 0;
+        int64_t sum = 0;
+        int64_t min = 0;
+        int64_t max = 0;
+        for (size_t ii = 0; ii < values.size(); ++ii) {
+            if (values[ii] == nullValue) {
+                continue;
+            }
+            if (count == 0 || values[ii] < min) {
+                min = values[ii];
+            }
+            if (count == 0 || values[ii] > max) {
+                max = values[ii];
+            }
+            if (sumFits) {
+                sum += values[ii];
+            }
+            ++count;
+        }
+        const ColumnSummary& summary = column.summary();
+        ASSERT_EQ(count, summary.count);
+        if (sumFits) {
+            ASSERT_FALSE(summary.sumOverflow);
+            ASSERT_EQ(sum, summary.sum);
+        }
+        if (count > 0) {
+            ASSERT_EQ(min, summary.min);
+            ASSERT_EQ(max, summary.max);
+        }
+    }
+
+    EncodedColumn::Encoding encodingOf(const std::vector<int64_t>& values) {
+        return EncodedColumn(values.data(), static_cast<uint32_t>(values.size()), INT64_NULL).encoding();
+    }
+};
+
+TEST_F(EncodedColumnTest, Empty) {
+    std::vector<int64_t> values;
+    EncodedColumn column(values.data(), 0, INT64_NULL);
+    ASSERT_EQ(0, column.size());
+    ASSERT_EQ(0, column.summary().count);
+}
+
+TEST_F(EncodedColumnTest, Runs) {
+    std::vector<int64_t> values;
+    for (int ii = 0; ii < 10; ++ii) {
+        values.insert(values.end(), 500, ii * 1000000007LL);
+    }
+    ASSERT_EQ(EncodedColumn::ENCODING_RLE, encodingOf(values));
+    verify(values, INT64_NULL);
+}
+
+TEST_F(EncodedColumnTest, FewDistinctValues) {
+    std::vector<int64_t> values;
+    for (int ii = 0; ii < 5000; ++ii) {
+        values.push_back((rand() % 7) * 100000000000LL);
+    }
+    ASSERT_EQ(EncodedColumn::ENCODING_DICTIONARY, encodingOf(values));
+    verify(values, INT64_NULL);
+}
+
+TEST_F(EncodedColumnTest, NarrowRange) {
+    std::vector<int64_t> values;
+    for (int ii = 0; ii < 5000; ++ii) {
+        values.push_back(1000000 + rand() % 5000);
+    }
+    ASSERT_EQ(EncodedColumn::ENCODING_BITPACKED, encodingOf(values));
+    verify(values, INT64_NULL);
+}
+
+TEST_F(EncodedColumnTest, AllEqual) {
+    std::vector<int64_t> values(1000, -42);
+    verify(values, INT64_NULL);
+}
+
+TEST_F(EncodedColumnTest, FullRange) {
+    // offsets need all 64 bits
+    std::vector<int64_t> values;
+    for (int ii = 0; ii < 1000; ++ii) {
+        int64_t value = (static_cast<int64_t>(rand()) << 33) ^ (static_cast<int64_t>(rand()) << 2) ^ rand();
+        values.push_back(ii % 2 ? value : -value);
+    }
+    values.push_back(INT64_MAX);
+    values.push_back(INT64_MIN + 1);
+    verify(values, INT64_NULL, false);
+}
+
+TEST_F(EncodedColumnTest, Nulls) {
+    std::vector<int64_t> values;
+    for (int ii = 0; ii < 3000; ++ii) {
+        values.push_back(ii % 3 ? rand() % 100 : INT32_NULL);
+    }
+    verify(values, INT32_NULL);
+
+    std::vector<int64_t> nulls(100, INT8_NULL);
+    EncodedColumn column(nulls.data(), 100, INT8_NULL);
+    ASSERT_EQ(100, column.size());
+    ASSERT_EQ(0, column.summary().count);
+    ASSERT_EQ(INT8_NULL, column.valueAt(99));
+}
+
+TEST_F(EncodedColumnTest, SumOverflow) {
+    std::vector<int64_t> values(3, INT64_MAX / 2);
+    EncodedColumn column(values.data(), 3, INT64_NULL);
+    ASSERT_TRUE(column.summary().sumOverflow);
+    ASSERT_EQ(3, column.summary().count);
+    ASSERT_EQ(INT64_MAX / 2, column.summary().max);
+}
+
+TEST_F(EncodedColumnTest, Compression) {
+    std::vector<int64_t> values;
+    for (int ii = 0; ii < 10000; ++ii) {
+        values.push_back(rand() % 256);
+    }
+    EncodedColumn column(values.data(), 10000, INT64_NULL);
+    ASSERT_TRUE(column.bytesAllocated() < values.size() * sizeof(int64_t) / 6);
+}
+
+int main() {
+    return TestSuite::globalInstance()->runAll();
+}
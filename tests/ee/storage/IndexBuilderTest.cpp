@@ -0,0 +1,285 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+#include "harness.h"
+
+#include "common/NValue.hpp"
+#include "common/SerializableEEException.h"
+#include "common/TupleSchema.h"
+#include "common/ValueFactory.hpp"
+#include "common/ValuePeeker.hpp"
+#include "execution/VoltDBEngine.h"
+#include "indexes/tableindex.h"
+#include "indexes/tableindexfactory.h"
+#include "storage/persistenttable.h"
+#include "storage/tableiterator.h"
+#include "storage/tablefactory.h"
+#include "storage/tableutil.h"
+
+#include <boost/foreach.hpp>
+
+#include <cstdlib>
+#include <string>
+#include <vector>
+
+using namespace voltdb;
+
+/**
+ * Builds a non-unique index on the second column of a table keyed on the first
+ * with addIndexIncrementally(), changing the table between the steps of the
+ * build, and checks that the index ends up with exactly the table's tuples.
+ */
+class IndexBuilderTest : public Test {
+public:
+    IndexBuilderTest() : m_nextKey(0), m_undoToken(0) {
+        m_engine = new VoltDBEngine();
+        int partitionCount = 1;
+        m_engine->initialize(1, 1, 0, partitionCount, 0, "", 0, 1024, DEFAULT_TEMP_TABLE_MEMORY, true);
+        partitionCount = htonl(partitionCount);
+        m_engine->updateHashinator((char*)&partitionCount, NULL, 0);
+
+        std::vector<ValueType> types(3, VALUE_TYPE_BIGINT);
+        types[0] = VALUE_TYPE_INTEGER;
+        types[1] = VALUE_TYPE_INTEGER;
+        std::vector<int32_t> sizes;
+        for (int ii = 0; ii < types.size(); ii++) {
+            sizes.push_back(NValue::getTupleStorageSize(types[ii]));
+        }
+        std::vector<bool> allowNull(3, true);
+        allowNull[0] = false;
+        TupleSchema* schema = TupleSchema::createTupleSchemaForTest(types, sizes, allowNull);
+
+        std::vector<std::string> columnNames;
+        columnNames.push_back("ID");
+        columnNames.push_back("VAL");
+        columnNames.push_back("FILLER");
+        char signature[20];
+        m_table = dynamic_cast<PersistentTable*>(
+                TableFactory::getPersistentTable(0, "T", schema, columnNames, signature));
+
+        std::vector<int> pkeyColumns(1, 0);
+        TableIndexScheme pkeyScheme("PK", BALANCED_TREE_INDEX, pkeyColumns,
+                                    TableIndex::simplyIndexColumns(), true, true, schema);
+        TableIndex* pkeyIndex = TableIndexFactory::getInstance(pkeyScheme);
+        m_table->addIndex(pkeyIndex);
+        m_table->setPrimaryKeyIndex(pkeyIndex);
+
+        beginQuantum();
+    }
+
+    ~IndexBuilderTest() {
+        delete m_engine;
+        delete m_table;
+        voltdb::globalDestroyOncePerProcess();
+    }
+
+    TableIndex* newValueIndex(bool isTree) {
+        std::vector<int> columns(1, 1);
+        TableIndexScheme scheme("VAL_IDX", isTree ? BALANCED_TREE_INDEX : HASH_TABLE_INDEX, columns,
+                                TableIndex::simplyIndexColumns(), false, false, m_table->schema());
+        return TableIndexFactory::getInstance(scheme);
+    }
+
+    void beginQuantum() {
+        m_engine->setUndoToken(++m_undoToken);
+        ExecutorContext::getExecutorContext()->setupForPlanFragments(m_engine->getCurrentUndoQuantum(), 0, 0, 0, 0, false);
+    }
+
+    /** Commit or roll back the changes since the last call */
+    void endQuantum() {
+        if (::rand() % 4 == 0) {
+            m_engine->undoUndoToken(m_undoToken);
+        }
+        else {
+            m_engine->releaseUndoToken(m_undoToken, false);
+        }
+        beginQuantum();
+    }
+
+    void insertTuples(int count) {
+        TableTuple tuple = m_table->tempTuple();
+        for (int ii = 0; ii < count; ii++) {
+            tuple.setNValue(0, ValueFactory::getIntegerValue(m_nextKey++));
+            tuple.setNValue(1, ValueFactory::getIntegerValue(::rand() % 1000));
+            tuple.setNValue(2, ValueFactory::getBigIntValue(ii));
+            m_table->insertTuple(tuple);
+        }
+    }
+
+    void changeTuples(int count) {
+        for (int ii = 0; ii < count; ii++) {
+            TableTuple tuple(m_table->schema());
+            switch (::rand() % 3) {
+            case 0:
+                insertTuples(1);
+                break;
+            case 1:
+                if (tableutil::getRandomTuple(m_table, tuple)) {
+                    m_table->deleteTuple(tuple, true);
+                }
+                break;
+            case 2:
+                if (tableutil::getRandomTuple(m_table, tuple)) {
+                    TableTuple newValues = m_table->tempTuple();
+                    newValues.copy(tuple);
+                    newValues.setNValue(1, ValueFactory::getIntegerValue(::rand() % 1000));
+                    m_table->updateTupleWithSpecificIndexes(tuple, newValues, m_table->allIndexes());
+                }
+                break;
+            }
+        }
+    }
+
+    /** Every tuple of the table is in the index and nothing else is */
+    void checkIndex(TableIndex* index) {
+        TableIterator iter = m_table->iterator();
+        TableTuple tuple(m_table->schema());
+        int64_t tuples = 0;
+        while (iter.next(tuple)) {
+            ASSERT_TRUE(index->exists(&tuple));
+            ++tuples;
+        }
+        ASSERT_EQ(tuples, static_cast<int64_t>(index->getSize()));
+    }
+
+protected:
+    VoltDBEngine* m_engine;
+    PersistentTable* m_table;
+    int32_t m_nextKey;
+    int64_t m_undoToken;
+};
+
+TEST_F(IndexBuilderTest, BuildWhileTableChanges) {
+    insertTuples(100000);
+    endQuantum();
+
+    TableIndex* treeIndex = newValueIndex(true);
+    TableIndex* hashIndex = newValueIndex(false);
+    m_table->addIndexIncrementally(treeIndex);
+    int steps = 0;
+    while (m_table->advanceIndexBuild(1000)) {
+        ASSERT_EQ(1, m_table->indexCount());
+        changeTuples(50);
+        endQuantum();
+        if (++steps == 20) {
+            // Starts the scan over for both
+            m_table->addIndexIncrementally(hashIndex);
+        }
+    }
+
+    ASSERT_EQ(3, m_table->indexCount());
+    ASSERT_TRUE(m_table->indexesBeingBuilt().empty());
+    checkIndex(treeIndex);
+    checkIndex(hashIndex);
+}
+
+TEST_F(IndexBuilderTest, BuildAcrossCompaction) {
+    insertTuples(100000);
+    endQuantum();
+
+    TableIndex* index = newValueIndex(true);
+    m_table->addIndexIncrementally(index);
+    ASSERT_TRUE(m_table->continueIndexBuild(30000));
+
+    // Empty out most blocks so that compaction moves tuples the scan has
+    // not reached into blocks it has been through, and frees blocks
+    TableIterator iter = m_table->iterator();
+    TableTuple tuple(m_table->schema());
+    std::vector<TableTuple> toDelete;
+    while (iter.next(tuple)) {
+        if (ValuePeeker::peekAsInteger(tuple.getNValue(0)) % 5 != 0) {
+            toDelete.push_back(tuple);
+        }
+    }
+    BOOST_FOREACH (TableTuple& deleted, toDelete) {
+        m_table->deleteTuple(deleted, true);
+    }
+    m_engine->releaseUndoToken(m_undoToken, false);
+    beginQuantum();
+    m_table->doForcedCompaction();
+
+    while (m_table->advanceIndexBuild(1000)) {
+        changeTuples(50);
+        endQuantum();
+    }
+    ASSERT_EQ(2, m_table->indexCount());
+    checkIndex(index);
+}
+
+TEST_F(IndexBuilderTest, CompletesAfterOrderedSteps) {
+    insertTuples(10000);
+    m_engine->releaseUndoToken(m_undoToken, false);
+    beginQuantum();
+
+    TableIndex* index = newValueIndex(true);
+    m_table->addIndexIncrementally(index);
+
+    // Scanning between transactions gets through the table without completing the build
+    ASSERT_FALSE(m_table->continueIndexBuild(20000));
+    ASSERT_EQ(1, m_table->indexCount());
+    ASSERT_EQ(1, m_table->indexesBeingBuilt().size());
+
+    // A plan that uses the index fails the same way on every replica until then
+    changeTuples(50);
+    bool thrown = false;
+    try {
+        m_table->index("VAL_IDX");
+    }
+    catch (const SerializableEEException&) {
+        thrown = true;
+    }
+    ASSERT_TRUE(thrown);
+    m_engine->undoUndoToken(m_undoToken);
+    beginQuantum();
+
+    // Only the steps taken in transaction order complete it, after as many
+    // tuples as the table had when the build started
+    for (int ii = 0; ii < 9; ii++) {
+        ASSERT_TRUE(m_table->advanceIndexBuild(1000));
+        changeTuples(50);
+        endQuantum();
+    }
+    ASSERT_EQ(1, m_table->indexCount());
+    ASSERT_FALSE(m_table->advanceIndexBuild(1000));
+    ASSERT_EQ(2, m_table->indexCount());
+    ASSERT_TRUE(m_table->indexesBeingBuilt().empty());
+    ASSERT_EQ(index, m_table->index("VAL_IDX"));
+    checkIndex(index);
+}
+
+TEST_F(IndexBuilderTest, RemoveWhileBuilding) {
+    insertTuples(10000);
+    endQuantum();
+
+    TableIndex* index = newValueIndex(true);
+    m_table->addIndexIncrementally(index);
+    ASSERT_TRUE(m_table->continueIndexBuild(100));
+    m_table->removeIndex(index);
+    ASSERT_TRUE(m_table->indexesBeingBuilt().empty());
+    ASSERT_FALSE(m_table->continueIndexBuild(100));
+    ASSERT_EQ(1, m_table->indexCount());
+}
+
+int main() {
+    return TestSuite::globalInstance()->runAll();
+}
@@ -316,6 +316,31 @@ TEST_F(PersistentTableMemStatsTest, DeleteTest) {
     //delete [] tuple.address();
 }
 
+TEST_F(PersistentTableMemStatsTest, ColumnarEncodingTest) {
+    initTable();
+    tableutil::addRandomTuples(m_table, 10);
+    int64_t orig_size = m_table->allocatedTupleMemory();
+    ASSERT_EQ(0, m_table->columnarMemory());
+
+    // the encoding of a cold block is counted on top of the block
+    ASSERT_EQ(0, m_table->encodeColdBlocks(2, 10));
+    ASSERT_EQ(1, m_table->encodeColdBlocks(2, 10));
+    int64_t encoded_size = m_table->columnarMemory();
+    ASSERT_TRUE(encoded_size > 0);
+    ASSERT_EQ(orig_size + encoded_size, m_table->allocatedTupleMemory());
+
+    // and released again when a write discards it
+    TableTuple tuple(m_tableSchema);
+    tableutil::getRandomTuple(m_table, tuple);
+    m_engine->setUndoToken(INT64_MIN + 2);
+    m_engine->updateExecutorContextUndoQuantumForTest();
+    m_table->deleteTuple(tuple, true);
+    m_engine->releaseUndoToken(INT64_MIN + 2, false);
+
+    ASSERT_EQ(0, m_table->columnarMemory());
+    ASSERT_EQ(orig_size, m_table->allocatedTupleMemory());
+}
+
 TEST_F(PersistentTableMemStatsTest, DeleteAndUndoTest) {
     initTable();
     tableutil::addRandomTuples(m_table, 10);
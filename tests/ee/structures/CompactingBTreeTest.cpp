@@ -0,0 +1,276 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+#include <map>
+#include <vector>
+#include <algorithm>
+#include <cstdlib>
+#include "harness.h"
+#include "structures/CompactingBTree.h"
+#include "common/FixUnusedAssertHack.h"
+
+using namespace voltdb;
+using namespace std;
+
+class IntComparator {
+public:
+    inline int operator()(const int &lhs, const int &rhs) const {
+        if (lhs > rhs) return 1;
+        else if (lhs < rhs) return -1;
+        else return 0;
+    }
+};
+
+typedef CompactingBTree<NormalKeyValuePair<int, int>, IntComparator> IntBTree;
+
+class CompactingBTreeTest : public Test {
+public:
+    CompactingBTreeTest() {
+    }
+
+    ~CompactingBTreeTest() {
+    }
+
+    // Walk both ways and check that the tree holds exactly what the stl container does
+    template <typename StlMap>
+    bool sameContents(IntBTree &volt, StlMap &stl) {
+        if (volt.size() != static_cast<int64_t>(stl.size())) {
+            return false;
+        }
+        typename StlMap::const_iterator stli = stl.begin();
+        IntBTree::iterator volti = volt.begin();
+        for (; stli != stl.end(); ++stli, volti.moveNext()) {
+            if (volti.isEnd() || volti.key() != stli->first || volti.value() != stli->second) {
+                return false;
+            }
+        }
+        if (!volti.isEnd()) {
+            return false;
+        }
+        typename StlMap::const_reverse_iterator rstli = stl.rbegin();
+        volti = volt.rbegin();
+        for (; rstli != stl.rend(); ++rstli, volti.movePrev()) {
+            if (volti.isEnd() || volti.key() != rstli->first || volti.value() != rstli->second) {
+                return false;
+            }
+        }
+        return volti.isEnd();
+    }
+};
+
+TEST_F(CompactingBTreeTest, Trivial) {
+    IntBTree volt(true, IntComparator());
+    ASSERT_TRUE(volt.verify());
+    ASSERT_TRUE(volt.begin().isEnd());
+    ASSERT_TRUE(volt.rbegin().isEnd());
+
+    ASSERT_TRUE(volt.insert(std::pair<int,int>(1, 10)));
+    ASSERT_TRUE(volt.insert(std::pair<int,int>(2, 20)));
+    ASSERT_TRUE(volt.insert(std::pair<int,int>(3, 30)));
+    const int *conflict = volt.insert(2, 21);
+    ASSERT_TRUE(conflict != NULL);
+    ASSERT_EQ(20, *conflict);
+    ASSERT_TRUE(volt.verify());
+
+    IntBTree::iterator iter = volt.find(2);
+    ASSERT_TRUE(!iter.isEnd());
+    ASSERT_EQ(20, iter.value());
+    iter.setValue(22);
+    ASSERT_EQ(22, volt.find(2).value());
+    ASSERT_TRUE(volt.find(4).isEnd());
+
+    ASSERT_TRUE(volt.erase(2));
+    ASSERT_TRUE(!volt.erase(2));
+    ASSERT_EQ(2, volt.size());
+    ASSERT_TRUE(volt.verify());
+
+    // stepping off either end stays at the end
+    iter = volt.begin();
+    iter.movePrev();
+    ASSERT_TRUE(iter.isEnd());
+    iter.movePrev();
+    ASSERT_TRUE(iter.isEnd());
+
+    ASSERT_TRUE(volt.erase(1));
+    ASSERT_TRUE(volt.erase(3));
+    ASSERT_EQ(0, volt.size());
+    ASSERT_TRUE(volt.verify());
+    ASSERT_EQ(0, volt.bytesAllocated());
+}
+
+TEST_F(CompactingBTreeTest, RandomUnique) {
+    const int ITERATIONS = 200001;
+    const int BIGGEST_VAL = 20000;
+
+    std::map<int,int> stl;
+    IntBTree volt(true, IntComparator());
+
+    srand(0);
+
+    for (int i = 0; i < ITERATIONS; i++) {
+        if ((i % 10000) == 0) {
+            ASSERT_TRUE(volt.verify());
+        }
+
+        // lean towards inserts for a while so the tree grows a few levels
+        bool insert = (rand() % 100) < ((i < ITERATIONS / 2) ? 60 : 40);
+        int val = rand() % BIGGEST_VAL;
+        std::map<int,int>::iterator stli = stl.find(val);
+        IntBTree::iterator volti = volt.find(val);
+        ASSERT_EQ(stli == stl.end(), volti.isEnd());
+        if (insert) {
+            bool success = volt.insert(std::pair<int,int>(val, i));
+            ASSERT_EQ(stli == stl.end(), success);
+            if (success) {
+                stl.insert(std::pair<int,int>(val, i));
+            }
+        }
+        else {
+            ASSERT_EQ(stli != stl.end(), volt.erase(val));
+            if (stli != stl.end()) {
+                stl.erase(stli);
+            }
+        }
+    }
+
+    ASSERT_TRUE(volt.verify());
+    ASSERT_TRUE(sameContents(volt, stl));
+}
+
+TEST_F(CompactingBTreeTest, RandomMulti) {
+    const int ITERATIONS = 100001;
+    const int BIGGEST_VAL = 300;
+
+    std::multimap<int,int> stl;
+    IntBTree volt(false, IntComparator());
+
+    srand(0);
+
+    for (int i = 0; i < ITERATIONS; i++) {
+        if ((i % 10000) == 0) {
+            ASSERT_TRUE(volt.verify());
+        }
+
+        bool insert = (rand() % 100) < ((i < ITERATIONS / 2) ? 60 : 40);
+        int val = rand() % BIGGEST_VAL;
+        if (insert) {
+            // both put new duplicates after the existing ones
+            stl.insert(std::pair<int,int>(val, i));
+            ASSERT_TRUE(volt.insert(std::pair<int,int>(val, i)));
+        }
+        else {
+            std::multimap<int,int>::iterator stli = stl.lower_bound(val);
+            IntBTree::iterator volti = volt.lowerBound(val);
+            if (stli == stl.end() || stli->first != val) {
+                ASSERT_TRUE(volt.find(val).isEnd());
+                ASSERT_TRUE(!volt.erase(val));
+            }
+            else {
+                ASSERT_TRUE(!volti.isEnd());
+                ASSERT_EQ(stli->second, volti.value());
+                stl.erase(stli);
+                ASSERT_TRUE(volt.erase(volti));
+            }
+        }
+    }
+
+    ASSERT_TRUE(volt.verify());
+    ASSERT_TRUE(sameContents(volt, stl));
+
+    for (int val = -1; val <= BIGGEST_VAL; val++) {
+        std::pair<IntBTree::iterator, IntBTree::iterator> range = volt.equalRange(val);
+        std::pair<std::multimap<int,int>::iterator, std::multimap<int,int>::iterator> stlRange =
+                stl.equal_range(val);
+        for (; stlRange.first != stlRange.second; ++stlRange.first, range.first.moveNext()) {
+            ASSERT_TRUE(!range.first.isEnd());
+            ASSERT_EQ(stlRange.first->second, range.first.value());
+        }
+        ASSERT_TRUE(range.first.equals(range.second));
+    }
+}
+
+TEST_F(CompactingBTreeTest, Bounds) {
+    std::map<int,int> stl;
+    IntBTree volt(true, IntComparator());
+
+    srand(1);
+    for (int i = 0; i < 5000; i++) {
+        int val = (rand() % 10000) * 2;
+        if (stl.insert(std::pair<int,int>(val, val)).second) {
+            ASSERT_TRUE(volt.insert(std::pair<int,int>(val, val)));
+        }
+    }
+    ASSERT_TRUE(volt.verify());
+
+    for (int val = -1; val <= 20001; val++) {
+        std::map<int,int>::iterator stli = stl.lower_bound(val);
+        IntBTree::iterator volti = volt.lowerBound(val);
+        ASSERT_EQ(stli == stl.end(), volti.isEnd());
+        if (stli != stl.end()) {
+            ASSERT_EQ(stli->first, volti.key());
+        }
+
+        stli = stl.upper_bound(val);
+        volti = volt.upperBound(val);
+        ASSERT_EQ(stli == stl.end(), volti.isEnd());
+        if (stli != stl.end()) {
+            ASSERT_EQ(stli->first, volti.key());
+        }
+    }
+}
+
+TEST_F(CompactingBTreeTest, SequentialFillAndDrain) {
+    const int COUNT = 100000;
+    IntBTree volt(true, IntComparator());
+    CompactingMap<NormalKeyValuePair<int, int>, IntComparator> rbtree(true, IntComparator());
+
+    for (int i = 0; i < COUNT; i++) {
+        ASSERT_TRUE(volt.insert(std::pair<int,int>(i, i)));
+        ASSERT_TRUE(rbtree.insert(std::pair<int,int>(i, i)));
+    }
+    ASSERT_TRUE(volt.verify());
+    ASSERT_TRUE(volt.height() > 1);
+
+    // appending keeps the leaves full, so there is no per entry overhead to speak of
+    ASSERT_TRUE(volt.bytesAllocated() * 2 < rbtree.bytesAllocated());
+
+    std::vector<int> keys;
+    for (int i = 0; i < COUNT; i++) {
+        keys.push_back(i);
+    }
+    srand(2);
+    std::random_shuffle(keys.begin(), keys.end());
+    for (int i = 0; i < COUNT; i++) {
+        ASSERT_TRUE(volt.erase(keys[i]));
+        if ((i % 10000) == 0) {
+            ASSERT_TRUE(volt.verify());
+        }
+    }
+    ASSERT_EQ(0, volt.size());
+    ASSERT_TRUE(volt.verify());
+    ASSERT_EQ(0, volt.bytesAllocated());
+}
+
+int main() {
+    return TestSuite::globalInstance()->runAll();
+}
@@ -0,0 +1,343 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+#include <string>
+#include <vector>
+#include <algorithm>
+#include <cstdlib>
+#include <cstdio>
+#include <boost/unordered_map.hpp>
+#include "harness.h"
+#include "structures/CompactingOpenHashTable.h"
+#include "structures/CompactingHashTable.h"
+#include "common/FixUnusedAssertHack.h"
+
+using namespace voltdb;
+using namespace std;
+
+typedef CompactingOpenHashTable<int64_t, int64_t> IntOpenHash;
+
+// Puts every key in the same home slot
+class CollidingHasher {
+public:
+    size_t operator()(const int64_t &key) const { return 42; }
+};
+
+class CompactingOpenHashTest : public Test {
+public:
+    std::string keyFromInt(int i) {
+        char buf[256];
+        snprintf(buf, 256, "%010d", i);
+        string val = buf;
+        return val;
+    }
+
+    // number of values stored under a key, walking the iterator
+    template <typename Table>
+    int valueCount(Table &volt, const typename Table::Key &key) {
+        int count = 0;
+        for (typename Table::iterator iter = volt.find(key); !iter.isEnd(); iter.moveNext()) {
+            ++count;
+        }
+        return count;
+    }
+};
+
+TEST_F(CompactingOpenHashTest, Trivial) {
+    IntOpenHash volt(true);
+    ASSERT_TRUE(volt.find(1).isEnd());
+    ASSERT_TRUE(volt.insert(1, 10) == NULL);
+    ASSERT_TRUE(volt.insert(2, 20) == NULL);
+    const int64_t *conflict = volt.insert(1, 11);
+    ASSERT_TRUE(conflict != NULL);
+    ASSERT_EQ(10, *conflict);
+    ASSERT_EQ(2, volt.size());
+
+    IntOpenHash::iterator iter = volt.find(2);
+    ASSERT_FALSE(iter.isEnd());
+    ASSERT_EQ(20, iter.value());
+    iter.setValue(21);
+    ASSERT_EQ(21, volt.find(2).value());
+    iter.moveNext();
+    ASSERT_TRUE(iter.isEnd());
+
+    ASSERT_FALSE(volt.erase(1, 11));
+    ASSERT_TRUE(volt.erase(1));
+    ASSERT_FALSE(volt.erase(1));
+    ASSERT_TRUE(volt.find(1).isEnd());
+    ASSERT_EQ(1, volt.size());
+    ASSERT_TRUE(volt.verify());
+}
+
+TEST_F(CompactingOpenHashTest, FuzzUnique) {
+    const int ITERATIONS = 100000;
+    srand(1);
+    boost::unordered_map<int64_t,int64_t> stl;
+    IntOpenHash volt(true);
+
+    for (int i = 0; i < ITERATIONS; i++) {
+        // drift between growing and shrinking so resizes happen both ways
+        bool insert = (rand() % 100) < ((i / 20000) % 2 == 0 ? 70 : 30);
+        int64_t key = rand() % 50000;
+        if (insert) {
+            bool inserted = stl.insert(std::pair<int64_t,int64_t>(key, i)).second;
+            ASSERT_EQ(inserted, volt.insert(key, i) == NULL);
+        }
+        else {
+            boost::unordered_map<int64_t,int64_t>::iterator stlIter = stl.find(key);
+            IntOpenHash::iterator voltIter = volt.find(key);
+            ASSERT_EQ(stlIter == stl.end(), voltIter.isEnd());
+            if (stlIter != stl.end()) {
+                ASSERT_EQ(stlIter->second, voltIter.value());
+                stl.erase(stlIter);
+                ASSERT_TRUE(volt.erase(voltIter));
+            }
+        }
+        ASSERT_EQ(stl.size(), volt.size());
+        if ((i % 10000) == 0) {
+            ASSERT_TRUE(volt.verify());
+        }
+    }
+    ASSERT_TRUE(volt.verify());
+    for (boost::unordered_map<int64_t,int64_t>::iterator it = stl.begin(); it != stl.end(); ++it) {
+        IntOpenHash::iterator voltIter = volt.find(it->first);
+        ASSERT_FALSE(voltIter.isEnd());
+        ASSERT_EQ(it->second, voltIter.value());
+    }
+}
+
+TEST_F(CompactingOpenHashTest, FuzzMulti) {
+    const int ITERATIONS = 50000;
+    srand(2);
+    boost::unordered_multimap<int64_t,int64_t> stl;
+    IntOpenHash volt(false);
+
+    for (int i = 0; i < ITERATIONS; i++) {
+        bool insert = (rand() % 100) < ((i / 10000) % 2 == 0 ? 70 : 30);
+        // few keys so they collect long lists of duplicates
+        int64_t key = rand() % 500;
+        if (insert) {
+            stl.insert(std::pair<int64_t,int64_t>(key, i));
+            ASSERT_TRUE(volt.insert(key, i) == NULL);
+        }
+        else {
+            boost::unordered_multimap<int64_t,int64_t>::iterator stlIter = stl.find(key);
+            if (stlIter == stl.end()) {
+                ASSERT_TRUE(volt.find(key).isEnd());
+                continue;
+            }
+            // erase any one of the values
+            int skip = rand() % 4;
+            for (boost::unordered_multimap<int64_t,int64_t>::iterator next = stlIter;
+                    skip > 0 && ++next != stl.end() && next->first == key; --skip) {
+                stlIter = next;
+            }
+            int64_t value = stlIter->second;
+            IntOpenHash::iterator voltIter = volt.find(key, value);
+            ASSERT_FALSE(voltIter.isEnd());
+            ASSERT_EQ(key, voltIter.key());
+            ASSERT_EQ(value, voltIter.value());
+            stl.erase(stlIter);
+            ASSERT_FALSE(volt.erase(key, -1));
+            if (rand() % 2) {
+                ASSERT_TRUE(volt.erase(voltIter));
+            }
+            else {
+                ASSERT_TRUE(volt.erase(key, value));
+            }
+        }
+        ASSERT_EQ(stl.size(), volt.size());
+        if ((i % 5000) == 0) {
+            ASSERT_TRUE(volt.verify());
+            ASSERT_EQ((int)stl.count(key), valueCount(volt, key));
+        }
+    }
+    ASSERT_TRUE(volt.verify());
+    for (int64_t key = 0; key < 500; key++) {
+        ASSERT_EQ((int)stl.count(key), valueCount(volt, key));
+    }
+}
+
+TEST_F(CompactingOpenHashTest, IncrementalResize) {
+    IntOpenHash volt(true);
+    int64_t key = 0;
+    // fill until a resize starts
+    while (!volt.isResizing()) {
+        ASSERT_TRUE(volt.insert(key, key) == NULL);
+        key++;
+    }
+    int64_t resizeStart = key;
+    // the old array is drained a bit at a time, everything stays findable meanwhile
+    int steps = 0;
+    while (volt.isResizing()) {
+        ASSERT_TRUE(volt.insert(key, key) == NULL);
+        key++;
+        steps++;
+        ASSERT_TRUE(volt.verify());
+        for (int64_t check = 0; check < key; check += 97) {
+            ASSERT_FALSE(volt.find(check).isEnd());
+        }
+    }
+#ifndef MEMCHECK
+    ASSERT_TRUE(steps > 1);
+#endif
+    ASSERT_TRUE(steps <= resizeStart);
+    for (int64_t check = 0; check < key; check++) {
+        IntOpenHash::iterator iter = volt.find(check);
+        ASSERT_FALSE(iter.isEnd());
+        ASSERT_EQ(check, iter.value());
+    }
+}
+
+TEST_F(CompactingOpenHashTest, ShrinkAndGrow) {
+    const int ITERATIONS = 100000;
+    IntOpenHash volt(false);
+    for (int64_t i = 0; i < ITERATIONS; i++) {
+        ASSERT_TRUE(volt.insert(i / 2, i) == NULL);
+    }
+    ASSERT_TRUE(volt.verify());
+    size_t fullBytes = volt.bytesAllocated();
+
+    for (int64_t i = 0; i < ITERATIONS; i++) {
+        ASSERT_TRUE(volt.erase(i / 2, i));
+    }
+    ASSERT_EQ(0, volt.size());
+    ASSERT_TRUE(volt.verify());
+    // the arrays shrink back as the table empties
+    ASSERT_TRUE(volt.bytesAllocated() < fullBytes / 10);
+    ASSERT_FALSE(volt.isResizing());
+
+    for (int64_t i = 0; i < ITERATIONS; i++) {
+        ASSERT_TRUE(volt.insert(i, i) == NULL);
+    }
+    ASSERT_TRUE(volt.verify());
+}
+
+TEST_F(CompactingOpenHashTest, ReportsUsedBytes) {
+    // an empty or small table doesn't report its whole initial slot array
+    IntOpenHash unique(true);
+    ASSERT_EQ(0, unique.bytesAllocated());
+    for (int64_t i = 0; i < 10; i++) {
+        unique.insert(i, i);
+    }
+    size_t tenBytes = unique.bytesAllocated();
+    ASSERT_TRUE(tenBytes > 0);
+    ASSERT_TRUE(tenBytes < 10 * 64);
+    for (int64_t i = 0; i < 10; i++) {
+        ASSERT_TRUE(unique.erase(i));
+    }
+    ASSERT_EQ(0, unique.bytesAllocated());
+
+    // duplicates are counted with their nodes
+    IntOpenHash multi(false);
+    multi.insert(1, 1);
+    size_t oneBytes = multi.bytesAllocated();
+    multi.insert(1, 2);
+    ASSERT_TRUE(multi.bytesAllocated() > oneBytes);
+}
+
+TEST_F(CompactingOpenHashTest, IteratorReadsOneKey) {
+    // the indexes hold an iterator only while reading the values of a key, lookups of
+    // other keys in between must not disturb it
+    IntOpenHash volt(false);
+    for (int64_t i = 0; i < 1000; i++) {
+        for (int64_t j = 0; j < 5; j++) {
+            volt.insert(i, i * 10 + j);
+        }
+    }
+    IntOpenHash::iterator iter = volt.find(500);
+    int64_t sum = 0;
+    int count = 0;
+    while (!iter.isEnd()) {
+        ASSERT_FALSE(volt.find(count).isEnd());
+        sum += iter.value();
+        ++count;
+        iter.moveNext();
+    }
+    ASSERT_EQ(5, count);
+    ASSERT_EQ(5000 * 5 + 0 + 1 + 2 + 3 + 4, sum);
+
+    // after an insert or erase an iterator has to be found again
+    for (int64_t i = 1000; i < 5000; i++) {
+        volt.insert(i, i);
+    }
+    ASSERT_TRUE(volt.verify());
+    ASSERT_FALSE(volt.find(500, 5003).isEnd());
+}
+
+TEST_F(CompactingOpenHashTest, SmallerThanChained) {
+    const int ITERATIONS = 100000;
+    IntOpenHash volt(true);
+    CompactingHashTable<int64_t, int64_t> chained(true);
+    for (int64_t i = 0; i < ITERATIONS; i++) {
+        volt.insert(i, i);
+        chained.insert(i, i);
+    }
+    ASSERT_TRUE(volt.bytesAllocated() < chained.bytesAllocated());
+}
+
+TEST_F(CompactingOpenHashTest, Collisions) {
+    // every key has the same home, which drives the probe distances past what the
+    // metadata byte holds, and lookups and backward shifts must still work
+    const int COUNT = 2000;
+    CompactingOpenHashTable<int64_t, int64_t, CollidingHasher> volt(true);
+    for (int64_t i = 0; i < COUNT; i++) {
+        ASSERT_TRUE(volt.insert(i, i) == NULL);
+    }
+    ASSERT_TRUE(volt.verify());
+    for (int64_t i = 0; i < COUNT; i += 3) {
+        ASSERT_TRUE(volt.erase(i));
+    }
+    ASSERT_TRUE(volt.verify());
+    for (int64_t i = 0; i < COUNT; i++) {
+        ASSERT_EQ((i % 3) != 0, !volt.find(i).isEnd());
+    }
+}
+
+TEST_F(CompactingOpenHashTest, StringKeys) {
+    const int ITERATIONS = 1000;
+    CompactingOpenHashTable<string, int> volt(false);
+
+    for (int i = 0; i < ITERATIONS; i++) {
+        for (int j = 0; j <= i % 4; j++) {
+            ASSERT_TRUE(volt.insert(keyFromInt(i), j) == NULL);
+        }
+    }
+    ASSERT_TRUE(volt.verify());
+    for (int i = 0; i < ITERATIONS; i++) {
+        ASSERT_EQ(i % 4 + 1, valueCount(volt, keyFromInt(i)));
+    }
+    for (int i = 0; i < ITERATIONS; i += 2) {
+        for (int j = 0; j <= i % 4; j++) {
+            ASSERT_TRUE(volt.erase(keyFromInt(i), j));
+        }
+    }
+    ASSERT_TRUE(volt.verify());
+    for (int i = 0; i < ITERATIONS; i++) {
+        ASSERT_EQ((i % 2) ? i % 4 + 1 : 0, valueCount(volt, keyFromInt(i)));
+    }
+}
+
+int main() {
+    return TestSuite::globalInstance()->runAll();
+}
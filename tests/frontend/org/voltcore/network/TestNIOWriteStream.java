@@ -50,6 +50,7 @@
 
 package org.voltcore.network;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
@@ -59,8 +60,11 @@ import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.SelectionKey;
 import java.util.concurrent.atomic.AtomicLong;
 
+import org.voltcore.utils.DBBPool.BBContainer;
 import org.voltcore.utils.EstTime;
 import org.voltcore.utils.EstTimeUpdater;
+import org.voltcore.utils.RefCountedBuffer;
+import org.voltcore.utils.ZeroCopyDeferredSerialization;
 import org.voltdb.AdmissionControlGroup;
 
 import junit.framework.TestCase;
@@ -389,6 +393,81 @@ public class TestNIOWriteStream extends TestCase {
         wstream.shutdown();
     }
 
+    public void testZeroCopyPayload() throws IOException {
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        MockChannel channel = new MockChannel(MockChannel.SINK, 0) {
+            @Override
+            public int write(ByteBuffer src) throws IOException {
+                final int count = src.remaining();
+                while (src.hasRemaining()) {
+                    written.write(src.get());
+                }
+                return count;
+            }
+        };
+        MockPort port = new MockPort();
+        VoltNIOWriteStream wstream = new VoltNIOWriteStream(port);
+
+        RefCountedBuffer.Pool bufferPool = new RefCountedBuffer.Pool(256, 1);
+        final RefCountedBuffer shared = bufferPool.acquire();
+        for (int i = 0; i < 200; i++) {
+            shared.b().put((byte) i);
+        }
+        wstream.enqueue(new ZeroCopyDeferredSerialization() {
+            @Override
+            public void serialize(ByteBuffer buf) {
+                fail("Payload should not be copied");
+            }
+
+            @Override
+            public void serializeHeader(ByteBuffer buf) {
+                buf.put(new byte[] { -1, -2, -3 });
+            }
+
+            @Override
+            public BBContainer[] takePayload() {
+                return new BBContainer[] { shared.slice(10, 100), shared.slice(150, 50) };
+            }
+
+            @Override
+            public void cancel() {}
+
+            @Override
+            public int getSerializedSize() {
+                return 153;
+            }
+        });
+        ByteBuffer tmp = ByteBuffer.allocate(2);
+        tmp.put((byte) 1);
+        tmp.put((byte) 2);
+        tmp.flip();
+        wstream.enqueue(tmp);
+        wstream.serializeQueuedWrites(pool);
+        assertEquals(3, shared.refCount());
+        wstream.drainTo(channel);
+        assertTrue(wstream.isEmpty());
+
+        // header, both slices in order and then the message queued behind them
+        byte[] bytes = written.toByteArray();
+        assertEquals(155, bytes.length);
+        assertEquals(-1, bytes[0]);
+        assertEquals(-3, bytes[2]);
+        for (int i = 0; i < 100; i++) {
+            assertEquals((byte) (10 + i), bytes[3 + i]);
+        }
+        for (int i = 0; i < 50; i++) {
+            assertEquals((byte) (150 + i), bytes[103 + i]);
+        }
+        assertEquals(1, bytes[153]);
+        assertEquals(2, bytes[154]);
+
+        // the written slices gave their references back
+        assertEquals(1, shared.refCount());
+        shared.release();
+        assertNotNull(bufferPool.acquire());
+        wstream.shutdown();
+    }
+
     public void testLastWriteDelta() throws Exception {
         EstTimeUpdater.pause = true;
         Thread.sleep(10);
@@ -0,0 +1,137 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltcore.utils;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+import org.voltcore.utils.DBBPool.BBContainer;
+
+import junit.framework.TestCase;
+
+public class TestRefCountedBuffer extends TestCase {
+
+    @Test
+    public void testPoolLimitAndRecycle() {
+        RefCountedBuffer.Pool pool = new RefCountedBuffer.Pool(128, 2);
+        RefCountedBuffer first = pool.acquire();
+        RefCountedBuffer second = pool.acquire();
+        assertNotNull(first);
+        assertNotNull(second);
+        assertNull(pool.acquire());
+
+        ByteBuffer firstBuf = first.b();
+        first.release();
+        RefCountedBuffer third = pool.acquire();
+        assertSame(firstBuf, third.b());
+        assertEquals(0, third.b().position());
+
+        pool.close();
+        third.release();
+        second.release();
+        assertNull(pool.acquire());
+    }
+
+    @Test
+    public void testSliceHoldsReference() {
+        RefCountedBuffer.Pool pool = new RefCountedBuffer.Pool(128, 1);
+        RefCountedBuffer buf = pool.acquire();
+        for (int i = 0; i < 128; i++) {
+            buf.b().put((byte) i);
+        }
+
+        BBContainer slice = buf.slice(16, 32);
+        assertEquals(2, buf.refCount());
+        assertEquals(0, slice.b().position());
+        assertEquals(32, slice.b().limit());
+        assertEquals(16, slice.b().get(0));
+        assertEquals(16, buf.offsetOf(slice.b()));
+
+        // the slice keeps the buffer out of the pool after the owner lets go
+        buf.release();
+        assertNull(pool.acquire());
+        slice.discard();
+        assertEquals(0, buf.refCount());
+        assertNotNull(pool.acquire());
+
+        try {
+            buf.retain();
+            fail("Retained a released buffer");
+        } catch (IllegalStateException expected) {}
+    }
+
+    @Test
+    public void testOffsetOf() {
+        RefCountedBuffer.Pool pool = new RefCountedBuffer.Pool(128, 2);
+        RefCountedBuffer buf = pool.acquire();
+        RefCountedBuffer other = pool.acquire();
+
+        ByteBuffer dup = buf.b().duplicate();
+        dup.position(100);
+        assertEquals(100, buf.offsetOf(dup.slice()));
+        assertEquals(-1, buf.offsetOf(other.b()));
+        assertEquals(-1, buf.offsetOf(ByteBuffer.allocate(16)));
+
+        buf.release();
+        other.release();
+    }
+
+    @Test
+    public void testDroppedBufferFreesItsSlot() throws Exception {
+        RefCountedBuffer.Pool pool = new RefCountedBuffer.Pool(128, 2);
+        RefCountedBuffer kept = pool.acquire();
+        RefCountedBuffer dropped = pool.acquire();
+        ByteBuffer droppedBuf = dropped.b();
+        assertNull(pool.acquire());
+
+        // Dropped by its owner without a release
+        dropped = null;
+        RefCountedBuffer reacquired = null;
+        for (int i = 0; i < 100 && reacquired == null; i++) {
+            System.gc();
+            System.runFinalization();
+            Thread.sleep(50);
+            reacquired = pool.acquire();
+        }
+        assertNotNull(reacquired);
+        // The dropped buffer's memory may still be referenced, so it is never handed out again
+        assertNotSame(droppedBuf, reacquired.b());
+        assertNull(pool.acquire());
+
+        // Released buffers don't give up a slot a second time when they are collected
+        reacquired.release();
+        reacquired = null;
+        RefCountedBuffer recycled = pool.acquire();
+        assertNotNull(recycled);
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            System.runFinalization();
+            Thread.sleep(50);
+            assertNull(pool.acquire());
+        }
+
+        recycled.release();
+        kept.release();
+    }
+}
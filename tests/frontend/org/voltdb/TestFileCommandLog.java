@@ -0,0 +1,349 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop_voltpatches.util.PureJavaCrc32C;
+import org.voltdb.CommandLog.CompletionChecks;
+import org.voltdb.CommandLog.DurabilityListener;
+import org.voltdb.FileCommandLog.LogEntry;
+import org.voltdb.iv2.SpScheduler.DurableUniqueIdListener;
+import org.voltdb.iv2.TransactionTask;
+import org.voltdb.iv2.TxnEgo;
+import org.voltdb.messaging.Iv2InitiateTaskMessage;
+import org.voltdb.utils.VoltFile;
+
+import com.google_voltpatches.common.util.concurrent.SettableFuture;
+
+import junit.framework.TestCase;
+
+public class TestFileCommandLog extends TestCase {
+
+    /** Counts the transactions added to each check list and records the lists that became durable */
+    static class CountingListener implements DurabilityListener {
+        final LinkedBlockingQueue<Integer> m_durable = new LinkedBlockingQueue<Integer>();
+        int m_current = 0;
+
+        class Checks implements CompletionChecks {
+            final int m_count;
+            Checks(int count) {
+                m_count = count;
+            }
+            @Override
+            public CompletionChecks startNewCheckList(int startSize) {
+                return null;
+            }
+            @Override
+            public void addTask(TransactionTask task) {}
+            @Override
+            public void setLastDurableUniqueId(long uniqueId) {}
+            @Override
+            public boolean isChanged() {
+                return m_count > 0;
+            }
+            @Override
+            public int getTaskListSize() {
+                return m_count;
+            }
+            @Override
+            public void processChecks() {}
+        }
+
+        @Override
+        public void configureUniqueIdListener(DurableUniqueIdListener listener, boolean install) {}
+        @Override
+        public void createFirstCompletionCheck(boolean isSyncLogging, boolean commandLoggingEnabled) {}
+        @Override
+        public boolean completionCheckInitialized() {
+            return true;
+        }
+        @Override
+        public void addTransaction(TransactionTask pendingTask) {
+            m_current++;
+        }
+        @Override
+        public void initializeLastDurableUniqueId(long uniqueId) {}
+        @Override
+        public int getNumberOfTasks() {
+            return m_current;
+        }
+        @Override
+        public CompletionChecks startNewTaskList(int nextMaxRowCnt) {
+            Checks checks = new Checks(m_current);
+            m_current = 0;
+            return checks;
+        }
+        @Override
+        public void processDurabilityChecks(CompletionChecks completionChecks) {
+            m_durable.offer(completionChecks.getTaskListSize());
+        }
+    }
+
+    private File m_dir;
+    private FileCommandLog m_log;
+
+    @Override
+    public void setUp() throws Exception {
+        m_dir = new File(System.getProperty("java.io.tmpdir"), "TestFileCommandLog-" + System.nanoTime());
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        if (m_log != null) {
+            m_log.shutdown();
+        }
+        VoltFile.recursivelyDelete(m_dir);
+    }
+
+    private static List<ByteBuffer> readEntries(File segment) throws Exception {
+        List<ByteBuffer> entries = new ArrayList<ByteBuffer>();
+        try (RandomAccessFile raf = new RandomAccessFile(segment, "r")) {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer buf = ByteBuffer.allocate((int) channel.size());
+            while (buf.hasRemaining()) {
+                channel.read(buf);
+            }
+            buf.flip();
+            while (buf.hasRemaining()) {
+                int length = buf.getInt();
+                int crc = buf.getInt();
+                ByteBuffer entry = buf.slice();
+                entry.limit(length - 4);
+                buf.position(buf.position() + length - 4);
+                PureJavaCrc32C check = new PureJavaCrc32C();
+                check.update(buf.array(), buf.position() - (length - 4), length - 4);
+                assertEquals(crc, (int) check.getValue());
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    private File[] segments(final String prefix) {
+        return m_dir.listFiles((dir, name) -> name.contains("_" + prefix + "_"));
+    }
+
+    public void testSynchronousGroupCommit() throws Exception {
+        m_log = new FileCommandLog(true, 5, 0, m_dir.getPath());
+        assertTrue(m_log.needsInitialization());
+        m_log.init(1024, Long.MIN_VALUE, 2, null, new HashMap<Integer, Long>());
+        assertFalse(m_log.needsInitialization());
+        assertFalse(m_log.canOfferTask());
+
+        CountingListener p0 = new CountingListener();
+        CountingListener p1 = new CountingListener();
+        m_log.registerDurabilityListener(p0);
+        m_log.registerDurabilityListener(p1);
+
+        long sp0 = TxnEgo.makeZero(0).getTxnId();
+        long sp1 = TxnEgo.makeZero(1).getTxnId();
+        for (int i = 0; i < 10; i++) {
+            assertNull(m_log.log(null, sp0 + i, null, p0, null));
+        }
+        assertNull(m_log.log(null, sp1, null, p1, null));
+
+        // each partition's transactions are released once their group is durable
+        int released = 0;
+        while (released < 10) {
+            Integer count = p0.m_durable.poll(10, TimeUnit.SECONDS);
+            assertNotNull(count);
+            released += count;
+        }
+        assertEquals(Integer.valueOf(1), p1.m_durable.poll(10, TimeUnit.SECONDS));
+
+        File[] p0Segments = segments("p0");
+        assertEquals(1, p0Segments.length);
+        List<ByteBuffer> entries = readEntries(p0Segments[0]);
+        assertEquals(10, entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            ByteBuffer entry = entries.get(i);
+            assertEquals(FileCommandLog.ENTRY_DUMMY, entry.get());
+            assertEquals(sp0 + i, entry.getLong());
+        }
+        assertEquals(1, readEntries(segments("p1")[0]).size());
+    }
+
+    public void testAsynchronousAndFaultLog() throws Exception {
+        m_log = new FileCommandLog(false, 1000, 0, m_dir.getPath());
+        m_log.init(1024, Long.MIN_VALUE, 1, null, new HashMap<Integer, Long>());
+        assertTrue(m_log.canOfferTask());
+
+        CountingListener p0 = new CountingListener();
+        m_log.registerDurabilityListener(p0);
+        long sp0 = TxnEgo.makeZero(0).getTxnId();
+        assertNotNull(m_log.log(null, sp0, null, p0, null));
+
+        HashSet<Long> survivors = new HashSet<Long>();
+        survivors.add(5L);
+        SettableFuture<Boolean> written = m_log.logIv2Fault(1L, survivors, 0, sp0);
+        assertTrue(written.get(10, TimeUnit.SECONDS));
+
+        List<ByteBuffer> faults = readEntries(segments("fault")[0]);
+        assertEquals(1, faults.size());
+        ByteBuffer fault = faults.get(0);
+        assertEquals(FileCommandLog.ENTRY_FAULT, fault.get());
+        assertEquals(sp0, fault.getLong());
+        assertEquals(1L, fault.getLong());
+        assertEquals(0, fault.getInt());
+        assertEquals(1, fault.getInt());
+        assertEquals(5L, fault.getLong());
+    }
+
+    private static Iv2InitiateTaskMessage invocation(long txnId, String procName, Object... params) {
+        StoredProcedureInvocation spi = new StoredProcedureInvocation();
+        spi.setProcName(procName);
+        spi.setParams(params);
+        return new Iv2InitiateTaskMessage(1L, 2L, txnId - 1, txnId, txnId, false, true, spi, 3L, 4L, false);
+    }
+
+    private static long[] spHandles(int partitionId, int count) {
+        long[] spHandles = new long[count];
+        TxnEgo ego = TxnEgo.makeZero(partitionId);
+        for (int i = 0; i < count; i++) {
+            spHandles[i] = ego.getTxnId();
+            ego = ego.makeNext();
+        }
+        return spHandles;
+    }
+
+    private static void awaitDurable(CountingListener listener, int txns) throws Exception {
+        int released = 0;
+        while (released < txns) {
+            Integer count = listener.m_durable.poll(10, TimeUnit.SECONDS);
+            assertNotNull(count);
+            released += count;
+        }
+    }
+
+    public void testReadBackInvocations() throws Exception {
+        m_log = new FileCommandLog(true, 1, 0, m_dir.getPath());
+        m_log.init(1024, Long.MIN_VALUE, 1, null, new HashMap<Integer, Long>());
+        CountingListener p0 = new CountingListener();
+        m_log.registerDurabilityListener(p0);
+
+        long[] sp = spHandles(0, 3);
+        m_log.log(invocation(sp[0], "Insert", 1, "a"), sp[0], null, p0, null);
+        m_log.log(null, sp[1], null, p0, null);
+        m_log.log(invocation(sp[2], "Transfer", 2L, 3.5), sp[2], new int[] { 0, 1 }, p0, null);
+        awaitDurable(p0, 3);
+        m_log.shutdown();
+        m_log = null;
+
+        FileCommandLog.Reader reader = new FileCommandLog.Reader(m_dir, 0);
+        LogEntry entry = reader.next();
+        assertEquals(FileCommandLog.ENTRY_INVOCATION, entry.type);
+        assertEquals(sp[0], entry.spHandle);
+        assertNull(entry.getInvolvedPartitions());
+        Iv2InitiateTaskMessage message = entry.getInvocation();
+        assertEquals(sp[0], message.getTxnId());
+        assertEquals("Insert", message.getStoredProcedureName());
+        Object[] params = message.getParameters();
+        assertEquals(1, ((Number) params[0]).intValue());
+        assertEquals("a", params[1]);
+
+        entry = reader.next();
+        assertEquals(FileCommandLog.ENTRY_DUMMY, entry.type);
+        assertEquals(sp[1], entry.spHandle);
+
+        entry = reader.next();
+        assertEquals(sp[2], entry.spHandle);
+        assertTrue(Arrays.equals(new int[] { 0, 1 }, entry.getInvolvedPartitions()));
+        message = entry.getInvocation();
+        assertEquals("Transfer", message.getStoredProcedureName());
+        assertEquals(3.5, (Double) message.getParameters()[1], 0.0);
+
+        assertNull(reader.next());
+        assertFalse(reader.isTorn());
+        // nothing was logged for another partition
+        assertNull(new FileCommandLog.Reader(m_dir, 1).next());
+    }
+
+    public void testReaderStopsAtTornTail() throws Exception {
+        m_log = new FileCommandLog(true, 1, 0, m_dir.getPath());
+        m_log.init(1024, Long.MIN_VALUE, 1, null, new HashMap<Integer, Long>());
+        CountingListener p0 = new CountingListener();
+        m_log.registerDurabilityListener(p0);
+        long[] sp = spHandles(0, 5);
+        for (int i = 0; i < 5; i++) {
+            m_log.log(null, sp[i], null, p0, null);
+        }
+        awaitDurable(p0, 5);
+        m_log.shutdown();
+        m_log = null;
+
+        // a crash in the middle of writing the last entry
+        File segment = segments("p0")[0];
+        try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+        FileCommandLog.Reader reader = new FileCommandLog.Reader(m_dir, 0);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(sp[i], reader.next().spHandle);
+        }
+        assertNull(reader.next());
+        assertTrue(reader.isTorn());
+
+        // a damaged entry ends the log as well
+        int entrySize = FileCommandLog.ENTRY_HEADER_SIZE;
+        try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+            raf.seek(entrySize + 10);
+            raf.write(raf.read() ^ 0xff);
+        }
+        reader = new FileCommandLog.Reader(m_dir, 0);
+        assertEquals(sp[0], reader.next().spHandle);
+        assertNull(reader.next());
+        assertTrue(reader.isTorn());
+    }
+
+    public void testReaderOrdersRuns() throws Exception {
+        long[] sp = spHandles(0, 2);
+        for (int run = 0; run < 2; run++) {
+            m_log = new FileCommandLog(true, 1, 0, m_dir.getPath());
+            m_log.init(1024, Long.MIN_VALUE, 1, null, new HashMap<Integer, Long>());
+            CountingListener p0 = new CountingListener();
+            m_log.registerDurabilityListener(p0);
+            m_log.log(null, sp[run], null, p0, null);
+            awaitDurable(p0, 1);
+            m_log.shutdown();
+            m_log = null;
+            // runs are told apart by their start time
+            Thread.sleep(5);
+        }
+        FileCommandLog.Reader reader = new FileCommandLog.Reader(m_dir, 0);
+        assertEquals(sp[0], reader.next().spHandle);
+        assertEquals(sp[1], reader.next().spHandle);
+        assertNull(reader.next());
+    }
+}
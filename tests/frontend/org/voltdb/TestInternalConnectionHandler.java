@@ -0,0 +1,349 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.voltcore.messaging.HostMessenger;
+import org.voltdb.AuthSystem.AuthUser;
+import org.voltdb.catalog.Catalog;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.client.ClientResponse;
+import org.voltdb.client.ProcedureCallback;
+import org.voltdb.compiler.VoltProjectBuilder;
+import org.voltdb.settings.DbSettings;
+import org.voltdb.utils.CatalogUtil;
+import org.voltdb.utils.MiscUtils;
+
+/**
+ * Drives the batched importer invocations of {@link InternalConnectionHandler} against adapters
+ * that record the transactions they are asked to create instead of running them.
+ */
+public class TestInternalConnectionHandler {
+
+    private static final int PARTITION_COUNT = 3;
+    private static final int RECORD_COUNT = 12;
+    private static final String BATCH_PROC = "TestInternalConnectionHandler$InsertBatch";
+
+    private static CatalogContext m_context = null;
+
+    public static class InsertBatch extends VoltProcedure {
+        public final SQLStmt insert = new SQLStmt("insert into T values (?, ?);");
+
+        public long run(int partitionValue, int[] ids, String[] values) {
+            for (int i = 0; i < ids.length; i++) {
+                voltQueueSQL(insert, ids[i], values[i]);
+            }
+            return voltExecuteSQL(true).length;
+        }
+    }
+
+    private static class Submission {
+        final String m_procName;
+        final Object[] m_params;
+        final int[] m_partitions;
+        final ProcedureCallback m_callback;
+        final Function<Integer, Boolean> m_backPressurePredicate;
+
+        Submission(String procName, Object[] params, int[] partitions, ProcedureCallback callback,
+                Function<Integer, Boolean> backPressurePredicate) {
+            m_procName = procName;
+            m_params = params;
+            m_partitions = partitions;
+            m_callback = callback;
+            m_backPressurePredicate = backPressurePredicate;
+        }
+
+        void respond(byte status, VoltTable... results) throws Exception {
+            m_callback.clientCallback(new ClientResponseImpl(status, results, null));
+        }
+    }
+
+    private class RecordingAdapter extends InternalClientResponseAdapter {
+        RecordingAdapter(long connectionId) {
+            super(connectionId);
+        }
+
+        @Override
+        public boolean createTransaction(InternalAdapterTaskAttributes kattrs, String procName, Procedure catProc,
+                ProcedureCallback proccb, InternalConnectionStatsCollector statsCollector,
+                StoredProcedureInvocation task, AuthUser user, int[] partitions, boolean ntPriority,
+                Function<Integer, Boolean> backPressurePredicate) {
+            m_submissions.offer(new Submission(procName, task.getParams().toArray(), partitions,
+                    proccb, backPressurePredicate));
+            return true;
+        }
+    }
+
+    private static class RecordingCallback implements ProcedureCallback {
+        final List<ClientResponse> m_responses = new ArrayList<>();
+
+        @Override
+        public synchronized void clientCallback(ClientResponse response) {
+            m_responses.add(response);
+        }
+
+        synchronized ClientResponse getOnlyResponse() {
+            assertEquals(1, m_responses.size());
+            return m_responses.get(0);
+        }
+
+        synchronized boolean isCalled() {
+            return !m_responses.isEmpty();
+        }
+    }
+
+    private final BlockingQueue<Submission> m_submissions = new LinkedBlockingQueue<>();
+    private final InternalConnectionContext m_caller = new InternalConnectionContext() {
+        @Override
+        public String getName() {
+            return "TestImporter";
+        }
+    };
+    private final Function<Integer, Boolean> m_backPressurePredicate = new Function<Integer, Boolean>() {
+        @Override
+        public Boolean apply(Integer partition) {
+            return true;
+        }
+    };
+    private InternalConnectionHandler m_handler;
+    private List<Object[]> m_records;
+    private List<RecordingCallback> m_callbacks;
+    // Record indexes by the partition of the record
+    private Map<Integer, List<Integer>> m_partitionRecords;
+
+    @BeforeClass
+    public static void setUpOnce() throws Exception {
+        File cat = File.createTempFile("temp-internal-connection-handler", "catalog");
+        cat.deleteOnExit();
+
+        VoltProjectBuilder builder = new VoltProjectBuilder();
+        builder.addLiteralSchema("create table T (ID integer not null, V varchar(16) not null, primary key (ID));");
+        builder.addPartitionInfo("T", "ID");
+        builder.addProcedure(InsertBatch.class, new ProcedurePartitionData("T", "ID", "0"));
+        if (!builder.compile(cat.getAbsolutePath())) {
+            throw new IOException();
+        }
+
+        byte[] bytes = MiscUtils.fileToBytes(cat);
+        String serializedCat =
+            CatalogUtil.getSerializedCatalogStringFromJar(CatalogUtil.loadAndUpgradeCatalogFromJar(bytes, false).getFirst());
+        Catalog catalog = new Catalog();
+        catalog.execute(serializedCat);
+
+        String deploymentPath = builder.getPathToDeployment();
+        CatalogUtil.compileDeployment(catalog, deploymentPath, false);
+        DbSettings dbSettings = CatalogUtil.asDbSettings(deploymentPath);
+        m_context = new CatalogContext(catalog, dbSettings, 0, 0, bytes, null, new byte[] {}, mock(HostMessenger.class));
+        TheHashinator.initialize(TheHashinator.getConfiguredHashinatorClass(), TheHashinator.getConfigureBytes(PARTITION_COUNT));
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        VoltDBInterface volt = mock(VoltDBInterface.class);
+        doReturn(m_context).when(volt).getCatalogContext();
+        VoltDB.replaceVoltDBInstanceForTest(volt);
+
+        m_handler = new InternalConnectionHandler();
+        for (int pid = 0; pid < PARTITION_COUNT; pid++) {
+            m_handler.addAdapter(pid, new RecordingAdapter(pid));
+        }
+
+        m_records = new ArrayList<>();
+        m_callbacks = new ArrayList<>();
+        m_partitionRecords = new HashMap<>();
+        for (int i = 0; i < RECORD_COUNT; i++) {
+            m_records.add(new Object[] { i, "value" + i });
+            m_callbacks.add(new RecordingCallback());
+            int partition = TheHashinator.getPartitionForParameter(VoltType.INTEGER, i);
+            List<Integer> group = m_partitionRecords.get(partition);
+            if (group == null) {
+                group = new ArrayList<>();
+                m_partitionRecords.put(partition, group);
+            }
+            group.add(i);
+        }
+    }
+
+    private void callProcedures(String batchProc) {
+        boolean[] queued = m_handler.callProcedures(m_caller, m_backPressurePredicate, null, "T.insert", batchProc,
+                m_records, new ArrayList<ProcedureCallback>(m_callbacks));
+        assertEquals(RECORD_COUNT, queued.length);
+        for (boolean q : queued) {
+            assertTrue(q);
+        }
+    }
+
+    // One submission per partition, taken from what callProcedures queued
+    private Map<Integer, Submission> takePartitionSubmissions() {
+        Map<Integer, Submission> submissions = new HashMap<>();
+        Submission s;
+        while ((s = m_submissions.poll()) != null) {
+            assertEquals(1, s.m_partitions.length);
+            assertNull(submissions.put(s.m_partitions[0], s));
+            assertSame(m_backPressurePredicate, s.m_backPressurePredicate);
+        }
+        assertEquals(m_partitionRecords.keySet(), submissions.keySet());
+        return submissions;
+    }
+
+    private int getBatchedPartition() {
+        for (Map.Entry<Integer, List<Integer>> e : m_partitionRecords.entrySet()) {
+            if (e.getValue().size() > 1) {
+                return e.getKey();
+            }
+        }
+        throw new AssertionError("No partition has more than one record");
+    }
+
+    @Test
+    public void testRecordsLoadedPerPartition() throws Exception {
+        callProcedures(null);
+        Map<Integer, Submission> submissions = takePartitionSubmissions();
+
+        for (Map.Entry<Integer, List<Integer>> e : m_partitionRecords.entrySet()) {
+            final List<Integer> group = e.getValue();
+            final Submission s = submissions.get(e.getKey());
+            if (group.size() == 1) {
+                assertEquals("T.insert", s.m_procName);
+                assertArrayEquals(m_records.get(group.get(0)), s.m_params);
+                s.respond(ClientResponse.SUCCESS, new VoltTable[0]);
+                continue;
+            }
+            assertEquals("@LoadSinglepartitionTable", s.m_procName);
+            assertEquals("T", s.m_params[1]);
+            assertEquals((byte) 0, s.m_params[2]);
+            VoltTable rows = (VoltTable) s.m_params[3];
+            assertEquals(group.size(), rows.getRowCount());
+            for (int i : group) {
+                assertTrue(rows.advanceRow());
+                assertEquals(i, rows.getLong("ID"));
+                assertEquals("value" + i, rows.getString("V"));
+            }
+
+            VoltTable loaded = new VoltTable(new VoltTable.ColumnInfo("", VoltType.BIGINT));
+            loaded.addRow((long) group.size());
+            s.respond(ClientResponse.SUCCESS, loaded);
+
+            // Every record gets a response of its own, reporting its own row
+            ClientResponse previous = null;
+            for (int i : group) {
+                ClientResponse response = m_callbacks.get(i).getOnlyResponse();
+                assertEquals(ClientResponse.SUCCESS, response.getStatus());
+                assertEquals(1, response.getResults().length);
+                assertEquals(1L, response.getResults()[0].asScalarLong());
+                assertNotSame(previous, response);
+                previous = response;
+            }
+        }
+        assertTrue(m_submissions.isEmpty());
+    }
+
+    @Test
+    public void testRolledBackGroupReinvokesRecords() throws Exception {
+        callProcedures(null);
+        final int partition = getBatchedPartition();
+        final List<Integer> group = m_partitionRecords.get(partition);
+        Submission batch = takePartitionSubmissions().get(partition);
+        assertEquals("@LoadSinglepartitionTable", batch.m_procName);
+
+        batch.respond(ClientResponse.USER_ABORT, new VoltTable[0]);
+
+        // Each record is invoked on its own, with back pressure, and the batch response isn't passed on
+        List<Submission> retries = new ArrayList<>();
+        for (int i = 0; i < group.size(); i++) {
+            Submission retry = m_submissions.poll(10, TimeUnit.SECONDS);
+            assertNotNull(retry);
+            assertEquals("T.insert", retry.m_procName);
+            assertArrayEquals(m_records.get(group.get(i)), retry.m_params);
+            assertSame(m_backPressurePredicate, retry.m_backPressurePredicate);
+            retries.add(retry);
+        }
+        for (int i : group) {
+            assertTrue(!m_callbacks.get(i).isCalled());
+        }
+
+        // The retries report to the callbacks of their own records
+        retries.get(0).respond(ClientResponse.USER_ABORT, new VoltTable[0]);
+        for (int i = 1; i < retries.size(); i++) {
+            retries.get(i).respond(ClientResponse.SUCCESS, new VoltTable[0]);
+        }
+        assertEquals(ClientResponse.USER_ABORT, m_callbacks.get(group.get(0)).getOnlyResponse().getStatus());
+        for (int i = 1; i < group.size(); i++) {
+            assertEquals(ClientResponse.SUCCESS, m_callbacks.get(group.get(i)).getOnlyResponse().getStatus());
+        }
+    }
+
+    @Test
+    public void testBatchProcedure() throws Exception {
+        callProcedures(BATCH_PROC);
+        final int partition = getBatchedPartition();
+        final List<Integer> group = m_partitionRecords.get(partition);
+        Submission batch = takePartitionSubmissions().get(partition);
+        assertEquals(BATCH_PROC, batch.m_procName);
+
+        int[] ids = new int[group.size()];
+        String[] values = new String[group.size()];
+        for (int r = 0; r < group.size(); r++) {
+            ids[r] = group.get(r);
+            values[r] = "value" + group.get(r);
+        }
+        assertEquals(group.get(0).intValue(), ((Number) batch.m_params[0]).intValue());
+        assertArrayEquals(ids, (int[]) batch.m_params[1]);
+        assertArrayEquals(values, (String[]) batch.m_params[2]);
+
+        VoltTable result = new VoltTable(new VoltTable.ColumnInfo("", VoltType.BIGINT));
+        result.addRow((long) group.size());
+        batch.respond(ClientResponse.SUCCESS, result);
+
+        // The batch procedure's results don't belong to any one record
+        for (int i : group) {
+            ClientResponse response = m_callbacks.get(i).getOnlyResponse();
+            assertEquals(ClientResponse.SUCCESS, response.getStatus());
+            assertEquals(0, response.getResults().length);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb;
+
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+public class TestPreparedParameters extends TestCase {
+
+    private static final int CATALOG_VERSION = 1;
+
+    private static StoredProcedureInvocation deserializedInvocation(String procName, Object... params)
+            throws Exception {
+        StoredProcedureInvocation spi = new StoredProcedureInvocation();
+        spi.setProcName(procName);
+        spi.setParams(params);
+        ByteBuffer buf = ByteBuffer.allocate(spi.getSerializedSize());
+        spi.flattenToBuffer(buf);
+        buf.flip();
+        StoredProcedureInvocation copy = new StoredProcedureInvocation();
+        copy.initFromBuffer(buf);
+        return copy;
+    }
+
+    public void testUnknownProcedureIsOnlyDecoded() throws Exception {
+        StoredProcedureInvocation spi = deserializedInvocation("PreparedUnknown", 1, "a");
+        assertNull(PreparedParameters.prepare(spi));
+    }
+
+    public void testConvertedForMatchingTypes() throws Exception {
+        Class<?>[] types = PreparedParameters.internParameterTypes(CATALOG_VERSION, "PreparedMatch",
+                new Class<?>[] { long.class, String.class, byte[].class });
+        StoredProcedureInvocation spi = deserializedInvocation("PreparedMatch", 5, "abc", new byte[] { 1, 2 });
+
+        PreparedParameters prepared = PreparedParameters.prepare(spi);
+        assertNotNull(prepared);
+        Object[] converted = prepared.convertedFor(types, spi.getParams().toArray());
+        assertNotNull(converted);
+        assertEquals(Long.valueOf(5), converted[0]);
+        assertEquals("abc", converted[1]);
+        assertEquals(2, ((byte[]) converted[2]).length);
+
+        // every caller gets its own array
+        assertNotSame(converted, prepared.convertedFor(types, spi.getParams().toArray()));
+    }
+
+    public void testInternSharesEqualTypes() throws Exception {
+        Class<?>[] first = PreparedParameters.internParameterTypes(CATALOG_VERSION, "PreparedIntern",
+                new Class<?>[] { long.class, String.class });
+        Class<?>[] second = PreparedParameters.internParameterTypes(CATALOG_VERSION, "PreparedIntern",
+                new Class<?>[] { long.class, String.class });
+        assertSame(first, second);
+    }
+
+    public void testSignatureChangeOnCatalogUpdate() throws Exception {
+        Class<?>[] before = PreparedParameters.internParameterTypes(CATALOG_VERSION, "PreparedUpdate",
+                new Class<?>[] { long.class, String.class });
+        PreparedParameters.internParameterTypes(CATALOG_VERSION, "PreparedDropped",
+                new Class<?>[] { long.class });
+
+        // the procedure now takes a string first, the old types must not be applied
+        Class<?>[] after = PreparedParameters.internParameterTypes(CATALOG_VERSION + 1, "PreparedUpdate",
+                new Class<?>[] { String.class, long.class });
+        assertNotSame(before, after);
+        StoredProcedureInvocation spi = deserializedInvocation("PreparedUpdate", "7", 8);
+        PreparedParameters prepared = PreparedParameters.prepare(spi);
+        assertNotNull(prepared);
+        assertNull(prepared.convertedFor(before, spi.getParams().toArray()));
+        Object[] converted = prepared.convertedFor(after, spi.getParams().toArray());
+        assertNotNull(converted);
+        assertEquals("7", converted[0]);
+        assertEquals(Long.valueOf(8), converted[1]);
+
+        // nothing of the old catalog survives, not even procedures that weren't republished
+        assertNull(PreparedParameters.prepare(deserializedInvocation("PreparedDropped", 1)));
+
+        // identical signatures of the new catalog are shared again
+        assertSame(after, PreparedParameters.internParameterTypes(CATALOG_VERSION + 1, "PreparedUpdate",
+                new Class<?>[] { String.class, long.class }));
+    }
+
+    public void testMismatchedParametersAreNotUsed() throws Exception {
+        Class<?>[] types = PreparedParameters.internParameterTypes(CATALOG_VERSION, "PreparedMismatch",
+                new Class<?>[] { String.class });
+        StoredProcedureInvocation spi = deserializedInvocation("PreparedMismatch", "abc");
+        PreparedParameters prepared = PreparedParameters.prepare(spi);
+        assertNotNull(prepared);
+        // values that didn't come from the prepared invocation
+        assertNull(prepared.convertedFor(types, new Object[] { new String("abc") }));
+
+        // a conversion failure is left for the site to report
+        StoredProcedureInvocation bad = deserializedInvocation("PreparedMismatch", new int[] { 1, 2 });
+        assertNull(PreparedParameters.prepare(bad));
+    }
+}
@@ -0,0 +1,121 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.voltdb.StatementStats.SingleCallStatsToken;
+
+import junit.framework.TestCase;
+
+public class TestProcedureLatencyStats extends TestCase {
+
+    private StatsAgent m_agent;
+
+    @Override
+    public void setUp() {
+        m_agent = new StatsAgent();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        m_agent.shutdown();
+    }
+
+    private ProcedureStatsCollector addCollector(long siteId, String procName) {
+        ProcedureStatsCollector collector = new ProcedureStatsCollector(siteId, (int) siteId, procName, true,
+                new ArrayList<String>(Arrays.asList("stmt")), true, true);
+        m_agent.registerStatsSource(StatsSelector.PROCEDURE, siteId, collector);
+        return collector;
+    }
+
+    private static Map<String, Object[]> rowsByKey(ProcedureLatencyStats stats) {
+        Map<String, Object[]> rows = new HashMap<>();
+        Map<String, Integer> columns = stats.columnNameToIndex;
+        for (Object[] row : stats.getStatsRows(false, System.currentTimeMillis())) {
+            rows.put(row[columns.get("PROCEDURE")] + "/" + row[columns.get("STATEMENT")] + "/" + row[columns.get("WINDOW")],
+                    row);
+        }
+        return rows;
+    }
+
+    public void testWindowsAndPercentiles() throws Exception {
+        ProcedureStatsCollector site1 = addCollector(1, "Proc");
+        ProcedureStatsCollector site2 = addCollector(2, "Proc");
+
+        // Every invocation is recorded whether or not it is sampled
+        for (int i = 0; i < 100; i++) {
+            SingleCallStatsToken token = site1.beginProcedure();
+            site1.endProcedure(false, false, token);
+        }
+        // Only sampled statements are timed, 1ms on one site and 10ms on the other
+        site1.endFragment("stmt", false, false, true, 1000000, 0, 0);
+        site2.endFragment("stmt", false, false, true, 10000000, 0, 0);
+        site2.endFragment("stmt", false, false, false, 0, 0, 0);
+
+        ProcedureLatencyStats stats = new ProcedureLatencyStats(m_agent, false);
+        stats.harvest(System.currentTimeMillis());
+
+        Map<String, Integer> columns = stats.columnNameToIndex;
+        Map<String, Object[]> rows = rowsByKey(stats);
+        assertEquals(2 * ProcedureLatencyStats.WINDOWS_SECONDS.length, rows.size());
+        for (int window : ProcedureLatencyStats.WINDOWS_SECONDS) {
+            Object[] proc = rows.get("Proc/<ALL>/" + window);
+            assertEquals(100L, proc[columns.get("INVOCATIONS")]);
+
+            Object[] stmt = rows.get("Proc/stmt/" + window);
+            assertEquals(2L, stmt[columns.get("INVOCATIONS")]);
+            // two significant digits
+            assertEquals(1000, (Long) stmt[columns.get("P50")], 10);
+            assertEquals(10000, (Long) stmt[columns.get("MAX")], 100);
+        }
+
+        // The recorders were emptied, nothing is counted twice
+        stats.harvest(System.currentTimeMillis());
+        rows = rowsByKey(stats);
+        assertEquals(100L, rows.get("Proc/<ALL>/" + ProcedureLatencyStats.WINDOWS_SECONDS[0])[columns.get("INVOCATIONS")]);
+    }
+
+    public void testOldIntervalsLeaveTheWindows() throws Exception {
+        ProcedureStatsCollector site = addCollector(1, "Proc");
+        site.endFragment("stmt", false, false, true, 1000000, 0, 0);
+
+        ProcedureLatencyStats stats = new ProcedureLatencyStats(m_agent, false);
+        int longest = 0;
+        for (int window : ProcedureLatencyStats.WINDOWS_SECONDS) {
+            longest = Math.max(longest, window);
+        }
+        // Harvested longer ago than any window
+        stats.harvest(System.currentTimeMillis() - (longest + 1) * 1000L - ProcedureLatencyStats.INTERVAL_MS);
+        assertTrue(rowsByKey(stats).isEmpty());
+    }
+
+    public void testParseWindows() {
+        assertTrue(Arrays.equals(new int[] { 5, 60 }, ProcedureLatencyStats.parseWindows("5, 60")));
+        assertTrue(Arrays.equals(new int[] { 60 }, ProcedureLatencyStats.parseWindows("x,-1")));
+    }
+}
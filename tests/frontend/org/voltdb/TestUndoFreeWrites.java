@@ -0,0 +1,147 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb;
+
+import java.io.File;
+
+import org.voltdb.catalog.Database;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.compiler.PlannerTool;
+import org.voltdb.compiler.StatementCompiler;
+import org.voltdb.compiler.VoltCompiler;
+import org.voltdb.compiler.VoltProjectBuilder;
+import org.voltdb.utils.BuildDirectoryUtils;
+
+import junit.framework.TestCase;
+
+/**
+ * Check which procedures {@link ProcedureRunner} executes without undo:
+ * only a default single partition insert or upsert whose single row write
+ * can't be followed by a failure.
+ */
+public class TestUndoFreeWrites extends TestCase
+{
+    private static final String SCHEMA =
+            "CREATE TABLE P (ID INTEGER NOT NULL, V INTEGER, PRIMARY KEY (ID));\n" +
+            "PARTITION TABLE P ON COLUMN ID;\n" +
+            "CREATE TABLE R (ID INTEGER NOT NULL, V INTEGER, PRIMARY KEY (ID));\n" +
+            "CREATE TABLE TWO_UNIQUE (ID INTEGER NOT NULL, V INTEGER NOT NULL, PRIMARY KEY (ID));\n" +
+            "PARTITION TABLE TWO_UNIQUE ON COLUMN ID;\n" +
+            "CREATE ASSUMEUNIQUE INDEX TWO_UNIQUE_V ON TWO_UNIQUE (V);\n" +
+            "CREATE TABLE LIMITED (ID INTEGER NOT NULL, PRIMARY KEY (ID), LIMIT PARTITION ROWS 10);\n" +
+            "PARTITION TABLE LIMITED ON COLUMN ID;\n" +
+            "CREATE TABLE DRED (ID INTEGER NOT NULL, PRIMARY KEY (ID));\n" +
+            "PARTITION TABLE DRED ON COLUMN ID;\n" +
+            "DR TABLE DRED;\n" +
+            "CREATE TABLE VIEW_SOURCE (ID INTEGER NOT NULL, K INTEGER NOT NULL, PRIMARY KEY (ID));\n" +
+            "PARTITION TABLE VIEW_SOURCE ON COLUMN ID;\n" +
+            "CREATE VIEW SINGLE_VIEW (K, C) AS SELECT K, COUNT(*) FROM VIEW_SOURCE GROUP BY K;\n" +
+            "CREATE TABLE JOINED_A (ID INTEGER NOT NULL, K INTEGER NOT NULL, PRIMARY KEY (ID));\n" +
+            "PARTITION TABLE JOINED_A ON COLUMN ID;\n" +
+            "CREATE TABLE JOINED_B (ID INTEGER NOT NULL, PRIMARY KEY (ID));\n" +
+            "PARTITION TABLE JOINED_B ON COLUMN ID;\n" +
+            "CREATE VIEW JOINED_VIEW (K, C) AS SELECT A.K, COUNT(*) FROM JOINED_A A JOIN JOINED_B B " +
+            "ON A.ID = B.ID GROUP BY A.K;\n" +
+            "CREATE STREAM EVENTS PARTITION ON COLUMN ID (ID INTEGER NOT NULL, V INTEGER);\n" +
+            "CREATE PROCEDURE InsertP PARTITION ON TABLE P COLUMN ID AS INSERT INTO P VALUES (?, ?);\n";
+
+    private String m_jarPath;
+    private Database m_db;
+    private DefaultProcedureManager m_defaultProcs;
+    private PlannerTool m_plannerTool;
+
+    @Override
+    public void setUp() throws Exception
+    {
+        m_jarPath = BuildDirectoryUtils.getBuildDirectoryPath() + File.separator + "undofreewrites.jar";
+        File schemaFile = VoltProjectBuilder.writeStringToTempFile(SCHEMA);
+        schemaFile.deleteOnExit();
+        VoltCompiler compiler = new VoltCompiler(false);
+        assertTrue("Catalog compile failed!", compiler.compileFromDDL(m_jarPath, schemaFile.getPath()));
+        m_db = compiler.getCatalog().getClusters().get("cluster").getDatabases().get("database");
+        m_defaultProcs = new DefaultProcedureManager(m_db);
+        m_plannerTool = new PlannerTool(m_db, new byte[20]);
+    }
+
+    @Override
+    public void tearDown() throws Exception
+    {
+        new File(m_jarPath).delete();
+    }
+
+    /** Classify the procedure the way the site loads it, default procedures with their statement */
+    private boolean isUndoFreeWrite(String procName) {
+        Procedure catProc = m_defaultProcs.checkForDefaultProcedure(procName);
+        if (catProc == null) {
+            catProc = m_db.getProcedures().get(procName);
+            assertNotNull(procName, catProc);
+            return ProcedureRunner.isUndoFreeWrite(catProc);
+        }
+        assertFalse("Default procedure shims have no statement", ProcedureRunner.isUndoFreeWrite(catProc));
+        return ProcedureRunner.isUndoFreeWrite(StatementCompiler.compileDefaultProcedure(
+                m_plannerTool, catProc, DefaultProcedureManager.sqlForDefaultProc(catProc)));
+    }
+
+    public void testSinglePartitionInsertAndUpsert() throws Exception
+    {
+        assertTrue(isUndoFreeWrite("P.insert"));
+        assertTrue(isUndoFreeWrite("P.upsert"));
+    }
+
+    public void testOtherStatementTypes() throws Exception
+    {
+        assertFalse(isUndoFreeWrite("P.update"));
+        assertFalse(isUndoFreeWrite("P.delete"));
+        assertFalse(isUndoFreeWrite("P.select"));
+    }
+
+    public void testUserProcedure() throws Exception
+    {
+        assertFalse(isUndoFreeWrite("InsertP"));
+    }
+
+    public void testReplicatedTable() throws Exception
+    {
+        assertFalse(isUndoFreeWrite("R.insert"));
+        assertFalse(isUndoFreeWrite("R.upsert"));
+    }
+
+    public void testWritesThatCanFailAfterTheRow() throws Exception
+    {
+        // An upsert that updates the row could still violate the second unique index
+        assertTrue(isUndoFreeWrite("TWO_UNIQUE.insert"));
+        assertFalse(isUndoFreeWrite("TWO_UNIQUE.upsert"));
+        // Purging rows over the limit, DR and the views are done after the row is written
+        assertFalse(isUndoFreeWrite("LIMITED.insert"));
+        assertFalse(isUndoFreeWrite("DRED.insert"));
+        assertFalse(isUndoFreeWrite("VIEW_SOURCE.insert"));
+        assertFalse(isUndoFreeWrite("JOINED_A.insert"));
+        assertFalse(isUndoFreeWrite("JOINED_B.insert"));
+    }
+
+    public void testStream() throws Exception
+    {
+        assertFalse(isUndoFreeWrite("EVENTS.insert"));
+    }
+}
@@ -0,0 +1,121 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb.client;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.voltdb.InProcessVoltDBServer;
+
+/**
+ * Measures how the asynchronous call path of a single {@link Client} scales
+ * with the number of application threads sharing it. Runs against an
+ * in-process server so the numbers mostly reflect client side overhead.
+ *
+ * Usage: DistributerScalingMicrobench [thread counts, e.g. "1 2 4 8 16 32 64"]
+ */
+public class DistributerScalingMicrobench {
+
+    static final String DDL =
+            "CREATE TABLE kv (k BIGINT NOT NULL, v BIGINT, PRIMARY KEY (k));\n" +
+            "PARTITION TABLE kv ON COLUMN k;\n" +
+            "CREATE PROCEDURE Get PARTITION ON TABLE kv COLUMN k AS SELECT v FROM kv WHERE k = ?;\n";
+
+    static final long DURATION_MS = 5000;
+
+    public static void main(String[] args) throws Exception {
+        int[] threadCounts = new int[] { 1, 2, 4, 8, 16, 32, 64 };
+        if (args.length >= 1) {
+            String[] threadCountStrings = args[0].split("\\s+");
+            threadCounts = new int[threadCountStrings.length];
+            for (int i = 0; i < threadCountStrings.length; i++) {
+                threadCounts[i] = Integer.parseInt(threadCountStrings[i]);
+            }
+        }
+
+        InProcessVoltDBServer volt = new InProcessVoltDBServer();
+        volt.start();
+        volt.runDDLFromString(DDL);
+
+        final Client client = volt.getClient();
+        client.configureBlocking(true);
+
+        // warm up the client and server code paths
+        for (int i = 0; i < 100000; i++) {
+            client.callProcedure(new NullCallback(), "Get", (long) i);
+        }
+        client.drain();
+
+        for (int threadCount : threadCounts) {
+            final AtomicLong responses = new AtomicLong();
+            final ProcedureCallback callback = new ProcedureCallback() {
+                @Override
+                public void clientCallback(ClientResponse clientResponse) {
+                    responses.incrementAndGet();
+                }
+            };
+
+            ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+            ArrayList<Future<Long>> futures = new ArrayList<Future<Long>>(threadCount);
+            final CyclicBarrier barrier = new CyclicBarrier(threadCount + 1);
+            final long stopTime = System.currentTimeMillis() + DURATION_MS;
+
+            for (int i = 0; i < threadCount; i++) {
+                final long key = i;
+                futures.add(executor.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() throws Exception {
+                        long count = 0;
+                        barrier.await();
+                        for (; count % 100 != 0 || System.currentTimeMillis() < stopTime; count++) {
+                            client.callProcedure(callback, "Get", key + count);
+                        }
+                        return count;
+                    }
+                }));
+            }
+
+            barrier.await();
+            final long startTime = System.currentTimeMillis();
+            long calls = 0;
+            for (Future<Long> future : futures) {
+                calls += future.get();
+            }
+            client.drain();
+            final double seconds = (System.currentTimeMillis() - startTime) / 1000.0;
+            executor.shutdown();
+
+            System.out.printf("%3d threads: %d calls, %d responses in %.2f s => %.0f calls/s%n",
+                    threadCount, calls, responses.get(), seconds, calls / seconds);
+        }
+
+        volt.shutdown();
+        System.exit(0);
+    }
+}
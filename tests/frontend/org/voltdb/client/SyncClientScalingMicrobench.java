@@ -0,0 +1,164 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.voltdb.client;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.voltdb.InProcessVoltDBServer;
+
+/**
+ * Compares many threads making synchronous calls on a shared {@link Client} with
+ * a single thread keeping the same number of asynchronous calls outstanding through
+ * the callback API. On a JVM with virtual threads the synchronous callers are virtual
+ * threads, so this also shows whether they are starved for carrier threads.
+ *
+ * Usage: SyncClientScalingMicrobench [caller counts, e.g. "1000 10000 100000"]
+ */
+public class SyncClientScalingMicrobench {
+
+    static final long DURATION_MS = 5000;
+
+    public static void main(String[] args) throws Exception {
+        int[] callerCounts = new int[] { 100, 1000, 10000, 100000 };
+        if (args.length >= 1) {
+            String[] callerCountStrings = args[0].split("\\s+");
+            callerCounts = new int[callerCountStrings.length];
+            for (int i = 0; i < callerCountStrings.length; i++) {
+                callerCounts[i] = Integer.parseInt(callerCountStrings[i]);
+            }
+        }
+
+        InProcessVoltDBServer volt = new InProcessVoltDBServer();
+        volt.start();
+        volt.runDDLFromString(DistributerScalingMicrobench.DDL);
+
+        ClientConfig config = new ClientConfig();
+        config.setMaxOutstandingTxns(callerCounts[callerCounts.length - 1]);
+        final Client client = ClientFactory.createClient(config);
+        client.createConnection("localhost");
+
+        // warm up the client and server code paths
+        for (int i = 0; i < 100000; i++) {
+            client.callProcedure(new NullCallback(), "Get", (long) i);
+        }
+        client.drain();
+
+        final ExecutorService probe = newVirtualThreadExecutor();
+        final boolean virtual = probe != null;
+        if (virtual) {
+            probe.shutdown();
+        }
+        System.out.println("Synchronous callers run on " + (virtual ? "virtual" : "platform") + " threads");
+
+        for (int callerCount : callerCounts) {
+            final double syncRate = runSync(client, callerCount);
+            final double asyncRate = runCallbacks(client, callerCount);
+            System.out.printf("%6d callers: sync %.0f calls/s, callback %.0f calls/s%n",
+                    callerCount, syncRate, asyncRate);
+        }
+
+        client.close();
+        volt.shutdown();
+        System.exit(0);
+    }
+
+    static double runSync(final Client client, int callerCount) throws Exception {
+        ExecutorService executor = newVirtualThreadExecutor();
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(callerCount);
+        }
+        ArrayList<Future<Long>> futures = new ArrayList<Future<Long>>(callerCount);
+        final CyclicBarrier barrier = new CyclicBarrier(callerCount + 1);
+        final long stopTime = System.currentTimeMillis() + DURATION_MS;
+
+        for (int i = 0; i < callerCount; i++) {
+            final long key = i;
+            futures.add(executor.submit(new Callable<Long>() {
+                @Override
+                public Long call() throws Exception {
+                    long count = 0;
+                    barrier.await();
+                    for (; count % 100 != 0 || System.currentTimeMillis() < stopTime; count++) {
+                        client.callProcedure("Get", key + count);
+                    }
+                    return count;
+                }
+            }));
+        }
+
+        barrier.await();
+        final long startTime = System.currentTimeMillis();
+        long calls = 0;
+        for (Future<Long> future : futures) {
+            calls += future.get();
+        }
+        final double seconds = (System.currentTimeMillis() - startTime) / 1000.0;
+        executor.shutdown();
+        return calls / seconds;
+    }
+
+    static double runCallbacks(final Client client, int outstanding) throws Exception {
+        final Semaphore permits = new Semaphore(outstanding);
+        final AtomicLong responses = new AtomicLong();
+        final ProcedureCallback callback = new ProcedureCallback() {
+            @Override
+            public void clientCallback(ClientResponse clientResponse) {
+                responses.incrementAndGet();
+                permits.release();
+            }
+        };
+
+        final long startTime = System.currentTimeMillis();
+        final long stopTime = startTime + DURATION_MS;
+        long calls = 0;
+        for (; calls % 100 != 0 || System.currentTimeMillis() < stopTime; calls++) {
+            permits.acquire();
+            client.callProcedure(callback, "Get", calls);
+        }
+        client.drain();
+        final double seconds = (System.currentTimeMillis() - startTime) / 1000.0;
+        return responses.get() / seconds;
+    }
+
+    /**
+     * @return An executor that starts a virtual thread per task, or null if this JVM doesn't have them
+     */
+    static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
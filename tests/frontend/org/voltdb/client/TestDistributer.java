@@ -32,6 +32,7 @@ import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -48,6 +49,8 @@ import org.voltdb.StoredProcedureInvocation;
 import org.voltdb.VoltTable;
 import org.voltdb.VoltType;
 
+import com.google_voltpatches.common.util.concurrent.ListenableFuture;
+
 import junit.framework.TestCase;
 
 public class TestDistributer extends TestCase {
@@ -528,6 +531,86 @@ public class TestDistributer extends TestCase {
         }
     }
 
+    @Test
+    public void testQueueFromManyThreads() throws Exception {
+        // TODO: write a mock server that can grock ssl
+        if (ClientConfig.ENABLE_SSL_FOR_TEST) return;
+
+        // Concurrent submitters share the round-robin without losing or duplicating work.
+        final int threadCount = 8;
+        final int callsPerThread = 300;
+        MockVolt volt0, volt1, volt2;
+        volt0 = volt1 = volt2 = null;
+        try {
+            volt0 = new MockVolt(20000);
+            volt0.start();
+            volt1 = new MockVolt(20001);
+            volt1.start();
+            volt2 = new MockVolt(20002);
+            volt2.start();
+
+            final Distributer dist = new Distributer(false,
+                    ClientConfig.DEFAULT_PROCEDURE_TIMOUT_NANOS,
+                    ClientConfig.DEFAULT_CONNECTION_TIMOUT_MS,
+                    false, false, null /* subject */, null);
+            dist.createConnection("localhost", "", "", 20000, ClientAuthScheme.HASH_SHA1);
+            dist.createConnection("localhost", "", "", 20001, ClientAuthScheme.HASH_SHA1);
+            dist.createConnection("localhost", "", "", 20002, ClientAuthScheme.HASH_SHA1);
+
+            final AtomicInteger handles = new AtomicInteger();
+            final AtomicInteger callbacks = new AtomicInteger();
+            final CountDownLatch start = new CountDownLatch(1);
+            List<Thread> threads = new ArrayList<Thread>();
+            for (int i = 0; i < threadCount; i++) {
+                Thread t = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            start.await();
+                            for (int j = 0; j < callsPerThread; j++) {
+                                ProcedureInvocation pi =
+                                        new ProcedureInvocation(handles.incrementAndGet(), "i1", new Integer(1));
+                                dist.queue(pi, new ProcedureCallback() {
+                                    @Override
+                                    public void clientCallback(ClientResponse clientResponse) {
+                                        callbacks.incrementAndGet();
+                                    }
+                                }, true, System.nanoTime(), 0);
+                            }
+                        } catch (Exception e) {
+                            e.printStackTrace();
+                        }
+                    }
+                };
+                t.start();
+                threads.add(t);
+            }
+            start.countDown();
+            for (Thread t : threads) {
+                t.join();
+            }
+            dist.drain();
+
+            final int total = threadCount * callsPerThread;
+            assertEquals(total, callbacks.get());
+            assertEquals(total / 3, volt0.handler.roundTrips.get());
+            assertEquals(total / 3, volt1.handler.roundTrips.get());
+            assertEquals(total / 3, volt2.handler.roundTrips.get());
+            dist.shutdown();
+        }
+        finally {
+            if (volt0 != null) {
+                volt0.shutdown();
+            }
+            if (volt1 != null) {
+                volt1.shutdown();
+            }
+            if (volt2 != null) {
+                volt2.shutdown();
+            }
+        }
+    }
+
     @Test
     public void testQueueMixed() throws Exception {
         // TODO: write a mock server that can grock ssl
@@ -890,6 +973,46 @@ public class TestDistributer extends TestCase {
        }
     }
 
+    public void testClientAsyncFuture() throws Exception {
+        if (ClientConfig.ENABLE_SSL_FOR_TEST) return;
+        // TODO: write a mock server that can grock ssl
+        MockVolt volt = null;
+        ClientImpl clt = null;
+
+        try {
+            volt = new MockVolt(21212);
+            volt.start();
+
+            clt = (ClientImpl) ClientFactory.createClient();
+            clt.createConnection("localhost");
+
+            ListenableFuture<ClientResponse> future = clt.callProcedureAsync("Foo", 1);
+            ClientResponse response = future.get(10, TimeUnit.SECONDS);
+            assertEquals(ClientResponse.SUCCESS, response.getStatus());
+            assertEquals(1, response.getResults()[0].asScalarLong());
+
+            // a failed response fails the future
+            volt.handler.sendProcTimeout.set(true);
+            future = clt.callProcedureAsync("Foo", 2);
+            try {
+                future.get(10, TimeUnit.SECONDS);
+                fail("Expected the future to fail");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof ProcCallException);
+                assertEquals(ClientResponse.CONNECTION_TIMEOUT,
+                        ((ProcCallException) e.getCause()).getClientResponse().getStatus());
+            }
+        }
+        finally {
+            if (clt != null) {
+                clt.close();
+            }
+            if (volt != null) {
+                volt.shutdown();
+            }
+        }
+    }
+
     @Test
     public void testClientBlockedOnMaxOutstanding() throws Exception {
         // TODO: write a mock server that can grock ssl
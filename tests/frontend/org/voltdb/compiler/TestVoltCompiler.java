@@ -1318,6 +1318,30 @@ public class TestVoltCompiler extends TestCase {
         }
     }
 
+    public void testDDLCompilerBTreeIndex() {
+        String schema =
+                "create table t(id bigint not null, num integer not null, name varchar(32), " +
+                "constraint pk_btree primary key (id));\n" +
+                "create index idx_t_idnum_btree on t(id,num);\n" +
+                "create index idx_t_name_btree on t(name);\n" +
+                "create index idx_t_num on t(num);";
+        VoltCompiler c = compileSchemaForDDLTest(schema, true);
+        assertFalse(c.hasErrors());
+        Table tbl = assertTableT(c);
+        assertEquals(4, tbl.getIndexes().size());
+        for (Index idx : tbl.getIndexes()) {
+            if (idx.getTypeName().equalsIgnoreCase("idx_t_num")) {
+                assertEquals(IndexType.BALANCED_TREE.getValue(), idx.getType());
+                assertTrue(idx.getCountable());
+            }
+            else {
+                // the EE decides whether the key suits the B+tree, the catalog keeps what was asked for
+                assertEquals(idx.getTypeName(), IndexType.BTREE.getValue(), idx.getType());
+                assertFalse(idx.getCountable());
+            }
+        }
+    }
+
     public void testUniqueIndexAllowed() {
         String schema =
                 "create table t(id integer not null, num integer not null);\n" +
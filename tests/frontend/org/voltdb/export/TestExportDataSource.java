@@ -576,6 +576,154 @@ public class TestExportDataSource extends TestCase {
         }
     }
 
+    /**
+     * Create a source that is the export master with one single row buffer per sequence
+     * number, each buffer filled with its sequence number so re-polls can be told apart.
+     */
+    private ExportDataSource getMasterWithBuffers(int buffers) throws Exception {
+        VoltDB.replaceVoltDBInstanceForTest(m_mockVoltDB);
+        Table table = m_mockVoltDB.getCatalogContext().database.getTables().get("TableName");
+        ExportDataSource s = new ExportDataSource(null, m_processor, "database",
+                table.getTypeName(),
+                m_part,
+                CoreUtils.getSiteIdFromHSId(m_site),
+                table.getSignature(),
+                table.getColumns(),
+                table.getPartitioncolumn(),
+                TEST_DIR.getAbsolutePath());
+        final CountDownLatch cdl = new CountDownLatch(1);
+        s.setOnMastership(new Runnable() {
+            @Override
+            public void run() {
+                cdl.countDown();
+            }
+        });
+        s.acceptMastership();
+        cdl.await();
+
+        int buffSize = 20 + StreamBlock.HEADER_SIZE;
+        for (int seq = 1; seq <= buffers; seq++) {
+            ByteBuffer foo = ByteBuffer.allocateDirect(buffSize);
+            byte[] payload = new byte[buffSize];
+            payload[buffSize - 1] = (byte) seq;
+            foo.duplicate().put(payload);
+            s.pushExportBuffer(seq, 1, 0L, foo, false);
+        }
+        return s;
+    }
+
+    private static AckingContainer pollNow(ExportDataSource s) throws Exception {
+        AckingContainer cont = s.poll().get(5, TimeUnit.SECONDS);
+        cont.updateStartTime(System.currentTimeMillis());
+        return cont;
+    }
+
+    // Acks are applied on the source's executor, wait for the release to catch up
+    private static void assertReleasedSeqNo(ExportDataSource s, long expected) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (s.getLastReleaseSeqNo() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        // Give a wrongly applied ack a chance to overshoot
+        Thread.sleep(50);
+        assertEquals(expected, s.getLastReleaseSeqNo());
+    }
+
+    private static void assertPayloadSeqNo(AckingContainer cont, long seq) {
+        ByteBuffer b = cont.b();
+        assertEquals((byte) seq, b.get(b.limit() - 1));
+    }
+
+    public void testOutOfOrderAcksFillGap() throws Exception {
+        System.out.println("Running testOutOfOrderAcksFillGap");
+        ExportDataSource s = getMasterWithBuffers(4);
+        try {
+            AckingContainer cont1 = pollNow(s);
+            AckingContainer cont2 = pollNow(s);
+            AckingContainer cont3 = pollNow(s);
+            AckingContainer cont4 = pollNow(s);
+            assertEquals(1, cont1.m_lastSeqNo);
+            assertEquals(4, cont4.m_lastSeqNo);
+
+            // Nothing is released while the first container is outstanding
+            cont3.discardOutOfOrder();
+            cont2.discardOutOfOrder();
+            assertReleasedSeqNo(s, 0);
+
+            // Filling the gap releases every contiguous ack after it, but not past the next gap
+            cont1.discardOutOfOrder();
+            assertReleasedSeqNo(s, 3);
+
+            cont4.discardOutOfOrder();
+            assertReleasedSeqNo(s, 4);
+        } finally {
+            s.close();
+        }
+    }
+
+    public void testRequeueMiddleContainer() throws Exception {
+        System.out.println("Running testRequeueMiddleContainer");
+        ExportDataSource s = getMasterWithBuffers(4);
+        try {
+            AckingContainer cont1 = pollNow(s);
+            AckingContainer cont2 = pollNow(s);
+            AckingContainer cont3 = pollNow(s);
+            AckingContainer cont4 = pollNow(s);
+
+            cont1.discardOutOfOrder();
+            assertReleasedSeqNo(s, 1);
+
+            // Containers after the requeued one are still acked, but can't be released past it
+            cont2.requeue();
+            cont3.discardOutOfOrder();
+            cont4.discardOutOfOrder();
+            assertReleasedSeqNo(s, 1);
+
+            // Polling restarts at the requeued container
+            AckingContainer retry = pollNow(s);
+            assertEquals(2, retry.m_startSeqNo);
+            assertEquals(2, retry.m_lastSeqNo);
+            assertPayloadSeqNo(retry, 2);
+
+            retry.discardOutOfOrder();
+            assertReleasedSeqNo(s, 4);
+        } finally {
+            s.close();
+        }
+    }
+
+    public void testOutstandingBlocksNotDeletedByPoll() throws Exception {
+        System.out.println("Running testOutstandingBlocksNotDeletedByPoll");
+        ExportDataSource s = getMasterWithBuffers(3);
+        try {
+            AckingContainer cont1 = pollNow(s);
+            AckingContainer cont2 = pollNow(s);
+            // Polling the last block passes the two outstanding ones
+            AckingContainer cont3 = pollNow(s);
+            assertPayloadSeqNo(cont3, 3);
+
+            // Requeueing the first container rewinds the poll position, so its block must still be there
+            cont1.requeue();
+            AckingContainer retry1 = pollNow(s);
+            assertEquals(1, retry1.m_startSeqNo);
+            assertEquals(1, retry1.m_lastSeqNo);
+            assertPayloadSeqNo(retry1, 1);
+
+            // And so must the block polled after it
+            AckingContainer retry2 = pollNow(s);
+            assertEquals(2, retry2.m_lastSeqNo);
+            assertPayloadSeqNo(retry2, 2);
+
+            retry1.discardOutOfOrder();
+            retry2.discardOutOfOrder();
+            cont2.discardOutOfOrder();
+            cont3.discardOutOfOrder();
+            assertReleasedSeqNo(s, 3);
+        } finally {
+            s.close();
+        }
+    }
+
 //    /**
 //     * Test that releasing everything in steps and then polling results in
 //     * the right StreamBlock
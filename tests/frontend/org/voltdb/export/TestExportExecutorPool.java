@@ -0,0 +1,208 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb.export;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.voltcore.utils.Pair;
+import org.voltdb.export.ExportExecutorPool.SerialExecutor;
+
+import com.google_voltpatches.common.util.concurrent.SettableFuture;
+
+public class TestExportExecutorPool {
+
+    @Test
+    public void testSubmissionOrder() throws Exception {
+        SerialExecutor es = ExportExecutorPool.newSerialExecutor("order");
+        final List<Integer> ran = Collections.synchronizedList(new ArrayList<Integer>());
+        final int count = ExportExecutorPool.FAIRNESS_QUANTUM * 10;
+        for (int i = 0; i < count; i++) {
+            final int task = i;
+            es.execute(new Runnable() {
+                @Override
+                public void run() {
+                    ran.add(task);
+                }
+            });
+        }
+        es.submit(new Runnable() {
+            @Override
+            public void run() {}
+        }).get(10, TimeUnit.SECONDS);
+        assertEquals(count, ran.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, ran.get(i).intValue());
+        }
+    }
+
+    @Test
+    public void testOneTaskAtATime() throws Exception {
+        final int executors = ExportExecutorPool.THREADS * 4;
+        final int tasksPerExecutor = ExportExecutorPool.FAIRNESS_QUANTUM * 3;
+        final CountDownLatch done = new CountDownLatch(executors * tasksPerExecutor);
+        final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+        for (int e = 0; e < executors; e++) {
+            final SerialExecutor es = ExportExecutorPool.newSerialExecutor("executor " + e);
+            final int[] running = new int[1];
+            for (int t = 0; t < tasksPerExecutor; t++) {
+                es.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (++running[0] != 1) {
+                            errors.add(es + " ran tasks concurrently");
+                        }
+                        Thread.yield();
+                        running[0]--;
+                        done.countDown();
+                    }
+                });
+            }
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        assertTrue(errors.toString(), errors.isEmpty());
+    }
+
+    @Test
+    public void testShutdown() throws Exception {
+        SerialExecutor es = ExportExecutorPool.newSerialExecutor("shutdown");
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch ranQueued = new CountDownLatch(1);
+        es.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {}
+            }
+        });
+        es.execute(new Runnable() {
+            @Override
+            public void run() {
+                ranQueued.countDown();
+            }
+        });
+        es.shutdown();
+        assertTrue(es.isShutdown());
+        assertFalse(es.isTerminated());
+        try {
+            es.execute(new Runnable() {
+                @Override
+                public void run() {}
+            });
+            fail("Accepted a task after shutdown");
+        } catch (RejectedExecutionException expected) {}
+
+        // Tasks queued before the shutdown still run
+        release.countDown();
+        assertTrue(es.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(0, ranQueued.getCount());
+
+        SerialExecutor idle = ExportExecutorPool.newSerialExecutor("idle");
+        idle.shutdown();
+        assertTrue(idle.isTerminated());
+    }
+
+    @Test
+    public void testAwaitLetsOtherExecutorsRun() throws Exception {
+        // Every thread of the pool waits for a future only a task queued behind them completes
+        final int waiters = ExportExecutorPool.THREADS * 2;
+        final SettableFuture<Integer> future = SettableFuture.create();
+        final CountDownLatch waited = new CountDownLatch(waiters);
+        final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+        for (int i = 0; i < waiters; i++) {
+            ExportExecutorPool.newSerialExecutor("waiter " + i).execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (ExportExecutorPool.await(future) != 42) {
+                            errors.add("Unexpected value");
+                        }
+                    } catch (InterruptedException | ExecutionException e) {
+                        errors.add(e.toString());
+                    }
+                    waited.countDown();
+                }
+            });
+        }
+        ExportExecutorPool.newSerialExecutor("setter").execute(new Runnable() {
+            @Override
+            public void run() {
+                future.set(42);
+            }
+        });
+        assertTrue(waited.await(30, TimeUnit.SECONDS));
+        assertTrue(errors.toString(), errors.isEmpty());
+
+        SettableFuture<Integer> failed = SettableFuture.create();
+        failed.setException(new IllegalStateException());
+        try {
+            ExportExecutorPool.await(failed);
+            fail("Expected the failure of the future");
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void testQueueDelayStats() throws Exception {
+        final SerialExecutor es = ExportExecutorPool.newSerialExecutor("stats");
+        final CountDownLatch release = new CountDownLatch(1);
+        es.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {}
+            }
+        });
+        // Queued behind the blocked task for at least 50ms
+        es.execute(new Runnable() {
+            @Override
+            public void run() {}
+        });
+        Thread.sleep(50);
+        release.countDown();
+
+        Pair<Long, Long> interval = es.submit(() -> es.getQueueDelayMicros(true)).get(10, TimeUnit.SECONDS);
+        assertTrue(interval.getSecond() >= TimeUnit.MILLISECONDS.toMicros(50));
+        assertTrue(interval.getFirst() <= interval.getSecond());
+
+        Pair<Long, Long> overall = es.submit(() -> es.getQueueDelayMicros(false)).get(10, TimeUnit.SECONDS);
+        assertEquals(interval.getSecond(), overall.getSecond());
+        Pair<Long, Long> cleared = es.submit(() -> es.getQueueDelayMicros(true)).get(10, TimeUnit.SECONDS);
+        assertTrue(cleared.getSecond() < TimeUnit.MILLISECONDS.toMicros(50));
+    }
+}
@@ -39,6 +39,7 @@ import org.voltdb.VoltTable;
 import org.voltdb.VoltType;
 import org.voltdb.common.Constants;
 import org.voltdb.export.AdvertisedDataSource;
+import org.voltdb.exportclient.decode.CSVWriterDecoder;
 import org.voltdb.messaging.FastDeserializer;
 import org.voltdb.types.GeographyPointValue;
 import org.voltdb.types.GeographyValue;
@@ -321,6 +322,100 @@ public class TestExportDecoderBase extends TestCase
     }
 
 
+    public void testExportColumnBatch() throws IOException {
+        vtable.clearRowData();
+        long l = System.currentTimeMillis();
+        vtable.addRow(l, l, l, 0, l, l, (byte) 1, (short) 2, 3, 4, 5.5, 6, "xx", new BigDecimal(88), GEOG_POINT, GEOG);
+        vtable.addRow(l, l, l, 0, l, l, null, null, null, null, null, null, null, null, null, null);
+        vtable.addRow(l, l, l, 0, l, l, (byte) -1, (short) -2, -3, -4, -5.5, -6, "yy", new BigDecimal(-88), GEOG_POINT, GEOG);
+        byte[] blockBytes = ExportEncoder.encodeTable(vtable, "mytable", 7, 1L);
+        ByteBuffer bb = ByteBuffer.wrap(blockBytes);
+        bb.order(ByteOrder.LITTLE_ENDIAN);
+        int schemaSize = bb.getInt();
+        ExportRow schemaRow = ExportRow.decodeBufferSchema(bb, schemaSize, 1, 0);
+        final int rowsStart = bb.position();
+
+        // Decode the same rows one at a time
+        List<ExportRow> rows = new ArrayList<ExportRow>();
+        while (bb.hasRemaining()) {
+            int length = bb.getInt();
+            int start = bb.position();
+            rows.add(ExportRow.decodeRow(schemaRow, 0, 0L, bb));
+            bb.position(start + length);
+        }
+
+        // Reused batch, and a direct buffer so strings come from the buffer instead of its array
+        ExportColumnBatch batch = new ExportColumnBatch();
+        for (boolean direct : new boolean[] {false, true}) {
+            bb.position(rowsStart);
+            ByteBuffer rowsBuf = bb.slice();
+            if (direct) {
+                ByteBuffer directBuf = ByteBuffer.allocateDirect(rowsBuf.remaining());
+                directBuf.put(rowsBuf);
+                directBuf.flip();
+                rowsBuf = directBuf;
+            }
+            rowsBuf.order(ByteOrder.LITTLE_ENDIAN);
+            batch.decode(schemaRow, 0, rowsBuf);
+            assertFalse(rowsBuf.hasRemaining());
+            assertEquals(rows.size(), batch.getRowCount());
+            assertEquals(COLUMN_TYPES.length, batch.getColumnCount());
+            for (int r = 0; r < rows.size(); r++) {
+                ExportRow expected = rows.get(r);
+                ExportRow actual = batch.getRow(r);
+                assertEquals(expected.partitionValue, actual.partitionValue);
+                assertEquals(expected.partitionColIndex, actual.partitionColIndex);
+                for (int c = 0; c < COLUMN_TYPES.length; c++) {
+                    if (expected.values[c] instanceof GeographyValue || expected.values[c] instanceof GeographyPointValue) {
+                        assertEquals(expected.values[c].toString(), actual.values[c].toString());
+                    } else {
+                        assertEquals(expected.values[c], actual.values[c]);
+                    }
+                }
+            }
+
+            // Primitive vectors
+            assertEquals(2L, batch.getColumn(7).getLong(0));
+            assertEquals(-4L, batch.getColumn(9).getLong(2));
+            assertEquals(5.5, batch.getColumn(10).getDouble(0));
+            assertEquals(-6L, batch.getColumn(11).getLong(2));
+            assertTrue(batch.getColumn(9).isNull(1));
+            assertEquals("yy", batch.getColumn(12).getString(2));
+            assertEquals(2, batch.getColumn(12).getLength(0));
+        }
+
+        // Column batch and boxed rows format the same CSV
+        CSVWriterDecoder.Builder builder = new CSVWriterDecoder.Builder();
+        builder.dateFormatter(Constants.ODBC_DATE_FORMAT_STRING).skipInternalFields(true);
+        CSVWriterDecoder csvDecoder = builder.build();
+        for (int r = 0; r < rows.size(); r++) {
+            StringWriter fromRow = new StringWriter();
+            ExportRow row = rows.get(r);
+            csvDecoder.decode(row.generation, row.tableName, row.types, row.names, new CSVWriter(fromRow), row.values).flush();
+            StringWriter fromBatch = new StringWriter();
+            csvDecoder.decode(batch, r, new CSVWriter(fromBatch)).flush();
+            assertEquals(fromRow.toString(), fromBatch.toString());
+        }
+
+        // A row loaded on its own reads back the same
+        ExportColumnBatch rowBatch = new ExportColumnBatch();
+        for (ExportRow expected : rows) {
+            rowBatch.decodeRow(expected);
+            assertEquals(1, rowBatch.getRowCount());
+            ExportRow actual = rowBatch.getRow(0);
+            assertEquals(expected.partitionValue, actual.partitionValue);
+            assertEquals(expected.partitionColIndex, actual.partitionColIndex);
+            assertEquals(expected.generation, actual.generation);
+            for (int c = 0; c < COLUMN_TYPES.length; c++) {
+                if (expected.values[c] instanceof GeographyValue || expected.values[c] instanceof GeographyPointValue) {
+                    assertEquals(expected.values[c].toString(), actual.values[c].toString());
+                } else {
+                    assertEquals(expected.values[c], actual.values[c]);
+                }
+            }
+        }
+    }
+
     public void testExportDecoderPartitioning() throws IOException {
         AdvertisedDataSource source = constructTestSource();
 
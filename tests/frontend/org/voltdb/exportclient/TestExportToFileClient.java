@@ -25,6 +25,7 @@ package org.voltdb.exportclient;
 
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -51,6 +52,7 @@ import org.mockito.Mockito;
 import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
+import org.voltcore.utils.CoreUtils;
 import org.voltdb.MockVoltDB;
 import org.voltdb.VoltDB;
 import org.voltdb.export.AdvertisedDataSource;
@@ -58,6 +60,7 @@ import org.voltdb.exportclient.ExportDecoderBase.RestartBlockException;
 import org.voltdb.utils.VoltFile;
 
 import com.google_voltpatches.common.base.Charsets;
+import com.google_voltpatches.common.util.concurrent.ListeningExecutorService;
 
 import au.com.bytecode.opencsv_voltpatches.CSVWriter;
 
@@ -225,6 +228,217 @@ public class TestExportToFileClient extends ExportClientTestBase {
         fail("Timed out waiting for file to roll over");
     }
 
+    @Test
+    public void testColumnarFileRolling() throws Exception
+    {
+        verifyColumnarFile(false);
+    }
+
+    @Test
+    public void testColumnarFileRows() throws Exception
+    {
+        verifyColumnarFile(true);
+    }
+
+    /**
+     * Export a block to a columnar file, as a batch or a row at a time, and read back the rolled file
+     */
+    private void verifyColumnarFile(boolean byRow) throws Exception
+    {
+        final long startTs = System.currentTimeMillis();
+        ExportToFileClient client = new ExportToFileClient();
+        Properties props = new Properties();
+        props.put("nonce", Long.toString(System.currentTimeMillis()));
+        props.put("type", "columnar");
+        props.put("outdir", m_dir);
+        props.put("period", "1"); // 1 second rolling period
+        props.put("rowgroupsize", "2"); // several row groups per block
+        props.put("encoders", "2");
+        client.configure(props);
+
+        final AdvertisedDataSource source = constructTestSource(false, 0);
+        final ExportToFileClient.ExportToFileDecoder decoder = client.constructExportDecoder(source);
+
+        long l = System.currentTimeMillis();
+        vtable.clearRowData();
+        for (int i = 0; i < 5; i++) {
+            vtable.addRow(l, l, l, 0, l, l, (byte) i, (short) 2, 3, 4L + i, 5.5, 6, "xx" + i, new BigDecimal(88),
+                    GEOG_POINT, GEOG);
+        }
+        vtable.addRow(l, l, l, 0, l, l, null, null, null, null, null, null, null, null, null, null);
+        byte[] blockBytes = ExportEncoder.encodeTable(vtable, "mytable", 0, 1L);
+        ByteBuffer bb = ByteBuffer.wrap(blockBytes);
+        bb.order(ByteOrder.LITTLE_ENDIAN);
+        int schemaSize = bb.getInt();
+        ExportRow schemaRow = ExportRow.decodeBufferSchema(bb, schemaSize, 1, 0);
+        ExportColumnBatch batch = decoder.getColumnBatch();
+        batch.decode(schemaRow, 0, bb);
+        assertEquals(6, batch.getRowCount());
+        List<ExportRow> expectedRows = new ArrayList<>();
+        for (int r = 0; r < batch.getRowCount(); r++) {
+            expectedRows.add(batch.getRow(r));
+        }
+        decoder.onBlockStart(expectedRows.get(0));
+        if (byRow) {
+            for (ExportRow row : expectedRows) {
+                assertTrue(decoder.processRow(row));
+            }
+        } else {
+            ((ColumnarExportDecoder) decoder).processBatch(batch);
+        }
+        decoder.onBlockCompletion(expectedRows.get(5));
+
+        // The file should rollover after 1s
+        while (System.currentTimeMillis() - startTs < 60 * 1000) { // timeout after 1 minute
+            final File dir = new File(m_dir);
+            final File[] files = dir.listFiles();
+            int index;
+            if (files != null && files.length > 0 && (index = findFileNotStartWithActive(files)) >= 0) {
+                assertTrue(files[index].getName().endsWith(".vcol"));
+                ColumnarFileReader reader = new ColumnarFileReader(files[index]);
+                try {
+                    assertEquals("mytable", reader.getTableName());
+                    assertEquals(3, reader.getRowGroupCount());
+                    assertEquals(schemaRow.names, reader.getNames());
+                    assertEquals(schemaRow.types, reader.getTypes());
+                    List<Object[]> rows = reader.readRows();
+                    assertEquals(6, rows.size());
+                    for (int r = 0; r < rows.size(); r++) {
+                        Object[] expected = expectedRows.get(r).values;
+                        for (int c = 0; c < expected.length; c++) {
+                            if (expected[c] == null) {
+                                assertEquals(null, rows.get(r)[c]);
+                            } else {
+                                assertEquals(expected[c].toString(), rows.get(r)[c].toString());
+                            }
+                        }
+                    }
+                } finally {
+                    reader.close();
+                }
+                client.shutdown();
+                return;
+            }
+            Thread.sleep(100);
+        }
+        fail("Timed out waiting for file to roll over");
+    }
+
+    @Test
+    public void testColumnarFileUnwritable() throws Exception
+    {
+        long l = System.currentTimeMillis();
+        vtable.clearRowData();
+        for (int i = 0; i < 5; i++) {
+            vtable.addRow(l, l, l, 0, l, l, (byte) i, (short) 2, 3, 4L + i, 5.5, 6, "xx" + i, new BigDecimal(88),
+                    GEOG_POINT, GEOG);
+        }
+        byte[] blockBytes = ExportEncoder.encodeTable(vtable, "mytable", 0, 1L);
+        ByteBuffer bb = ByteBuffer.wrap(blockBytes);
+        bb.order(ByteOrder.LITTLE_ENDIAN);
+        int schemaSize = bb.getInt();
+        ExportRow schemaRow = ExportRow.decodeBufferSchema(bb, schemaSize, 1, 0);
+        ExportColumnBatch batch = new ExportColumnBatch();
+        batch.decode(schemaRow, 0, bb);
+
+        // The file is created on the encoder pool, the failure shows up in a later call
+        ListeningExecutorService encoders = CoreUtils.getListeningExecutorService("test encoder", 1);
+        try {
+            ColumnarFileWriter writer = new ColumnarFileWriter(new File(m_dir, "missing" + File.separator + "t.vcol"),
+                    "mytable", 0, schemaRow.names, schemaRow.types, ExportRow.getFirstField(true), 2, encoders, 1);
+            try {
+                for (int i = 0; i < 10; i++) {
+                    writer.append(batch);
+                }
+                writer.close();
+                fail("Wrote a file to a directory that doesn't exist");
+            } catch (IOException expected) {
+            }
+        } finally {
+            encoders.shutdown();
+        }
+    }
+
+    @Test
+    public void testColumnarFileRetry() throws Exception
+    {
+        ExportToFileClient client = new ExportToFileClient();
+        Properties props = new Properties();
+        props.put("nonce", Long.toString(System.currentTimeMillis()));
+        props.put("type", "columnar");
+        props.put("outdir", m_dir);
+        props.put("period", "3");
+        props.put("rowgroupsize", "2");
+        props.put("encoders", "1");
+        client.configure(props);
+
+        final AdvertisedDataSource source = constructTestSource(false, 0);
+        final ExportToFileClient.ExportToFileDecoder decoder = client.constructExportDecoder(source);
+
+        long l = System.currentTimeMillis();
+        vtable.clearRowData();
+        for (int i = 0; i < 5; i++) {
+            vtable.addRow(l, l, l, 0, l, l, (byte) i, (short) 2, 3, 4L + i, 5.5, 6, "xx" + i, new BigDecimal(88),
+                    GEOG_POINT, GEOG);
+        }
+        byte[] blockBytes = ExportEncoder.encodeTable(vtable, "mytable", 0, 1L);
+        ByteBuffer bb = ByteBuffer.wrap(blockBytes);
+        bb.order(ByteOrder.LITTLE_ENDIAN);
+        int schemaSize = bb.getInt();
+        ExportRow schemaRow = ExportRow.decodeBufferSchema(bb, schemaSize, 1, 0);
+        ExportColumnBatch batch = decoder.getColumnBatch();
+        batch.decode(schemaRow, 0, bb);
+        final ExportRow first = batch.getRow(0);
+        final ExportRow last = batch.getRow(4);
+
+        // The file can't be created, which a later block finds out about
+        VoltFile.recursivelyDelete(new File(m_dir));
+        boolean restarted = false;
+        for (int i = 0; i < 100 && !restarted; i++) {
+            decoder.onBlockStart(first);
+            try {
+                ((ColumnarExportDecoder) decoder).processBatch(batch);
+                decoder.onBlockCompletion(last);
+                Thread.sleep(10);
+            } catch (RestartBlockException e) {
+                assertFalse(e.requestBackoff);
+                restarted = true;
+            }
+        }
+        assertTrue(restarted);
+
+        // The retry starts a new file with only the rows of the retried block
+        (new File(m_dir)).mkdirs();
+        decoder.onBlockStart(first);
+        ((ColumnarExportDecoder) decoder).processBatch(batch);
+        decoder.onBlockCompletion(last);
+
+        final long startTs = System.currentTimeMillis();
+        while (System.currentTimeMillis() - startTs < 60 * 1000) {
+            final File[] files = new File(m_dir).listFiles();
+            int index;
+            if (files != null && files.length > 0 && (index = findFileNotStartWithActive(files)) >= 0) {
+                ColumnarFileReader reader = new ColumnarFileReader(files[index]);
+                try {
+                    List<Object[]> rows = reader.readRows();
+                    assertEquals(5, rows.size());
+                    for (int r = 0; r < rows.size(); r++) {
+                        Object[] expected = batch.getRow(r).values;
+                        for (int c = 0; c < expected.length; c++) {
+                            assertEquals(expected[c].toString(), rows.get(r)[c].toString());
+                        }
+                    }
+                } finally {
+                    reader.close();
+                }
+                client.shutdown();
+                return;
+            }
+            Thread.sleep(100);
+        }
+        fail("Timed out waiting for file to roll over");
+    }
+
     // Find the index of file array whose name does not start with "active"; -1 when not found.
     private static int findFileNotStartWithActive(File[] files) {
         if (files == null || files.length == 0) {
@@ -24,16 +24,34 @@
 package org.voltdb.exportclient.kafka;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ExecutionException;
 import static junit.framework.Assert.assertFalse;
 
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.Producer;
 import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
 import org.apache.kafka.common.serialization.StringSerializer;
 import org.junit.Test;
+import org.voltdb.VoltType;
+import org.voltdb.export.AdvertisedDataSource;
 import org.voltdb.exportclient.ExportClientTestBase;
 import org.voltdb.exportclient.ExportDecoderBase.BinaryEncoding;
+import org.voltdb.exportclient.ExportRow;
+import org.voltdb.exportclient.kafka.KafkaExportClient.KafkaExportDecoder;
+
+import com.google_voltpatches.common.util.concurrent.ListenableFuture;
 
 public class TestKafkaExportClient extends ExportClientTestBase {
     @Test
@@ -94,4 +112,75 @@ public class TestKafkaExportClient extends ExportClientTestBase {
         } catch (IllegalArgumentException e) {
         }
     }
+
+    @Test
+    public void testPipelinedSends() throws Exception
+    {
+        final Node broker = new Node(0, "fakehost", 9092);
+        final List<PartitionInfo> partitions = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            partitions.add(new PartitionInfo("voltdbexportpipelined", i, broker, new Node[] { broker }, new Node[] { broker }));
+        }
+        final Cluster cluster = new Cluster(Collections.singletonList(broker), partitions, Collections.<String>emptySet());
+        final MockProducer<String, String> producer =
+                new MockProducer<>(cluster, false, null, new StringSerializer(), new StringSerializer());
+        final KafkaExportClient client = new KafkaExportClient() {
+            @Override
+            Producer<String, String> createProducer() {
+                return producer;
+            }
+        };
+        final Properties config = new Properties();
+        config.setProperty(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, "fakehost");
+        config.setProperty("pipeline.depth", "4");
+        client.configure(config);
+        assertEquals("all", client.m_producerConfig.getProperty(ProducerConfig.ACKS_CONFIG));
+        assertEquals("1", client.m_producerConfig.getProperty(ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION));
+        assertFalse(client.m_producerConfig.containsKey("pipeline.depth"));
+
+        final ArrayList<String> names = new ArrayList<>(Arrays.asList("id", "value"));
+        final ArrayList<VoltType> types = new ArrayList<>(Arrays.asList(VoltType.BIGINT, VoltType.STRING));
+        final List<Integer> lengths = Arrays.asList(0, 64);
+        final AdvertisedDataSource source = new AdvertisedDataSource(6, "foo", "pipelined", "id", 0, 32,
+                names, types, lengths, AdvertisedDataSource.ExportFormat.SEVENDOTX);
+        final KafkaExportDecoder decoder = (KafkaExportDecoder) client.constructExportDecoder(source);
+        assertEquals(4, decoder.getMaxBlocksInFlight());
+
+        final ExportRow[] rows = new ExportRow[3];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = new ExportRow("pipelined", names, types, lengths, new Object[] { (long) i, "row" + i }, (long) i, 0, 6, 32);
+        }
+        // The second block is sent before the first one is acked
+        decoder.onBlockStart(rows[0]);
+        decoder.processRow(rows[0]);
+        decoder.processRow(rows[1]);
+        ListenableFuture<?> first = decoder.onBlockSent(rows[1]);
+        decoder.onBlockStart(rows[2]);
+        decoder.processRow(rows[2]);
+        ListenableFuture<?> second = decoder.onBlockSent(rows[2]);
+        assertFalse(first.isDone());
+        assertFalse(second.isDone());
+
+        // Every row of the VoltDB partition goes to the same Kafka partition
+        assertEquals(3, producer.history().size());
+        for (ProducerRecord<String, String> record : producer.history()) {
+            assertEquals(Integer.valueOf(6 % partitions.size()), record.partition());
+        }
+
+        assertTrue(producer.completeNext());
+        assertFalse(first.isDone());
+        assertTrue(producer.completeNext());
+        assertTrue(first.isDone());
+        first.get();
+        assertFalse(second.isDone());
+
+        assertTrue(producer.errorNext(new RuntimeException("broker went away")));
+        assertTrue(second.isDone());
+        try {
+            second.get();
+            fail("Failed send should fail the block");
+        } catch (ExecutionException expected) {
+        }
+        decoder.sourceNoLongerAdvertised(source);
+    }
 }
@@ -339,6 +339,11 @@ public class PlannerTestCase extends TestCase {
         m_aide = new PlannerTestAideDeCamp(ddlURL, basename);
     }
 
+    /** Whether the following compiles may plan hash joins. */
+    protected void setHashJoinEnabled(boolean enabled) {
+        m_aide.hashJoinEnabled = enabled;
+    }
+
     public String getCatalogString() {
         return m_aide.getCatalogString();
     }
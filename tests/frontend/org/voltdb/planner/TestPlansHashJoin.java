@@ -0,0 +1,113 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb.planner;
+
+import java.util.List;
+
+import org.json_voltpatches.JSONException;
+import org.json_voltpatches.JSONObject;
+import org.voltdb.expressions.TupleValueExpression;
+import org.voltdb.plannodes.AbstractPlanNode;
+import org.voltdb.plannodes.HashJoinPlanNode;
+import org.voltdb.plannodes.PlanNodeTree;
+import org.voltdb.plannodes.SeqScanPlanNode;
+import org.voltdb.types.JoinType;
+import org.voltdb.types.PlanNodeType;
+
+public class TestPlansHashJoin extends PlannerTestCase {
+
+    private HashJoinPlanNode getHashJoin(String query) {
+        AbstractPlanNode pn = compile(query);
+        List<AbstractPlanNode> hashJoins = pn.findAllNodesOfType(PlanNodeType.HASHJOIN);
+        assertEquals(1, hashJoins.size());
+        assertTrue(pn.findAllNodesOfType(PlanNodeType.NESTLOOP).isEmpty());
+        return (HashJoinPlanNode) hashJoins.get(0);
+    }
+
+    private void assertNoHashJoin(String query) {
+        AbstractPlanNode pn = compile(query);
+        assertTrue(pn.findAllNodesOfType(PlanNodeType.HASHJOIN).isEmpty());
+    }
+
+    private static void assertHashKey(HashJoinPlanNode hj, int key, String outerColumn, String innerColumn) {
+        TupleValueExpression outer = (TupleValueExpression) hj.getOuterHashExpressions().get(key);
+        TupleValueExpression inner = (TupleValueExpression) hj.getInnerHashExpressions().get(key);
+        assertEquals(outerColumn, outer.getTableAlias() + "." + outer.getColumnName());
+        assertEquals(innerColumn, inner.getTableAlias() + "." + inner.getColumnName());
+    }
+
+    public void testEquiJoins() {
+        HashJoinPlanNode hj = getHashJoin("SELECT * FROM R1 JOIN R2 ON R1.C = R2.C");
+        assertEquals(JoinType.INNER, hj.getJoinType());
+        assertEquals(1, hj.getOuterHashExpressions().size());
+        assertNotNull(hj.getJoinPredicate());
+        assertEquals(PlanNodeType.SEQSCAN, hj.getChild(0).getPlanNodeType());
+        assertEquals(PlanNodeType.SEQSCAN, hj.getChild(1).getPlanNodeType());
+        String outer = ((SeqScanPlanNode) hj.getChild(0)).getTargetTableName();
+        String inner = outer.equals("R1") ? "R2" : "R1";
+        assertHashKey(hj, 0, outer + ".C", inner + ".C");
+
+        // Both equalities become keys, the comparison is left to the join predicate
+        hj = getHashJoin("SELECT * FROM R1 JOIN R2 ON R1.C = R2.C AND R2.A = R1.A AND R1.D > R2.A");
+        assertEquals(2, hj.getOuterHashExpressions().size());
+
+        hj = getHashJoin("SELECT R1.A, R2.A FROM R1 LEFT JOIN R2 ON R1.C = R2.C WHERE R2.A IS NULL");
+        assertEquals(JoinType.LEFT, hj.getJoinType());
+        assertHashKey(hj, 0, "R1.C", "R2.C");
+        assertNotNull(hj.getWherePredicate());
+        assertTrue(hj.toExplainPlanString().contains("HASH LEFT JOIN"));
+    }
+
+    public void testJoinsThatKeepNestedLoops() {
+        // No equality between the two sides
+        assertNoHashJoin("SELECT * FROM R1 JOIN R2 ON R1.C > R2.C");
+        assertNoHashJoin("SELECT * FROM R1 JOIN R2 ON R1.C + 1 = R2.C");
+        // FULL joins have to find the unmatched inner tuples
+        assertNoHashJoin("SELECT * FROM R1 FULL JOIN R2 ON R1.C = R2.C");
+        // An outer side of a single row is cheaper to loop over
+        assertNoHashJoin("SELECT * FROM R5 JOIN R1 ON R5.C = R1.C WHERE R5.A = ?");
+    }
+
+    public void testDisabled() {
+        setHashJoinEnabled(false);
+        assertNoHashJoin("SELECT * FROM R1 JOIN R2 ON R1.C = R2.C");
+    }
+
+    public void testLoadFromJSON() throws JSONException {
+        AbstractPlanNode pn = compile("SELECT R1.A, R2.A FROM R1 LEFT JOIN R2 ON R1.C = R2.C AND R1.A = R2.A");
+        PlanNodeTree pnt = new PlanNodeTree(pn);
+        String str = pnt.toJSONString();
+        assertTrue(str.contains("OUTER_HASH_EXPRESSIONS"));
+        PlanNodeTree pnt1 = new PlanNodeTree();
+        pnt1.loadFromJSONPlan(new JSONObject(str), getDatabase());
+        assertEquals(str, pnt1.toJSONString());
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        setupSchema(TestJoinOrder.class.getResource("testplans-join-ddl.sql"),
+                "testplanshashjoin", false);
+        setHashJoinEnabled(true);
+    }
+}
@@ -95,6 +95,54 @@ public class TestCRUDSuite extends RegressionSuite {
         assertEquals(0, resp.getResults()[0].asScalarLong());
     }
 
+    /**
+     * P1.insert and P1.upsert run without undo, a failed call must leave
+     * neither a row nor an index entry behind.
+     */
+    public void testFailedDefaultWriteLeavesTableUnchanged() throws Exception
+    {
+        final Client client = this.getClient();
+        ClientResponse resp = client.callProcedure("P1.insert", 1, "A");
+        assertEquals(ClientResponse.SUCCESS, resp.getStatus());
+
+        try {
+            client.callProcedure("P1.insert", 1, "B");
+            fail();
+        } catch (ProcCallException e) {
+            assertEquals(ClientResponse.GRACEFUL_FAILURE, e.getClientResponse().getStatus());
+        }
+        try {
+            client.callProcedure("P1.insert", 2, "TOO LONG FOR A2");
+            fail();
+        } catch (ProcCallException e) {
+            assertEquals(ClientResponse.GRACEFUL_FAILURE, e.getClientResponse().getStatus());
+        }
+        try {
+            client.callProcedure("P1.upsert", 1, "TOO LONG FOR A2");
+            fail();
+        } catch (ProcCallException e) {
+            assertEquals(ClientResponse.GRACEFUL_FAILURE, e.getClientResponse().getStatus());
+        }
+
+        resp = client.callProcedure("CountP1");
+        assertEquals(1, resp.getResults()[0].asScalarLong());
+        VoltTable vt = client.callProcedure("P1.select", 1).getResults()[0];
+        assertTrue(vt.advanceRow());
+        assertEquals("A", vt.getString(1));
+        assertFalse(client.callProcedure("P1.select", 2).getResults()[0].advanceRow());
+
+        // The failed calls left no index entry behind either
+        resp = client.callProcedure("P1.insert", 2, "C");
+        assertEquals(ClientResponse.SUCCESS, resp.getStatus());
+        resp = client.callProcedure("P1.upsert", 1, "D");
+        assertEquals(ClientResponse.SUCCESS, resp.getStatus());
+        resp = client.callProcedure("CountP1");
+        assertEquals(2, resp.getResults()[0].asScalarLong());
+        vt = client.callProcedure("P1.select", 1).getResults()[0];
+        assertTrue(vt.advanceRow());
+        assertEquals("D", vt.getString(1));
+    }
+
     public void testMultiColPk() throws Exception
     {
         // P4(z INTEGER, x VARCHAR(10), y INTEGER,
@@ -0,0 +1,156 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb.regressionsuites;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.voltdb.BackendTarget;
+import org.voltdb.VoltTable;
+import org.voltdb.client.Client;
+import org.voltdb.client.ClientResponse;
+import org.voltdb.compiler.VoltProjectBuilder;
+
+/**
+ * Runs equi-joins as hash joins and compares them with the same joins
+ * run as nested loops. The servers plan with HASH_JOIN=true.
+ */
+public class TestHashJoinSuite extends RegressionSuite {
+
+    private static final String[] JOINS = {"JOIN", "LEFT JOIN"};
+
+    // The temp table memory limit of the servers, in MB
+    private static final int TEMP_TABLE_MAX_SIZE = 32;
+
+    private static String joinQuery(String join, String condition) {
+        return "SELECT L.ID, R.ID, CHAR_LENGTH(R.PAD) FROM L " + join + " R ON " + condition +
+                " ORDER BY 1, 2";
+    }
+
+    private void insert(Client client, String table, int id, Integer key, String pad) throws Exception {
+        ClientResponse cr = client.callProcedure(table + ".insert", id, key, pad);
+        assertEquals(ClientResponse.SUCCESS, cr.getStatus());
+    }
+
+    private void assertPlan(Client client, String query, boolean hashJoin) throws Exception {
+        String plan = client.callProcedure("@Explain", query).getResults()[0].fetchRow(0).getString(0);
+        assertEquals(plan, hashJoin, plan.contains("HASH"));
+    }
+
+    public void testMatchesNestedLoops() throws Exception {
+        Client client = getClient();
+        // NULL keys on both sides, duplicate keys and keys without a match
+        Integer[] outerKeys = {1, 1, 2, null, 7, 3, null};
+        Integer[] innerKeys = {1, 1, 2, null, 3, 2, 8};
+        for (int i = 0; i < outerKeys.length; ++i) {
+            insert(client, "L", i, outerKeys[i], null);
+        }
+        for (int i = 0; i < innerKeys.length; ++i) {
+            insert(client, "R", 100 + i, innerKeys[i], i % 2 == 0 ? null : "pad" + i);
+        }
+
+        for (String join : JOINS) {
+            String hashQuery = joinQuery(join, "L.K = R.K");
+            // A key that is an expression keeps the nested loop join
+            String nestedLoopQuery = joinQuery(join, "L.K + 0 = R.K");
+            assertPlan(client, hashQuery, true);
+            assertPlan(client, nestedLoopQuery, false);
+
+            VoltTable expected = client.callProcedure("@AdHoc", nestedLoopQuery).getResults()[0];
+            VoltTable actual = client.callProcedure("@AdHoc", hashQuery).getResults()[0];
+            assertTablesAreEqual(join + ": ", expected, actual);
+            // The same through large temp tables
+            actual = client.callProcedure("@AdHocLarge", hashQuery).getResults()[0];
+            assertTablesAreEqual(join + " (large): ", expected, actual);
+        }
+    }
+
+    public void testSpill() throws Exception {
+        if (isValgrind()) {
+            // large queries need IPC support
+            return;
+        }
+        Client client = getClient();
+        // The inner table a left join builds on is larger than the temp table memory limit,
+        // so the hash join partitions its inputs on disk. A nested loop join over it would
+        // reload its blocks for every outer tuple, compare with the expected rows instead.
+        StringBuilder pad = new StringBuilder();
+        for (int i = 0; i < 50000; ++i) {
+            pad.append('x');
+        }
+        final int innerRows = 900;
+        final int outerRows = 400;
+        assertTrue((long) innerRows * pad.length() > TEMP_TABLE_MAX_SIZE * 1024L * 1024L);
+        for (int i = 0; i < innerRows; ++i) {
+            insert(client, "R", i, i % 300, pad.toString());
+        }
+        for (int i = 0; i < outerRows; ++i) {
+            insert(client, "L", i, i % 50 == 0 ? null : i, null);
+        }
+
+        List<Object[]> expected = new ArrayList<>();
+        for (int outer = 0; outer < outerRows; ++outer) {
+            if (outer % 50 == 0 || outer >= 300) {
+                expected.add(new Object[] {outer, null, null});
+                continue;
+            }
+            for (int inner = outer; inner < innerRows; inner += 300) {
+                expected.add(new Object[] {outer, inner, pad.length()});
+            }
+        }
+
+        String query = joinQuery("LEFT JOIN", "L.K = R.K");
+        assertPlan(client, query, true);
+        ClientResponse cr = client.callProcedure("@AdHocLarge", query);
+        assertEquals(ClientResponse.SUCCESS, cr.getStatus());
+        assertContentOfTable(expected.toArray(new Object[0][]), cr.getResults()[0]);
+    }
+
+    public TestHashJoinSuite(String name) {
+        super(name);
+    }
+
+    static public junit.framework.Test suite() throws Exception {
+        MultiConfigSuiteBuilder builder = new MultiConfigSuiteBuilder(TestHashJoinSuite.class);
+        VoltProjectBuilder project = new VoltProjectBuilder();
+        project.addLiteralSchema(
+                "CREATE TABLE L (ID INTEGER NOT NULL, K INTEGER, PAD VARCHAR(100000 BYTES));" +
+                "CREATE TABLE R (ID INTEGER NOT NULL, K INTEGER, PAD VARCHAR(100000 BYTES));");
+        project.setQueryTimeout(1000 * 60 * 5); // five minutes
+
+        // The planner switch and the temp table limit are read by the server process
+        Map<String, String> additionalEnv = new HashMap<>();
+        additionalEnv.put("HASH_JOIN", "true");
+        additionalEnv.put("TEMP_TABLE_MAX_SIZE", Integer.toString(TEMP_TABLE_MAX_SIZE));
+        LocalCluster config = new LocalCluster("hashjoin-onesite.jar", 1, 1, 0, BackendTarget.NATIVE_EE_JNI,
+                LocalCluster.FailureState.ALL_RUNNING, false, additionalEnv);
+        config.setHasLocalServer(false);
+        assertTrue(config.compile(project));
+        builder.addServerConfig(config);
+
+        return builder;
+    }
+}
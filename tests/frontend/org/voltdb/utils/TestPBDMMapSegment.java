@@ -0,0 +1,185 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.voltcore.utils.DBBPool;
+import org.voltcore.utils.DBBPool.BBContainer;
+import org.voltdb.utils.BinaryDeque.OutputContainerFactory;
+import org.voltdb.utils.PBDSegment.PBDSegmentReader;
+
+public class TestPBDMMapSegment {
+
+    private static final File TEST_DIR = TestPersistentBinaryDeque.TEST_DIR;
+    private static final String CURSOR_ID = "testMMap";
+
+    private static final OutputContainerFactory FACTORY = new OutputContainerFactory() {
+        @Override
+        public BBContainer getContainer(int minimumSize) {
+            return DBBPool.allocateDirect(minimumSize);
+        }
+    };
+
+    private File m_file;
+
+    private static ByteBuffer getFilledBuffer(int size, long fillValue) {
+        ByteBuffer buf = ByteBuffer.allocateDirect(size);
+        while (buf.remaining() > 7) {
+            buf.putLong(fillValue);
+        }
+        buf.clear();
+        return buf;
+    }
+
+    private static void checkBuffer(BBContainer cont, int size, long fillValue) {
+        try {
+            assertEquals(size, cont.b().remaining());
+            while (cont.b().remaining() > 7) {
+                assertEquals(fillValue, cont.b().getLong());
+            }
+        } finally {
+            cont.discard();
+        }
+    }
+
+    @Test
+    public void testOfferAndPollAcrossReopen() throws Exception {
+        PBDMMapSegment segment = new PBDMMapSegment(0L, m_file);
+        segment.openForWrite(true);
+        PBDSegmentReader reader = segment.openForRead(CURSOR_ID);
+        assertNull(reader.poll(FACTORY));
+
+        for (int ii = 0; ii < 10; ii++) {
+            assertTrue(segment.offer(DBBPool.wrapBB(getFilledBuffer(4096, ii)), ii % 2 == 0));
+        }
+        assertEquals(10, segment.getNumEntries());
+        assertEquals(10 * 4096, segment.size());
+
+        // The reader sees objects offered while it is open
+        for (int ii = 0; ii < 5; ii++) {
+            checkBuffer(reader.poll(FACTORY), 4096, ii);
+        }
+        assertEquals(5 * 4096, reader.uncompressedBytesToRead());
+        segment.sync();
+        segment.close();
+
+        // The mapping of a segment being written covers the whole chunk, closing gives the space back
+        assertTrue(m_file.length() < PBDSegment.CHUNK_SIZE);
+
+        segment = new PBDMMapSegment(0L, m_file);
+        assertEquals(10, segment.getNumEntries());
+        reader = segment.openForRead(CURSOR_ID);
+        for (int ii = 0; ii < 10; ii++) {
+            assertTrue(reader.hasMoreEntries());
+            checkBuffer(reader.poll(FACTORY), 4096, ii);
+        }
+        assertFalse(reader.hasMoreEntries());
+        assertTrue(reader.allReadAndDiscarded());
+        reader.close();
+        assertTrue(segment.isClosed());
+    }
+
+    @Test
+    public void testAppendAfterReopenForWrite() throws Exception {
+        PBDMMapSegment segment = new PBDMMapSegment(0L, m_file);
+        segment.openForWrite(true);
+        for (int ii = 0; ii < 3; ii++) {
+            assertTrue(segment.offer(DBBPool.wrapBB(getFilledBuffer(1024, ii)), false));
+        }
+        segment.close();
+        final long length = m_file.length();
+        assertEquals(PBDSegment.SEGMENT_HEADER_BYTES + 3 * (PBDSegment.OBJECT_HEADER_BYTES + 1024), length);
+
+        segment.openForWrite(false);
+        assertTrue(segment.offer(DBBPool.wrapBB(getFilledBuffer(1024, 3)), false));
+        segment.close();
+        assertEquals(length + PBDSegment.OBJECT_HEADER_BYTES + 1024, m_file.length());
+
+        // Same format as the regular segment
+        PBDRegularSegment regular = new PBDRegularSegment(0L, m_file);
+        assertEquals(4, regular.getNumEntries());
+        PBDSegmentReader reader = regular.openForRead(CURSOR_ID);
+        for (int ii = 0; ii < 4; ii++) {
+            checkBuffer(reader.poll(FACTORY), 1024, ii);
+        }
+        regular.close();
+    }
+
+    @Test
+    public void testIndependentReaders() throws Exception {
+        PBDMMapSegment segment = new PBDMMapSegment(0L, m_file);
+        segment.openForWrite(true);
+        for (int ii = 0; ii < 4; ii++) {
+            assertTrue(segment.offer(DBBPool.wrapBB(getFilledBuffer(512, ii)), false));
+        }
+        PBDSegmentReader first = segment.openForRead("first");
+        PBDSegmentReader second = segment.openForRead("second");
+        checkBuffer(first.poll(FACTORY), 512, 0);
+        checkBuffer(first.poll(FACTORY), 512, 1);
+        checkBuffer(second.poll(FACTORY), 512, 0);
+        checkBuffer(first.poll(FACTORY), 512, 2);
+        checkBuffer(second.poll(FACTORY), 512, 1);
+        assertEquals(3, first.readIndex());
+        assertEquals(2, second.readIndex());
+        assertFalse(segment.hasAllFinishedReading());
+        segment.close();
+    }
+
+    @Test
+    public void testFullSegmentRefusesOffer() throws Exception {
+        PBDMMapSegment segment = new PBDMMapSegment(0L, m_file);
+        segment.openForWrite(true);
+        final int size = 1024 * 1024 * 2;
+        int offered = 0;
+        while (segment.offer(DBBPool.wrapBB(getFilledBuffer(size, offered)), false)) {
+            offered++;
+        }
+        assertTrue(offered > 0);
+        assertEquals(offered, segment.getNumEntries());
+        segment.close();
+        assertTrue(m_file.length() <= PBDSegment.CHUNK_SIZE);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        TestPersistentBinaryDeque.setupTestDir();
+        m_file = new VoltFile(TEST_DIR, "mmap_nonce.0.pbd");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TestPersistentBinaryDeque.tearDownTestDir();
+    }
+}